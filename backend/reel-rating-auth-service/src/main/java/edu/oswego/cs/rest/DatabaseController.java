@@ -1,37 +1,151 @@
 package edu.oswego.cs.rest;
 
+import java.util.function.Consumer;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Updates;
 
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
 public class DatabaseController {
   
   String mongoDatabaseName = System.getenv("MONGO_CRED_DATABASE_NAME");
-  String mongoURL = System.getenv("MONGO_CRED_URL");
+  static String mongoURL = System.getenv("MONGO_CRED_URL");
+
+  private static MongoClient mongoClient;
+  // from before a checkpoint until the restore, when no client may be opened
+  private static boolean checkpointing;
+  private static volatile boolean usernameIndexReady;
+
+  /**
+   * The client is shared by every DatabaseController so that requests reuse one connection pool.
+   * Command and connection pool listeners are registered on it to publish Mongo metrics.
+   */
+  static synchronized MongoClient getMongoClient() {
+      while (checkpointing) {
+          try {
+              DatabaseController.class.wait();
+          } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IllegalStateException("Interrupted while waiting for the restore", e);
+          }
+      }
+      if (mongoClient == null) {
+          MongoClientSettings settings = MongoClientSettings.builder()
+              .applyConnectionString(new ConnectionString(mongoURL))
+              .addCommandListener(new MongoCommandMetricsListener(DatabaseController::getMongoClient))
+              .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(new MongoPoolMetricsListener()))
+              .build();
+          mongoClient = MongoClients.create(settings);
+      }
+      return mongoClient;
+  }
+
+  /**
+   * Closes the shared client before a checkpoint. Until {@link #restored()} every use of it waits,
+   * so no connection is opened again before the checkpoint is taken.
+   */
+  static synchronized void closeForCheckpoint() {
+      checkpointing = true;
+      if (mongoClient != null) {
+          mongoClient.close();
+          mongoClient = null;
+      }
+  }
+
+  /**
+   * Reads <code>MONGO_CRED_URL</code> from the restored environment and lets the uses waiting
+   * since the checkpoint go on with a new client.
+   */
+  static synchronized void restored() {
+      mongoURL = System.getenv("MONGO_CRED_URL");
+      checkpointing = false;
+      DatabaseController.class.notifyAll();
+  }
 
   public MongoDatabase getUserCredentialsDatabase() {
-      MongoClient mongoClient = MongoClients.create(mongoURL);
-      return mongoClient.getDatabase(mongoDatabaseName);
+      return getMongoClient().getDatabase(mongoDatabaseName);
   }
 
   public MongoCollection<Document> getUserCollection() {
     return getUserCredentialsDatabase().getCollection("users");
   }
 
-  public void createUser(String username, String password, String sessionId, String dateTime) {
+  /**
+   * Creates the unique index on <code>users.username</code> if it is missing. It fails if the
+   * collection already holds duplicate usernames, and then registration keeps checking the
+   * database before every insert.
+   */
+  public void createUsernameIndex() {
+      getUserCollection().createIndex(Indexes.ascending("username"), new IndexOptions().unique(true));
+      usernameIndexReady = true;
+  }
+
+  /**
+   * @return whether the unique username index is known to exist, so a duplicate registration is
+   *         rejected by Mongo even if it was not checked for first
+   */
+  public boolean hasUsernameIndex() {
+      return usernameIndexReady;
+  }
+
+  /**
+   * @return false if the username is already taken
+   */
+  public boolean createUser(String username, String password, String sessionId, String dateTime) {
       var users = getUserCollection();
       var userDocument = new Document();
       userDocument.put("username", username);
       userDocument.put("password", password);
       userDocument.put("sessionId", sessionId);
       userDocument.put("dateTime", dateTime);
-      users.insertOne(userDocument);
+      try {
+          users.insertOne(userDocument);
+      } catch (MongoWriteException e) {
+          if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+              throw e;
+          }
+          UsernameFilter.getInstance().add(username);
+          return false;
+      }
+      UsernameFilter.getInstance().add(username);
+      return true;
+  }
+
+  public void forEachUsername(Consumer<String> action) {
+      MongoCollection<Document> users = getUserCollection();
+      users.find().projection(Projections.include("username")).forEach(document -> {
+          String username = document.getString("username");
+          if (username != null) {
+              action.accept(username);
+          }
+      });
+  }
+
+  /**
+   * @param after only users whose _id is greater, which for driver generated ids means created later
+   */
+  public void forEachUsernameSince(ObjectId after, Consumer<String> action) {
+      MongoCollection<Document> users = getUserCollection();
+      users.find(Filters.gt("_id", after)).projection(Projections.include("username")).forEach(document -> {
+          String username = document.getString("username");
+          if (username != null) {
+              action.accept(username);
+          }
+      });
   }
 
   public boolean checkIfUserExists(String username) {
@@ -53,6 +167,13 @@ public class DatabaseController {
       users.updateOne(filter, updateOperation);
   }
 
+  public void setPassword(String username, String password) {
+      MongoCollection<Document> users = getUserCollection();
+      Bson filter = Filters.eq("username", username);
+      Bson updateOperation = Updates.set("password", password);
+      users.updateOne(filter, updateOperation);
+  }
+
   public String getUsername(String sessionId) {
       MongoCollection<Document> users = getUserCollection();
       Bson filter = Filters.eq("sessionId", sessionId);
@@ -32,6 +32,7 @@ public class JwtAuthService {
     Set<String> roles = new HashSet<>();
     roles.add("user");
 
+    long signingStarted = System.nanoTime();
     String jwt = JwtBuilder.create("reel_rating_token")
       .claim("sub", "reel_rating")
       .claim("upn", username)
@@ -39,6 +40,7 @@ public class JwtAuthService {
       .claim("aud", "reel-rating")
       .claim("iss", AUTH_SERVICE_URL)
       .buildJwt().compact();
+    RequestTimings.addAuth(System.nanoTime() - signingStarted);
 
       return Response.ok(jwt).build();
   }
@@ -0,0 +1,109 @@
+package edu.oswego.cs.rest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the latency histograms for every route and the most recent slow requests.
+ *
+ * <p>Each route template (for example <code>POST /movie/getByTitle/{title}</code>) gets a histogram
+ * of total time and one per phase (database, auth, serialization). Requests slower than
+ * <code>SLOW_REQUEST_MS</code> (default 250) are also copied into a ring buffer of the last
+ * <code>SLOW_REQUEST_SAMPLES</code> (default 100) slow requests with their breakdown, so an
+ * outlier in the p999 can be traced back to what it spent its time on.</p>
+ */
+public final class LatencyRecorder {
+
+  private static final long STARTED_NANOS = System.nanoTime();
+  private static final Map<String, RouteLatency> ROUTES = new ConcurrentSkipListMap<>();
+  private static final long SLOW_REQUEST_NANOS = TimeUnit.MILLISECONDS.toNanos(longFromEnv("SLOW_REQUEST_MS", 250));
+  private static final AtomicReferenceArray<SlowRequest> SLOW_REQUESTS =
+      new AtomicReferenceArray<>((int) longFromEnv("SLOW_REQUEST_SAMPLES", 100));
+  private static final AtomicLong SLOW_REQUEST_COUNT = new AtomicLong();
+
+  private LatencyRecorder() {}
+
+  static void record(String route, int status, RequestTimings timings, long endNanos) {
+    long totalNanos = endNanos - timings.startNanos;
+    RouteLatency latency = ROUTES.computeIfAbsent(route, ignored -> new RouteLatency());
+    latency.total.recordNanos(totalNanos);
+    latency.database.recordNanos(timings.databaseNanos);
+    latency.auth.recordNanos(timings.authNanos);
+    latency.serialization.recordNanos(timings.serializationNanos);
+    if (status >= 500) {
+      latency.serverErrors.incrementAndGet();
+    }
+    if (totalNanos >= SLOW_REQUEST_NANOS) {
+      int slot = (int) (SLOW_REQUEST_COUNT.getAndIncrement() % SLOW_REQUESTS.length());
+      SLOW_REQUESTS.set(slot, new SlowRequest(route, status, Instant.now(), totalNanos, timings));
+    }
+  }
+
+  static Map<String, RouteLatency> getRoutes() {
+    return ROUTES;
+  }
+
+  static double getUptimeSeconds() {
+    return (System.nanoTime() - STARTED_NANOS) / 1e9;
+  }
+
+  /**
+   * @return the slow requests currently in the ring buffer, slowest first
+   */
+  static List<SlowRequest> getSlowRequests() {
+    List<SlowRequest> requests = new ArrayList<>();
+    for (int i = 0; i < SLOW_REQUESTS.length(); i++) {
+      SlowRequest request = SLOW_REQUESTS.get(i);
+      if (request != null) {
+        requests.add(request);
+      }
+    }
+    requests.sort(Comparator.comparingLong((SlowRequest request) -> request.totalNanos).reversed());
+    return requests;
+  }
+
+  static final class RouteLatency {
+    final LatencyHistogram total = new LatencyHistogram();
+    final LatencyHistogram database = new LatencyHistogram();
+    final LatencyHistogram auth = new LatencyHistogram();
+    final LatencyHistogram serialization = new LatencyHistogram();
+    final AtomicLong serverErrors = new AtomicLong();
+  }
+
+  static final class SlowRequest {
+    final String route;
+    final int status;
+    final Instant finishedAt;
+    final long totalNanos;
+    final long databaseNanos;
+    final int databaseCalls;
+    final long authNanos;
+    final long serializationNanos;
+
+    SlowRequest(String route, int status, Instant finishedAt, long totalNanos, RequestTimings timings) {
+      this.route = route;
+      this.status = status;
+      this.finishedAt = finishedAt;
+      this.totalNanos = totalNanos;
+      this.databaseNanos = timings.databaseNanos;
+      this.databaseCalls = timings.databaseCalls;
+      this.authNanos = timings.authNanos;
+      this.serializationNanos = timings.serializationNanos;
+    }
+  }
+
+  private static long longFromEnv(String name, long defaultValue) {
+    String configured = System.getenv(name);
+    if (configured == null || configured.isBlank()) {
+      return defaultValue;
+    }
+    return Long.parseLong(configured.trim());
+  }
+}
@@ -2,14 +2,17 @@ package edu.oswego.cs.rest;
 
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import jakarta.enterprise.context.RequestScoped;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
@@ -23,7 +26,9 @@ public class LoginService {
    * Provides a way for the user to login into our system(Opening a window of time for their
    * session to generate JWTs). A User Json with a provided username and password is consumed.
    * If the username exists and the password is validated an Ok reponse is returned.
-   * Otherwise an Unauthorized Response is returned.
+   * Otherwise an Unauthorized Response is returned. Passwords stored with an outdated hash are
+   * rehashed with the current settings after a successful login. If the password hashing pool is
+   * saturated a Service Unavailable Response is returned.
    * @param request Contains the needed session id of the user.
    * @param user A Json Containing a String username and String password.
    * @return Either an Ok Reponse or Unauthorized Response.
@@ -36,7 +41,15 @@ public class LoginService {
     DatabaseController db = new DatabaseController();
     String username = user.getUsername().toLowerCase();
     if (db.checkIfUserExists(username)) {
-      if (SecurityUtils.validatePassword(user.getPassword(), db.getPassword(username))) {
+      String storedPassword = db.getPassword(username);
+      boolean validPassword;
+      try {
+        validPassword = SecurityUtils.validatePassword(user.getPassword(), storedPassword);
+      } catch (PasswordHashingUnavailableException e) {
+        return hashingUnavailable();
+      }
+      if (validPassword) {
+        upgradePasswordHash(db, username, user.getPassword(), storedPassword);
         String sessionId = request.getSession().getId();
         db.setUserSessionId(username, sessionId);
         String dateTime = LocalDateTime.now().toString();
@@ -51,7 +64,10 @@ public class LoginService {
   /**
    * Provides a way for a new user to be registered. A User Json with an associated username and password
    * is consumed. If the username and password meet our specifications an Ok Reponse is returned. Otherwise
-   * an Unauthorized Response is returned.
+   * an Unauthorized Response is returned, also when the username is already taken. If the password hashing
+   * pool is saturated a Service Unavailable Response is returned. A username the {@link UsernameFilter} has
+   * never seen is not looked up first, but only while the unique username index guarantees that a name
+   * registered elsewhere in the meantime is still rejected by the insert.
    * @param request An HttpServletRequest that contains the new users current session id.
    * @param user A Json containing a String username and String password.
    * @return Response (Either Ok or Unauthorized)
@@ -65,32 +81,72 @@ public class LoginService {
     String username = user.getUsername().toLowerCase();
     String password = user.getPassword();
 
-    Pattern usernameLength = Pattern.compile("[\\w!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{2,15}");
-    Matcher usernameMatcher = usernameLength.matcher(username);
-
-    Pattern passwordLength = Pattern.compile("[\\w!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{8,}");
-    Matcher passwordLengthMatcher = passwordLength.matcher(password);
-
-    Pattern passwordSpecialCharacter = Pattern.compile(".*[!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{1,}.*");
-    Matcher passwordSpecialMatcher = passwordSpecialCharacter.matcher(password);
-
-    Pattern passwordNumberRequirement = Pattern.compile(".*\\d{1,}.*");
-    Matcher passwordNumberMatcher = passwordNumberRequirement.matcher(password);
-
     // Confirm the username meets our requirements
-    if (usernameMatcher.matches()) {
+    if (RegistrationRequirements.isValidUsername(username)) {
       // Confirm the password meets the requirements
-      if (passwordLengthMatcher.matches() && passwordSpecialMatcher.matches() && passwordNumberMatcher.matches()) {
-        if (!db.checkIfUserExists(username)) {
-          String encryptedPassword = SecurityUtils.generatePassword(user.getPassword());
+      if (RegistrationRequirements.isValidPassword(password)) {
+        boolean unseen = db.hasUsernameIndex() && !UsernameFilter.getInstance().mightContain(username);
+        if (unseen || !db.checkIfUserExists(username)) {
+          String encryptedPassword;
+          try {
+            encryptedPassword = SecurityUtils.generatePassword(user.getPassword());
+          } catch (PasswordHashingUnavailableException e) {
+            return hashingUnavailable();
+          }
           String sessionId = request.getSession().getId();
           String dateTime = LocalDateTime.now().toString();
-          db.createUser(username, encryptedPassword, sessionId, dateTime);
-          String stateMessage = "Registered";
-          return Response.ok(stateMessage).build();
+          if (db.createUser(username, encryptedPassword, sessionId, dateTime)) {
+            String stateMessage = "Registered";
+            return Response.ok(stateMessage).build();
+          }
         }
       }
     }
     return Response.status(Status.UNAUTHORIZED).build();
   }
+
+  /**
+   * Lets the registration form check whether a username is still free while the user types.
+   * Usernames the {@link UsernameFilter} has never seen are answered without a database lookup;
+   * only possible matches are confirmed against the users collection.
+   * @param username the username to check, compared lowercased
+   * @return An Ok Response with a Json containing the lowercased username and whether it is available.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/available/{username}")
+  public Response checkUsernameAvailable(@PathParam("username") String username) {
+    String lowercaseUsername = username.toLowerCase();
+    boolean available = !UsernameFilter.getInstance().mightContain(lowercaseUsername)
+        || !new DatabaseController().checkIfUserExists(lowercaseUsername);
+    JsonObject body = Json.createObjectBuilder()
+        .add("username", lowercaseUsername)
+        .add("available", available)
+        .build();
+    return Response.ok(body).build();
+  }
+
+  /**
+   * Replaces a stored password hash made with an older algorithm or lower cost. This can only happen
+   * right after a successful login since it needs the plaintext password. Failing to rehash is not
+   * an error; it will be tried again on the next login.
+   * @param db the DatabaseController to store the new hash with
+   * @param username the user that just logged in
+   * @param password the users plaintext password
+   * @param storedPassword the hash the password was validated against
+   */
+  private void upgradePasswordHash(DatabaseController db, String username, String password, String storedPassword) throws NoSuchAlgorithmException {
+    if (!SecurityUtils.needsRehash(storedPassword)) {
+      return;
+    }
+    try {
+      db.setPassword(username, SecurityUtils.generatePassword(password));
+    } catch (PasswordHashingUnavailableException e) {
+      // the hashing pool is busy, keep the old hash until the next login
+    }
+  }
+
+  private Response hashingUnavailable() {
+    return Response.status(Status.SERVICE_UNAVAILABLE).header("Retry-After", "1").build();
+  }
 }
@@ -0,0 +1,249 @@
+package edu.oswego.cs.rest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.opentelemetry.api.trace.Span;
+
+/**
+ * Times every command the Mongo driver sends and counts the documents it returned or wrote,
+ * tagged by collection and operation (see {@link MongoMetrics}).
+ *
+ * <p>Commands slower than <code>MONGO_SLOW_COMMAND_MS</code> (default 100) are logged together
+ * with the shape of their filter, which is the filter with every value replaced by <code>?</code>.
+ * Slow reads are also explained in the background with the <code>queryPlanner</code> verbosity and
+ * the winning plan is logged, at most once a minute per filter shape so a slow query that is run
+ * constantly does not flood the log or the database.</p>
+ *
+ * <p>Each command is also traced as a client span through {@link MongoTracing}.</p>
+ */
+public class MongoCommandMetricsListener implements CommandListener {
+
+  private static final Logger LOGGER = Logger.getLogger(MongoCommandMetricsListener.class.getName());
+  private static final Set<String> EXPLAINABLE = Set.of("find", "aggregate", "count", "distinct");
+  private static final long EXPLAIN_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final Supplier<MongoClient> client;
+  private final long slowCommandNanos;
+  private final Map<Integer, StartedCommand> inFlight = new ConcurrentHashMap<>();
+  private final Map<String, Long> lastExplained = new ConcurrentHashMap<>();
+  private final ThreadPoolExecutor explainer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(16),
+      runnable -> {
+        Thread thread = new Thread(runnable, "mongo-slow-command-explainer");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * @param client supplies the client used to explain slow commands
+   */
+  public MongoCommandMetricsListener(Supplier<MongoClient> client) {
+    this.client = client;
+    String configured = System.getenv("MONGO_SLOW_COMMAND_MS");
+    long slowCommandMillis = configured == null || configured.isBlank() ? 100 : Long.parseLong(configured.trim());
+    this.slowCommandNanos = TimeUnit.MILLISECONDS.toNanos(slowCommandMillis);
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    String operation = event.getCommandName();
+    if ("explain".equals(operation)) {
+      return;
+    }
+    // the command document is only valid during this callback, so copy what is needed later
+    BsonDocument command = event.getCommand();
+    String collection = collectionOf(operation, command);
+    BsonDocument explainable = EXPLAINABLE.contains(operation) ? stripGenericFields(command) : null;
+    inFlight.put(event.getRequestId(),
+        new StartedCommand(collection, filterShape(operation, command), event.getDatabaseName(), explainable,
+            MongoTracing.startCommandSpan(event, collection)));
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    StartedCommand started = inFlight.remove(event.getRequestId());
+    if (started == null) {
+      return;
+    }
+    long elapsedNanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    RequestTimings.addDatabase(elapsedNanos);
+    String operation = event.getCommandName();
+    long documents = documentsIn(event.getResponse());
+    MongoMetrics.recordCommand(started.collection, operation, Duration.ofNanos(elapsedNanos), documents);
+    MongoTracing.endCommandSpan(started.span, documents, null);
+    if (elapsedNanos >= slowCommandNanos) {
+      MongoMetrics.recordSlowCommand(started.collection, operation);
+      LOGGER.warning(() -> String.format("Slow Mongo command: %s on %s.%s took %d ms, filter %s",
+          operation, started.database, started.collection, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), started.filterShape));
+      if (started.explainable != null) {
+        explainLater(started);
+      }
+    }
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    StartedCommand started = inFlight.remove(event.getRequestId());
+    RequestTimings.addDatabase(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    if (started != null) {
+      MongoMetrics.recordCommandFailure(started.collection, event.getCommandName());
+      MongoTracing.endCommandSpan(started.span, -1, event.getThrowable());
+    }
+  }
+
+  private void explainLater(StartedCommand started) {
+    String key = started.database + "." + started.collection + " " + started.filterShape;
+    long now = System.nanoTime();
+    Long previous = lastExplained.get(key);
+    if (previous != null && now - previous < EXPLAIN_INTERVAL_NANOS) {
+      return;
+    }
+    lastExplained.put(key, now);
+    try {
+      explainer.execute(() -> {
+        try {
+          BsonDocument explainCommand = new BsonDocument("explain", started.explainable)
+              .append("verbosity", new BsonString("queryPlanner"));
+          BsonDocument plan = client.get().getDatabase(started.database)
+              .runCommand(explainCommand, BsonDocument.class);
+          BsonValue winningPlan = plan.isDocument("queryPlanner")
+              ? plan.getDocument("queryPlanner").get("winningPlan")
+              : plan;
+          LOGGER.warning(() -> "Plan for slow Mongo command on " + key + ": " + winningPlan);
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.FINE, "Could not explain slow Mongo command on " + key, e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the explainer is backed up, skip this one
+    }
+  }
+
+  private static String collectionOf(String operation, BsonDocument command) {
+    BsonValue target = "getMore".equals(operation) ? command.get("collection") : command.get(operation);
+    return target != null && target.isString() ? target.asString().getValue() : "none";
+  }
+
+  private static String filterShape(String operation, BsonDocument command) {
+    BsonValue filter;
+    switch (operation) {
+      case "find":
+        filter = command.get("filter");
+        break;
+      case "count":
+        filter = command.get("query");
+        break;
+      case "aggregate":
+        filter = command.get("pipeline");
+        break;
+      case "update":
+        filter = firstStatementField(command, "updates", "q");
+        break;
+      case "delete":
+        filter = firstStatementField(command, "deletes", "q");
+        break;
+      default:
+        filter = null;
+    }
+    return filter == null ? "{}" : shapeOf(filter);
+  }
+
+  private static BsonValue firstStatementField(BsonDocument command, String statements, String field) {
+    BsonValue value = command.get(statements);
+    if (value == null || !value.isArray() || value.asArray().isEmpty() || !value.asArray().get(0).isDocument()) {
+      return null;
+    }
+    return value.asArray().get(0).asDocument().get(field);
+  }
+
+  // keeps field names and operators but replaces every value so queries with different
+  // arguments produce the same shape
+  private static String shapeOf(BsonValue value) {
+    if (value.isDocument()) {
+      StringBuilder shape = new StringBuilder("{");
+      for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+        if (shape.length() > 1) {
+          shape.append(", ");
+        }
+        shape.append(entry.getKey()).append(": ").append(shapeOf(entry.getValue()));
+      }
+      return shape.append('}').toString();
+    }
+    if (value.isArray()) {
+      BsonArray array = value.asArray();
+      return array.isEmpty() ? "[]" : "[" + shapeOf(array.get(0)) + "]";
+    }
+    return "?";
+  }
+
+  private static long documentsIn(BsonDocument response) {
+    if (response.isDocument("cursor")) {
+      BsonDocument cursor = response.getDocument("cursor");
+      for (String batch : new String[] {"firstBatch", "nextBatch"}) {
+        if (cursor.isArray(batch)) {
+          return cursor.getArray(batch).size();
+        }
+      }
+    }
+    if (response.isNumber("n")) {
+      return response.getNumber("n").longValue();
+    }
+    return -1;
+  }
+
+  // session, cluster time and read preference fields are added by the driver and are not
+  // accepted inside an explain
+  private static BsonDocument stripGenericFields(BsonDocument command) {
+    BsonDocument copy = new BsonDocument();
+    for (Map.Entry<String, BsonValue> entry : command.entrySet()) {
+      String key = entry.getKey();
+      if (!key.startsWith("$") && !key.equals("lsid") && !key.equals("txnNumber")) {
+        BsonValue value = entry.getValue();
+        if (value.isDocument()) {
+          value = value.asDocument().clone();
+        } else if (value.isArray()) {
+          value = value.asArray().clone();
+        }
+        copy.append(key, value);
+      }
+    }
+    return copy;
+  }
+
+  private static final class StartedCommand {
+    final String collection;
+    final String filterShape;
+    final String database;
+    final BsonDocument explainable;
+    final Span span;
+
+    StartedCommand(String collection, String filterShape, String database, BsonDocument explainable, Span span) {
+      this.collection = collection;
+      this.filterShape = filterShape;
+      this.database = database;
+      this.explainable = explainable;
+      this.span = span;
+    }
+  }
+}
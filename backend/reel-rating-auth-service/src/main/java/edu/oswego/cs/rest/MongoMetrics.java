@@ -0,0 +1,139 @@
+package edu.oswego.cs.rest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+
+import jakarta.enterprise.inject.spi.CDI;
+
+/**
+ * Publishes the numbers collected by {@link MongoCommandMetricsListener} and
+ * {@link MongoPoolMetricsListener} to the application MicroProfile Metrics registry, which Liberty
+ * serves in Prometheus format at <code>/metrics?scope=application</code>.
+ *
+ * <p>The driver calls the listeners outside of any CDI context, so the registry is looked up once
+ * on first use and the metrics are cached by name and tags. If no registry is available (for
+ * example when DatabaseController is used outside the server) every update is a no-op.</p>
+ *
+ *      Metrics
+ *      - mongo.command.duration     timer per collection and operation
+ *      - mongo.command.documents    histogram of documents returned or written per command
+ *      - mongo.command.failures     counter per collection and operation
+ *      - mongo.command.slow         counter of commands over the slow command threshold
+ *      - mongo.pool.checkout.wait   timer of time spent waiting for a pooled connection
+ *      - mongo.pool.checkout.failures, mongo.pool.connections.created, mongo.pool.connections.closed
+ *      - mongo.pool.connections.checkedOut gauge
+ */
+public final class MongoMetrics {
+
+  private static final Logger LOGGER = Logger.getLogger(MongoMetrics.class.getName());
+
+  private static volatile MetricRegistry registry;
+  private static volatile boolean unavailable;
+  private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+  private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+  private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+  private MongoMetrics() {}
+
+  static void recordCommand(String collection, String operation, Duration elapsed, long documents) {
+    String key = collection + '\u0000' + operation;
+    Timer timer = metric(TIMERS, key, registry -> registry.timer(
+        metadata("mongo.command.duration", "Mongo command round trip time", MetricUnits.NANOSECONDS),
+        commandTags(collection, operation)));
+    if (timer != null) {
+      timer.update(elapsed);
+    }
+    if (documents >= 0) {
+      Histogram histogram = metric(HISTOGRAMS, key, registry -> registry.histogram(
+          metadata("mongo.command.documents", "Documents returned or written by a Mongo command", MetricUnits.NONE),
+          commandTags(collection, operation)));
+      if (histogram != null) {
+        histogram.update(documents);
+      }
+    }
+  }
+
+  static void recordCommandFailure(String collection, String operation) {
+    increment("mongo.command.failures", "Mongo commands that failed", collection, operation);
+  }
+
+  static void recordSlowCommand(String collection, String operation) {
+    increment("mongo.command.slow", "Mongo commands slower than MONGO_SLOW_COMMAND_MS", collection, operation);
+  }
+
+  static void recordCheckoutWait(Duration waited) {
+    Timer timer = metric(TIMERS, "checkout", registry -> registry.timer(
+        metadata("mongo.pool.checkout.wait", "Time spent waiting to check out a pooled Mongo connection", MetricUnits.NANOSECONDS)));
+    if (timer != null) {
+      timer.update(waited);
+    }
+  }
+
+  static void incrementPoolCounter(String name, String description) {
+    Counter counter = metric(COUNTERS, name, registry -> registry.counter(metadata(name, description, MetricUnits.NONE)));
+    if (counter != null) {
+      counter.inc();
+    }
+  }
+
+  static void registerPoolGauge(Supplier<Long> checkedOut) {
+    MetricRegistry registry = registry();
+    if (registry != null) {
+      registry.gauge(metadata("mongo.pool.connections.checkedOut", "Pooled Mongo connections currently in use", MetricUnits.NONE),
+          checkedOut);
+    }
+  }
+
+  private static void increment(String name, String description, String collection, String operation) {
+    String key = name + '\u0000' + collection + '\u0000' + operation;
+    Counter counter = metric(COUNTERS, key, registry -> registry.counter(
+        metadata(name, description, MetricUnits.NONE), commandTags(collection, operation)));
+    if (counter != null) {
+      counter.inc();
+    }
+  }
+
+  private static <M> M metric(Map<String, M> cache, String key, java.util.function.Function<MetricRegistry, M> factory) {
+    M metric = cache.get(key);
+    if (metric != null) {
+      return metric;
+    }
+    MetricRegistry registry = registry();
+    if (registry == null) {
+      return null;
+    }
+    return cache.computeIfAbsent(key, ignored -> factory.apply(registry));
+  }
+
+  private static MetricRegistry registry() {
+    if (registry == null && !unavailable) {
+      try {
+        registry = CDI.current().select(MetricRegistry.class).get();
+      } catch (RuntimeException e) {
+        unavailable = true;
+        LOGGER.log(Level.FINE, "No MetricRegistry available, Mongo metrics are disabled", e);
+      }
+    }
+    return registry;
+  }
+
+  private static Metadata metadata(String name, String description, String unit) {
+    return Metadata.builder().withName(name).withDescription(description).withUnit(unit).build();
+  }
+
+  private static Tag[] commandTags(String collection, String operation) {
+    return new Tag[] {new Tag("collection", collection), new Tag("operation", operation)};
+  }
+}
@@ -0,0 +1,65 @@
+package edu.oswego.cs.rest;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Records how long requests wait for a pooled connection and how often connections are opened
+ * and closed. A steady stream of created/closed connections means the pool is churning instead
+ * of reusing connections.
+ */
+public class MongoPoolMetricsListener implements ConnectionPoolListener {
+
+  // the sync driver checks out a connection on the thread that runs the operation
+  private final ThreadLocal<Long> checkoutStarted = new ThreadLocal<>();
+  private final AtomicLong checkedOut = new AtomicLong();
+  private volatile boolean gaugeRegistered;
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    checkoutStarted.set(System.nanoTime());
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    if (!gaugeRegistered) {
+      gaugeRegistered = true;
+      MongoMetrics.registerPoolGauge(checkedOut::get);
+    }
+    checkedOut.incrementAndGet();
+    Long started = checkoutStarted.get();
+    if (started != null) {
+      checkoutStarted.remove();
+      MongoMetrics.recordCheckoutWait(Duration.ofNanos(System.nanoTime() - started));
+    }
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    checkoutStarted.remove();
+    MongoMetrics.incrementPoolCounter("mongo.pool.checkout.failures", "Failed attempts to check out a pooled Mongo connection");
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    checkedOut.decrementAndGet();
+  }
+
+  @Override
+  public void connectionCreated(ConnectionCreatedEvent event) {
+    MongoMetrics.incrementPoolCounter("mongo.pool.connections.created", "Mongo connections opened by the pool");
+  }
+
+  @Override
+  public void connectionClosed(ConnectionClosedEvent event) {
+    MongoMetrics.incrementPoolCounter("mongo.pool.connections.closed", "Mongo connections closed by the pool");
+  }
+}
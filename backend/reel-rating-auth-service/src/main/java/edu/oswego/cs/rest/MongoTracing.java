@@ -0,0 +1,75 @@
+package edu.oswego.cs.rest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.event.CommandStartedEvent;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import jakarta.enterprise.inject.spi.CDI;
+
+/**
+ * Starts a client span for every Mongo command so database round trips show up under the
+ * request that caused them in a trace.
+ *
+ * <p>The sync driver reports commands on the calling thread, so the span is parented to whatever
+ * span is current there, normally the server span MicroProfile Telemetry opened for the JAX-RS
+ * request. The Tracer is looked up through CDI on first use; without one (telemetry disabled or
+ * no server running) no spans are made.</p>
+ */
+public final class MongoTracing {
+
+  private static final Logger LOGGER = Logger.getLogger(MongoTracing.class.getName());
+
+  private static volatile Tracer tracer;
+  private static volatile boolean unavailable;
+
+  private MongoTracing() {}
+
+  static Span startCommandSpan(CommandStartedEvent event, String collection) {
+    Tracer tracer = tracer();
+    if (tracer == null) {
+      return null;
+    }
+    ServerAddress server = event.getConnectionDescription().getServerAddress();
+    return tracer.spanBuilder(event.getCommandName() + " " + event.getDatabaseName() + "." + collection)
+        .setSpanKind(SpanKind.CLIENT)
+        .setAttribute("db.system", "mongodb")
+        .setAttribute("db.name", event.getDatabaseName())
+        .setAttribute("db.operation", event.getCommandName())
+        .setAttribute("db.mongodb.collection", collection)
+        .setAttribute("net.peer.name", server.getHost())
+        .setAttribute("net.peer.port", server.getPort())
+        .startSpan();
+  }
+
+  static void endCommandSpan(Span span, long documents, Throwable failure) {
+    if (span == null) {
+      return;
+    }
+    if (documents >= 0) {
+      span.setAttribute("db.mongodb.documents", documents);
+    }
+    if (failure != null) {
+      span.recordException(failure);
+      span.setStatus(StatusCode.ERROR, failure.getMessage());
+    }
+    span.end();
+  }
+
+  private static Tracer tracer() {
+    if (tracer == null && !unavailable) {
+      try {
+        tracer = CDI.current().select(Tracer.class).get();
+      } catch (RuntimeException | LinkageError e) {
+        unavailable = true;
+        LOGGER.log(Level.FINE, "No OpenTelemetry Tracer available, Mongo command spans are disabled", e);
+      }
+    }
+    return tracer;
+  }
+}
@@ -0,0 +1,41 @@
+package edu.oswego.cs.rest;
+
+/**
+ * A strategy for turning plaintext passwords into stored hashes and checking login attempts
+ * against them.
+ *
+ * <p>Every stored hash carries enough information (algorithm, cost, salt) for the hasher that
+ * produced it to recognise and verify it later. This lets {@link SecurityUtils} keep several
+ * hashers around at once: the current one for new passwords and older ones for verifying hashes
+ * that were written before the cost or algorithm changed.</p>
+ */
+public interface PasswordHasher {
+
+    /**
+     * Salts and hashes a plaintext password.
+     * @param password the users plaintext password
+     * @return String to be stored in the database
+     */
+    String hash(String password);
+
+    /**
+     * Checks a plaintext password against a hash previously produced by this hasher.
+     * @param proposedPassword plaintext password
+     * @param storedHash hash read from the database
+     * @return <code>true</code> if the password matches; <code>false</code> otherwise
+     */
+    boolean verify(String proposedPassword, String storedHash);
+
+    /**
+     * @param storedHash hash read from the database
+     * @return <code>true</code> if this hasher is able to verify the given hash
+     */
+    boolean recognizes(String storedHash);
+
+    /**
+     * @param storedHash hash read from the database, recognised by this hasher
+     * @return <code>true</code> if the hash was made with weaker settings than this hasher now uses
+     *      and should be replaced after the next successful login
+     */
+    boolean needsRehash(String storedHash);
+}
@@ -0,0 +1,130 @@
+package edu.oswego.cs.rest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small, bounded pool that all password hashing runs on.
+ *
+ * <p>Password hashing is deliberately expensive, so letting every request thread hash at once
+ * would let a burst of logins starve the rest of the server. Instead a fixed number of threads
+ * do the hashing and a bounded queue holds the work waiting for them. When the queue is full new
+ * work is shed immediately with a {@link PasswordHashingUnavailableException} rather than piling
+ * up, and callers turn that into a 503 so clients back off.</p>
+ *
+ *      Configuration (environment variables)
+ *      - PASSWORD_HASH_THREADS      number of hashing threads (default: available processors)
+ *      - PASSWORD_HASH_QUEUE_DEPTH  hashes allowed to wait for a thread (default: as many as can
+ *                                   still finish within the timeout, see below)
+ *      - PASSWORD_HASH_TIMEOUT_MS   longest a caller waits for its hash (default: 5000)
+ *
+ * <p>A hash is CPU bound for its whole duration, so more threads than cores only make every hash
+ * slower. The default queue depth comes from the time per hash measured by
+ * PasswordHashingBenchmark ({@link Pbkdf2PasswordHasher#estimatedMillis(int)}): each thread can
+ * finish timeout / time per hash hashes within the timeout, one of which it is already running.
+ * At the default 210000 iterations that is about 500 ms per hash and a depth of 8 per thread;
+ * anything queued deeper would only time out after taking up a thread.</p>
+ */
+public class PasswordHashingExecutor {
+
+    private static final PasswordHashingExecutor INSTANCE = fromEnv();
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+
+    PasswordHashingExecutor(int threads, int queueDepth, long timeoutMillis) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueDepth),
+            runnable -> {
+                Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private static PasswordHashingExecutor fromEnv() {
+        int threads = intFromEnv("PASSWORD_HASH_THREADS", Runtime.getRuntime().availableProcessors());
+        int timeoutMillis = intFromEnv("PASSWORD_HASH_TIMEOUT_MS", 5000);
+        return new PasswordHashingExecutor(threads,
+            intFromEnv("PASSWORD_HASH_QUEUE_DEPTH",
+                defaultQueueDepth(threads, timeoutMillis, Pbkdf2PasswordHasher.iterationsFromEnv())),
+            timeoutMillis);
+    }
+
+    /**
+     * @return how many hashes can wait for one of the threads and still finish within the timeout
+     */
+    static int defaultQueueDepth(int threads, long timeoutMillis, int iterations) {
+        long perThread = timeoutMillis / Pbkdf2PasswordHasher.estimatedMillis(iterations) - 1;
+        return (int) Math.max(1, Math.min(threads * perThread, 1024));
+    }
+
+    public static PasswordHashingExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs a hashing task on the pool and waits for its result.
+     * @param task the hashing work
+     * @return the result of the task
+     * @throws PasswordHashingUnavailableException when the queue is full or the task did not finish in time
+     */
+    public <T> T run(Callable<T> task) {
+        long started = System.nanoTime();
+        try {
+            return submitAndWait(task);
+        } finally {
+            // queueing and hashing both count towards the auth phase of the request
+            RequestTimings.addAuth(System.nanoTime() - started);
+        }
+    }
+
+    private <T> T submitAndWait(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new PasswordHashingUnavailableException("password hashing queue is full", e);
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new PasswordHashingUnavailableException("password hashing timed out", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingUnavailableException("interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return number of hashes currently waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        String configured = System.getenv(name);
+        if (configured == null || configured.isBlank()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(configured.trim());
+    }
+}
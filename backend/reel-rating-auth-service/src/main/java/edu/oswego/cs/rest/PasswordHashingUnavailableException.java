@@ -0,0 +1,14 @@
+package edu.oswego.cs.rest;
+
+/**
+ * Thrown when a password could not be hashed because the {@link PasswordHashingExecutor} is
+ * saturated. The request should be retried later.
+ */
+public class PasswordHashingUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PasswordHashingUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
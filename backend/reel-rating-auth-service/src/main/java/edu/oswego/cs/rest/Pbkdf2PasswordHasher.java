@@ -0,0 +1,137 @@
+package edu.oswego.cs.rest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * PBKDF2-HMAC-SHA512 password hasher with a tunable iteration count.
+ *
+ * <p>Hashes are stored as <code>pbkdf2-sha512$[iterations]$[base64 salt]$[base64 hash]</code> so the
+ * iteration count used for each password is known when it is verified. Raising the configured
+ * count therefore never locks anyone out; older hashes are reported by {@link #needsRehash(String)}
+ * and get upgraded on the next successful login.</p>
+ *
+ * <p>The cost is set with the <code>PASSWORD_HASH_ITERATIONS</code> environment variable and
+ * defaults to {@value #DEFAULT_ITERATIONS}, the OWASP recommendation for PBKDF2-HMAC-SHA512.
+ * <code>PasswordHashingBenchmark</code> in the auth-service-benchmarks module measured about
+ * 2.4 ms per 1000 iterations on one core (see its README), so the default costs about half a second
+ * of a hashing thread per login or registration. That fits well inside the 5 s hashing timeout, so
+ * the default stays at the OWASP floor rather than going lower; {@link #estimatedMillis(int)} turns
+ * the measurement into the queue depth of {@link PasswordHashingExecutor}.</p>
+ *
+ * <p>A stored hash that cannot be parsed never matches, and is reported as needing a rehash.</p>
+ *
+ * <p>Each hash occupies a core for its whole duration, which is why hashing goes through the
+ * bounded {@link PasswordHashingExecutor} rather than running on request threads.</p>
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    static final String PREFIX = "pbkdf2-sha512";
+    static final int DEFAULT_ITERATIONS = 210_000;
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 512;
+    // from PasswordHashingBenchmark, see the benchmarks README
+    static final double MILLIS_PER_1000_ITERATIONS = 2.4;
+
+    private final int iterations;
+
+    public Pbkdf2PasswordHasher() {
+        this(iterationsFromEnv());
+    }
+
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = SecurityUtils.getSalt(SALT_BYTES);
+        byte[] hash = derive(password, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(String proposedPassword, String storedHash) {
+        String[] parts = storedHash.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            return false;
+        }
+        int storedIterations = storedIterations(parts);
+        if (storedIterations < 1) {
+            return false;
+        }
+        byte[] salt;
+        byte[] expected;
+        try {
+            salt = Base64.getDecoder().decode(parts[2]);
+            expected = Base64.getDecoder().decode(parts[3]);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        byte[] proposed = derive(proposedPassword, salt, storedIterations);
+        // constant time comparison so response timing does not leak how much of the hash matched
+        return MessageDigest.isEqual(proposed, expected);
+    }
+
+    @Override
+    public boolean recognizes(String storedHash) {
+        return storedHash != null && storedHash.startsWith(PREFIX + "$");
+    }
+
+    @Override
+    public boolean needsRehash(String storedHash) {
+        String[] parts = storedHash.split("\\$");
+        return parts.length != 4 || storedIterations(parts) < iterations;
+    }
+
+    /**
+     * @return the iteration count of a split stored hash, or -1 if it is not a number
+     */
+    private static int storedIterations(String[] parts) {
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the measured time one hash with this many iterations occupies a hashing thread
+     */
+    static long estimatedMillis(int iterations) {
+        return Math.max(1, Math.round(iterations * MILLIS_PER_1000_ITERATIONS / 1000));
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    static int iterationsFromEnv() {
+        String configured = System.getenv("PASSWORD_HASH_ITERATIONS");
+        if (configured == null || configured.isBlank()) {
+            return DEFAULT_ITERATIONS;
+        }
+        return Integer.parseInt(configured.trim());
+    }
+}
@@ -0,0 +1,36 @@
+package edu.oswego.cs.rest;
+
+import java.util.regex.Pattern;
+
+/**
+ * The username and password rules a new account has to meet. The patterns are compiled once
+ * since they are checked on every registration attempt.
+ */
+public final class RegistrationRequirements {
+
+  private static final Pattern USERNAME_LENGTH = Pattern.compile("[\\w!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{2,15}");
+  private static final Pattern PASSWORD_LENGTH = Pattern.compile("[\\w!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{8,}");
+  private static final Pattern PASSWORD_SPECIAL_CHARACTER = Pattern.compile(".*[!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{1,}.*");
+  private static final Pattern PASSWORD_NUMBER_REQUIREMENT = Pattern.compile(".*\\d{1,}.*");
+
+  private RegistrationRequirements() {}
+
+  /**
+   * @param username the lowercased username
+   * @return <code>true</code> if the username is 2 to 15 word or special characters long
+   */
+  public static boolean isValidUsername(String username) {
+    return USERNAME_LENGTH.matcher(username).matches();
+  }
+
+  /**
+   * @param password the plaintext password
+   * @return <code>true</code> if the password is at least 8 characters long and contains at least
+   *      one special character and one number
+   */
+  public static boolean isValidPassword(String password) {
+    return PASSWORD_LENGTH.matcher(password).matches()
+        && PASSWORD_SPECIAL_CHARACTER.matcher(password).matches()
+        && PASSWORD_NUMBER_REQUIREMENT.matcher(password).matches();
+  }
+}
@@ -0,0 +1,60 @@
+package edu.oswego.cs.rest;
+
+/**
+ * Per-request breakdown of where time went, kept in a ThreadLocal for the request being handled on
+ * the current thread.
+ *
+ * <p>{@link LatencyFilter} starts and finishes the timings around each resource call. In between,
+ * the code doing the work adds to the phases: {@link MongoCommandMetricsListener} adds the time of
+ * every Mongo command (the sync driver reports commands on the calling thread), authentication code
+ * adds its own time, and the filter's writer interceptor adds the time spent serializing the response.
+ * Whatever is left over is reported as <code>other</code>.</p>
+ */
+public final class RequestTimings {
+
+  private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+  final long startNanos = System.nanoTime();
+  long databaseNanos;
+  int databaseCalls;
+  long authNanos;
+  long serializationNanos;
+
+  private RequestTimings() {}
+
+  static RequestTimings start() {
+    RequestTimings timings = new RequestTimings();
+    CURRENT.set(timings);
+    return timings;
+  }
+
+  static RequestTimings current() {
+    return CURRENT.get();
+  }
+
+  static void clear() {
+    CURRENT.remove();
+  }
+
+  public static void addDatabase(long nanos) {
+    RequestTimings timings = CURRENT.get();
+    if (timings != null) {
+      timings.databaseNanos += nanos;
+      timings.databaseCalls++;
+    }
+  }
+
+  public static void addAuth(long nanos) {
+    RequestTimings timings = CURRENT.get();
+    if (timings != null) {
+      timings.authNanos += nanos;
+    }
+  }
+
+  public static void addSerialization(long nanos) {
+    RequestTimings timings = CURRENT.get();
+    if (timings != null) {
+      timings.serializationNanos += nanos;
+    }
+  }
+}
@@ -6,15 +6,20 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.List;
 
 /**
  * This class holds methods relating to security for the user login microservice.
  *
  * <p>The main purpose is to generate salted and hashed passwords for the database to store along
- * with validating user passwords upon login attempts. The plain text passwords are transformed into
- * a Base64 encoded String of form <code>[salted and hashed password | password unique salt]</code>.
- * Doing so allows us to store and retrieve the password and its salt easily without losing any
- * security.</p>
+ * with validating user passwords upon login attempts. New passwords are hashed with
+ * {@link Pbkdf2PasswordHasher}, whose iteration count can be tuned. Passwords stored by the original
+ * salted SHA-512 scheme (a Base64 encoded String of form
+ * <code>[salted and hashed password | password unique salt]</code>) are still accepted through
+ * {@link Sha512PasswordHasher} and are reported by needsRehash() so they can be upgraded on login.</p>
+ *
+ * <p>All hashing runs on the bounded {@link PasswordHashingExecutor}. When it is saturated the
+ * public methods throw {@link PasswordHashingUnavailableException}.</p>
  *
  * <p>Typical callers of SecurityUtils can would invoke the generatePassword() or validatePassword()
  * methods: </p>
@@ -27,8 +32,10 @@ import java.util.Base64;
  *      Full list of methods
  *      - String generatePassword(String password)
  *      - boolean validatePassword(String proposedPassword, String expectedHashedPassword)
+ *      - boolean needsRehash(String expectedHashedPassword)
  *      - String hashPassword(String password, byte[] salt)
  *      - byte[] getSalt()
+ *      - byte[] getSalt(int length)
  *      - byte[] extractSalt(String expectedHashedPassword)
  *
  *      When to use methods
@@ -37,12 +44,21 @@ import java.util.Base64;
  *      - validatePassword is used when a user is logging in and returns a boolean representing whether the
  *          provided password matches the hashed password stored in the database.
  *          boolean correctPassword = SecurityUtils.validatePassword(userPassword)
- *      - The remaining functions are helper functions called by the generatePassword and validatePassword
- *          methods. You should not need to call them.
+ *      - needsRehash is checked after a successful login; when it returns true the password should be
+ *          passed through generatePassword again and the stored hash replaced.
+ *      - The remaining functions are helper functions called by the password hashers. You should not
+ *          need to call them.
  */
 
 public class SecurityUtils {
 
+    // SecureRandom is thread safe and expensive to seed, so one instance is shared
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    // hasher used for new passwords, followed by hashers kept only to verify older stored passwords
+    private static final PasswordHasher CURRENT_HASHER = new Pbkdf2PasswordHasher();
+    private static final List<PasswordHasher> HASHERS = List.of(CURRENT_HASHER, new Sha512PasswordHasher());
+
     /*
      * Salting and hashing functions
      */
@@ -57,11 +73,8 @@ public class SecurityUtils {
      * @throws NoSuchAlgorithmException
      */
     static public String generatePassword(String password) throws NoSuchAlgorithmException {
-        // generate a password unique 64 byte salt
-        byte[] salt = getSalt();
-
-        // return hash the password with the salt
-        return hashPassword(password, salt);
+        // hash with a fresh password unique salt on the hashing pool
+        return PasswordHashingExecutor.getInstance().run(() -> CURRENT_HASHER.hash(password));
     }
 
     /**
@@ -75,16 +88,35 @@ public class SecurityUtils {
      * @throws NoSuchAlgorithmException
      */
     static public boolean validatePassword(String proposedPassword, String expectedHashedPassword) throws NoSuchAlgorithmException {
-        // extract password unique hash from expectedHashedPassword
-        byte[] salt = extractSalt(expectedHashedPassword);
+        // find the hasher that wrote expectedHashedPassword
+        PasswordHasher hasher = findHasher(expectedHashedPassword);
+        if (hasher == null) {
+            return false;
+        }
+
+        // hash the proposed password the same way and compare on the hashing pool
+        return PasswordHashingExecutor.getInstance().run(() -> hasher.verify(proposedPassword, expectedHashedPassword));
+    }
 
-        // find hash of proposed password
-        String proposedHashedPassword = hashPassword(proposedPassword, salt);
+    /**
+     * Checks whether a stored password was hashed with an older algorithm or a lower cost than new
+     * passwords get. Such passwords should be rehashed with generatePassword() once the user has
+     * logged in successfully, since that is the only time the plaintext is available.
+     * @param expectedHashedPassword the stored password
+     * @return <code>true</code> if the stored password should be replaced; <code>false</code> otherwise.
+     */
+    static public boolean needsRehash(String expectedHashedPassword) {
+        PasswordHasher hasher = findHasher(expectedHashedPassword);
+        return hasher != CURRENT_HASHER || hasher.needsRehash(expectedHashedPassword);
+    }
 
-        // if the two hashes match return true otherwise return false
-        if (proposedHashedPassword.equals(expectedHashedPassword)){
-            return true;
-        } else { return false; }
+    private static PasswordHasher findHasher(String expectedHashedPassword) {
+        for (PasswordHasher hasher : HASHERS) {
+            if (hasher.recognizes(expectedHashedPassword)) {
+                return hasher;
+            }
+        }
+        return null;
     }
 
     /*
@@ -93,7 +125,7 @@ public class SecurityUtils {
     /**
      * Converts plaintext password to a base64 encoded String representation of the password unique salt
      * appended to the salted and hashed password. The passwords are hashed using the SHA-512 algorithmn
-     * implemented via the MessageDigest from java.security.
+     * implemented via the MessageDigest from java.security. Only used by {@link Sha512PasswordHasher}.
      * @param password plaintext password
      * @param salt size 64 array of random bytes
      * @return base64 encoded String to be stored for future login attempts
@@ -132,12 +164,19 @@ public class SecurityUtils {
      * @return array of random bytes
      */
     static byte[] getSalt(){
-        // use Java.SecureRandom to get a secure pseudorandom
-        SecureRandom secureRandom = new SecureRandom();
         // 64-bit salt since we are using SHA-512 (matches number of bits)
-        byte[] salt = new byte[64];
-        // fill the byte buffer and return
-        secureRandom.nextBytes(salt);
+        return getSalt(64);
+    }
+
+    /**
+     * Generates a new array of the given length filled with securely pseudorandom bits.
+     * @param length number of salt bytes
+     * @return array of random bytes
+     */
+    static byte[] getSalt(int length){
+        byte[] salt = new byte[length];
+        // fill the byte buffer from the shared SecureRandom and return
+        SECURE_RANDOM.nextBytes(salt);
         return salt;
     }
 
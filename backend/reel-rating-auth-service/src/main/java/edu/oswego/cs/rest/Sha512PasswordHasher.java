@@ -0,0 +1,55 @@
+package edu.oswego.cs.rest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * The original single pass salted SHA-512 scheme, stored as a Base64 encoded
+ * <code>[salted and hashed password | password unique salt]</code>.
+ *
+ * <p>It is kept only so that accounts created before {@link Pbkdf2PasswordHasher} was introduced
+ * can still log in. Every hash it recognises needs a rehash, so those accounts are moved to the
+ * current hasher on their next successful login.</p>
+ */
+public class Sha512PasswordHasher implements PasswordHasher {
+
+    private static final int ENCODED_BYTES = 128;
+
+    @Override
+    public String hash(String password) {
+        try {
+            return SecurityUtils.hashPassword(password, SecurityUtils.getSalt());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-512 is not available", e);
+        }
+    }
+
+    @Override
+    public boolean verify(String proposedPassword, String storedHash) {
+        byte[] salt = SecurityUtils.extractSalt(storedHash);
+        try {
+            String proposedHash = SecurityUtils.hashPassword(proposedPassword, salt);
+            return MessageDigest.isEqual(Base64.getDecoder().decode(proposedHash), Base64.getDecoder().decode(storedHash));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-512 is not available", e);
+        }
+    }
+
+    @Override
+    public boolean recognizes(String storedHash) {
+        if (storedHash == null || storedHash.contains("$")) {
+            return false;
+        }
+        try {
+            return Base64.getDecoder().decode(storedHash).length == ENCODED_BYTES;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String storedHash) {
+        return true;
+    }
+}
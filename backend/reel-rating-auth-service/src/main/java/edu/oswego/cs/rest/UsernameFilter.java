@@ -0,0 +1,190 @@
+package edu.oswego.cs.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+/**
+ * In-memory Bloom filter of every registered (lowercased) username.
+ *
+ * <p>The filter answers "has this username definitely never been registered?" without going to
+ * Mongo. A <code>false</code> from {@link #mightContain(String)} is certain; a <code>true</code> may
+ * be a false positive and has to be confirmed with {@link DatabaseController#checkIfUserExists(String)}.
+ * Until the filter has been loaded from the <code>users</code> collection every username is reported
+ * as possibly present, so callers always fall back to the database.</p>
+ *
+ * <p>Registrations through this instance are added right away. Users registered through other
+ * instances are picked up by a refresh every <code>USERNAME_FILTER_REFRESH_SECONDS</code>, which
+ * reads the users whose _id was generated since the previous refresh, less a minute for clock
+ * differences between instances. So a name registered elsewhere can be reported as free for up to
+ * one refresh interval; registration itself still relies on the unique username index. If the
+ * refreshes fail for three intervals in a row every username is reported as possibly present again
+ * until one succeeds.</p>
+ *
+ * <p>Bits are only ever set, never cleared, so adds from concurrent registrations are lock free.</p>
+ *
+ *      Configuration (environment variables)
+ *      - USERNAME_FILTER_EXPECTED_USERS      number of users the filter is sized for (default: 1000000)
+ *      - USERNAME_FILTER_FALSE_POSITIVE_RATE target false positive rate at that size (default: 0.01)
+ *      - USERNAME_FILTER_REFRESH_SECONDS     how often users from other instances are added (default: 2)
+ */
+public class UsernameFilter {
+
+    private static final UsernameFilter INSTANCE = new UsernameFilter(
+        longFromEnv("USERNAME_FILTER_EXPECTED_USERS", 1_000_000),
+        doubleFromEnv("USERNAME_FILTER_FALSE_POSITIVE_RATE", 0.01));
+
+    private static final Logger LOGGER = Logger.getLogger(UsernameFilter.class.getName());
+    // how far back each refresh reads before the previous one, for clock differences between instances
+    private static final long CLOCK_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final long refreshSeconds = longFromEnv("USERNAME_FILTER_REFRESH_SECONDS", 2);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "username-filter-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private volatile boolean loaded;
+    // wall clock time the last load or refresh started reading at, and System.nanoTime() it finished
+    private volatile long readFrom;
+    private volatile long refreshedAt;
+
+    UsernameFilter(long expectedUsers, double falsePositiveRate) {
+        // standard Bloom filter sizing: m = -n ln(p) / (ln 2)^2, k = m/n ln 2
+        long optimalBits = (long) Math.ceil(-expectedUsers * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (optimalBits + 63) / 64));
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedUsers * Math.log(2)));
+    }
+
+    public static UsernameFilter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a username as registered.
+     * @param username lowercased username
+     */
+    public void add(String username) {
+        long hash = hash64(username);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(hash, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * @param username lowercased username
+     * @return <code>false</code> if the username has definitely not been registered;
+     *      <code>true</code> if it may have been
+     */
+    public boolean mightContain(String username) {
+        if (!loaded || System.nanoTime() - refreshedAt > TimeUnit.SECONDS.toNanos(3 * refreshSeconds)) {
+            return true;
+        }
+        long hash = hash64(username);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(hash, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds every username already in the database, starts answering negatives and schedules the
+     * refresh.
+     * @param db the DatabaseController to read usernames from
+     */
+    public void load(DatabaseController db) {
+        long started = System.currentTimeMillis();
+        db.forEachUsername(this::add);
+        readFrom = started;
+        refreshedAt = System.nanoTime();
+        loaded = true;
+        if (refreshSeconds > 0 && refreshScheduled.compareAndSet(false, true)) {
+            scheduler.scheduleWithFixedDelay(this::refreshQuietly, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Adds the users registered since the last load or refresh, by any instance.
+     */
+    void refresh(DatabaseController db) {
+        long started = System.currentTimeMillis();
+        db.forEachUsernameSince(new ObjectId(new Date(readFrom - CLOCK_MARGIN_MILLIS)), this::add);
+        readFrom = started;
+        refreshedAt = System.nanoTime();
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh(new DatabaseController());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not refresh the username filter", e);
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // Kirsch-Mitzenmacher double hashing: the i-th probe is h1 + i * h2, both taken from one 64-bit hash
+    private long index(long hash, int i) {
+        long h2 = Long.rotateLeft(hash, 32) | 1;
+        return Math.floorMod(hash + i * h2, bitCount);
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes followed by a murmur3 finalizer to spread the bits
+    private static long hash64(String username) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long longFromEnv(String name, long defaultValue) {
+        String configured = System.getenv(name);
+        if (configured == null || configured.isBlank()) {
+            return defaultValue;
+        }
+        return Long.parseLong(configured.trim());
+    }
+
+    private static double doubleFromEnv(String name, double defaultValue) {
+        String configured = System.getenv(name);
+        if (configured == null || configured.isBlank()) {
+            return defaultValue;
+        }
+        return Double.parseDouble(configured.trim());
+    }
+}
@@ -0,0 +1,33 @@
+package edu.oswego.cs.rest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Creates the unique index on <code>users.username</code> and loads the {@link UsernameFilter} from
+ * the <code>users</code> collection when the application starts. If Mongo cannot be reached the
+ * filter stays unloaded and availability checks go to the database. Registration only trusts the
+ * filter once the index exists.
+ */
+@ApplicationScoped
+public class UsernameFilterInitializer {
+
+  private static final Logger LOGGER = Logger.getLogger(UsernameFilterInitializer.class.getName());
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    try {
+      new DatabaseController().createUsernameIndex();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not create the unique username index, registration will check the database first", e);
+    }
+    try {
+      UsernameFilter.getInstance().load(new DatabaseController());
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not load the username filter, availability checks will use the database", e);
+    }
+  }
+}
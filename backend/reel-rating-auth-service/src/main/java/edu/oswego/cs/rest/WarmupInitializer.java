@@ -0,0 +1,77 @@
+package edu.oswego.cs.rest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+import org.bson.Document;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+import com.ibm.websphere.security.jwt.JwtBuilder;
+
+/**
+ * Warms up the service when the application starts so the first requests do not pay for it: opens
+ * the Mongo connection pool with a ping and signs a throwaway token, which loads the
+ * <code>reel_rating_token</code> builder configuration and its signing key.
+ *
+ * <p>Under Liberty InstantOn the checkpoint is taken after the application has started, so the
+ * warm-up ends up in the checkpoint. Open connections cannot be checkpointed, so the Mongo client is
+ * closed just before it and any use of it waits for the restore. After a restore the client is created again from the restored environment
+ * and the {@link UsernameFilter} picks up the users registered since the checkpoint, in the
+ * background while the first requests come in.</p>
+ */
+@ApplicationScoped
+public class WarmupInitializer {
+
+  private static final Logger LOGGER = Logger.getLogger(WarmupInitializer.class.getName());
+
+  // the global context only keeps a weak reference to its resources
+  private static final Resource CHECKPOINT_HOOK = new Resource() {
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+      DatabaseController.closeForCheckpoint();
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+      DatabaseController.restored();
+      Thread warmup = new Thread(WarmupInitializer::afterRestore, "mongo-warmup");
+      warmup.setDaemon(true);
+      warmup.start();
+    }
+  };
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    long started = System.nanoTime();
+    pingMongo();
+    try {
+      JwtBuilder.create("reel_rating_token").claim("sub", "warmup").buildJwt();
+    } catch (Exception e) {
+      LOGGER.log(Level.WARNING, "Could not load the JWT builder configuration", e);
+    }
+    Core.getGlobalContext().register(CHECKPOINT_HOOK);
+    LOGGER.info(() -> "Warmed up in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+  }
+
+  private static void afterRestore() {
+    pingMongo();
+    try {
+      UsernameFilter.getInstance().load(new DatabaseController());
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not reload the username filter after a restore", e);
+    }
+  }
+
+  private static void pingMongo() {
+    try {
+      new DatabaseController().getUserCredentialsDatabase().runCommand(new Document("ping", 1));
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not reach Mongo while warming up, connections are opened by the first requests", e);
+    }
+  }
+}
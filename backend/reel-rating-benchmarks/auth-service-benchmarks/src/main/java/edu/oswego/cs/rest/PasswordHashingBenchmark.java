@@ -0,0 +1,53 @@
+package edu.oswego.cs.rest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one PBKDF2 hash at different iteration counts. These numbers are what
+ * PASSWORD_HASH_ITERATIONS should be chosen from: one hash occupies one hashing thread for the
+ * measured time, so PASSWORD_HASH_THREADS / (time per hash) is the most logins per second the
+ * auth service can take.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashingBenchmark {
+
+  @Param({"60000", "120000", "210000", "310000"})
+  int iterations;
+
+  Pbkdf2PasswordHasher hasher;
+  String password = "Reel-Rating-2023!";
+  String storedHash;
+
+  @Setup
+  public void setup() {
+    hasher = new Pbkdf2PasswordHasher(iterations);
+    storedHash = hasher.hash(password);
+  }
+
+  @Benchmark
+  public String hash() {
+    return hasher.hash(password);
+  }
+
+  @Benchmark
+  public boolean verify() {
+    return hasher.verify(password, storedHash);
+  }
+}
@@ -0,0 +1,59 @@
+package edu.oswego.cs.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The username and password checks done by registerUser. <code>compilePerCall</code> repeats
+ * what registerUser used to do (compile every Pattern on each request) as a baseline for the
+ * precompiled patterns in RegistrationRequirements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationValidationBenchmark {
+
+  @Param({"8", "32", "128"})
+  int passwordLength;
+
+  String username = "reel_rater";
+  String password;
+
+  @Setup
+  public void setup() {
+    StringBuilder builder = new StringBuilder("Pass1!");
+    while (builder.length() < passwordLength) {
+      builder.append((char) ('a' + builder.length() % 26));
+    }
+    password = builder.toString();
+  }
+
+  @Benchmark
+  public boolean precompiled() {
+    return RegistrationRequirements.isValidUsername(username) && RegistrationRequirements.isValidPassword(password);
+  }
+
+  @Benchmark
+  public boolean compilePerCall() {
+    boolean usernameMatches = Pattern.compile("[\\w!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{2,15}").matcher(username).matches();
+    boolean passwordLengthMatches = Pattern.compile("[\\w!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{8,}").matcher(password).matches();
+    boolean passwordSpecialMatches = Pattern.compile(".*[!\"#$%&'()*+,-./:;<=>?@\\[\\]\\^`\\{|\\}~]{1,}.*").matcher(password).matches();
+    boolean passwordNumberMatches = Pattern.compile(".*\\d{1,}.*").matcher(password).matches();
+    return usernameMatches && passwordLengthMatches && passwordSpecialMatches && passwordNumberMatches;
+  }
+}
@@ -0,0 +1,54 @@
+package edu.oswego.cs.rest;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The SecurityUtils entry points used by LoginService, at the configured default cost and going
+ * through the PasswordHashingExecutor, plus validation of passwords stored in the legacy SHA-512
+ * format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecurityUtilsBenchmark {
+
+  String password = "Reel-Rating-2023!";
+  String storedPassword;
+  String legacyStoredPassword;
+
+  @Setup
+  public void setup() throws NoSuchAlgorithmException {
+    storedPassword = SecurityUtils.generatePassword(password);
+    legacyStoredPassword = SecurityUtils.hashPassword(password, SecurityUtils.getSalt());
+  }
+
+  @Benchmark
+  public String generatePassword() throws NoSuchAlgorithmException {
+    return SecurityUtils.generatePassword(password);
+  }
+
+  @Benchmark
+  public boolean validatePassword() throws NoSuchAlgorithmException {
+    return SecurityUtils.validatePassword(password, storedPassword);
+  }
+
+  @Benchmark
+  public boolean validateLegacyPassword() throws NoSuchAlgorithmException {
+    return SecurityUtils.validatePassword(password, legacyStoredPassword);
+  }
+}
@@ -0,0 +1,31 @@
+#!/bin/bash
+# Compares two JMH CSV result files written by run-benchmarks.sh, matching rows by benchmark,
+# mode and parameters. For time per operation lower is better; for throughput and gc.alloc.rate
+# rows the meaning of the sign follows the unit shown.
+#   ./compare-benchmarks.sh results/abc1234/movie-data-service-benchmarks.csv results/def5678/movie-data-service-benchmarks.csv
+if [ $# -ne 2 ]; then
+    echo "usage: $0 <baseline.csv> <candidate.csv>"
+    exit 1
+fi
+
+awk -F',' '
+    function key() {
+        k = $1 " " $2
+        for (i = 8; i <= NF; i++) {
+            k = k " " $i
+        }
+        return k
+    }
+    FNR == 1 { next }
+    { gsub(/"/, "") }
+    NR == FNR { baseline[key()] = $5; next }
+    {
+        k = key()
+        if (k in baseline) {
+            change = baseline[k] == 0 ? 0 : ($5 - baseline[k]) / baseline[k] * 100
+            printf "%-90s %14.3f %14.3f %+8.1f%% %s\n", k, baseline[k], $5, change, $7
+        } else {
+            printf "%-90s %14s %14.3f %9s %s\n", k, "-", $5, "new", $7
+        }
+    }
+' "$1" "$2"
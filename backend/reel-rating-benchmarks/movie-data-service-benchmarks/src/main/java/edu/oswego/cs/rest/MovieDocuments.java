@@ -0,0 +1,34 @@
+package edu.oswego.cs.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Builds movie documents shaped like the ones in the movies collection, with a fixed seed so
+ * every run measures the same payload.
+ */
+final class MovieDocuments {
+
+  private MovieDocuments() {}
+
+  static List<Document> create(int count) {
+    Random random = new Random(480);
+    List<Document> documents = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      documents.add(new Document("_id", new ObjectId())
+          .append("title", "Movie Title " + i)
+          .append("director", "Director " + random.nextInt(1000))
+          .append("releaseDate", (1950 + random.nextInt(74)) + "-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10))
+          .append("runtime", Integer.toString(80 + random.nextInt(100)))
+          .append("writers", "Writer " + random.nextInt(1000) + ", Writer " + random.nextInt(1000))
+          .append("summary", "A plot summary of about the length the display service shows on a movie card, number " + i + ".")
+          .append("flagNames", List.of("flag" + random.nextInt(20)))
+          .append("actorNames", List.of("Actor " + random.nextInt(5000), "Actor " + random.nextInt(5000))));
+    }
+    return documents;
+  }
+}
@@ -0,0 +1,52 @@
+package edu.oswego.cs.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.oswego.cs.rest.JsonClasses.Movie;
+
+/**
+ * The Document to Movie mapping done by getMoviesWithFilter for every query result, without the
+ * database round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieMappingBenchmark {
+
+  @Param({"10", "100", "1000"})
+  int movies;
+
+  List<Document> documents;
+
+  @Setup
+  public void setup() {
+    documents = MovieDocuments.create(movies);
+  }
+
+  @Benchmark
+  public List<Movie> toMovies() {
+    var list = new ArrayList<Movie>(documents.size());
+    for (Document document : documents) {
+      list.add(DatabaseController.toMovie(document));
+    }
+    return list;
+  }
+}
@@ -0,0 +1,131 @@
+package edu.oswego.cs.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.oswego.cs.rest.JsonClasses.Movie;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+/**
+ * Serialization of a List&lt;Movie&gt; as returned by the movie get endpoints: JSON-B, using the
+ * same implementation (Yasson) Liberty uses, against {@link JsonClassesWriter}, each also with
+ * <code>fields=id,title</code> and followed by gzip as {@link ResponseCompression} does it. The
+ * score is the CPU time per response; the bytes on the wire of each variant are printed by the
+ * setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieSerializationBenchmark {
+
+  @Param({"10", "100", "1000"})
+  int movies;
+
+  private static final Type MOVIE_LIST = new ArrayList<Movie>() {}.getClass().getGenericSuperclass();
+  private static final Set<String> ID_AND_TITLE = Set.of("id", "title");
+
+  Jsonb jsonb;
+  JsonClassesWriter writer;
+  List<Movie> payload;
+  ByteArrayOutputStream buffer;
+
+  @Setup
+  public void setup() {
+    jsonb = JsonbBuilder.create();
+    payload = new ArrayList<>();
+    for (Document document : MovieDocuments.create(movies)) {
+      payload.add(DatabaseController.toMovie(document));
+    }
+    writer = new JsonClassesWriter();
+    buffer = new ByteArrayOutputStream(movies * 512);
+    try {
+      System.out.println("\nbytes on the wire for " + movies + " movies: JSON-B " + toJsonStream()
+          + ", JsonClassesWriter " + writerStream() + ", gzipped " + writerStreamGzip()
+          + ", fields=id,title " + writerStreamIdAndTitle() + ", gzipped " + writerStreamIdAndTitleGzip());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    jsonb.close();
+  }
+
+  @Benchmark
+  public String toJsonString() {
+    return jsonb.toJson(payload);
+  }
+
+  @Benchmark
+  public int toJsonStream() {
+    buffer.reset();
+    jsonb.toJson(payload, buffer);
+    return buffer.size();
+  }
+
+  @Benchmark
+  public int toJsonStreamGzip() throws IOException {
+    buffer.reset();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(buffer, 8192)) {
+      jsonb.toJson(payload, gzip);
+    }
+    return buffer.size();
+  }
+
+  @Benchmark
+  public int writerStream() throws IOException {
+    buffer.reset();
+    writer.write(payload, MOVIE_LIST, null, buffer);
+    return buffer.size();
+  }
+
+  @Benchmark
+  public int writerStreamGzip() throws IOException {
+    buffer.reset();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(buffer, 8192)) {
+      writer.write(payload, MOVIE_LIST, null, gzip);
+    }
+    return buffer.size();
+  }
+
+  @Benchmark
+  public int writerStreamIdAndTitle() throws IOException {
+    buffer.reset();
+    writer.write(payload, MOVIE_LIST, ID_AND_TITLE, buffer);
+    return buffer.size();
+  }
+
+  @Benchmark
+  public int writerStreamIdAndTitleGzip() throws IOException {
+    buffer.reset();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(buffer, 8192)) {
+      writer.write(payload, MOVIE_LIST, ID_AND_TITLE, gzip);
+    }
+    return buffer.size();
+  }
+}
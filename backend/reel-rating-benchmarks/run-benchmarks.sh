@@ -0,0 +1,21 @@
+#!/bin/bash
+# Builds the benchmark jars and runs every benchmark with the GC profiler.
+# Results are written as CSV to results/<commit>/<module>.csv so two commits can be compared with
+# compare-benchmarks.sh. Any arguments are passed on to JMH, for example a benchmark name regex:
+#   ./run-benchmarks.sh MovieSerialization -p movies=1000
+set -e
+cd "$(dirname "$0")"
+
+commit=$(git rev-parse --short HEAD)
+if [ -n "$(git status --porcelain -- ../)" ]; then
+    commit="$commit-dirty"
+fi
+mkdir -p "results/$commit"
+
+mvn -B -q package
+
+for module in auth-service-benchmarks movie-data-service-benchmarks; do
+    java -jar "$module/target/benchmarks.jar" -prof gc -rf csv -rff "results/$commit/$module.csv" "$@"
+done
+
+echo "Results written to results/$commit"
@@ -0,0 +1,34 @@
+#!/bin/bash
+# Starts the stack with the load test override, loads a synthetic dataset and runs the load driver.
+#   ./run-load-test.sh [scale] [driver options...]
+# for example ./run-load-test.sh 0.1 --mix balanced --threads 32 --duration 300
+# Set SKIP_GENERATE=1 to reuse the dataset already loaded at the same scale, and REPLICA_SET=1 to run
+# the movie database as a three member replica set (docker-compose.replicaset.yaml).
+set -e
+cd "$(dirname "$0")"
+
+scale=${1:-0.01}
+shift || true
+root=../..
+
+compose_files=(-f "$root/docker-compose.yaml" -f "$root/docker-compose.loadtest.yaml")
+mongo_url=mongodb://localhost:27018
+if [ -n "$REPLICA_SET" ]; then
+    compose_files+=(-f "$root/docker-compose.replicaset.yaml")
+    # the members advertise container host names, so load through the published primary only
+    mongo_url="mongodb://localhost:27018/?directConnection=true"
+fi
+docker compose "${compose_files[@]}" up -d --build
+
+mvn -B -q package
+
+if [ -z "$SKIP_GENERATE" ]; then
+    java -cp target/reel-rating-load-test.jar edu.oswego.cs.loadtest.DatasetGenerator \
+        --mongo-url "$mongo_url" --database "${MONGO_MOVIE_DATABASE_NAME:-reel-rating}" \
+        --scale "$scale" --drop
+fi
+
+commit=$(git rev-parse --short HEAD)
+mkdir -p results
+java -cp target/reel-rating-load-test.jar edu.oswego.cs.loadtest.LoadDriver \
+    --scale "$scale" --output "results/$commit-$(date +%Y%m%d-%H%M%S).csv" "$@"
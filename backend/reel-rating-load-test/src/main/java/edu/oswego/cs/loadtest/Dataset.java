@@ -0,0 +1,82 @@
+package edu.oswego.cs.loadtest;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Sizes of the synthetic dataset and the naming scheme for its keys.
+ *
+ * <p>Every key is derived from an index, so the load driver can make valid requests for a dataset
+ * of the same scale without reading anything back from Mongo. At scale 1.0 the dataset has
+ * 500k movies, 2M actors, 50M ratings and 10M reviews.</p>
+ */
+public class Dataset {
+
+  static final int FULL_MOVIES = 500_000;
+  static final int FULL_ACTORS = 2_000_000;
+  static final long FULL_RATINGS = 50_000_000L;
+  static final long FULL_REVIEWS = 10_000_000L;
+  static final int FULL_USERS = 1_000_000;
+  static final int FLAGS = 50;
+  static final int RATING_CATEGORIES = 20;
+  static final int CAST_SIZE = 5;
+
+  // Zipf exponents: how strongly traffic concentrates on the most popular items
+  static final double MOVIE_POPULARITY = 1.0;
+  static final double ACTOR_POPULARITY = 0.8;
+  static final double USER_ACTIVITY = 0.9;
+  static final double TAG_POPULARITY = 1.1;
+
+  final int movies;
+  final int actors;
+  final long ratings;
+  final long reviews;
+  final int users;
+
+  public Dataset(double scale) {
+    this.movies = Math.max(10, (int) (FULL_MOVIES * scale));
+    this.actors = Math.max(10, (int) (FULL_ACTORS * scale));
+    this.ratings = Math.max(10, (long) (FULL_RATINGS * scale));
+    this.reviews = Math.max(10, (long) (FULL_REVIEWS * scale));
+    this.users = Math.max(10, (int) (FULL_USERS * scale));
+  }
+
+  static String movieTitle(int movie) {
+    return "Movie " + movie;
+  }
+
+  /**
+   * Movie ids are fixed instead of generated so that the load driver knows them.
+   */
+  static ObjectId movieId(int movie) {
+    return new ObjectId(String.format("%024x", 0x6500000000000000L + movie));
+  }
+
+  static String actorId(int actor) {
+    return "actor" + actor;
+  }
+
+  static String actorName(int actor) {
+    return "Actor " + actor;
+  }
+
+  static String userName(int user) {
+    return "user" + user;
+  }
+
+  static String flagName(int flag) {
+    return "flag" + flag;
+  }
+
+  static String ratingCategoryId(int category) {
+    return "category" + category;
+  }
+
+  static String ratingCategoryName(int category) {
+    return "Category " + category;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%,d movies, %,d actors, %,d ratings, %,d reviews, %,d users", movies, actors, ratings, reviews, users);
+  }
+}
@@ -0,0 +1,353 @@
+package edu.oswego.cs.loadtest;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.bson.Document;
+import org.bson.types.Decimal128;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+
+/**
+ * Bulk loads a synthetic dataset into the movie database using exactly the collections and fields
+ * the movie data service's DatabaseController reads and writes.
+ *
+ * <p>Movie popularity, actor casting, user activity and flag/category use all follow Zipfian
+ * distributions (see {@link ZipfSampler}), so a few titles collect most of the ratings and reviews.
+ * Everything is seeded, so the same scale always produces the same data.</p>
+ *
+ *      Usage
+ *      java -cp reel-rating-load-test.jar edu.oswego.cs.loadtest.DatasetGenerator [options]
+ *        --mongo-url URL      default mongodb://localhost:27018
+ *        --database NAME      default $MONGO_MOVIE_DATABASE_NAME or reel-rating
+ *        --scale FACTOR       fraction of the full size dataset, default 0.01
+ *        --threads N          concurrent insertMany batches, default 4
+ *        --drop               drop the collections first
+ */
+public class DatasetGenerator {
+
+  private static final int BATCH_SIZE = 1000;
+  private static final long SEED = 480;
+
+  private final MongoDatabase database;
+  private final Dataset dataset;
+  private final ExecutorService writers;
+  private final Semaphore pendingBatches;
+  private final List<Future<?>> batches = new ArrayList<>();
+  private final InsertManyOptions unordered = new InsertManyOptions().ordered(false);
+
+  // cast of every movie, kept to build each actor's filmography afterwards
+  private int[][] casts;
+
+  DatasetGenerator(MongoDatabase database, Dataset dataset, int threads) {
+    this.database = database;
+    this.dataset = dataset;
+    this.writers = Executors.newFixedThreadPool(threads);
+    this.pendingBatches = new Semaphore(threads * 2);
+  }
+
+  public static void main(String[] args) throws Exception {
+    String mongoUrl = "mongodb://localhost:27018";
+    String databaseName = System.getenv().getOrDefault("MONGO_MOVIE_DATABASE_NAME", "reel-rating");
+    double scale = 0.01;
+    int threads = 4;
+    boolean drop = false;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--mongo-url": mongoUrl = args[++i]; break;
+        case "--database": databaseName = args[++i]; break;
+        case "--scale": scale = Double.parseDouble(args[++i]); break;
+        case "--threads": threads = Integer.parseInt(args[++i]); break;
+        case "--drop": drop = true; break;
+        default: throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+
+    Dataset dataset = new Dataset(scale);
+    System.out.println("Generating " + dataset + " into " + databaseName);
+    try (MongoClient client = MongoClients.create(mongoUrl)) {
+      MongoDatabase database = client.getDatabase(databaseName);
+      if (drop) {
+        for (String collection : List.of("movies", "actors", "flags", "ratings", "userAssociatedRatings", "reviews")) {
+          database.getCollection(collection).drop();
+        }
+      }
+      DatasetGenerator generator = new DatasetGenerator(database, dataset, threads);
+      long started = System.nanoTime();
+      generator.generate();
+      System.out.printf("Done in %.1f s%n", (System.nanoTime() - started) / 1e9);
+    }
+  }
+
+  void generate() throws Exception {
+    try {
+      timed("movies and flags", this::generateMovies);
+      timed("actors", this::generateActors);
+      timed("ratings", this::generateRatings);
+      timed("reviews", this::generateReviews);
+      timed("indexes", this::createIndexes);
+    } finally {
+      writers.shutdown();
+    }
+  }
+
+  private void generateMovies() {
+    SplittableRandom random = new SplittableRandom(SEED);
+    ZipfSampler actorSampler = new ZipfSampler(dataset.actors, Dataset.ACTOR_POPULARITY);
+    ZipfSampler flagSampler = new ZipfSampler(Dataset.FLAGS, Dataset.TAG_POPULARITY);
+    ZipfSampler categorySampler = new ZipfSampler(Dataset.RATING_CATEGORIES, Dataset.TAG_POPULARITY);
+    List<List<String>> flaggedTitles = new ArrayList<>();
+    for (int flag = 0; flag < Dataset.FLAGS; flag++) {
+      flaggedTitles.add(new ArrayList<>());
+    }
+
+    casts = new int[dataset.movies][];
+    MongoCollection<Document> movies = database.getCollection("movies");
+    List<Document> batch = new ArrayList<>(BATCH_SIZE);
+    for (int movie = 0; movie < dataset.movies; movie++) {
+      String title = Dataset.movieTitle(movie);
+      int[] cast = distinct(random, actorSampler, Dataset.CAST_SIZE);
+      casts[movie] = cast;
+      List<String> castNames = new ArrayList<>(cast.length);
+      for (int actor : cast) {
+        castNames.add(Dataset.actorName(actor));
+      }
+      List<String> flagNames = new ArrayList<>();
+      for (int flag : distinct(random, flagSampler, random.nextInt(4))) {
+        flagNames.add(Dataset.flagName(flag));
+        flaggedTitles.get(flag).add(title);
+      }
+      List<String> categoryNames = new ArrayList<>();
+      for (int category : distinct(random, categorySampler, 1 + random.nextInt(3))) {
+        categoryNames.add(Dataset.ratingCategoryName(category));
+      }
+      batch.add(new Document("_id", Dataset.movieId(movie))
+          .append("id", Dataset.movieId(movie).toHexString())
+          .append("title", title)
+          .append("director", "Director " + random.nextInt(Math.max(1, dataset.movies / 10)))
+          .append("releaseDate", Date.from(LocalDate.of(1920 + random.nextInt(104), 1 + random.nextInt(12), 1 + random.nextInt(28))
+              .atStartOfDay(ZoneOffset.UTC).toInstant()))
+          .append("runtime", 75 + random.nextInt(110))
+          .append("writers", "Writer " + random.nextInt(dataset.movies) + ", Writer " + random.nextInt(dataset.movies))
+          .append("summary", sentence(random, 30))
+          .append("principalCast", castNames)
+          .append("actorNames", castNames)
+          .append("flagNames", flagNames)
+          .append("ratingCategoryNames", categoryNames));
+      batch = flushIfFull(movies, batch);
+    }
+    flush(movies, batch);
+
+    MongoCollection<Document> flags = database.getCollection("flags");
+    List<Document> flagDocuments = new ArrayList<>();
+    for (int flag = 0; flag < Dataset.FLAGS; flag++) {
+      flagDocuments.add(new Document("flagName", Dataset.flagName(flag)).append("movieTitles", flaggedTitles.get(flag)));
+    }
+    flush(flags, flagDocuments);
+    awaitBatches();
+  }
+
+  private void generateActors() {
+    // invert the casts into filmographies, stored compactly as offsets into one array
+    int[] filmographySize = new int[dataset.actors + 1];
+    for (int[] cast : casts) {
+      for (int actor : cast) {
+        filmographySize[actor + 1]++;
+      }
+    }
+    for (int actor = 0; actor < dataset.actors; actor++) {
+      filmographySize[actor + 1] += filmographySize[actor];
+    }
+    int[] offsets = filmographySize.clone();
+    int[] filmographies = new int[offsets[dataset.actors]];
+    for (int movie = 0; movie < casts.length; movie++) {
+      for (int actor : casts[movie]) {
+        filmographies[offsets[actor]++] = movie;
+      }
+    }
+
+    SplittableRandom random = new SplittableRandom(SEED + 1);
+    MongoCollection<Document> actors = database.getCollection("actors");
+    List<Document> batch = new ArrayList<>(BATCH_SIZE);
+    for (int actor = 0; actor < dataset.actors; actor++) {
+      List<String> movieTitles = new ArrayList<>();
+      for (int i = filmographySize[actor]; i < filmographySize[actor + 1]; i++) {
+        movieTitles.add(Dataset.movieTitle(filmographies[i]));
+      }
+      String dob = String.format("%d-%02d-%02d", 1900 + random.nextInt(105), 1 + random.nextInt(12), 1 + random.nextInt(28));
+      batch.add(new Document("id", Dataset.actorId(actor))
+          .append("name", Dataset.actorName(actor))
+          .append("dob", dob)
+          .append("dateOfBirth", dob)
+          .append("movies", movieTitles));
+      batch = flushIfFull(actors, batch);
+    }
+    flush(actors, batch);
+    casts = null;
+    awaitBatches();
+  }
+
+  private void generateRatings() {
+    SplittableRandom random = new SplittableRandom(SEED + 2);
+    ZipfSampler movieSampler = new ZipfSampler(dataset.movies, Dataset.MOVIE_POPULARITY);
+    ZipfSampler userSampler = new ZipfSampler(dataset.users, Dataset.USER_ACTIVITY);
+    ZipfSampler categorySampler = new ZipfSampler(Dataset.RATING_CATEGORIES, Dataset.TAG_POPULARITY);
+    MongoCollection<Document> ratings = database.getCollection("ratings");
+    MongoCollection<Document> userAssociatedRatings = database.getCollection("userAssociatedRatings");
+    List<Document> ratingBatch = new ArrayList<>(BATCH_SIZE);
+    List<Document> userBatch = new ArrayList<>(BATCH_SIZE);
+    for (long i = 0; i < dataset.ratings; i++) {
+      int category = categorySampler.sample(random);
+      String movieTitle = Dataset.movieTitle(movieSampler.sample(random));
+      String userName = Dataset.userName(userSampler.sample(random));
+      Decimal128 userRating = new Decimal128(1 + random.nextInt(5));
+      ratingBatch.add(new Document("ratingCategoryId", Dataset.ratingCategoryId(category))
+          .append("ratingName", Dataset.ratingCategoryName(category))
+          .append("category", Dataset.ratingCategoryName(category))
+          .append("movieTitle", movieTitle)
+          .append("userName", userName)
+          .append("user", userName)
+          .append("userRating", userRating));
+      userBatch.add(new Document("userName", userName)
+          .append("ratingName", Dataset.ratingCategoryName(category))
+          .append("movieTitle", movieTitle)
+          .append("userRating", userRating));
+      ratingBatch = flushIfFull(ratings, ratingBatch);
+      userBatch = flushIfFull(userAssociatedRatings, userBatch);
+    }
+    flush(ratings, ratingBatch);
+    flush(userAssociatedRatings, userBatch);
+    awaitBatches();
+  }
+
+  private void generateReviews() {
+    SplittableRandom random = new SplittableRandom(SEED + 3);
+    ZipfSampler movieSampler = new ZipfSampler(dataset.movies, Dataset.MOVIE_POPULARITY);
+    ZipfSampler userSampler = new ZipfSampler(dataset.users, Dataset.USER_ACTIVITY);
+    MongoCollection<Document> reviews = database.getCollection("reviews");
+    List<Document> batch = new ArrayList<>(BATCH_SIZE);
+    for (long i = 0; i < dataset.reviews; i++) {
+      int movie = movieSampler.sample(random);
+      batch.add(new Document("movieId", Dataset.movieId(movie).toHexString())
+          .append("movieTitle", Dataset.movieTitle(movie))
+          .append("reviewTitle", sentence(random, 4))
+          .append("reviewDescription", sentence(random, 10 + random.nextInt(60)))
+          .append("userName", Dataset.userName(userSampler.sample(random))));
+      batch = flushIfFull(reviews, batch);
+    }
+    flush(reviews, batch);
+    awaitBatches();
+  }
+
+  /**
+   * Indexes for the fields the movie data service filters on.
+   */
+  private void createIndexes() {
+    database.getCollection("movies").createIndexes(List.of(
+        new IndexModel(Indexes.ascending("id")),
+        new IndexModel(Indexes.ascending("title")),
+        new IndexModel(Indexes.ascending("flagNames")),
+        new IndexModel(Indexes.ascending("actorNames")),
+        new IndexModel(Indexes.ascending("ratingCategoryNames")),
+        new IndexModel(Indexes.ascending("releaseDate")),
+        new IndexModel(Indexes.ascending("runtime"))));
+    database.getCollection("actors").createIndexes(List.of(
+        new IndexModel(Indexes.ascending("id")),
+        new IndexModel(Indexes.ascending("name")),
+        new IndexModel(Indexes.ascending("movies"))));
+    database.getCollection("flags").createIndexes(List.of(
+        new IndexModel(Indexes.ascending("flagName")),
+        new IndexModel(Indexes.ascending("movieTitles"))));
+    database.getCollection("ratings").createIndexes(List.of(
+        new IndexModel(Indexes.ascending("ratingCategoryId")),
+        new IndexModel(Indexes.ascending("category")),
+        new IndexModel(Indexes.ascending("user")),
+        new IndexModel(Indexes.ascending("movieTitle")),
+        new IndexModel(Indexes.ascending("userName", "ratingName", "movieTitle")),
+        new IndexModel(Indexes.ascending("ratingName", "userRating"))));
+    database.getCollection("userAssociatedRatings").createIndex(Indexes.ascending("userName", "ratingName", "movieTitle"));
+    database.getCollection("reviews").createIndexes(List.of(
+        new IndexModel(Indexes.ascending("movieId")),
+        new IndexModel(Indexes.ascending("movieTitle", "userName")),
+        new IndexModel(Indexes.ascending("userName"))));
+  }
+
+  private List<Document> flushIfFull(MongoCollection<Document> collection, List<Document> batch) {
+    if (batch.size() < BATCH_SIZE) {
+      return batch;
+    }
+    flush(collection, batch);
+    return new ArrayList<>(BATCH_SIZE);
+  }
+
+  private void flush(MongoCollection<Document> collection, List<Document> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    // bound the batches in flight so generation cannot run ahead of Mongo and fill the heap
+    pendingBatches.acquireUninterruptibly();
+    batches.add(writers.submit(() -> {
+      try {
+        collection.insertMany(batch, unordered);
+      } finally {
+        pendingBatches.release();
+      }
+    }));
+  }
+
+  private void awaitBatches() {
+    for (Future<?> batch : batches) {
+      try {
+        batch.get();
+      } catch (Exception e) {
+        throw new IllegalStateException("Insert failed", e);
+      }
+    }
+    batches.clear();
+  }
+
+  private static int[] distinct(SplittableRandom random, ZipfSampler sampler, int count) {
+    Set<Integer> chosen = new LinkedHashSet<>();
+    int wanted = Math.min(count, sampler.size());
+    while (chosen.size() < wanted) {
+      chosen.add(sampler.sample(random));
+    }
+    return chosen.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static final String[] WORDS = {"reel", "great", "plot", "acting", "scene", "slow", "classic", "twist",
+      "score", "cast", "boring", "loved", "ending", "visual", "story", "director", "watch", "again", "funny", "dark"};
+
+  private static String sentence(SplittableRandom random, int words) {
+    StringBuilder sentence = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        sentence.append(' ');
+      }
+      sentence.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return sentence.toString();
+  }
+
+  private static void timed(String step, Runnable work) {
+    long started = System.nanoTime();
+    work.run();
+    System.out.printf("  %-18s %.1f s%n", step, (System.nanoTime() - started) / 1e9);
+  }
+}
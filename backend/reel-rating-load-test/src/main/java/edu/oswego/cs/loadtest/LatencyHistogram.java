@@ -0,0 +1,93 @@
+package edu.oswego.cs.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock free latency histogram in the style of HdrHistogram.
+ *
+ * <p>Values are recorded in microseconds into log-linear buckets: every power of two range is split
+ * into 64 equal sub-buckets, so any recorded value is reported within about 1.6% of its true value
+ * while the whole range from 1 microsecond to over an hour fits in under two thousand counters.
+ * Recording is a single atomic increment, so it is cheap enough to run on every request.</p>
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // 2^32 microseconds is a little over 71 minutes, anything slower is counted in the last bucket
+  private static final int MAX_SHIFT = 32 - SUB_BUCKET_BITS;
+  private static final int BUCKETS = SUB_BUCKETS * (MAX_SHIFT + 2);
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param nanos the latency to record in nanoseconds
+   */
+  public void recordNanos(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    counts.incrementAndGet(indexOf(micros));
+    count.incrementAndGet();
+    sum.addAndGet(micros);
+    long currentMax;
+    while (micros > (currentMax = max.get()) && !max.compareAndSet(currentMax, micros)) {
+      // retry until max is at least micros
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMeanMillis() {
+    long n = count.get();
+    return n == 0 ? 0 : sum.get() / 1000.0 / n;
+  }
+
+  public double getMaxMillis() {
+    return max.get() / 1000.0;
+  }
+
+  /**
+   * @param quantile between 0 and 1, for example 0.99 for the 99th percentile
+   * @return the latency in milliseconds that the given fraction of recorded values are at or below
+   */
+  public double getPercentileMillis(double quantile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueIn(i), max.get()) / 1000.0;
+      }
+    }
+    return getMaxMillis();
+  }
+
+  static int indexOf(long micros) {
+    if (micros < 2 * SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+    if (shift > MAX_SHIFT) {
+      return BUCKETS - 1;
+    }
+    return (shift << SUB_BUCKET_BITS) + (int) (micros >>> shift);
+  }
+
+  static long highestValueIn(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index >>> SUB_BUCKET_BITS) - 1;
+    long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,257 @@
+package edu.oswego.cs.loadtest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Drives a weighted mix of requests against the movie data service and reports throughput and
+ * latency percentiles for each endpoint.
+ *
+ * <p>This is a closed model: each thread waits for its response before sending the next request,
+ * so the offered load drops when the service slows down. Increase --threads until throughput stops
+ * growing to find the saturation point; latencies past that point include queueing in the service.
+ * Keys are chosen with the same Zipfian skew the {@link DatasetGenerator} used, so run it against a
+ * dataset generated with the same --scale.</p>
+ *
+ *      Usage
+ *      java -cp reel-rating-load-test.jar edu.oswego.cs.loadtest.LoadDriver [options]
+ *        --base-url URL       default http://localhost:30501/reel-rating-movie-data-service
+ *        --scale FACTOR       scale the dataset was generated with, default 0.01
+ *        --mix NAME           read-heavy (95/5), balanced (70/30) or write-heavy (20/80), default read-heavy
+ *        --threads N          concurrent clients, default 16
+ *        --warmup SECONDS     not measured, default 30
+ *        --duration SECONDS   measured, default 120
+ *        --output FILE        CSV summary, default results/load-test-&lt;timestamp&gt;.csv
+ */
+public class LoadDriver {
+
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+  /**
+   * One kind of request in the mix, with its share of the traffic.
+   */
+  static class Endpoint {
+    final String name;
+    final int weight;
+    final Function<SplittableRandom, HttpRequest.Builder> request;
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicLong errors = new AtomicLong();
+
+    Endpoint(String name, int weight, Function<SplittableRandom, HttpRequest.Builder> request) {
+      this.name = name;
+      this.weight = weight;
+      this.request = request;
+    }
+  }
+
+  private final HttpClient client = HttpClient.newBuilder()
+      .connectTimeout(Duration.ofSeconds(5))
+      .version(HttpClient.Version.HTTP_1_1)
+      .build();
+  private final List<Endpoint> endpoints = new ArrayList<>();
+  private final int[] cumulativeWeights;
+  private final String baseUrl;
+  private final Dataset dataset;
+  private final ZipfSampler movies;
+  private final ZipfSampler users;
+  private final ZipfSampler actors;
+  private final ZipfSampler flags;
+
+  LoadDriver(String baseUrl, Dataset dataset, String mix) {
+    this.baseUrl = baseUrl;
+    this.dataset = dataset;
+    this.movies = new ZipfSampler(dataset.movies, Dataset.MOVIE_POPULARITY);
+    this.users = new ZipfSampler(dataset.users, Dataset.USER_ACTIVITY);
+    this.actors = new ZipfSampler(dataset.actors, Dataset.ACTOR_POPULARITY);
+    this.flags = new ZipfSampler(Dataset.FLAGS, Dataset.TAG_POPULARITY);
+
+    int column = List.of("read-heavy", "balanced", "write-heavy").indexOf(mix);
+    if (column < 0) {
+      throw new IllegalArgumentException("Unknown mix " + mix);
+    }
+    // weights per mix: read-heavy, balanced, write-heavy
+    endpoints.add(new Endpoint("movie/getByTitle", new int[] {35, 25, 10}[column],
+        random -> post("/movie/getByTitle/" + encode(Dataset.movieTitle(movies.sample(random))))));
+    endpoints.add(new Endpoint("reviews/getByMovieId", new int[] {25, 20, 5}[column],
+        random -> post("/reviews/getByMovieId/" + Dataset.movieId(movies.sample(random)).toHexString())));
+    endpoints.add(new Endpoint("movie/getByActor", new int[] {15, 10, 0}[column],
+        random -> post("/movie/getByActor/" + encode(Dataset.actorName(actors.sample(random))))));
+    endpoints.add(new Endpoint("movie/getByFlagName", new int[] {10, 5, 0}[column],
+        random -> post("/movie/getByFlagName/" + encode(Dataset.flagName(flags.sample(random))))));
+    endpoints.add(new Endpoint("reviews/getByUser", new int[] {10, 10, 5}[column],
+        random -> post("/reviews/getByUser/" + encode(Dataset.userName(users.sample(random))))));
+    endpoints.add(new Endpoint("review/create", new int[] {4, 25, 45}[column],
+        random -> postJson("/review/create/" + Dataset.movieId(movies.sample(random)).toHexString(),
+            "{\"reviewTitle\":\"load test\",\"reviewDescription\":\"review " + random.nextInt() + "\"}")));
+    endpoints.add(new Endpoint("rating/create", new int[] {0, 0, 35}[column],
+        random -> postJson("/rating/create/" + encode(Dataset.movieTitle(movies.sample(random))),
+            "{\"ratingName\":\"" + Dataset.ratingCategoryName(random.nextInt(Dataset.RATING_CATEGORIES))
+                + "\",\"userRating\":" + (1 + random.nextInt(5)) + "}")));
+    endpoints.add(new Endpoint("flag/create", new int[] {1, 5, 0}[column],
+        random -> postJson("/flag/create/" + Dataset.movieId(movies.sample(random)).toHexString(),
+            "{\"flagName\":\"" + Dataset.flagName(flags.sample(random)) + "\"}")));
+    endpoints.removeIf(endpoint -> endpoint.weight == 0);
+
+    cumulativeWeights = new int[endpoints.size()];
+    int total = 0;
+    for (int i = 0; i < endpoints.size(); i++) {
+      total += endpoints.get(i).weight;
+      cumulativeWeights[i] = total;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String baseUrl = "http://localhost:30501/reel-rating-movie-data-service";
+    double scale = 0.01;
+    String mix = "read-heavy";
+    int threads = 16;
+    int warmupSeconds = 30;
+    int durationSeconds = 120;
+    Path output = null;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--base-url": baseUrl = args[++i]; break;
+        case "--scale": scale = Double.parseDouble(args[++i]); break;
+        case "--mix": mix = args[++i]; break;
+        case "--threads": threads = Integer.parseInt(args[++i]); break;
+        case "--warmup": warmupSeconds = Integer.parseInt(args[++i]); break;
+        case "--duration": durationSeconds = Integer.parseInt(args[++i]); break;
+        case "--output": output = Path.of(args[++i]); break;
+        default: throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+    if (output == null) {
+      output = Path.of("results", "load-test-" + System.currentTimeMillis() + ".csv");
+    }
+
+    LoadDriver driver = new LoadDriver(baseUrl, new Dataset(scale), mix);
+    System.out.printf("%s mix, %d threads against %s%n", mix, threads, baseUrl);
+    System.out.printf("Warming up for %d s%n", warmupSeconds);
+    driver.run(threads, warmupSeconds, false);
+    System.out.printf("Measuring for %d s%n", durationSeconds);
+    long started = System.nanoTime();
+    driver.run(threads, durationSeconds, true);
+    double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+    driver.report(elapsedSeconds, threads, mix, output);
+  }
+
+  void run(int threads, int seconds, boolean measured) throws InterruptedException {
+    long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+    CountDownLatch finished = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      SplittableRandom random = new SplittableRandom(System.nanoTime() + t);
+      Thread client = new Thread(() -> {
+        try {
+          while (System.nanoTime() < deadline) {
+            send(pick(random), random, measured);
+          }
+        } finally {
+          finished.countDown();
+        }
+      }, "load-driver-" + t);
+      client.setDaemon(true);
+      client.start();
+    }
+    finished.await();
+  }
+
+  private void send(Endpoint endpoint, SplittableRandom random, boolean measured) {
+    HttpRequest request = endpoint.request.apply(random).timeout(REQUEST_TIMEOUT).build();
+    long started = System.nanoTime();
+    boolean failed;
+    try {
+      HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+      failed = response.statusCode() >= 400;
+    } catch (IOException e) {
+      failed = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (measured) {
+      endpoint.latency.recordNanos(System.nanoTime() - started);
+      if (failed) {
+        endpoint.errors.incrementAndGet();
+      }
+    }
+  }
+
+  private Endpoint pick(SplittableRandom random) {
+    int roll = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    for (int i = 0; i < cumulativeWeights.length; i++) {
+      if (roll < cumulativeWeights[i]) {
+        return endpoints.get(i);
+      }
+    }
+    return endpoints.get(endpoints.size() - 1);
+  }
+
+  void report(double elapsedSeconds, int threads, String mix, Path output) throws IOException {
+    Map<String, String[]> rows = new LinkedHashMap<>();
+    long totalRequests = 0;
+    for (Endpoint endpoint : endpoints) {
+      LatencyHistogram latency = endpoint.latency;
+      totalRequests += latency.getCount();
+      rows.put(endpoint.name, new String[] {
+          Long.toString(latency.getCount()),
+          Long.toString(endpoint.errors.get()),
+          String.format("%.1f", latency.getCount() / elapsedSeconds),
+          String.format("%.2f", latency.getPercentileMillis(0.50)),
+          String.format("%.2f", latency.getPercentileMillis(0.90)),
+          String.format("%.2f", latency.getPercentileMillis(0.99)),
+          String.format("%.2f", latency.getPercentileMillis(0.999)),
+          String.format("%.2f", latency.getMaxMillis())});
+    }
+
+    System.out.printf("%n%-22s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+        "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+    for (Map.Entry<String, String[]> row : rows.entrySet()) {
+      String[] v = row.getValue();
+      System.out.printf("%-22s %9s %7s %9s %9s %9s %9s %9s %9s%n", row.getKey(), v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7]);
+    }
+    System.out.printf("%-22s %9d %7s %9.1f%n", "total", totalRequests, "", totalRequests / elapsedSeconds);
+
+    if (output.getParent() != null) {
+      Files.createDirectories(output.getParent());
+    }
+    try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(output))) {
+      csv.println("# mix=" + mix + " threads=" + threads + " dataset=" + dataset + " seconds=" + Math.round(elapsedSeconds));
+      csv.println("endpoint,requests,errors,throughput,p50_ms,p90_ms,p99_ms,p999_ms,max_ms");
+      for (Map.Entry<String, String[]> row : rows.entrySet()) {
+        csv.println(row.getKey() + "," + String.join(",", row.getValue()));
+      }
+    }
+    System.out.println("\nWrote " + output);
+  }
+
+  private HttpRequest.Builder post(String path) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + path)).POST(HttpRequest.BodyPublishers.noBody());
+  }
+
+  private HttpRequest.Builder postJson(String path, String json) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + path))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(json));
+  }
+
+  private static String encode(String pathSegment) {
+    return URLEncoder.encode(pathSegment, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+}
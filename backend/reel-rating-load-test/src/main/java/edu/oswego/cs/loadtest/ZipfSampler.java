@@ -0,0 +1,42 @@
+package edu.oswego.cs.loadtest;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Samples indexes 0..n-1 with Zipfian popularity: index k is chosen with probability proportional
+ * to 1 / (k + 1)^exponent, so a few items (the most watched movies, the busiest users) account for
+ * most of the traffic the way they do in real catalogs.
+ *
+ * <p>The cumulative distribution is precomputed once (8 bytes per item) and sampled with a binary
+ * search, so a sampler can be shared between threads as long as each brings its own random source.</p>
+ */
+public class ZipfSampler {
+
+  private final double[] cumulative;
+
+  public ZipfSampler(int n, double exponent) {
+    if (n < 1) {
+      throw new IllegalArgumentException("n must be positive: " + n);
+    }
+    cumulative = new double[n];
+    double sum = 0;
+    for (int k = 0; k < n; k++) {
+      sum += 1 / Math.pow(k + 1, exponent);
+      cumulative[k] = sum;
+    }
+    for (int k = 0; k < n; k++) {
+      cumulative[k] /= sum;
+    }
+  }
+
+  public int sample(RandomGenerator random) {
+    int index = Arrays.binarySearch(cumulative, random.nextDouble());
+    int k = index >= 0 ? index : -index - 1;
+    return Math.min(k, cumulative.length - 1);
+  }
+
+  public int size() {
+    return cumulative.length;
+  }
+}
@@ -0,0 +1,558 @@
+package edu.oswego.cs.rest;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * A compact binary copy of the <code>movieSummaries</code> collection on local disk (movie
+ * metadata, cast names, flag names and rating summaries), so that after a restart the summary
+ * endpoint is answered from the first request on instead of every instance sending its whole
+ * traffic to Mongo at once.
+ *
+ * <p>The snapshot is written every <code>CATALOG_SNAPSHOT_MINUTES</code> (15 by default, 0 turns
+ * it off) to <code>CATALOG_SNAPSHOT_FILE</code> (<code>catalog.snapshot</code>) and memory-mapped
+ * when the application starts, so loading it costs no reads and only the summaries asked for are
+ * paged in. What changed since it was taken is then replayed in the background and kept in memory
+ * next to it: summaries rewritten since (their <code>builtAt</code>), every
+ * <code>CATALOG_DELTA_SECONDS</code> (30), and summaries of deleted movies, whenever the
+ * <code>movies</code> version moved. Writes through this instance go to memory as they happen. If
+ * more than <code>CATALOG_SNAPSHOT_MAX_DELTA</code> (10000) summaries changed, a new snapshot is
+ * written instead.</p>
+ *
+ * <p>Each replay records the shared {@link CollectionVersions} of <code>movieSummaries</code>
+ * it started from. While the version is newer, because a write went through this or another
+ * instance since, or the shared versions are out of date, the snapshot does not answer and a
+ * replay is started right away, so an answer is never older than the ETag it is sent with.</p>
+ *
+ * <p>The file is big endian apart from the BSON documents:</p>
+ * <pre>
+ * header   "RRCS" | format version (int) | taken at (long, epoch millis)
+ * records  per movie, in _id order: length (int) | summary as BSON, without _id and builtAt
+ * index    per movie, in _id order: _id (12 bytes) | offset of its record (long)
+ * trailer  offset of the index (long) | number of movies (int) | "RRCS"
+ * </pre>
+ * <p>Records are appended as the collection is read and the fixed size index follows them, so the
+ * file is written in one pass and a lookup is a binary search of the mapped index.</p>
+ */
+public class CatalogSnapshot {
+
+  private static final Logger LOGGER = Logger.getLogger(CatalogSnapshot.class.getName());
+  private static final JsonWriterSettings RELAXED_JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+  // "RRCS"
+  private static final int MAGIC = 0x52524353;
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  private static final int INDEX_ENTRY_BYTES = 20;
+  private static final int TRAILER_BYTES = 16;
+  // summaries are stamped with the clock of the instance that built them
+  private static final long DELTA_OVERLAP_MILLIS = 60_000;
+
+  private static final CatalogSnapshot INSTANCE = new CatalogSnapshot();
+
+  private final long snapshotMinutes = intFromEnv("CATALOG_SNAPSHOT_MINUTES", 15);
+  private final long deltaSeconds = intFromEnv("CATALOG_DELTA_SECONDS", 30);
+  private final int maxDelta = intFromEnv("CATALOG_SNAPSHOT_MAX_DELTA", 10000);
+  private final Path file;
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "catalog-snapshot");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final AtomicBoolean started = new AtomicBoolean();
+  // guards changes to the state, reads need no lock
+  private final Object lock = new Object();
+  private volatile State state;
+  // the start of the last replay, written by the scheduler thread only
+  private long deltaSince;
+  // the movieSummaries version the memory is current with, -1 before the first replay
+  private volatile long replayedVersion = -1;
+  // the movies version deletions were last looked for at, scheduler thread only
+  private long removedVersion = -1;
+  private final AtomicBoolean replayQueued = new AtomicBoolean();
+
+  /**
+   * The mapped snapshot and what changed since it was taken, replaced as a whole by the next one.
+   */
+  private static final class State {
+    final Mapped mapped;
+    final Map<ObjectId, Changed> changed = new ConcurrentHashMap<>();
+    // titles of movies deleted since, by when
+    final Map<String, Long> deletedTitles = new ConcurrentHashMap<>();
+    // snapshot entries whose movie no longer exists
+    volatile BitSet removed = new BitSet();
+
+    State(Mapped mapped) {
+      this.mapped = mapped;
+    }
+  }
+
+  private static final class Changed {
+    final String title;
+    final String json;
+    final long at;
+
+    Changed(String title, String json, long at) {
+      this.title = title;
+      this.json = json;
+      this.at = at;
+    }
+  }
+
+  private CatalogSnapshot() {
+    String configured = System.getenv("CATALOG_SNAPSHOT_FILE");
+    file = Path.of(configured == null || configured.isBlank() ? "catalog.snapshot" : configured.trim());
+  }
+
+  public static CatalogSnapshot getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Maps the snapshot on disk, if there is one, then replays what changed since in the background,
+   * or writes the first snapshot, and schedules the next ones.
+   */
+  public void start() {
+    if (snapshotMinutes <= 0 || !started.compareAndSet(false, true)) {
+      return;
+    }
+    boolean loaded = false;
+    if (Files.exists(file)) {
+      try {
+        Mapped mapped = Mapped.open(file);
+        swap(mapped);
+        loaded = true;
+        LOGGER.info(() -> "Mapped the catalog snapshot of " + mapped.count + " movies taken "
+            + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - mapped.takenAt) + " s ago");
+      } catch (IOException | RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Could not map the catalog snapshot " + file + ", writing a new one", e);
+      }
+    }
+    boolean replay = loaded;
+    scheduler.execute(() -> {
+      try {
+        getSummaryCollection().createIndex(Indexes.ascending("builtAt"));
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Could not create the movieSummaries builtAt index", e);
+      }
+      if (replay) {
+        replaySafely();
+      } else {
+        writeSafely();
+      }
+    });
+    if (deltaSeconds > 0) {
+      scheduler.scheduleWithFixedDelay(this::replaySafely, deltaSeconds, deltaSeconds, TimeUnit.SECONDS);
+    }
+    scheduler.scheduleWithFixedDelay(this::writeSafely, snapshotMinutes, snapshotMinutes, TimeUnit.MINUTES);
+  }
+
+  public void stop() {
+    scheduler.shutdownNow();
+  }
+
+  public void writeInBackground() {
+    if (started.get() && !scheduler.isShutdown()) {
+      scheduler.execute(this::writeSafely);
+    }
+  }
+
+  /**
+   * @return the summary as {@link MovieSummaries#getSummaryJson} returns it, or null if the
+   *         snapshot cannot answer and the collection has to be read
+   */
+  public String summaryJson(ObjectId movieId) {
+    State current = state;
+    if (current == null) {
+      return null;
+    }
+    if (!CollectionVersions.isCurrent() || CollectionVersions.get("movieSummaries") > replayedVersion) {
+      replayInBackground();
+      return null;
+    }
+    Changed changed = current.changed.get(movieId);
+    if (changed != null) {
+      return changed.json;
+    }
+    int ordinal = current.mapped.find(movieId.toByteArray());
+    if (ordinal < 0 || current.removed.get(ordinal)) {
+      return null;
+    }
+    RawBsonDocument summary = current.mapped.document(ordinal);
+    BsonValue title = summary.get("title");
+    if (title != null && title.isString() && current.deletedTitles.containsKey(title.asString().getValue())) {
+      return null;
+    }
+    return summary.toJson(RELAXED_JSON);
+  }
+
+  /**
+   * Records a summary this instance just wrote.
+   * @param summary the whole summary with its _id, without builtAt
+   */
+  void changed(Document summary) {
+    if (state != null && summary != null) {
+      put(summary, System.currentTimeMillis(), Long.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Records the summaries a refresh stamped with builtAt.
+   */
+  void refreshed(Date builtAt) {
+    if (state != null) {
+      for (Document summary : getSummaryCollection().find(Filters.eq("builtAt", builtAt)).projection(Projections.exclude("builtAt"))) {
+        changed(summary);
+      }
+    }
+  }
+
+  void removed(String movieTitle) {
+    synchronized (lock) {
+      State current = state;
+      if (current != null) {
+        current.deletedTitles.put(movieTitle, System.currentTimeMillis());
+        current.changed.values().removeIf(changed -> movieTitle.equals(changed.title));
+      }
+    }
+  }
+
+  /**
+   * @param at when the summary was read
+   * @param unlessChangedAfter keeps the summary already recorded if it was recorded after this
+   */
+  private void put(Document summary, long at, long unlessChangedAfter) {
+    ObjectId id = summary.getObjectId("_id");
+    summary.remove("_id");
+    Object title = summary.get("title");
+    Changed changed = new Changed(title instanceof String ? (String) title : null, summary.toJson(RELAXED_JSON), at);
+    int size;
+    synchronized (lock) {
+      State current = state;
+      Changed previous = current.changed.get(id);
+      if (previous != null && previous.at > unlessChangedAfter) {
+        return;
+      }
+      current.changed.put(id, changed);
+      size = current.changed.size();
+    }
+    if (size == maxDelta + 1) {
+      writeInBackground();
+    }
+  }
+
+  private void replayInBackground() {
+    if (started.get() && !scheduler.isShutdown() && replayQueued.compareAndSet(false, true)) {
+      scheduler.execute(this::replaySafely);
+    }
+  }
+
+  private void replaySafely() {
+    replayQueued.set(false);
+    try {
+      long moviesVersion = CollectionVersions.get("movies");
+      if (moviesVersion != removedVersion) {
+        markRemoved();
+        removedVersion = moviesVersion;
+      }
+      replay();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not replay the changes since the catalog snapshot", e);
+    }
+  }
+
+  /**
+   * Reads the summaries rewritten since the last replay into memory.
+   */
+  private void replay() {
+    if (state == null) {
+      return;
+    }
+    // read first, whatever is written from here on moves it again
+    long version = CollectionVersions.get("movieSummaries");
+    long replayStarted = System.currentTimeMillis();
+    List<Document> changed = new ArrayList<>();
+    for (Document summary : getSummaryCollection().find(Filters.gte("builtAt", new Date(deltaSince - DELTA_OVERLAP_MILLIS)))
+        .projection(Projections.exclude("builtAt")).limit(maxDelta + 1)) {
+      changed.add(summary);
+    }
+    if (changed.size() > maxDelta) {
+      writeSafely();
+      return;
+    }
+    for (Document summary : changed) {
+      put(summary, replayStarted, replayStarted);
+    }
+    deltaSince = replayStarted;
+    replayedVersion = version;
+  }
+
+  /**
+   * Marks the movies of the snapshot whose summary is gone, walking the snapshot index and the
+   * _id index of the collection side by side, and drops the replayed summaries that are gone.
+   */
+  private void markRemoved() {
+    State current = state;
+    Mapped mapped = current.mapped;
+    BitSet removed = new BitSet(mapped.count);
+    int ordinal = 0;
+    for (BsonDocument live : getSummaryCollection().withDocumentClass(BsonDocument.class).find()
+        .projection(Projections.include("_id")).sort(Sorts.ascending("_id"))) {
+      if (!live.isObjectId("_id")) {
+        continue;
+      }
+      byte[] id = live.getObjectId("_id").getValue().toByteArray();
+      while (ordinal < mapped.count && mapped.compare(ordinal, id) < 0) {
+        removed.set(ordinal++);
+      }
+      if (ordinal < mapped.count && mapped.compare(ordinal, id) == 0) {
+        ordinal++;
+      }
+    }
+    removed.set(ordinal, mapped.count);
+    current.removed = removed;
+    List<ObjectId> replayed = new ArrayList<>(current.changed.keySet());
+    if (!replayed.isEmpty()) {
+      Set<Object> live = new HashSet<>();
+      for (Document summary : getSummaryCollection().find(Filters.in("_id", replayed)).projection(Projections.include("_id"))) {
+        live.add(summary.get("_id"));
+      }
+      synchronized (lock) {
+        for (ObjectId id : replayed) {
+          if (!live.contains(id)) {
+            current.changed.remove(id);
+          }
+        }
+      }
+    }
+    if (!removed.isEmpty()) {
+      LOGGER.info(() -> removed.cardinality() + " movies of the catalog snapshot were deleted since it was taken");
+    }
+  }
+
+  private void writeSafely() {
+    long writeStarted = System.nanoTime();
+    long version = CollectionVersions.get("movieSummaries");
+    long moviesVersion = CollectionVersions.get("movies");
+    try {
+      Mapped mapped = write(getSummaryCollection().withDocumentClass(BsonDocument.class).find()
+          .projection(Projections.exclude("builtAt")).sort(Sorts.ascending("_id")), file);
+      swap(mapped);
+      // read before the snapshot, so anything written while it was taken starts a replay
+      removedVersion = moviesVersion;
+      replayedVersion = version;
+      LOGGER.info(() -> "Wrote the catalog snapshot of " + mapped.count + " movies in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - writeStarted) + " ms");
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not write the catalog snapshot " + file, e);
+    }
+  }
+
+  /**
+   * Replaces the state, keeping what changed after the new snapshot was taken.
+   */
+  private void swap(Mapped mapped) {
+    synchronized (lock) {
+      State previous = state;
+      State next = new State(mapped);
+      if (previous != null) {
+        previous.changed.forEach((id, changed) -> {
+          if (changed.at >= mapped.takenAt) {
+            next.changed.put(id, changed);
+          }
+        });
+        previous.deletedTitles.forEach((title, at) -> {
+          if (at >= mapped.takenAt) {
+            next.deletedTitles.put(title, at);
+          }
+        });
+      }
+      state = next;
+    }
+    deltaSince = mapped.takenAt;
+  }
+
+  /**
+   * Writes the summaries to a new file next to the snapshot and moves it in place.
+   * @param summaries in _id order
+   * @return the new snapshot, mapped
+   */
+  static Mapped write(Iterable<BsonDocument> summaries, Path file) throws IOException {
+    long takenAt = System.currentTimeMillis();
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    DataOutputStream indexOut = new DataOutputStream(index);
+    BsonDocumentCodec codec = new BsonDocumentCodec();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeLong(takenAt);
+      long offset = HEADER_BYTES;
+      int count = 0;
+      byte[] previous = null;
+      for (BsonDocument summary : summaries) {
+        if (!summary.isObjectId("_id")) {
+          continue;
+        }
+        byte[] id = summary.remove("_id").asObjectId().getValue().toByteArray();
+        if (previous != null && Arrays.compareUnsigned(previous, id) >= 0) {
+          throw new IllegalStateException("movieSummaries were not returned in _id order");
+        }
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), summary, EncoderContext.builder().build());
+        out.writeInt(buffer.getSize());
+        buffer.pipe(out);
+        indexOut.write(id);
+        indexOut.writeLong(offset);
+        offset += 4 + buffer.getSize();
+        count++;
+        previous = id;
+      }
+      if (offset + index.size() + TRAILER_BYTES > Integer.MAX_VALUE) {
+        throw new IOException("The catalog snapshot would be larger than can be mapped");
+      }
+      index.writeTo(out);
+      out.writeLong(offset);
+      out.writeInt(count);
+      out.writeInt(MAGIC);
+    }
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return Mapped.open(file);
+  }
+
+  private MongoCollection<Document> getSummaryCollection() {
+    return new MovieSummaries(new DatabaseController()).getSummaryCollection();
+  }
+
+  /**
+   * A snapshot file mapped read only. The mapping outlives the file being replaced.
+   */
+  static final class Mapped {
+    final ByteBuffer buffer;
+    final long takenAt;
+    final int count;
+    final int indexOffset;
+
+    private Mapped(ByteBuffer buffer, long takenAt, int count, int indexOffset) {
+      this.buffer = buffer;
+      this.takenAt = takenAt;
+      this.count = count;
+      this.indexOffset = indexOffset;
+    }
+
+    static Mapped open(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size < HEADER_BYTES + TRAILER_BYTES || size > Integer.MAX_VALUE) {
+          throw new IOException(file + " is not a catalog snapshot");
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int trailer = (int) size - TRAILER_BYTES;
+        long indexOffset = buffer.getLong(trailer);
+        int count = buffer.getInt(trailer + 8);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(trailer + 12) != MAGIC) {
+          throw new IOException(file + " is not a catalog snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+          throw new IOException(file + " has format version " + buffer.getInt(4) + ", expected " + FORMAT_VERSION);
+        }
+        if (count < 0 || indexOffset < HEADER_BYTES || indexOffset + (long) count * INDEX_ENTRY_BYTES != trailer) {
+          throw new IOException(file + " is truncated or corrupt");
+        }
+        return new Mapped(buffer, buffer.getLong(8), count, (int) indexOffset);
+      }
+    }
+
+    /**
+     * @return the position of the movie in the index, or -1 if it is not in the snapshot
+     */
+    int find(byte[] id) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int comparison = compare(middle, id);
+        if (comparison < 0) {
+          low = middle + 1;
+        } else if (comparison > 0) {
+          high = middle - 1;
+        } else {
+          return middle;
+        }
+      }
+      return -1;
+    }
+
+    int compare(int ordinal, byte[] id) {
+      int entry = indexOffset + ordinal * INDEX_ENTRY_BYTES;
+      for (int i = 0; i < id.length; i++) {
+        int comparison = Byte.compareUnsigned(buffer.get(entry + i), id[i]);
+        if (comparison != 0) {
+          return comparison;
+        }
+      }
+      return 0;
+    }
+
+    RawBsonDocument document(int ordinal) {
+      int record = (int) buffer.getLong(indexOffset + ordinal * INDEX_ENTRY_BYTES + 12);
+      byte[] bytes = new byte[buffer.getInt(record)];
+      buffer.get(record + 4, bytes);
+      return new RawBsonDocument(bytes);
+    }
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
@@ -0,0 +1,22 @@
+package edu.oswego.cs.rest;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.BeforeDestroyed;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Maps the {@link CatalogSnapshot} when the application starts, so movie summaries are answered
+ * from it right away, and stops its background replay and rewrites when the application stops.
+ */
+@ApplicationScoped
+public class CatalogSnapshotInitializer {
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    CatalogSnapshot.getInstance().start();
+  }
+
+  public void onShutdown(@Observes @BeforeDestroyed(ApplicationScoped.class) Object event) {
+    CatalogSnapshot.getInstance().stop();
+  }
+}
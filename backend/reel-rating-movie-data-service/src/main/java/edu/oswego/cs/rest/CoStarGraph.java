@@ -0,0 +1,727 @@
+package edu.oswego.cs.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+
+import edu.oswego.cs.rest.JsonClasses.Collaborator;
+import edu.oswego.cs.rest.JsonClasses.CoStarPath;
+import edu.oswego.cs.rest.JsonClasses.FilmographyEntry;
+
+/**
+ * In-memory bipartite graph of actors and the movies they are in, for degrees-of-separation,
+ * frequent collaborator and filmography queries.
+ *
+ * <p>Actors (by name) and movies (by title) get dense int ordinals, and the edges are kept as two
+ * CSR adjacency arrays, actor to movies and movie to actors, so the whole graph is four int arrays.
+ * An edge exists when the actor's <code>movies</code> lists the movie or the movie's
+ * <code>principalCast</code> or <code>actorNames</code> lists the actor.</p>
+ *
+ * <p>DatabaseController reports actor and movie writes, which reload the adjacency of the actor
+ * (or drop the movie) and are applied copy-on-write as per-node overrides on top of the CSR arrays,
+ * so queries keep reading the snapshot they started with. Once there are more than
+ * <code>COSTAR_GRAPH_MAX_OVERRIDES</code> (default 4096) overridden nodes they are folded into new
+ * CSR arrays. A full rebuild from Mongo runs every <code>COSTAR_GRAPH_REBUILD_MINUTES</code>
+ * (default 60); writes made while it scans are replayed on top of its result.</p>
+ */
+public class CoStarGraph {
+
+  private static final Logger LOGGER = Logger.getLogger(CoStarGraph.class.getName());
+  private static final CoStarGraph INSTANCE = new CoStarGraph();
+  private static final int[] NONE = new int[0];
+  private static final int MAX_OVERRIDES = intFromEnv("COSTAR_GRAPH_MAX_OVERRIDES", 4096);
+  /** Longest chain searched by default and at most, so an unconnected pair cannot scan the whole graph. */
+  static final int MAX_DEGREES = intFromEnv("COSTAR_MAX_DEGREES", 6);
+  /** Version key bumped whenever the graph changes, for the ETag of the graph routes. */
+  static final String VERSION = CollectionVersions.localKey("coStarGraph");
+
+  /**
+   * Dense ordinals for names. Only ever appended, so all snapshots share them.
+   */
+  static class Names {
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[1024];
+    private volatile int size;
+
+    int ordinalOf(String name) {
+      Integer ordinal = name == null ? null : ordinals.get(name);
+      return ordinal == null ? -1 : ordinal;
+    }
+
+    synchronized int assign(String name) {
+      Integer existing = ordinals.get(name);
+      if (existing != null) {
+        return existing;
+      }
+      if (size == names.length) {
+        names = Arrays.copyOf(names, size * 2);
+      }
+      names[size] = name;
+      ordinals.put(name, size);
+      return size++;
+    }
+
+    String nameAt(int ordinal) {
+      return names[ordinal];
+    }
+  }
+
+  /**
+   * An immutable snapshot of the graph: CSR arrays for the nodes that existed when they were built
+   * plus full adjacency lists for the nodes changed since. Adjacency lists are sorted.
+   */
+  static final class Snapshot {
+    final int[] actorOffsets;
+    final int[] actorMovies;
+    final int[] movieOffsets;
+    final int[] movieActors;
+    final Map<Integer, int[]> actorOverrides;
+    final Map<Integer, int[]> movieOverrides;
+
+    Snapshot(int[] actorOffsets, int[] actorMovies, int[] movieOffsets, int[] movieActors,
+             Map<Integer, int[]> actorOverrides, Map<Integer, int[]> movieOverrides) {
+      this.actorOffsets = actorOffsets;
+      this.actorMovies = actorMovies;
+      this.movieOffsets = movieOffsets;
+      this.movieActors = movieActors;
+      this.actorOverrides = Collections.unmodifiableMap(actorOverrides);
+      this.movieOverrides = Collections.unmodifiableMap(movieOverrides);
+    }
+
+    void forEachMovie(int actor, IntConsumer action) {
+      forEach(actor, actorOffsets, actorMovies, actorOverrides, action);
+    }
+
+    void forEachActor(int movie, IntConsumer action) {
+      forEach(movie, movieOffsets, movieActors, movieOverrides, action);
+    }
+
+    int[] moviesOf(int actor) {
+      return adjacency(actor, actorOffsets, actorMovies, actorOverrides);
+    }
+
+    int[] actorsOf(int movie) {
+      return adjacency(movie, movieOffsets, movieActors, movieOverrides);
+    }
+
+    private static void forEach(int node, int[] offsets, int[] targets, Map<Integer, int[]> overrides, IntConsumer action) {
+      int[] override = overrides.get(node);
+      if (override != null) {
+        for (int target : override) {
+          action.accept(target);
+        }
+      } else if (node + 1 < offsets.length) {
+        for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+          action.accept(targets[i]);
+        }
+      }
+    }
+
+    private static int[] adjacency(int node, int[] offsets, int[] targets, Map<Integer, int[]> overrides) {
+      int[] override = overrides.get(node);
+      if (override != null) {
+        return override;
+      }
+      return node + 1 < offsets.length ? Arrays.copyOfRange(targets, offsets[node], offsets[node + 1]) : NONE;
+    }
+  }
+
+  private final Names actors = new Names();
+  private final Names movies = new Names();
+  private final AtomicBoolean rebuilding = new AtomicBoolean();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "costar-graph");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile Snapshot snapshot;
+  // changes made while a rebuild is scanning, replayed onto its result
+  private List<UnaryOperator<Snapshot>> replay;
+
+  private CoStarGraph() {}
+
+  public static CoStarGraph getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Builds the graph in the background and schedules the periodic rebuild.
+   */
+  public void start() {
+    scheduler.execute(this::rebuildQuietly);
+    long rebuildMinutes = intFromEnv("COSTAR_GRAPH_REBUILD_MINUTES", 60);
+    if (rebuildMinutes > 0) {
+      scheduler.scheduleWithFixedDelay(this::rebuildQuietly, rebuildMinutes, rebuildMinutes, TimeUnit.MINUTES);
+    }
+  }
+
+  /**
+   * Rebuilds in the background, for example after a restore.
+   */
+  public void rebuildInBackground() {
+    if (!scheduler.isShutdown()) {
+      scheduler.execute(this::rebuildQuietly);
+    }
+  }
+
+  public void stop() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * @return the current snapshot, building it first if there is none yet
+   */
+  Snapshot snapshot() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      synchronized (this) {
+        if (snapshot == null) {
+          rebuild(new DatabaseController());
+        }
+        current = snapshot;
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Reloads which movies the actor is in from the actors and movies collections. Called by
+   * DatabaseController after an actor was created, changed or deleted.
+   */
+  public void actorChanged(DatabaseController db, String actorName) {
+    if (actorName == null) {
+      return;
+    }
+    List<Integer> movieOrdinals = new ArrayList<>();
+    for (Document actor : db.getActorCollection().find(Filters.eq("name", actorName)).projection(Projections.include("movies"))) {
+      forEachName(actor.get("movies"), title -> movieOrdinals.add(movies.assign(title)));
+    }
+    for (Document movie : db.getMovieCollection()
+        .find(Filters.or(Filters.eq("principalCast", actorName), Filters.eq("actorNames", actorName)))
+        .projection(Projections.include("title"))) {
+      if (movie.getString("title") != null) {
+        movieOrdinals.add(movies.assign(movie.getString("title")));
+      }
+    }
+    int actor = actors.assign(actorName);
+    int[] adjacency = sortedUnique(movieOrdinals.stream().mapToInt(Integer::intValue).toArray());
+    apply(current -> withActorMovies(current, actor, adjacency));
+  }
+
+  /**
+   * Drops every edge of the movie. Called by DatabaseController after a movie was deleted.
+   */
+  public void movieRemoved(String title) {
+    int movie = movies.ordinalOf(title);
+    if (movie < 0) {
+      return;
+    }
+    apply(current -> {
+      Map<Integer, int[]> actorOverrides = new HashMap<>(current.actorOverrides);
+      for (int actor : current.actorsOf(movie)) {
+        actorOverrides.put(actor, without(current.moviesOf(actor), movie));
+      }
+      Map<Integer, int[]> movieOverrides = new HashMap<>(current.movieOverrides);
+      movieOverrides.put(movie, NONE);
+      return new Snapshot(current.actorOffsets, current.actorMovies, current.movieOffsets, current.movieActors,
+          actorOverrides, movieOverrides);
+    });
+  }
+
+  /**
+   * Rebuilds the graph from the actors and movies collections, keeping the ordinals already
+   * assigned.
+   */
+  public void rebuild(DatabaseController db) {
+    synchronized (this) {
+      replay = new ArrayList<>();
+    }
+    try {
+      Edges edges = new Edges();
+      for (Document actor : db.getActorCollection().find().projection(Projections.include("name", "movies"))) {
+        String name = actor.getString("name");
+        if (name != null) {
+          int ordinal = actors.assign(name);
+          forEachName(actor.get("movies"), title -> edges.add(ordinal, movies.assign(title)));
+        }
+      }
+      for (Document movie : db.getMovieCollection().find().projection(Projections.include("title", "principalCast", "actorNames"))) {
+        String title = movie.getString("title");
+        if (title != null) {
+          int ordinal = movies.assign(title);
+          forEachName(movie.get("principalCast"), name -> edges.add(actors.assign(name), ordinal));
+          forEachName(movie.get("actorNames"), name -> edges.add(actors.assign(name), ordinal));
+        }
+      }
+      Snapshot built = fromEdges(edges.actors, edges.movies, edges.size, actors.size, movies.size);
+      synchronized (this) {
+        for (UnaryOperator<Snapshot> change : replay) {
+          built = change.apply(built);
+        }
+        snapshot = built;
+        CollectionVersions.bump(VERSION);
+      }
+      int edgeCount = edges.size;
+      LOGGER.fine(() -> "Built the co-star graph with " + edgeCount + " credits");
+    } finally {
+      synchronized (this) {
+        replay = null;
+      }
+    }
+  }
+
+  private void rebuildQuietly() {
+    if (!rebuilding.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      rebuild(new DatabaseController());
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not rebuild the co-star graph", e);
+    } finally {
+      rebuilding.set(false);
+    }
+  }
+
+  private synchronized void apply(UnaryOperator<Snapshot> change) {
+    if (snapshot != null) {
+      Snapshot changed = change.apply(snapshot);
+      if (changed.actorOverrides.size() + changed.movieOverrides.size() > MAX_OVERRIDES) {
+        changed = compact(changed);
+      }
+      snapshot = changed;
+      CollectionVersions.bump(VERSION);
+    }
+    if (replay != null) {
+      replay.add(change);
+    }
+  }
+
+  /**
+   * The shortest chain of co-stars from one actor to another, found with a bidirectional breadth
+   * first search that always expands the smaller frontier.
+   * @return null if either actor is unknown; a path with degrees -1 if they are not connected
+   *         within maxDegrees
+   */
+  public CoStarPath shortestPath(String fromName, String toName, int maxDegrees) {
+    int from = actors.ordinalOf(fromName);
+    int to = actors.ordinalOf(toName);
+    Snapshot graph = snapshot();
+    if (from < 0 || to < 0) {
+      return null;
+    }
+    if (from == to) {
+      return new CoStarPath(0, List.of(fromName), List.of());
+    }
+    Side forward = new Side(from);
+    Side backward = new Side(to);
+    for (int degrees = 0; degrees < maxDegrees && !forward.frontier.isEmpty() && !backward.frontier.isEmpty(); degrees++) {
+      Side expanding = forward.frontier.size <= backward.frontier.size ? forward : backward;
+      Side other = expanding == forward ? backward : forward;
+      int meeting = expanding.expand(graph, other);
+      if (meeting >= 0) {
+        return path(forward, backward, meeting);
+      }
+    }
+    return new CoStarPath(-1, List.of(), List.of());
+  }
+
+  /**
+   * The actors who share the most movies with the given one, most shared first.
+   * @return null if the actor is unknown
+   */
+  public List<Collaborator> collaborators(String name, int limit) {
+    int actor = actors.ordinalOf(name);
+    Snapshot graph = snapshot();
+    if (actor < 0) {
+      return null;
+    }
+    IntIntMap shared = new IntIntMap();
+    for (int movie : graph.moviesOf(actor)) {
+      graph.forEachActor(movie, costar -> {
+        if (costar != actor) {
+          shared.put(costar, shared.get(costar, 0) + 1);
+        }
+      });
+    }
+    // best first: most shared movies, then name
+    List<int[]> ranked = new ArrayList<>(shared.size);
+    shared.forEach((costar, count) -> ranked.add(new int[] {costar, count}));
+    ranked.sort((a, b) -> a[1] != b[1] ? Integer.compare(b[1], a[1]) : actors.nameAt(a[0]).compareTo(actors.nameAt(b[0])));
+    List<Collaborator> result = new ArrayList<>();
+    for (int[] entry : ranked.subList(0, Math.min(limit, ranked.size()))) {
+      List<String> together = new ArrayList<>();
+      for (int movie : graph.moviesOf(actor)) {
+        if (Arrays.binarySearch(graph.actorsOf(movie), entry[0]) >= 0) {
+          together.add(movies.nameAt(movie));
+        }
+      }
+      result.add(new Collaborator(actors.nameAt(entry[0]), entry[1], together));
+    }
+    return result;
+  }
+
+  /**
+   * Every movie of the actor with the other actors in it.
+   * @return null if the actor is unknown
+   */
+  public List<FilmographyEntry> filmography(String name) {
+    int actor = actors.ordinalOf(name);
+    Snapshot graph = snapshot();
+    if (actor < 0) {
+      return null;
+    }
+    List<FilmographyEntry> result = new ArrayList<>();
+    for (int movie : graph.moviesOf(actor)) {
+      List<String> costars = new ArrayList<>();
+      graph.forEachActor(movie, costar -> {
+        if (costar != actor) {
+          costars.add(actors.nameAt(costar));
+        }
+      });
+      result.add(new FilmographyEntry(movies.nameAt(movie), costars));
+    }
+    return result;
+  }
+
+  private CoStarPath path(Side forward, Side backward, int meeting) {
+    List<String> actorNames = new ArrayList<>();
+    List<String> movieTitles = new ArrayList<>();
+    List<Integer> head = new ArrayList<>();
+    List<Integer> headMovies = new ArrayList<>();
+    for (int actor = meeting; actor != forward.start; actor = forward.parent.get(actor, -1)) {
+      head.add(actor);
+      headMovies.add(forward.via.get(actor, -1));
+    }
+    actorNames.add(actors.nameAt(forward.start));
+    for (int i = head.size() - 1; i >= 0; i--) {
+      movieTitles.add(movies.nameAt(headMovies.get(i)));
+      actorNames.add(actors.nameAt(head.get(i)));
+    }
+    for (int actor = meeting; actor != backward.start; actor = backward.parent.get(actor, -1)) {
+      movieTitles.add(movies.nameAt(backward.via.get(actor, -1)));
+      actorNames.add(actors.nameAt(backward.parent.get(actor, -1)));
+    }
+    return new CoStarPath(movieTitles.size(), actorNames, movieTitles);
+  }
+
+  /**
+   * One direction of the bidirectional search: the actors reached so far with the actor and movie
+   * they were reached through, their distance, and the movies already expanded.
+   */
+  private static final class Side {
+    final int start;
+    final IntIntMap parent = new IntIntMap();
+    final IntIntMap via = new IntIntMap();
+    final IntIntMap depth = new IntIntMap();
+    final IntIntMap expandedMovies = new IntIntMap();
+    IntList frontier = new IntList();
+
+    Side(int start) {
+      this.start = start;
+      parent.put(start, -1);
+      via.put(start, -1);
+      depth.put(start, 0);
+      frontier.add(start);
+    }
+
+    /**
+     * Expands the whole frontier by one co-star step.
+     * @return the reached actor with the smallest total distance that the other side has also
+     *         reached, or -1
+     */
+    int expand(Snapshot graph, Side other) {
+      IntList next = new IntList();
+      int[] best = {-1, Integer.MAX_VALUE};
+      for (int i = 0; i < frontier.size; i++) {
+        int actor = frontier.values[i];
+        int nextDepth = depth.get(actor, 0) + 1;
+        graph.forEachMovie(actor, movie -> {
+          if (expandedMovies.get(movie, 0) != 0) {
+            return;
+          }
+          expandedMovies.put(movie, 1);
+          graph.forEachActor(movie, costar -> {
+            if (depth.get(costar, -1) >= 0) {
+              return;
+            }
+            parent.put(costar, actor);
+            via.put(costar, movie);
+            depth.put(costar, nextDepth);
+            next.add(costar);
+            int otherDepth = other.depth.get(costar, -1);
+            if (otherDepth >= 0 && nextDepth + otherDepth < best[1]) {
+              best[0] = costar;
+              best[1] = nextDepth + otherDepth;
+            }
+          });
+        });
+      }
+      frontier = next;
+      return best[0];
+    }
+  }
+
+  private static Snapshot withActorMovies(Snapshot current, int actor, int[] adjacency) {
+    int[] before = current.moviesOf(actor);
+    Map<Integer, int[]> movieOverrides = new HashMap<>(current.movieOverrides);
+    for (int movie : before) {
+      if (Arrays.binarySearch(adjacency, movie) < 0) {
+        movieOverrides.put(movie, without(current.actorsOf(movie), actor));
+      }
+    }
+    for (int movie : adjacency) {
+      if (Arrays.binarySearch(before, movie) < 0) {
+        movieOverrides.put(movie, with(current.actorsOf(movie), actor));
+      }
+    }
+    Map<Integer, int[]> actorOverrides = new HashMap<>(current.actorOverrides);
+    actorOverrides.put(actor, adjacency);
+    return new Snapshot(current.actorOffsets, current.actorMovies, current.movieOffsets, current.movieActors,
+        actorOverrides, movieOverrides);
+  }
+
+  // folds the overrides into fresh CSR arrays
+  private Snapshot compact(Snapshot current) {
+    Edges edges = new Edges();
+    int actorCount = actors.size;
+    for (int actor = 0; actor < actorCount; actor++) {
+      int ordinal = actor;
+      current.forEachMovie(actor, movie -> edges.add(ordinal, movie));
+    }
+    return fromEdges(edges.actors, edges.movies, edges.size, actorCount, movies.size);
+  }
+
+  /**
+   * Builds both CSR directions from (actor, movie) pairs with counting sorts, dropping duplicate
+   * pairs.
+   */
+  static Snapshot fromEdges(int[] edgeActors, int[] edgeMovies, int size, int actorCount, int movieCount) {
+    int[] actorOffsets = new int[actorCount + 1];
+    for (int i = 0; i < size; i++) {
+      actorOffsets[edgeActors[i] + 1]++;
+    }
+    for (int i = 0; i < actorCount; i++) {
+      actorOffsets[i + 1] += actorOffsets[i];
+    }
+    int[] actorMovies = new int[size];
+    int[] fill = Arrays.copyOf(actorOffsets, actorCount);
+    for (int i = 0; i < size; i++) {
+      actorMovies[fill[edgeActors[i]]++] = edgeMovies[i];
+    }
+    // sort and deduplicate every row in place, then close the gaps
+    int write = 0;
+    int rowStart = 0;
+    for (int actor = 0; actor < actorCount; actor++) {
+      int from = rowStart;
+      int to = actorOffsets[actor + 1];
+      rowStart = to;
+      Arrays.sort(actorMovies, from, to);
+      actorOffsets[actor] = write;
+      for (int i = from; i < to; i++) {
+        if (i == from || actorMovies[i] != actorMovies[i - 1]) {
+          actorMovies[write++] = actorMovies[i];
+        }
+      }
+    }
+    actorOffsets[actorCount] = write;
+    actorMovies = Arrays.copyOf(actorMovies, write);
+
+    // walking the actor rows in order leaves every movie row sorted
+    int[] movieOffsets = new int[movieCount + 1];
+    for (int movie : actorMovies) {
+      movieOffsets[movie + 1]++;
+    }
+    for (int i = 0; i < movieCount; i++) {
+      movieOffsets[i + 1] += movieOffsets[i];
+    }
+    int[] movieActors = new int[write];
+    fill = Arrays.copyOf(movieOffsets, movieCount);
+    for (int actor = 0; actor < actorCount; actor++) {
+      for (int i = actorOffsets[actor]; i < actorOffsets[actor + 1]; i++) {
+        movieActors[fill[actorMovies[i]]++] = actor;
+      }
+    }
+    return new Snapshot(actorOffsets, actorMovies, movieOffsets, movieActors, new HashMap<>(), new HashMap<>());
+  }
+
+  private static int[] with(int[] sorted, int value) {
+    int at = Arrays.binarySearch(sorted, value);
+    if (at >= 0) {
+      return sorted;
+    }
+    int insert = -at - 1;
+    int[] result = new int[sorted.length + 1];
+    System.arraycopy(sorted, 0, result, 0, insert);
+    result[insert] = value;
+    System.arraycopy(sorted, insert, result, insert + 1, sorted.length - insert);
+    return result;
+  }
+
+  private static int[] without(int[] sorted, int value) {
+    int at = Arrays.binarySearch(sorted, value);
+    if (at < 0) {
+      return sorted;
+    }
+    int[] result = new int[sorted.length - 1];
+    System.arraycopy(sorted, 0, result, 0, at);
+    System.arraycopy(sorted, at + 1, result, at, sorted.length - at - 1);
+    return result;
+  }
+
+  private static int[] sortedUnique(int[] values) {
+    Arrays.sort(values);
+    int n = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (i == 0 || values[i] != values[i - 1]) {
+        values[n++] = values[i];
+      }
+    }
+    return Arrays.copyOf(values, n);
+  }
+
+  // the arrays are usually lists of names but a single string is also accepted
+  private static void forEachName(Object names, Consumer<String> action) {
+    if (names instanceof Collection) {
+      for (Object name : (Collection<?>) names) {
+        if (name != null) {
+          action.accept(name.toString());
+        }
+      }
+    } else if (names instanceof String && !((String) names).isEmpty()) {
+      action.accept((String) names);
+    }
+  }
+
+  /**
+   * Growable parallel arrays of (actor, movie) pairs.
+   */
+  private static final class Edges {
+    int[] actors = new int[1024];
+    int[] movies = new int[1024];
+    int size;
+
+    void add(int actor, int movie) {
+      if (size == actors.length) {
+        actors = Arrays.copyOf(actors, size * 2);
+        movies = Arrays.copyOf(movies, size * 2);
+      }
+      actors[size] = actor;
+      movies[size] = movie;
+      size++;
+    }
+  }
+
+  private static final class IntList {
+    int[] values = new int[16];
+    int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+  }
+
+  /**
+   * Open addressing map from non-negative ints to ints, so a search only touches the nodes it
+   * reaches instead of allocating arrays over the whole graph.
+   */
+  private static final class IntIntMap {
+    interface Visitor {
+      void visit(int key, int value);
+    }
+
+    private int[] keys = new int[64];
+    private int[] values = new int[64];
+    private int size;
+
+    IntIntMap() {
+      Arrays.fill(keys, -1);
+    }
+
+    int get(int key, int missing) {
+      int mask = keys.length - 1;
+      for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+        if (keys[slot] == key) {
+          return values[slot];
+        }
+        if (keys[slot] == -1) {
+          return missing;
+        }
+      }
+    }
+
+    void put(int key, int value) {
+      if ((size + 1) * 2 > keys.length) {
+        resize();
+      }
+      int mask = keys.length - 1;
+      int slot = mix(key) & mask;
+      while (keys[slot] != -1 && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == -1) {
+        keys[slot] = key;
+        size++;
+      }
+      values[slot] = value;
+    }
+
+    void forEach(Visitor visitor) {
+      for (int slot = 0; slot < keys.length; slot++) {
+        if (keys[slot] != -1) {
+          visitor.visit(keys[slot], values[slot]);
+        }
+      }
+    }
+
+    private void resize() {
+      int[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new int[oldKeys.length * 2];
+      values = new int[oldValues.length * 2];
+      Arrays.fill(keys, -1);
+      size = 0;
+      for (int slot = 0; slot < oldKeys.length; slot++) {
+        if (oldKeys[slot] != -1) {
+          put(oldKeys[slot], oldValues[slot]);
+        }
+      }
+    }
+
+    private static int mix(int key) {
+      int h = key * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+  }
+
+  private static int intFromEnv(String name, int fallback) {
+    String value = System.getenv(name);
+    return value == null || value.isBlank() ? fallback : Integer.parseInt(value.trim());
+  }
+}
@@ -0,0 +1,22 @@
+package edu.oswego.cs.rest;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.BeforeDestroyed;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Builds the {@link CoStarGraph} in the background when the application starts and schedules its
+ * periodic rebuild. A query that arrives before the first build finishes builds it itself.
+ */
+@ApplicationScoped
+public class CoStarGraphInitializer {
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    CoStarGraph.getInstance().start();
+  }
+
+  public void onShutdown(@Observes @BeforeDestroyed(ApplicationScoped.class) Object event) {
+    CoStarGraph.getInstance().stop();
+  }
+}
@@ -0,0 +1,258 @@
+package edu.oswego.cs.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+
+/**
+ * A version number per Mongo collection that goes up every time any instance of this service
+ * writes to it.
+ *
+ * <p>The versions are bumped by {@link MongoCommandMetricsListener} when an insert, update,
+ * delete or findAndModify command finishes, so every write path is covered without the
+ * DatabaseController methods having to remember it. Read endpoints build their ETags from the
+ * versions of the collections they read (see {@link HttpCaching}), which lets a conditional
+ * request be answered without querying Mongo at all.</p>
+ *
+ * <p>The versions are shared through the <code>collectionVersions</code> collection
+ * (<code>{_id: collection, version}</code>). Every <code>COLLECTION_VERSION_REFRESH_MILLIS</code>
+ * (default 1000) each instance adds its own bumps to it and reads back everyone else's, so a tag
+ * handed out by one instance means the same data on every other, and across restarts. A write
+ * through another instance is seen within two refresh intervals. The versions are read from the
+ * primary in a causally consistent session whose time is handed to {@link ReadRouting}, so reads
+ * from a secondary wait until it has every write those versions count. Until this instance's bumps are
+ * added, or whenever the versions could not be read back for three intervals, tags are prefixed
+ * with its start time so they only match on this instance; in the second case no tag is given out
+ * at all, see {@link #isCurrent()}. Writes made directly to the database, bypassing the service,
+ * and bumps lost to a crash before they were added are not seen until the next write to the
+ * collection.</p>
+ *
+ * <p>Keys made with {@link #localKey(String)} version state held in memory by each instance, such
+ * as the co-star graph. They are never shared and their tags always carry the start time. Instances
+ * restored from the same InstantOn checkpoint take a new start time on restore (see
+ * {@link WarmupInitializer}).</p>
+ */
+public class CollectionVersions {
+
+  private static final Logger LOGGER = Logger.getLogger(CollectionVersions.class.getName());
+  static final String COLLECTION = "collectionVersions";
+  // collection names cannot contain '$', so local keys never clash with them
+  private static final String LOCAL_PREFIX = "$";
+  static final int REFRESH_MILLIS = intFromEnv("COLLECTION_VERSION_REFRESH_MILLIS", 1000);
+
+  private static volatile String epoch = Long.toString(System.currentTimeMillis(), 36);
+  private static final Map<String, Version> VERSIONS = new ConcurrentHashMap<>();
+  private static final AtomicBoolean STARTED = new AtomicBoolean();
+  // System.nanoTime() of the last time the shared versions were read, 0 before the first
+  private static volatile long lastRefreshed;
+  private static ScheduledExecutorService scheduler;
+
+  /**
+   * The shared version of a collection as last read, and the bumps of this instance that are not
+   * in it yet. The total of both only goes up.
+   */
+  private static final class Version {
+    long shared;
+    long pending;
+    // every bump of this instance, shared or not
+    long own;
+
+    synchronized long total() {
+      return shared + pending;
+    }
+
+    synchronized long pending() {
+      return pending;
+    }
+
+    synchronized void bump() {
+      pending++;
+      own++;
+    }
+
+    synchronized long others() {
+      return shared + pending - own;
+    }
+
+    synchronized void pushed(long count, long version) {
+      pending -= count;
+      shared = Math.max(shared, version);
+    }
+
+    synchronized void read(long version) {
+      shared = Math.max(shared, version);
+    }
+  }
+
+  private CollectionVersions() {}
+
+  /**
+   * Starts sharing the versions with the other instances.
+   */
+  static synchronized void start() {
+    if (REFRESH_MILLIS <= 0 || !STARTED.compareAndSet(false, true)) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "collection-versions");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(CollectionVersions::syncSafely, 0, REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the refreshes and adds the bumps not shared yet.
+   */
+  static synchronized void stop() {
+    if (scheduler == null) {
+      return;
+    }
+    scheduler.shutdown();
+    try {
+      if (scheduler.awaitTermination(REFRESH_MILLIS, TimeUnit.MILLISECONDS)) {
+        syncSafely();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Starts a new epoch, so tags handed out by another instance with the same versions do not match.
+   */
+  static void renewEpoch() {
+    epoch = Long.toString(System.currentTimeMillis(), 36);
+    lastRefreshed = 0;
+  }
+
+  /**
+   * @return a key for state kept in memory by each instance, which is versioned but not shared
+   */
+  static String localKey(String name) {
+    return LOCAL_PREFIX + name;
+  }
+
+  /**
+   * @return whether the shared versions were read recently enough for a tag or cached entity to be
+   *         trusted, or sharing is turned off
+   */
+  public static boolean isCurrent() {
+    if (REFRESH_MILLIS <= 0) {
+      return true;
+    }
+    long refreshed = lastRefreshed;
+    return refreshed != 0 && System.nanoTime() - refreshed < TimeUnit.MILLISECONDS.toNanos(3L * REFRESH_MILLIS);
+  }
+
+  /**
+   * @return the version of a collection as seen by this instance, which only goes up
+   */
+  public static long get(String collection) {
+    return version(collection).total();
+  }
+
+  /**
+   * @return how far the version of a collection moved through writes of other instances (and the
+   *         start value read from the shared collection), which only goes up
+   */
+  public static long others(String collection) {
+    return version(collection).others();
+  }
+
+  public static void bump(String collection) {
+    if (!COLLECTION.equals(collection)) {
+      version(collection).bump();
+    }
+  }
+
+  /**
+   * @return the version of each key, for example <code>12.4</code>, prefixed with the start time of
+   *         this instance (<code>lq3x9k-12.4</code>) if the tag only holds on this instance, or null
+   *         if the shared versions are out of date
+   */
+  public static String tagOf(String... keys) {
+    boolean instanceOnly = REFRESH_MILLIS <= 0;
+    for (String key : keys) {
+      if (!key.startsWith(LOCAL_PREFIX)) {
+        if (!isCurrent()) {
+          return null;
+        }
+        instanceOnly |= version(key).pending() > 0;
+      } else {
+        instanceOnly = true;
+      }
+    }
+    StringBuilder tag = new StringBuilder();
+    if (instanceOnly) {
+      tag.append(epoch).append('-');
+    }
+    for (int i = 0; i < keys.length; i++) {
+      if (i > 0) {
+        tag.append('.');
+      }
+      tag.append(get(keys[i]));
+    }
+    return tag.toString();
+  }
+
+  private static Version version(String key) {
+    return VERSIONS.computeIfAbsent(key, name -> new Version());
+  }
+
+  private static void syncSafely() {
+    try {
+      sync();
+    } catch (RuntimeException e) {
+      LOGGER.log(isCurrent() ? Level.FINE : Level.WARNING, "Could not share the collection versions", e);
+    }
+  }
+
+  private static void sync() {
+    MongoCollection<Document> shared = new DatabaseController().getMovieDatabase().getCollection(COLLECTION);
+    for (Map.Entry<String, Version> entry : VERSIONS.entrySet()) {
+      long count = entry.getValue().pending();
+      if (count > 0 && !entry.getKey().startsWith(LOCAL_PREFIX)) {
+        Document updated = shared.findOneAndUpdate(Filters.eq("_id", entry.getKey()), Updates.inc("version", count),
+            new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        entry.getValue().pushed(count, ((Number) updated.get("version")).longValue());
+      }
+    }
+    long started = System.nanoTime();
+    List<Document> documents = new ArrayList<>();
+    try (ClientSession session = ReadRouting.causalSession()) {
+      shared.withReadPreference(ReadPreference.primary()).find(session).into(documents);
+      // before any tag holds the new versions
+      ReadRouting.sessionSeen(session);
+    }
+    for (Document document : documents) {
+      Object version = document.get("version");
+      if (document.get("_id") instanceof String && version instanceof Number) {
+        version(document.getString("_id")).read(((Number) version).longValue());
+      }
+    }
+    lastRefreshed = started;
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
@@ -0,0 +1,22 @@
+package edu.oswego.cs.rest;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.BeforeDestroyed;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Starts sharing the {@link CollectionVersions} with the other instances when the application
+ * starts, and shares the last bumps when it stops.
+ */
+@ApplicationScoped
+public class CollectionVersionsInitializer {
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    CollectionVersions.start();
+  }
+
+  public void onShutdown(@Observes @BeforeDestroyed(ApplicationScoped.class) Object event) {
+    CollectionVersions.stop();
+  }
+}
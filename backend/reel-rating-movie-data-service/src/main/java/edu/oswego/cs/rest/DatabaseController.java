@@ -1,32 +1,111 @@
 package edu.oswego.cs.rest;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.Updates;
 
 import edu.oswego.cs.rest.JsonClasses.Actor;
+import edu.oswego.cs.rest.ReadRouting.QueryClass;
 import edu.oswego.cs.rest.JsonClasses.Movie;
 import edu.oswego.cs.rest.JsonClasses.Rating;
 import edu.oswego.cs.rest.JsonClasses.Review;
 
 public class DatabaseController {
+  private static final JsonWriterSettings RELAXED_JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
   String mongoDatabaseName = System.getenv("MONGO_MOVIE_DATABASE_NAME");
-  String mongoURL = System.getenv("MONGO_MOVIE_URL");
+  static String mongoURL = System.getenv("MONGO_MOVIE_URL");
+
+  private static MongoClient mongoClient;
+  // from before a checkpoint until the restore, when no client may be opened
+  private static boolean checkpointing;
+
+  // entities resolved by the batch lookups, invalidated by any write to their collection
+  private static final EntityCache<Movie> MOVIE_CACHE = new EntityCache<>("movies");
+  private static final EntityCache<Actor> ACTOR_CACHE = new EntityCache<>("actors");
+  private static final EntityCache<Review> REVIEW_CACHE = new EntityCache<>("reviews");
+
+  // kept in step with every write below
+  private final MovieSummaries movieSummaries = new MovieSummaries(this);
+
+  /**
+   * The client is shared by every DatabaseController so that requests reuse one connection pool.
+   * Command and connection pool listeners are registered on it to publish Mongo metrics.
+   */
+  static synchronized MongoClient getMongoClient() {
+    while (checkpointing) {
+      try {
+        DatabaseController.class.wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the restore", e);
+      }
+    }
+    if (mongoClient == null) {
+      MongoClientSettings settings = MongoClientSettings.builder()
+          .applyConnectionString(new ConnectionString(mongoURL))
+          .addCommandListener(new MongoCommandMetricsListener(DatabaseController::getMongoClient))
+          .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(new MongoPoolMetricsListener()))
+          .build();
+      mongoClient = MongoClients.create(settings);
+    }
+    return mongoClient;
+  }
+
+  /**
+   * Closes the shared client before a checkpoint. Until {@link #restored()} every use of it waits,
+   * which pauses the background jobs at their next query, so no connection is opened again before
+   * the checkpoint is taken.
+   */
+  static synchronized void closeForCheckpoint() {
+    checkpointing = true;
+    if (mongoClient != null) {
+      mongoClient.close();
+      mongoClient = null;
+    }
+  }
+
+  /**
+   * Reads <code>MONGO_MOVIE_URL</code> from the restored environment and lets the uses waiting
+   * since the checkpoint go on with a new client.
+   */
+  static synchronized void restored() {
+    mongoURL = System.getenv("MONGO_MOVIE_URL");
+    checkpointing = false;
+    DatabaseController.class.notifyAll();
+  }
 
   public MongoDatabase getMovieDatabase() {
-    MongoClient mongoClient = MongoClients.create(mongoURL);
-    return mongoClient.getDatabase(mongoDatabaseName);
+    return getMongoClient().getDatabase(mongoDatabaseName);
   }
 
   public MongoCollection<Document> getFlagCollection() {
@@ -60,90 +139,134 @@ public class DatabaseController {
    * @param movieTitle
    */
   public void updateMovieTitle(String id, String movieTitle) {
+    updateMovieTitle(id, movieTitle, null);
+  }
+
+  /**
+   * Renames the movie as a compare-and-set on its version, so two concurrent renames cannot both
+   * cascade from the same old title.
+   * @param expectedVersions the versions If-Match accepts, or null to retry on conflicts
+   * @return the movie's new version, or null if there is no such movie
+   * @throws VersionConflictException if the movie is not at the expected version
+   */
+  public Long updateMovieTitle(String id, String movieTitle, Set<Long> expectedVersions) {
     MongoCollection<Document> movies = getMovieCollection();
-    Bson idFilter = Filters.eq("id", id);
-    String oldMovieTitle = movies.find(idFilter).first().getString("title");
-    Bson updateTitle = Updates.set("title", movieTitle);
-    movies.updateOne(idFilter, updateTitle);
-    
+    Bson idFilter = movieIdFilter(id);
+    Document renamed = DocumentVersions.retrying(expectedVersions, () -> {
+      Document movie = movies.find(idFilter).projection(new Document("title", 1).append(DocumentVersions.FIELD, 1)).first();
+      if (movie == null) {
+        return null;
+      }
+      long version = DocumentVersions.of(movie);
+      DocumentVersions.check(expectedVersions, version, "The movie");
+      Bson updateTitle = DocumentVersions.bump(Updates.set("title", movieTitle));
+      if (movies.updateOne(Filters.and(Filters.eq("_id", movie.get("_id")), DocumentVersions.is(version)), updateTitle).getMatchedCount() == 0) {
+        throw new VersionConflictException("The movie was changed by another request", null);
+      }
+      return movie.append(DocumentVersions.FIELD, version + 1);
+    });
+    if (renamed == null) {
+      return null;
+    }
+    String oldMovieTitle = renamed.getString("title");
+
     MongoCollection<Document> flags = getFlagCollection();
     Bson movieTitleFilter = Filters.eq("movieTitle", oldMovieTitle);
-    Bson updateMovieTitle = Updates.set("movieTitle", movieTitle);
+    Bson updateMovieTitle = DocumentVersions.bump(Updates.set("movieTitle", movieTitle));
     flags.updateMany(movieTitleFilter, updateMovieTitle);
 
     MongoCollection<Document> actors = getActorCollection();
     Bson movieTitleFilterForActor = Filters.eq("movies", oldMovieTitle);
-    Bson updateMovieTitleForActor = Updates.set("movies", movieTitle);
+    Bson updateMovieTitleForActor = DocumentVersions.bump(Updates.set("movies", movieTitle));
     actors.updateMany(movieTitleFilterForActor, updateMovieTitleForActor);
 
     MongoCollection<Document> ratings = getRatingCollection();
     Bson movieTitleFilterForRatings = Filters.eq("movieTitle", oldMovieTitle);
-    Bson updateMovieTitleForRatings = Updates.set("movieTitle", movieTitle);
+    Bson updateMovieTitleForRatings = DocumentVersions.bump(Updates.set("movieTitle", movieTitle));
     ratings.updateMany(movieTitleFilterForRatings, updateMovieTitleForRatings);
 
     MongoCollection<Document> userAssocRatings = getUserAssociatedRatingCollection();
     Bson movieTitleFilterForUserAssocRatings = Filters.eq("movieTitle", oldMovieTitle);
     Bson updateMovieTitleForUserAssocRatings = Updates.set("movieTitle", movieTitle);
     userAssocRatings.updateMany(movieTitleFilterForUserAssocRatings, updateMovieTitleForUserAssocRatings);
+    SimilarMovies.getInstance().ratingsChanged(oldMovieTitle);
+    SimilarMovies.getInstance().ratingsChanged(movieTitle);
 
     MongoCollection<Document> reviews = getReviewCollection();
     Bson movieTitleFilterForReviews = Filters.eq("movieTitle", oldMovieTitle);
-    Bson updateMovieTitleForReviews = Updates.set("movieTitle", movieTitle);
+    Bson updateMovieTitleForReviews = DocumentVersions.bump(Updates.set("movieTitle", movieTitle));
     reviews.updateMany(movieTitleFilterForReviews, updateMovieTitleForReviews);
+
+    movieSummaries.refresh(idFilter);
+    return DocumentVersions.of(renamed);
   }
 
   public void updateDirector(String id, String director) {
     MongoCollection<Document> movies = getMovieCollection();
     Bson idFilter = Filters.eq("id", id);
-    Bson updateDirector = Updates.set("director", director);
+    Bson updateDirector = DocumentVersions.bump(Updates.set("director", director));
     movies.updateOne(idFilter, updateDirector);
+    movieSummaries.refresh(idFilter);
   }
 
-  public void updateReleaseDate(String id, String releaseDate) {
+  public void updateReleaseDate(String id, LocalDate releaseDate) {
     MongoCollection<Document> movies = getMovieCollection();
     Bson idFilter = Filters.eq("id", id);
-    Bson updateReleaseDate = Updates.set("releaseDate", releaseDate);
+    Bson updateReleaseDate = DocumentVersions.bump(Updates.set("releaseDate", TypedFields.toDate(releaseDate)));
     movies.updateOne(idFilter, updateReleaseDate);
+    movieSummaries.refresh(idFilter);
   }
 
-  public void updateRunTime(String id, String runTime) {
+  public void updateRunTime(String id, Integer runTime) {
     MongoCollection<Document> movies = getMovieCollection();
     Bson idFilter = Filters.eq("id", id);
-    Bson updateRunTime = Updates.set("runTime", runTime);
+    Bson updateRunTime = DocumentVersions.bump(Updates.set("runtime", runTime));
     movies.updateOne(idFilter, updateRunTime);
+    movieSummaries.refresh(idFilter);
   }
 
   public void updatePlotSummary(String id, String plotSummary) {
     MongoCollection<Document> movies = getMovieCollection();
     Bson idFilter = Filters.eq("id", id);
-    Bson updatePlotSummary = Updates.set("plotSummary", plotSummary);
+    Bson updatePlotSummary = DocumentVersions.bump(Updates.set("plotSummary", plotSummary));
     movies.updateOne(idFilter, updatePlotSummary);
+    movieSummaries.refresh(idFilter);
   }
 
   public void updateActor(String id, String name, String dob, List<String> movies) {
     MongoCollection<Document> actors = getActorCollection();
     Bson idFilter = Filters.eq("id", id);
-    Bson updateName = Updates.set("name", name);
+    String oldName = actorName(idFilter);
+    List<String> castIn = moviesOfActor(idFilter);
+    Bson updateName = DocumentVersions.bump(Updates.set("name", name));
     actors.updateOne(idFilter, updateName);
-    Bson updateDOB = Updates.set("dob", dob);
+    Bson updateDOB = DocumentVersions.bump(Updates.set("dob", dob));
     actors.updateOne(idFilter, updateDOB);
-    Bson removeMovies = Updates.unset("movies");
+    Bson removeMovies = DocumentVersions.bump(Updates.unset("movies"));
     actors.updateOne(idFilter, removeMovies);
-    Bson addMovies = Updates.pushEach("movies", movies);
+    Bson addMovies = DocumentVersions.bump(Updates.pushEach("movies", movies));
     actors.updateOne(idFilter, addMovies);
+    castIn.addAll(movies);
+    movieSummaries.refreshTitles(castIn);
+    CoStarGraph.getInstance().actorChanged(this, oldName);
+    CoStarGraph.getInstance().actorChanged(this, name);
   }
 
   public void updateActorName(String id, String name) {
     MongoCollection<Document> actors = getActorCollection();
     Bson idFilter = Filters.eq("id", id);
-    Bson updateName = Updates.set("name", name);
+    String oldName = actorName(idFilter);
+    Bson updateName = DocumentVersions.bump(Updates.set("name", name));
     actors.updateOne(idFilter, updateName);
+    movieSummaries.refreshTitles(moviesOfActor(idFilter));
+    CoStarGraph.getInstance().actorChanged(this, oldName);
+    CoStarGraph.getInstance().actorChanged(this, name);
   }
 
   public void updateActorDob(String id, String dob) {
     MongoCollection<Document> actors = getActorCollection();
     Bson idFilter = Filters.eq("id", id);
-    Bson updateDOB = Updates.set("dob", dob);
+    Bson updateDOB = DocumentVersions.bump(Updates.set("dob", dob));
     actors.updateOne(idFilter, updateDOB);
   }
 
@@ -151,37 +274,105 @@ public class DatabaseController {
   public void updateActorMovies(String id, List<String> movies) {
     MongoCollection<Document> actors = getActorCollection();
     Bson idFilter = Filters.eq("id", id);
-    Bson removeMovies = Updates.unset("movies");
+    List<String> castIn = moviesOfActor(idFilter);
+    Bson removeMovies = DocumentVersions.bump(Updates.unset("movies"));
     actors.updateOne(idFilter, removeMovies);
-    Bson addMovies = Updates.pushEach("movies", movies);
+    Bson addMovies = DocumentVersions.bump(Updates.pushEach("movies", movies));
     actors.updateOne(idFilter, addMovies);
+    castIn.addAll(movies);
+    movieSummaries.refreshTitles(castIn);
+    CoStarGraph.getInstance().actorChanged(this, actorName(idFilter));
+  }
+
+  // name of the actor, or null if there is none
+  private String actorName(Bson actorFilter) {
+    Document actor = getActorCollection().find(actorFilter).projection(new Document("name", 1)).first();
+    return actor == null ? null : actor.getString("name");
+  }
+
+  // titles of the movies an actor is in, which can be a single title or a list
+  private List<String> moviesOfActor(Bson actorFilter) {
+    List<String> titles = new ArrayList<>();
+    Document actor = getActorCollection().find(actorFilter).first();
+    Object movies = actor == null ? null : actor.get("movies");
+    if (movies instanceof List) {
+      for (Object title : (List<?>) movies) {
+        titles.add(String.valueOf(title));
+      }
+    } else if (movies != null) {
+      titles.add(movies.toString());
+    }
+    return titles;
+  }
+
+  // titles of the movies rated in a rating category
+  private List<String> moviesRatedIn(String ratingName) {
+    return getRatingCollection().distinct("movieTitle", Filters.eq("ratingName", ratingName), String.class)
+        .into(new ArrayList<>());
   }
 
   public void updateRatingCategoryName(String ratingCategoryId, String ratingName) {
+    updateRatingCategoryName(ratingCategoryId, ratingName, null);
+  }
+
+  /**
+   * Renames the rating category as a compare-and-set on the version of its rating.
+   * @param expectedVersions the versions If-Match accepts, or null to retry on conflicts
+   * @return the rating's new version, or null if there is no such category
+   * @throws VersionConflictException if the rating is not at the expected version
+   */
+  public Long updateRatingCategoryName(String ratingCategoryId, String ratingName, Set<Long> expectedVersions) {
     MongoCollection<Document> ratings = getRatingCollection();
     Bson idFilter = Filters.eq("ratingCategoryId", ratingCategoryId);
     Bson updateRatingName = Updates.set("ratingName", ratingName);
-    String oldRatingName = ratings.find(idFilter).first().getString("ratingName");
-    ratings.updateOne(idFilter, updateRatingName);
+    Document renamed = DocumentVersions.retrying(expectedVersions, () -> {
+      Document rating = ratings.find(idFilter).projection(new Document("ratingName", 1).append(DocumentVersions.FIELD, 1)).first();
+      if (rating == null) {
+        return null;
+      }
+      long version = DocumentVersions.of(rating);
+      DocumentVersions.check(expectedVersions, version, "The rating");
+      if (ratings.updateOne(Filters.and(Filters.eq("_id", rating.get("_id")), DocumentVersions.is(version)),
+          DocumentVersions.bump(updateRatingName)).getMatchedCount() == 0) {
+        throw new VersionConflictException("The rating was changed by another request", null);
+      }
+      return rating.append(DocumentVersions.FIELD, version + 1);
+    });
+    if (renamed == null) {
+      return null;
+    }
 
     MongoCollection<Document> userAssocRatings = getUserAssociatedRatingCollection();
-    Bson ratingNameFilter = Filters.eq("ratingName", oldRatingName);
+    Bson ratingNameFilter = Filters.eq("ratingName", renamed.getString("ratingName"));
     userAssocRatings.updateOne(ratingNameFilter, updateRatingName);
+
+    movieSummaries.refreshTitles(moviesRatedIn(ratingName));
+    return DocumentVersions.of(renamed);
   }
 
   // Could just call deleteUserRating then createUserRating
-  public void updateUserRating(String ratingCategoryId, String ratingName, String movieTitle, String userName, String userRating) {
+  public void updateUserRating(String ratingCategoryId, String ratingName, String movieTitle, String userName, BigDecimal userRating) {
     MongoCollection<Document> ratings = getRatingCollection();
     Bson idFilter = Filters.eq("ratingCategoryId", ratingCategoryId);
     Bson userNameFilter = Filters.eq("userName", userName);
     Bson idAndUserName = Filters.and(idFilter, userNameFilter);
-    Document oldRating = ratings.find(idAndUserName).first();
-    String oldRatingName = oldRating.getString("ratingName");
-    String oldMovieTitle = oldRating.getString("movieTitle");
-    String oldUserRating = oldRating.getString("userRating");
+    String oldMovieTitle = DocumentVersions.retrying(null, () -> {
+      Document oldRating = ratings.find(idAndUserName).first();
+      if (oldRating == null) {
+        return null;
+      }
+      // only delete the rating if nobody changed it since it was read
+      Bson unchanged = Filters.and(Filters.eq("_id", oldRating.get("_id")), DocumentVersions.is(DocumentVersions.of(oldRating)));
+      if (ratings.deleteOne(unchanged).getDeletedCount() == 0) {
+        throw new VersionConflictException("The rating was changed by another request", null);
+      }
+      return oldRating.getString("movieTitle");
+    });
+    if (oldMovieTitle == null) {
+      return;
+    }
 
-    Bson movieTitleAndUserRatingAndUserName = Filters.and(userNameFilter, Filters.eq("movieTitle", oldMovieTitle), Filters.eq("userRating", oldUserRating));
-    ratings.deleteOne(movieTitleAndUserRatingAndUserName);
+    movieSummaries.refresh(Filters.eq("title", oldMovieTitle));
   }
 
   public void updateCategoryRatingName(String ratingCategoryId, String ratingName) {
@@ -189,24 +380,55 @@ public class DatabaseController {
     Bson idFilter = Filters.eq("ratingCategoryId", ratingCategoryId);
     String oldRatingName = ratings.find(idFilter).first().getString("ratingName");
     Bson updateRatingName = Updates.set("ratingName", ratingName);
-    ratings.updateOne(idFilter, updateRatingName);
+    ratings.updateOne(idFilter, DocumentVersions.bump(updateRatingName));
 
     MongoCollection<Document> userAssocRatings = getUserAssociatedRatingCollection();
     Bson oldNameFilter = Filters.eq("ratingName", oldRatingName);
     userAssocRatings.updateMany(oldNameFilter, updateRatingName);
+
+    movieSummaries.refreshTitles(moviesRatedIn(ratingName));
+  }
+
+  public void updateUserRating(String username, String ratingName, String movieTitle, BigDecimal userRating) {
+    updateUserRating(username, ratingName, movieTitle, userRating, null);
   }
 
-  public void updateUserRating(String username, String ratingName, String movieTitle, String userRating) {
+  /**
+   * Changes a user's rating of a movie as a compare-and-set on the rating's version.
+   * @param expectedVersions the versions If-Match accepts, or null to retry on conflicts
+   * @return the rating's new version, or null if the user has not rated the movie in the category
+   * @throws VersionConflictException if the rating is not at the expected version
+   */
+  public Long updateUserRating(String username, String ratingName, String movieTitle, BigDecimal userRating, Set<Long> expectedVersions) {
     MongoCollection<Document> ratings = getRatingCollection();
     Bson userNameFilter = Filters.eq("userName", username);
     Bson ratingNameFilter = Filters.eq("ratingName", ratingName);
     Bson movieTitleFilter = Filters.eq("movieTitle", movieTitle);
     Bson userNameAndRatingNameAndMovieTitleFilter = Filters.and(userNameFilter, ratingNameFilter, movieTitleFilter);
-    Bson updateUserRating = Updates.set("userRating", userRating);
-    ratings.updateOne(userNameAndRatingNameAndMovieTitleFilter, updateUserRating);
+    Bson updateUserRating = Updates.set("userRating", TypedFields.toDecimal128(userRating));
+    Long newVersion = DocumentVersions.retrying(expectedVersions, () -> {
+      Document rating = ratings.find(userNameAndRatingNameAndMovieTitleFilter).projection(new Document(DocumentVersions.FIELD, 1)).first();
+      if (rating == null) {
+        return null;
+      }
+      long version = DocumentVersions.of(rating);
+      DocumentVersions.check(expectedVersions, version, "The rating");
+      if (ratings.updateOne(Filters.and(Filters.eq("_id", rating.get("_id")), DocumentVersions.is(version)),
+          DocumentVersions.bump(updateUserRating)).getMatchedCount() == 0) {
+        throw new VersionConflictException("The rating was changed by another request", null);
+      }
+      return version + 1;
+    });
+    if (newVersion == null) {
+      return null;
+    }
 
     MongoCollection<Document> userAssocRatings = getUserAssociatedRatingCollection();
     userAssocRatings.updateOne(userNameAndRatingNameAndMovieTitleFilter, updateUserRating);
+    SimilarMovies.getInstance().ratingsChanged(movieTitle);
+
+    movieSummaries.refresh(movieTitleFilter);
+    return newVersion;
   }
 
   public void updateReviewTitle(String movieTitle, String username, String reviewTitle) {
@@ -214,8 +436,9 @@ public class DatabaseController {
     Bson userNameFilter = Filters.eq("userName", username);
     Bson movieTitleFilter = Filters.eq("movieTitle", movieTitle);
     Bson userNameAndMovieTitleFilter = Filters.and(userNameFilter, movieTitleFilter);
-    Bson updateReviewTitle = Updates.set("reviewTitle", reviewTitle);
+    Bson updateReviewTitle = DocumentVersions.bump(Updates.set("reviewTitle", reviewTitle));
     reviews.updateOne(userNameAndMovieTitleFilter, updateReviewTitle);
+    movieSummaries.refresh(movieTitleFilter);
   }
 
   public void updateReviewDescription(String movieTitle, String username, String reviewDescription) {
@@ -223,8 +446,9 @@ public class DatabaseController {
     Bson userNameFilter = Filters.eq("userName", username);
     Bson movieTitleFilter = Filters.eq("movieTitle", movieTitle);
     Bson userNameAndMovieTitleFilter = Filters.and(userNameFilter, movieTitleFilter);
-    Bson updateReviewDesc = Updates.set("reviewDescription", reviewDescription);
+    Bson updateReviewDesc = DocumentVersions.bump(Updates.set("reviewDescription", reviewDescription));
     reviews.updateOne(userNameAndMovieTitleFilter, updateReviewDesc);
+    movieSummaries.refresh(movieTitleFilter);
   }
 
   public void updateReview(String movieTitle, String username, String reviewTitle, String reviewDescription) {
@@ -265,11 +489,11 @@ public class DatabaseController {
       // if the movie exists
       if(null != movie) {
         // push the movieName to the flag list
-        Bson flagUpdateOperation = Updates.push("movieTitles", movie.getString("title"));
-        flagCollection.updateOne(existingFlag, flagUpdateOperation);
+        Bson flagUpdateOperation = DocumentVersions.bump(Updates.push("movieTitles", movie.getString("title")));
+        flagCollection.updateOne(Filters.eq("_id", existingFlag.get("_id")), flagUpdateOperation);
         // push the flagName to the movie list
-        Bson movieUpdateOperation = Updates.push("flagNames", flagName);
-        movieCollection.updateOne(movie, movieUpdateOperation);
+        Bson movieUpdateOperation = DocumentVersions.bump(Updates.push("flagNames", flagName));
+        flagMovie(movieCollection, movieId, flagName, movieUpdateOperation);
       }
       // if the movie does not exist
       else{ }
@@ -279,17 +503,26 @@ public class DatabaseController {
       // if the movie exists
       if(null != movie) {
         // create the flag and add to the collection
-        Document newFlag = new Document("flagName", flagName).append("movieTitles", movie.getString("title"));
+        Document newFlag = new Document("flagName", flagName).append("movieTitles", movie.getString("title"))
+            .append(DocumentVersions.FIELD, 0L);
         flagCollection.insertOne(newFlag);
         // push the flagName to the movie list
-        Bson movieUpdateOperation = Updates.push("flagNames", flagName);
-        movieCollection.updateOne(movie, movieUpdateOperation);
+        Bson movieUpdateOperation = DocumentVersions.bump(Updates.push("flagNames", flagName));
+        flagMovie(movieCollection, movieId, flagName, movieUpdateOperation);
       }
       // if the movie does not exist
       else{ }
     }
   }
 
+  // the summary and facet index only learn of the flag if the movie still existed to take it
+  private void flagMovie(MongoCollection<Document> movieCollection, ObjectId movieId, String flagName, Bson movieUpdateOperation) {
+    if (movieCollection.updateOne(Filters.eq("_id", movieId), movieUpdateOperation).getMatchedCount() == 1) {
+      movieSummaries.flagAdded(movieId, flagName);
+      MovieFacetIndex.getInstance().flagAdded(movieId, flagName);
+    }
+  }
+
   public void createRating(String ratingCategoryName){
 
   }
@@ -314,13 +547,87 @@ public class DatabaseController {
     if(null != movie) {
       // create a new review
       Document newReview = new Document("movieId", movieIdString).append("reviewTitle", reviewTitle)
-              .append("reviewDescription", reviewDescription).append("userName", userName);
+              .append("reviewDescription", reviewDescription).append("userName", userName).append(DocumentVersions.FIELD, 0L);
       reviewCollection.insertOne(newReview);
+      movieSummaries.reviewAdded(movieId, newReview);
     }
     // if the movie does not exist
     else{ }
   }
 
+  /**
+   * The document createReview would insert, for the write buffer, or null if the movie does not
+   * exist. The facet index answers for the movies it knows while it is current, so only new ones
+   * cost a query.
+   */
+  public Document newReview(String movieIdString, String reviewTitle, String reviewDescription, String userName) {
+    if (!ObjectId.isValid(movieIdString)) {
+      return null;
+    }
+    ObjectId movieId = new ObjectId(movieIdString);
+    MovieFacetIndex facetIndex = MovieFacetIndex.getInstance();
+    MovieFacetIndex.Snapshot index = facetIndex.isCurrent() ? facetIndex.snapshot() : null;
+    int ordinal = index == null ? -1 : index.ordinalOf(movieId);
+    boolean exists = ordinal >= 0 ? index.all().contains(ordinal)
+        : getMovieCollection().find(Filters.eq("_id", movieId)).projection(new Document("_id", 1)).first() != null;
+    if (!exists) {
+      return null;
+    }
+    return new Document("movieId", movieIdString).append("reviewTitle", reviewTitle)
+        .append("reviewDescription", reviewDescription).append("userName", userName).append(DocumentVersions.FIELD, 0L);
+  }
+
+  /**
+   * Records a user's rating of a movie in a rating category.
+   */
+  public void createUserRating(String userName, String ratingName, String movieTitle, BigDecimal userRating) {
+    Map<String, Document> documents = newUserRating(userName, ratingName, movieTitle, userRating);
+    getRatingCollection().insertOne(documents.get("ratings"));
+    getUserAssociatedRatingCollection().insertOne(documents.get("userAssociatedRatings"));
+    movieSummaries.refresh(Filters.eq("title", movieTitle));
+    SimilarMovies.getInstance().ratingsChanged(movieTitle);
+  }
+
+  /**
+   * The documents createUserRating inserts, by collection, for the write buffer.
+   */
+  public Map<String, Document> newUserRating(String userName, String ratingName, String movieTitle, BigDecimal userRating) {
+    Decimal128 rating = TypedFields.toDecimal128(userRating);
+    Map<String, Document> documents = new LinkedHashMap<>();
+    documents.put("ratings", new Document("ratingName", ratingName).append("category", ratingName)
+        .append("movieTitle", movieTitle).append("userName", userName).append("user", userName)
+        .append("userRating", rating).append(DocumentVersions.FIELD, 0L));
+    documents.put("userAssociatedRatings", new Document("userName", userName).append("ratingName", ratingName)
+        .append("movieTitle", movieTitle).append("userRating", rating));
+    return documents;
+  }
+
+  /**
+   * Does what the synchronous create methods do after their insert, once per batch of documents
+   * the write buffer inserted.
+   */
+  public void afterBufferedInsert(String collection, List<Document> documents) {
+    if ("reviews".equals(collection)) {
+      Map<String, List<Document>> byMovie = new LinkedHashMap<>();
+      for (Document review : documents) {
+        byMovie.computeIfAbsent(review.getString("movieId"), id -> new ArrayList<>()).add(review);
+      }
+      for (Map.Entry<String, List<Document>> entry : byMovie.entrySet()) {
+        movieSummaries.reviewsAdded(new ObjectId(entry.getKey()), entry.getValue());
+      }
+    } else if ("ratings".equals(collection)) {
+      Set<String> titles = new LinkedHashSet<>();
+      for (Document rating : documents) {
+        titles.add(rating.getString("movieTitle"));
+      }
+      movieSummaries.refreshTitles(titles);
+    } else if ("userAssociatedRatings".equals(collection)) {
+      for (Document rating : documents) {
+        SimilarMovies.getInstance().ratingsChanged(rating.getString("movieTitle"));
+      }
+    }
+  }
+
   /**
    *
    * @param actorName
@@ -348,85 +655,108 @@ public class DatabaseController {
       if(null != movie) {
         // create a new actor
         Document newReview = new Document("id", actorId).append("name", actorName)
-                .append("dob", dob).append("movies", movieTitle);
+                .append("dob", dob).append("movies", movieTitle).append(DocumentVersions.FIELD, 0L);
         actorCollection.insertOne(newReview);
 
         // add actor to movie cast
-        Bson movieUpdateOperation = Updates.push("principalCast", actorName);
-        movieCollection.updateOne(movie, movieUpdateOperation);
+        Bson movieUpdateOperation = DocumentVersions.bump(Updates.push("principalCast", actorName));
+        movieCollection.updateOne(Filters.eq("_id", movie.get("_id")), movieUpdateOperation);
+        movieSummaries.refresh(Filters.eq("_id", movie.getObjectId("_id")));
+        CoStarGraph.getInstance().actorChanged(this, actorName);
       }
       // if the movie does not exist
       else{ }
     }
   }
 
-  public void createMovie(String movieTitle, String director, String releaseDate,
-                          String runtime, String writers, String plotSummary){
+  public void createMovie(String movieTitle, String director, LocalDate releaseDate,
+                          Integer runtime, String writers, String plotSummary){
     // get collections
     MongoCollection<Document> movieCollection = getMovieCollection();
       // create a new movie and add it to the movie collection
     Document newMovie = new Document().append("title", movieTitle).append("director", director)
-            .append("releaseDate", releaseDate).append("runtime", runtime).append("plotSummary", plotSummary);
+            .append("releaseDate", TypedFields.toDate(releaseDate)).append("runtime", runtime).append("plotSummary", plotSummary)
+            .append(DocumentVersions.FIELD, 0L);
     movieCollection.insertOne(newMovie);
+    movieSummaries.refresh(Filters.eq("_id", newMovie.getObjectId("_id")));
+    MovieFacetIndex.getInstance().movieAdded(newMovie.getObjectId("_id"));
   }
 
-    private static ArrayList<Movie> getMoviesWithFilter(MongoCollection<Document> moviesCollection, Bson filter) {
-    var movies = moviesCollection.find(filter).map(document -> {
-      var m = new Movie();
-      m.setDirector(document.getString("director"));
-      m.setRuntime(document.getString("runtime"));
-      m.setSummary(document.getString("summary"));
-      m.setTitle(document.getString("title"));
-      m.setWriters(document.getString("writers"));
-      m.setReleaseDate(document.getString("releaseDate"));
-      m.setId(document.getObjectId("_id").toHexString());
-      return m;
-    });
-    var list = new ArrayList<Movie>();
-    movies.forEach(list::add);
-    return list;
+  static Movie toMovie(Document document) {
+    var m = new Movie();
+    m.setDirector(document.getString("director"));
+    m.setRuntime(TypedFields.runtimeOf(document.get("runtime")));
+    m.setSummary(document.getString("summary"));
+    m.setTitle(document.getString("title"));
+    m.setWriters(document.getString("writers"));
+    m.setReleaseDate(TypedFields.dateOf(document.get("releaseDate")));
+    m.setId(document.getObjectId("_id").toHexString());
+    m.setVersion(DocumentVersions.of(document));
+    return m;
   }
 
-  private static ArrayList<Actor> getActorsWithFilter(MongoCollection<Document> actorsCollection, Bson filter) {
-    var actors = actorsCollection.find(filter).map(document -> {
-      var a = new Actor();
-      a.setName(document.getString("name"));
-      a.setDateOfBirth(document.getString("dateOfBirth"));
+  private static ArrayList<Movie> getMoviesWithFilter(MongoCollection<Document> moviesCollection, Bson filter, QueryClass queryClass) {
+    try (ClientSession session = ReadRouting.causalSession()) {
+      var movies = ReadRouting.route(moviesCollection, queryClass).find(session, filter).map(DatabaseController::toMovie);
+      var list = new ArrayList<Movie>();
+      movies.forEach(list::add);
+      return list;
+    }
+  }
 
-      return a;
-    });
-    var list = new ArrayList<Actor>();
-    actors.forEach(list::add);
-    return list;
+  static Actor toActor(Document document) {
+    var a = new Actor();
+    a.setId(document.getString("id"));
+    a.setName(document.getString("name"));
+    a.setDateOfBirth(document.getString("dateOfBirth"));
+    a.setVersion(DocumentVersions.of(document));
+    return a;
   }
 
-  private static ArrayList<Review> getReviewsWithFilter(MongoCollection<Document> reviewsCollection, Bson filter) {
-    var reviews = reviewsCollection.find(filter).map(document -> {
-      var re = new Review();
-      re.setReviewTitle(document.getString("reviewTitle"));
-      re.setReviewDescription(document.getString("reviewDescription"));
-      re.setMovieId(document.getString("movieId"));
+  static Review toReview(Document document) {
+    var re = new Review();
+    re.setId(document.getObjectId("_id").toHexString());
+    re.setReviewTitle(document.getString("reviewTitle"));
+    re.setReviewDescription(document.getString("reviewDescription"));
+    re.setMovieId(document.getString("movieId"));
+    re.setVersion(DocumentVersions.of(document));
+    return re;
+  }
 
-      return re;
-    });
-    var list = new ArrayList<Review>();
-    reviews.forEach(list::add);
-    return list;
+  private static ArrayList<Actor> getActorsWithFilter(MongoCollection<Document> actorsCollection, Bson filter, QueryClass queryClass) {
+    try (ClientSession session = ReadRouting.causalSession()) {
+      var actors = ReadRouting.route(actorsCollection, queryClass).find(session, filter).map(DatabaseController::toActor);
+      var list = new ArrayList<Actor>();
+      actors.forEach(list::add);
+      return list;
+    }
   }
 
-  private static ArrayList<Rating> getRatingsWithFilter(MongoCollection<Document> ratingsCollection, Bson filter) {
-    var ratings = ratingsCollection.find(filter).map(document -> {
-      var ra = new Rating();
-      ra.setRatingName(document.getString("ratingName"));
-      ra.setUserRating(document.getString("userRating"));
-      ra.setMovieTitle(document.getString("movieTitle"));
+  private static ArrayList<Review> getReviewsWithFilter(MongoCollection<Document> reviewsCollection, Bson filter, QueryClass queryClass) {
+    try (ClientSession session = ReadRouting.causalSession()) {
+      var reviews = ReadRouting.route(reviewsCollection, queryClass).find(session, filter).map(DatabaseController::toReview);
+      var list = new ArrayList<Review>();
+      reviews.forEach(list::add);
+      return list;
+    }
+  }
 
+  static Rating toRating(Document document) {
+    var ra = new Rating();
+    ra.setRatingName(document.getString("ratingName"));
+    ra.setUserRating(TypedFields.ratingOf(document.get("userRating")));
+    ra.setMovieTitle(document.getString("movieTitle"));
+    ra.setVersion(DocumentVersions.of(document));
+    return ra;
+  }
 
-      return ra;
-    });
-    var list = new ArrayList<Rating>();
-    ratings.forEach(list::add);
-    return list;
+  private static ArrayList<Rating> getRatingsWithFilter(MongoCollection<Document> ratingsCollection, Bson filter, QueryClass queryClass) {
+    try (ClientSession session = ReadRouting.causalSession()) {
+      var ratings = ReadRouting.route(ratingsCollection, queryClass).find(session, filter).map(DatabaseController::toRating);
+      var list = new ArrayList<Rating>();
+      ratings.forEach(list::add);
+      return list;
+    }
   }
 
 
@@ -434,55 +764,274 @@ public class DatabaseController {
   public List<Movie> getMoviesWithFlag(String flag) {
     var moviesCollection = getMovieCollection();
     var filter = Filters.eq("flagNames", flag);
-    return getMoviesWithFilter(moviesCollection, filter);
+    return getMoviesWithFilter(moviesCollection, filter, QueryClass.CATALOG);
   }
 
   public List<Movie> getMoviesWithRatingCategory(String ratingCategory) {
     var moviesCollection = getMovieCollection();
     var filter = Filters.eq("ratingCategoryNames", ratingCategory);
-    return getMoviesWithFilter(moviesCollection, filter);
+    return getMoviesWithFilter(moviesCollection, filter, QueryClass.CATALOG);
   }
 
   public List<Movie> getMoviesWithActor(String actor) {
     var moviesCollection = getMovieCollection();
     var filter = Filters.eq("actorNames", actor);
-    return getMoviesWithFilter(moviesCollection, filter);
+    return getMoviesWithFilter(moviesCollection, filter, QueryClass.CATALOG);
+  }
+
+  /**
+   * @return the movie with its version, or null if there is none
+   */
+  public Movie getMovie(String id) {
+    try (ClientSession session = ReadRouting.causalSession()) {
+      Document movie = ReadRouting.route(getMovieCollection(), QueryClass.USER).find(session, movieIdFilter(id)).first();
+      return movie == null ? null : toMovie(movie);
+    }
+  }
+
+  // movies from the dataset have an id field, movies created here only their _id
+  private static Bson movieIdFilter(String id) {
+    return ObjectId.isValid(id) ? Filters.or(Filters.eq("id", id), Filters.eq("_id", new ObjectId(id))) : Filters.eq("id", id);
   }
 
   public List<Movie> getMoviesWithTitle(String title) {
     var moviesCollection = getMovieCollection();
     var filter = Filters.eq("title", title);
-    return getMoviesWithFilter(moviesCollection, filter);
+    return getMoviesWithFilter(moviesCollection, filter, QueryClass.CATALOG);
   }
 
   public List<Actor> getActorByName(String title) {
     var actorsCollection = getActorCollection();
     var filter = Filters.eq("title", title);
-    return getActorsWithFilter(actorsCollection, filter);
+    return getActorsWithFilter(actorsCollection, filter, QueryClass.CATALOG);
   }
 
   public List<Rating> getUserAssociatedRatings(String userName) {
     var ratings = getRatingCollection();
     var filter = Filters.eq("user", userName);
-    return getRatingsWithFilter(ratings, filter);
+    return getRatingsWithFilter(ratings, filter, QueryClass.USER);
   }
 
   public List<Rating> getRatingsInRatingsCategory(String category) {
     var ratings = getRatingCollection();
     var filter = Filters.eq("category", category);
-    return getRatingsWithFilter(ratings, filter);
+    return getRatingsWithFilter(ratings, filter, QueryClass.CATALOG);
   }
 
   public List<Review> getReviewsByMovieId(String movieId) {
     var reviews = getReviewCollection();
     var filter = Filters.eq("movieId", movieId);
-    return getReviewsWithFilter(reviews, filter);
+    return getReviewsWithFilter(reviews, filter, QueryClass.USER);
   }
 
   public List<Review> getReviewsByUser(String userName) {
     var reviews = getReviewCollection();
     var filter = Filters.eq("userName", userName);
-    return getReviewsWithFilter(reviews, filter);
+    return getReviewsWithFilter(reviews, filter, QueryClass.USER);
+  }
+
+  /**
+   * Movies released between two years, months or dates and with a runtime between two numbers of
+   * minutes. Every bound is optional and inclusive; the releaseDate and runtime indexes serve the
+   * range and the sort.
+   * @param sort title, releaseDate or runtime
+   * @throws IllegalArgumentException if a release bound is not a date or the sort is unknown
+   */
+  public List<Movie> getMoviesInRange(String releasedFrom, String releasedTo, Integer runtimeMin, Integer runtimeMax,
+                                      String sort, boolean descending, int skip, int limit) {
+    if (!List.of("title", "releaseDate", "runtime").contains(sort)) {
+      throw new IllegalArgumentException("sort must be one of title, releaseDate or runtime");
+    }
+    List<Bson> filters = new ArrayList<>();
+    Bson released = MovieQueryEngine.releaseDateRange(releasedFrom, releasedTo);
+    if (released != null) {
+      filters.add(released);
+    }
+    if (runtimeMin != null) {
+      filters.add(Filters.gte("runtime", runtimeMin));
+    }
+    if (runtimeMax != null) {
+      filters.add(Filters.lte("runtime", runtimeMax));
+    }
+    Bson filter = filters.isEmpty() ? new Document() : Filters.and(filters);
+    try (ClientSession session = ReadRouting.causalSession()) {
+      var movies = ReadRouting.route(getMovieCollection(), QueryClass.CATALOG).find(session, filter)
+          .sort(descending ? Sorts.descending(sort, "_id") : Sorts.ascending(sort, "_id"))
+          .skip(skip)
+          .limit(limit)
+          .map(DatabaseController::toMovie);
+      var list = new ArrayList<Movie>();
+      movies.forEach(list::add);
+      return list;
+    }
+  }
+
+  /**
+   * Ratings in a category with a score between min and max (both optional and inclusive), highest
+   * first, served by the ratingName + userRating index.
+   */
+  public List<Rating> getRatingsInRange(String ratingName, BigDecimal min, BigDecimal max, int limit) {
+    List<Bson> filters = new ArrayList<>();
+    filters.add(Filters.eq("ratingName", ratingName));
+    if (min != null) {
+      filters.add(Filters.gte("userRating", TypedFields.toDecimal128(min)));
+    }
+    if (max != null) {
+      filters.add(Filters.lte("userRating", TypedFields.toDecimal128(max)));
+    }
+    try (ClientSession session = ReadRouting.causalSession()) {
+      var ratings = ReadRouting.route(getRatingCollection(), QueryClass.CATALOG).find(session, Filters.and(filters))
+          .sort(Sorts.descending("userRating"))
+          .limit(limit)
+          .map(DatabaseController::toRating);
+      var list = new ArrayList<Rating>();
+      ratings.forEach(list::add);
+      return list;
+    }
+  }
+
+  /**
+   * Batch lookups: each returns one entry per id in the same order, null where there is no match.
+   * Cached entities are served from memory and all the misses are read with a single $in query.
+   * @param ids movie ids (hex ObjectId)
+   */
+  public List<Movie> getMoviesByIds(List<String> ids) {
+    return getByIds(ids, MOVIE_CACHE, ReadRouting.route(getMovieCollection(), QueryClass.CATALOG), "_id", true, DatabaseController::toMovie);
+  }
+
+  /**
+   * @param ids actor ids
+   */
+  public List<Actor> getActorsByIds(List<String> ids) {
+    return getByIds(ids, ACTOR_CACHE, ReadRouting.route(getActorCollection(), QueryClass.CATALOG), "id", false, DatabaseController::toActor);
+  }
+
+  /**
+   * @param ids review ids (hex ObjectId)
+   */
+  public List<Review> getReviewsByIds(List<String> ids) {
+    return getByIds(ids, REVIEW_CACHE, ReadRouting.route(getReviewCollection(), QueryClass.USER), "_id", true, DatabaseController::toReview);
+  }
+
+  private static <T> List<T> getByIds(List<String> ids, EntityCache<T> cache, MongoCollection<Document> collection,
+                                      String idField, boolean objectIds, Function<Document, T> mapper) {
+    Map<String, T> found = new HashMap<>();
+    Set<String> misses = new LinkedHashSet<>();
+    for (String id : ids) {
+      T cached = cache.get(id);
+      if (cached != null) {
+        found.put(id, cached);
+      } else if (!objectIds || ObjectId.isValid(id)) {
+        misses.add(id);
+      }
+    }
+
+    if (!misses.isEmpty()) {
+      long version = cache.version();
+      List<Object> keys = new ArrayList<>(misses.size());
+      for (String id : misses) {
+        keys.add(objectIds ? new ObjectId(id) : id);
+      }
+      try (ClientSession session = ReadRouting.causalSession()) {
+        for (Document document : collection.find(session, Filters.in(idField, keys))) {
+          Object key = document.get(idField);
+          String id = key instanceof ObjectId ? ((ObjectId) key).toHexString() : String.valueOf(key);
+          T entity = mapper.apply(document);
+          // with duplicate ids in the collection the first match wins, as with find().first()
+          if (found.putIfAbsent(id, entity) == null) {
+            cache.put(id, entity, version);
+          }
+        }
+      }
+    }
+
+    List<T> ordered = new ArrayList<>(ids.size());
+    for (String id : ids) {
+      ordered.add(found.get(id));
+    }
+    return ordered;
+  }
+
+  /**
+   * Builds everything the movie page shows in one aggregation: the movie, its cast, flags,
+   * average rating per category and one page of reviews with the total review count.
+   * The lookups join on indexed fields (actors.movies, flags.movieTitles, ratings.movieTitle,
+   * reviews.movieId) and project only what the page renders, and the result is written
+   * straight to JSON instead of being mapped into JsonClasses first.
+   * @param movieIdHexString
+   * @param reviewSkip number of reviews to skip, for paging
+   * @param reviewLimit number of reviews to return
+   * @return the page as JSON, or null if there is no movie with that id
+   */
+  public String getMoviePage(String movieIdHexString, int reviewSkip, int reviewLimit) {
+    if (!ObjectId.isValid(movieIdHexString)) {
+      return null;
+    }
+    List<Bson> pipeline = Arrays.asList(
+        Aggregates.match(Filters.eq("_id", new ObjectId(movieIdHexString))),
+        Aggregates.addFields(new Field<>("idString", new Document("$toString", "$_id"))),
+        castLookup("actors"),
+        flagLookup("flags"),
+        ratingCategoriesLookup("ratingCategories"),
+        lookup("reviews", "idString", "movieId", "reviewPage", Arrays.asList(
+            new Document("$facet", new Document("items", Arrays.asList(
+                    new Document("$skip", reviewSkip),
+                    new Document("$limit", reviewLimit),
+                    new Document("$project", new Document("_id", 0).append("reviewTitle", 1)
+                        .append("reviewDescription", 1).append("userName", 1))))
+                .append("total", Arrays.asList(new Document("$count", "count")))))),
+        new Document("$project", new Document("_id", 0)
+            .append("id", "$idString")
+            .append("title", 1)
+            .append("director", 1)
+            .append("releaseDate", TypedFields.releaseDateAsString())
+            .append("runtime", 1)
+            .append("writers", 1)
+            .append("summary", new Document("$ifNull", Arrays.asList("$summary", "$plotSummary")))
+            .append("actors", 1)
+            .append("flags", "$flags.flagName")
+            .append("ratingCategories", 1)
+            .append("reviews", new Document("total", new Document("$ifNull", Arrays.asList(
+                    new Document("$first", new Document("$first", "$reviewPage.total.count")), 0)))
+                .append("skip", new Document("$literal", reviewSkip))
+                .append("items", new Document("$first", "$reviewPage.items")))));
+    try (ClientSession session = ReadRouting.causalSession()) {
+      Document page = ReadRouting.route(getMovieCollection(), QueryClass.CATALOG).aggregate(session, pipeline).first();
+      return page == null ? null : page.toJson(RELAXED_JSON);
+    }
+  }
+
+  // cast of the movie from the actors collection, as {name, dateOfBirth}
+  static Document castLookup(String as) {
+    return lookup("actors", "title", "movies", as, Arrays.asList(
+        new Document("$project", new Document("_id", 0).append("name", 1)
+            .append("dateOfBirth", new Document("$ifNull", Arrays.asList("$dateOfBirth", "$dob"))))));
+  }
+
+  // flags the movie is listed under, as {flagName}
+  static Document flagLookup(String as) {
+    return lookup("flags", "title", "movieTitles", as, Arrays.asList(
+        new Document("$project", new Document("_id", 0).append("flagName", 1))));
+  }
+
+  // average user rating and number of ratings per rating category, as {name, average, count}
+  static Document ratingCategoriesLookup(String as) {
+    return lookup("ratings", "title", "movieTitle", as, Arrays.asList(
+        new Document("$group", new Document("_id", "$ratingName")
+            .append("average", new Document("$avg", new Document("$convert", new Document("input", "$userRating")
+                .append("to", "double").append("onError", null).append("onNull", null))))
+            .append("count", new Document("$sum", 1))),
+        new Document("$sort", new Document("_id", 1)),
+        new Document("$project", new Document("_id", 0).append("name", "$_id").append("average", 1).append("count", 1))));
+  }
+
+  // $lookup joining localField to foreignField and running pipeline on the matches
+  static Document lookup(String from, String localField, String foreignField, String as, List<Document> pipeline) {
+    return new Document("$lookup", new Document("from", from)
+        .append("localField", localField)
+        .append("foreignField", foreignField)
+        .append("pipeline", pipeline)
+        .append("as", as));
   }
 
   /**
@@ -502,15 +1051,21 @@ public class DatabaseController {
     Document movieWithId = movieCollection.find(movieQuery).first();
     if(movieWithId != null){
     //remove flag from movie with the corresspond ID
-    Bson flagRemoveOp = Updates.pull("flagNames", flagName);
-    movieCollection.updateOne(movieWithId, flagRemoveOp);
+    Bson flagRemoveOp = DocumentVersions.bump(Updates.pull("flagNames", flagName));
+    long removed = movieCollection.updateOne(Filters.eq("_id", movieWithId.get("_id")), flagRemoveOp).getMatchedCount();
 
     //find the flag needed to be deleted
     Bson titleQuery = Filters.eq("flagName", flagName);
     Document existingFlag = flagCollection.find(titleQuery).first();
     //remove movie title from the flag
-    Bson flagRemoveOP2 = Updates.pull("movieTitles", movieTitle);
-    flagCollection.updateOne(existingFlag, flagRemoveOP2);
+    if (existingFlag != null) {
+      Bson flagRemoveOP2 = DocumentVersions.bump(Updates.pull("movieTitles", movieTitle));
+      flagCollection.updateOne(Filters.eq("_id", existingFlag.get("_id")), flagRemoveOP2);
+    }
+    if (removed == 1) {
+      movieSummaries.refresh(movieQuery);
+      MovieFacetIndex.getInstance().flagRemoved(movieWithId.getObjectId("_id"), flagName);
+    }
   }
   else if(movieWithId == null){}
 }
@@ -529,15 +1084,17 @@ public void deleteFlags(String flagName){
   MongoCursor<Document> movies = movieCollection.find(flagQuery).iterator();
 
   //iterate through each filtered movie and remove the flag name
-  Bson flagRemoveOP = Updates.pull("flagNames", flagName);
+  Bson flagRemoveOP = DocumentVersions.bump(Updates.pull("flagNames", flagName));
   movies.forEachRemaining(document -> {
     flagCollection.updateOne(document, flagRemoveOP);
   });
 
 //set movieTitles array into an emptied one
-Bson removeAll = Updates.set("movieTitles", "");
+Bson removeAll = DocumentVersions.bump(Updates.set("movieTitles", ""));
 Document flag = flagCollection.find(Filters.eq("flagName", flagName)).first();
-flagCollection.updateOne(flag, removeAll);
+flagCollection.updateOne(Filters.eq("_id", flag.get("_id")), removeAll);
+movieSummaries.refresh(flagQuery);
+MovieFacetIndex.getInstance().flagDeleted(flagName);
 }
 
 /**
@@ -553,29 +1110,39 @@ public void deleteMovie(String movieTitle, String movieId){
   MongoCollection<Document> reviewCollection = getReviewCollection();
   MongoCollection<Document> flagCollection = getFlagCollection();
   //delete the movie's document
-  movieCollection.deleteOne(Filters.eq("id", movieId));
+  Document deleted = movieCollection.findOneAndDelete(Filters.eq("id", movieId));
+  if (deleted != null) {
+    MovieFacetIndex.getInstance().movieRemoved(deleted.getObjectId("_id"));
+  }
   //filters all actors with the listed movie
   MongoCursor<Document> actors = actorCollection.find(Filters.eq("movies", movieTitle)).iterator();
-  Bson movieRemoval = Updates.pull("movies", movieTitle);
+  Bson movieRemoval = DocumentVersions.bump(Updates.pull("movies", movieTitle));
   actors.forEachRemaining(document -> {
     // Delete each movie correspond with movieTitle in each qualified actor
-    actorCollection.updateOne(document, movieRemoval);
+    actorCollection.updateOne(Filters.eq("_id", document.get("_id")), movieRemoval);
   });
   //delete movie within flags
   MongoCursor<Document> flags = flagCollection.find(Filters.eq("movieTitles", movieTitle)).iterator();
-  Bson movieRemovalF = Updates.pull("movieTitles", movieTitle);
+  Bson movieRemovalF = DocumentVersions.bump(Updates.pull("movieTitles", movieTitle));
   flags.forEachRemaining(document -> {
     // Delete each movie correspond with movieTitle in each qualified actor
-    flagCollection.updateOne(document, movieRemovalF);
+    flagCollection.updateOne(Filters.eq("_id", document.get("_id")), movieRemovalF);
   });
 
   //delete all reviews related to the movie
   reviewCollection.deleteMany(Filters.eq("movieTitle", movieTitle));
+
+  movieSummaries.remove(movieTitle);
+  CoStarGraph.getInstance().movieRemoved(movieTitle);
 }
 
 public void deleteActor(String id){
   MongoCollection<Document> actorCollection = getActorCollection();
+  List<String> castIn = moviesOfActor(Filters.eq("id", id));
+  String name = actorName(Filters.eq("id", id));
   actorCollection.deleteOne(Filters.eq("id", id));
+  movieSummaries.refreshTitles(castIn);
+  CoStarGraph.getInstance().actorChanged(this, name);
 }
 
 public void deleteReview(String title, String userName){
@@ -583,6 +1150,7 @@ public void deleteReview(String title, String userName){
   //get all reviews which has the required movie title and userName
   Bson reviewFilter = Filters.and(Filters.eq("movieTitle", title), Filters.eq("userName", userName));
   reviewCollection.deleteMany(reviewFilter);  
+  movieSummaries.refresh(Filters.eq("title", title));
 }
 
 
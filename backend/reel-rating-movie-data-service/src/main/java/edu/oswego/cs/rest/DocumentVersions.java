@@ -0,0 +1,143 @@
+package edu.oswego.cs.rest;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import jakarta.ws.rs.core.EntityTag;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Optimistic concurrency for movies, actors, flags, reviews and ratings.
+ *
+ * <p>Each of those documents carries a <code>version</code> that every write through
+ * DatabaseController increments. Documents written before there were versions have none, which
+ * counts as version 0. A read-then-write is made safe by writing only if the version is still the
+ * one that was read ({@link #is}); if another request got there first nothing is written and a
+ * {@link VersionConflictException} is thrown. Updates made on behalf of a client that sent the
+ * version it edited (If-Match) surface the conflict as a 409. Other updates read again and
+ * retry up to <code>VERSION_CONFLICT_RETRIES</code> times (5 by default), backing off from
+ * <code>VERSION_CONFLICT_BACKOFF_MILLIS</code> (10).</p>
+ *
+ * <p>The version is also the document's ETag, <code>"v&lt;version&gt;"</code>. Unlike the
+ * collection tags of {@link HttpCaching} it is stored with the document, so it survives restarts
+ * and is the same on every instance.</p>
+ */
+public final class DocumentVersions {
+
+  public static final String FIELD = "version";
+
+  private static final int RETRIES = intFromEnv("VERSION_CONFLICT_RETRIES", 5);
+  private static final int BACKOFF_MILLIS = intFromEnv("VERSION_CONFLICT_BACKOFF_MILLIS", 10);
+
+  private DocumentVersions() {}
+
+  /**
+   * @return the document's version, 0 if it has none
+   */
+  public static long of(Document document) {
+    Number version = document.get(FIELD, Number.class);
+    return version == null ? 0 : version.longValue();
+  }
+
+  /**
+   * @return a filter matching documents still at the version
+   */
+  public static Bson is(long version) {
+    return version == 0 ? Filters.or(Filters.eq(FIELD, 0L), Filters.exists(FIELD, false)) : Filters.eq(FIELD, version);
+  }
+
+  /**
+   * @return the update every write to a versioned document includes
+   */
+  public static Bson bump() {
+    return Updates.inc(FIELD, 1L);
+  }
+
+  /**
+   * @return the update with the version increment added
+   */
+  public static Bson bump(Bson update) {
+    return Updates.combine(update, bump());
+  }
+
+  public static EntityTag tagOf(long version) {
+    return new EntityTag("v" + version);
+  }
+
+  /**
+   * @param ifMatch the If-Match header, one or more comma separated tags
+   * @return the versions the client accepts, null if it did not send any or sent <code>*</code>.
+   *         If-Match compares strongly, so weak tags are left out like tags that are not versions,
+   *         and an empty set can never match.
+   */
+  public static Set<Long> fromIfMatch(String ifMatch) {
+    if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+      return null;
+    }
+    Set<Long> versions = new HashSet<>();
+    for (String entry : ifMatch.split(",")) {
+      String tag = entry.trim();
+      if (tag.startsWith("W/")) {
+        continue;
+      }
+      if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+        tag = tag.substring(1, tag.length() - 1);
+      }
+      if (tag.startsWith("v")) {
+        try {
+          versions.add(Long.parseLong(tag.substring(1)));
+        } catch (NumberFormatException e) {
+          // not one of our tags
+        }
+      }
+    }
+    return versions;
+  }
+
+  /**
+   * Throws a conflict if the client expected other versions than the one read.
+   * @param expected the versions from If-Match, or null
+   */
+  public static void check(Set<Long> expected, long current, String what) {
+    if (expected != null && !expected.contains(current)) {
+      throw new VersionConflictException(what + " is at version " + current + ", not " + new TreeSet<>(expected), current);
+    }
+  }
+
+  /**
+   * Runs a read-then-write, again with backoff if it conflicts, unless the client expected a
+   * version, in which case reading again would discard the other request's change.
+   */
+  public static <T> T retrying(Set<Long> expected, Supplier<T> attempt) {
+    int tries = 0;
+    while (true) {
+      try {
+        return attempt.get();
+      } catch (VersionConflictException e) {
+        if (expected != null || ++tries > RETRIES) {
+          throw e;
+        }
+        long ceiling = (long) BACKOFF_MILLIS << Math.min(tries - 1, 10);
+        try {
+          Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
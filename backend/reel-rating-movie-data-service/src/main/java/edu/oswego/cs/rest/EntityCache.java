@@ -0,0 +1,92 @@
+package edu.oswego.cs.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, least recently used cache of entities read from one collection.
+ *
+ * <p>Every entry remembers the {@link CollectionVersions} version of its collection from before it
+ * was read, and is only returned while that version is unchanged, so any write to the collection
+ * through this service invalidates it. Callers must take the version with {@link #version()}
+ * before querying Mongo and pass it to {@link #put}, so a write racing the read leaves the entry
+ * already stale.</p>
+ *
+ * <p>Writes through other instances reach the versions within two
+ * <code>COLLECTION_VERSION_REFRESH_MILLIS</code>, and nothing is served from the cache while the
+ * shared versions are out of date. Entries also expire <code>ENTITY_CACHE_TTL_MILLIS</code>
+ * (default 10000, like the default max-age) after they were read, which bounds how long a change
+ * the versions miss, such as a write made directly to the database, can be served stale.</p>
+ *
+ * <p>The size is <code>ENTITY_CACHE_SIZE</code> entries per collection, 10000 by default.</p>
+ */
+public class EntityCache<T> {
+
+  private static final int MAX_ENTRIES = intFromEnv("ENTITY_CACHE_SIZE", 10000);
+  private static final long TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(intFromEnv("ENTITY_CACHE_TTL_MILLIS", 10000));
+
+  private final String collection;
+  private final Map<String, Entry<T>> entries = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  private static class Entry<T> {
+    final T value;
+    final long version;
+    final long readAt;
+
+    Entry(T value, long version, long readAt) {
+      this.value = value;
+      this.version = version;
+      this.readAt = readAt;
+    }
+  }
+
+  public EntityCache(String collection) {
+    this.collection = collection;
+  }
+
+  public long version() {
+    return CollectionVersions.get(collection);
+  }
+
+  /**
+   * @return the cached entity, or null if it is not cached, expired, or the collection changed since
+   */
+  public T get(String id) {
+    if (!CollectionVersions.isCurrent()) {
+      return null;
+    }
+    long current = version();
+    synchronized (entries) {
+      Entry<T> entry = entries.get(id);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.version != current || System.nanoTime() - entry.readAt >= TTL_NANOS) {
+        entries.remove(id);
+        return null;
+      }
+      return entry.value;
+    }
+  }
+
+  /**
+   * @param version the collection version taken before the entity was read
+   */
+  public void put(String id, T value, long version) {
+    long readAt = System.nanoTime();
+    synchronized (entries) {
+      entries.put(id, new Entry<>(value, version, readAt));
+    }
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
@@ -0,0 +1,70 @@
+package edu.oswego.cs.rest;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Conditional GET support for the read endpoints.
+ *
+ * <p>Every response carries a strong ETag built from the versions of the collections the route
+ * reads ({@link CollectionVersions}) and a Cache-Control header. When the request's
+ * <code>If-None-Match</code> matches, a 304 is returned before the body supplier runs, so a
+ * revalidation costs neither a Mongo query nor serialization. The versions are shared between
+ * instances in the background, so a write through another instance is seen within two
+ * <code>COLLECTION_VERSION_REFRESH_MILLIS</code>. While this instance cannot read them, responses
+ * go out without an ETag and every request gets the body.</p>
+ *
+ * <p>The Cache-Control value defaults to <code>CACHE_CONTROL</code>, or
+ * <code>max-age=10, stale-while-revalidate=60</code> if that is not set, and can be set per route
+ * with <code>CACHE_CONTROL_&lt;ROUTE&gt;</code> where the route is upper cased with every non
+ * letter replaced by an underscore, for example <code>CACHE_CONTROL_MOVIE_GETBYTITLE</code>.</p>
+ */
+public class HttpCaching {
+
+  private static final String DEFAULT_CACHE_CONTROL = "max-age=10, stale-while-revalidate=60";
+  private static final Map<String, String> CACHE_CONTROL = new ConcurrentHashMap<>();
+
+  private HttpCaching() {}
+
+  /**
+   * @param request used to evaluate <code>If-None-Match</code>
+   * @param route the route name used to look up its Cache-Control setting, for example
+   *        <code>movie/getByTitle</code>
+   * @param body loads the entity, only called when the client's copy is out of date; a null
+   *        entity is returned as 404
+   * @param collections the collections the body is read from
+   */
+  public static Response conditional(Request request, String route, Supplier<?> body, String... collections) {
+    String version = CollectionVersions.tagOf(collections);
+    EntityTag tag = version == null ? null : new EntityTag(version);
+    Response.ResponseBuilder response = tag == null ? null : request.evaluatePreconditions(tag);
+    if (response == null) {
+      Object entity = body.get();
+      if (entity == null) {
+        return Response.status(Response.Status.NOT_FOUND).build();
+      }
+      response = Response.ok(entity);
+    }
+    return response.tag(tag)
+        .header(HttpHeaders.CACHE_CONTROL, cacheControlFor(route))
+        .build();
+  }
+
+  static String cacheControlFor(String route) {
+    return CACHE_CONTROL.computeIfAbsent(route, name -> {
+      String perRoute = System.getenv("CACHE_CONTROL_" + name.toUpperCase(Locale.ROOT).replaceAll("[^A-Z]", "_"));
+      if (perRoute != null && !perRoute.isBlank()) {
+        return perRoute.trim();
+      }
+      String configured = System.getenv("CACHE_CONTROL");
+      return configured == null || configured.isBlank() ? DEFAULT_CACHE_CONTROL : configured.trim();
+    });
+  }
+}
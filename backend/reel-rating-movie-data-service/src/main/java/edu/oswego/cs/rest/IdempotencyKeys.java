@@ -0,0 +1,338 @@
+package edu.oswego.cs.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import org.bson.Document;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Support for the <code>Idempotency-Key</code> request header on the create endpoints, so a client
+ * can retry a timed out POST without creating the review, flag or rating twice.
+ *
+ * <p>The first request with a key claims it by inserting a document with the key as its _id in the
+ * <code>idempotencyKeys</code> collection, runs, and stores its response there; a later request
+ * with the same key gets the stored response back, marked with
+ * <code>Idempotent-Replayed: true</code>, without running again. Documents expire through a TTL
+ * index after <code>IDEMPOTENCY_KEY_TTL_HOURS</code> (24 by default). A claim whose request never
+ * finished, for example because the instance died, can be taken over once it is
+ * <code>IDEMPOTENCY_PENDING_SECONDS</code> (60) old.</p>
+ *
+ * <p>Recent keys are also kept in memory (<code>IDEMPOTENCY_CACHE_SIZE</code>, 10000), which
+ * answers most retries without a query and makes concurrent duplicates on this instance wait for
+ * the one that is running instead of racing it to Mongo. A duplicate that is still running after
+ * <code>IDEMPOTENCY_WAIT_SECONDS</code> (10) is answered with 409. Reusing a key for a different
+ * route, path or body is answered with 422. Responses of 500 and above are not stored, so a retry
+ * of a failed request runs again.</p>
+ */
+public class IdempotencyKeys {
+
+  public static final String HEADER = "Idempotency-Key";
+  static final String REPLAYED_HEADER = "Idempotent-Replayed";
+  static final int MAX_KEY_LENGTH = 255;
+
+  private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(intFromEnv("IDEMPOTENCY_KEY_TTL_HOURS", 24));
+  private static final long PENDING_MILLIS = TimeUnit.SECONDS.toMillis(intFromEnv("IDEMPOTENCY_PENDING_SECONDS", 60));
+  private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(intFromEnv("IDEMPOTENCY_WAIT_SECONDS", 10));
+  private static final int CACHE_SIZE = intFromEnv("IDEMPOTENCY_CACHE_SIZE", 10000);
+  private static final long POLL_MILLIS = 50;
+
+  private static final Logger LOGGER = Logger.getLogger(IdempotencyKeys.class.getName());
+  private static final IdempotencyKeys INSTANCE = new IdempotencyKeys();
+
+  private final Map<String, Outcome> outcomes = new LinkedHashMap<String, Outcome>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Outcome> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+  private volatile boolean indexed;
+
+  /**
+   * A create endpoint's body.
+   */
+  public interface Action {
+    Response run() throws Exception;
+  }
+
+  private static final class Outcome {
+    final String fingerprint;
+    final long expiresAt;
+    final CompletableFuture<StoredResponse> result = new CompletableFuture<>();
+
+    Outcome(String fingerprint, long expiresAt) {
+      this.fingerprint = fingerprint;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private IdempotencyKeys() {}
+
+  public static IdempotencyKeys getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Runs the action once per key.
+   * @param key the Idempotency-Key header, the action simply runs if it is null or blank
+   * @param route the endpoint, for example <code>review/create</code>
+   * @param request the path parameters and body fields; a retry must send the same ones
+   */
+  public Response execute(String key, String route, Action action, Object... request) throws Exception {
+    if (key == null || key.isBlank()) {
+      return action.run();
+    }
+    if (key.length() > MAX_KEY_LENGTH) {
+      return plain(400, HEADER + " must be at most " + MAX_KEY_LENGTH + " characters");
+    }
+    String fingerprint = fingerprint(route, request);
+    long now = System.currentTimeMillis();
+    Outcome outcome;
+    boolean first;
+    synchronized (outcomes) {
+      outcome = outcomes.get(key);
+      first = outcome == null || outcome.expiresAt < now;
+      if (first) {
+        outcome = new Outcome(fingerprint, now + TTL_MILLIS);
+        outcomes.put(key, outcome);
+      }
+    }
+    if (!outcome.fingerprint.equals(fingerprint)) {
+      return mismatch();
+    }
+    if (!first) {
+      return await(outcome);
+    }
+    try {
+      return executeOnce(key, fingerprint, action, outcome);
+    } catch (Exception | Error e) {
+      forget(key, outcome);
+      outcome.result.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private Response executeOnce(String key, String fingerprint, Action action, Outcome outcome) throws Exception {
+    MongoCollection<Document> keys = getKeyCollection();
+    Document claim = claim(keys, key, fingerprint);
+    if (claim != null) {
+      // someone else ran it, or is running it
+      forget(key, outcome);
+      Response answer;
+      if (!fingerprint.equals(claim.getString("fingerprint"))) {
+        answer = mismatch();
+      } else if ("done".equals(claim.getString("state"))) {
+        answer = StoredResponse.fromDocument(claim.get("response", Document.class)).replay();
+      } else {
+        answer = plain(409, "A request with this " + HEADER + " is still in progress");
+      }
+      outcome.result.complete(StoredResponse.of(answer));
+      return answer;
+    }
+    Response response;
+    try {
+      response = action.run();
+    } catch (Exception | Error e) {
+      release(keys, key);
+      throw e;
+    }
+    StoredResponse stored = StoredResponse.of(response);
+    if (stored.status >= 500) {
+      release(keys, key);
+      forget(key, outcome);
+    } else {
+      try {
+        keys.updateOne(Filters.eq("_id", key), Updates.combine(
+            Updates.set("state", "done"),
+            Updates.set("response", stored.toDocument()),
+            Updates.set("expiresAt", new Date(outcome.expiresAt))));
+      } catch (MongoException e) {
+        // the response is still replayed from memory, only other instances may run it again
+        LOGGER.log(Level.WARNING, "Could not store the response for an idempotency key", e);
+      }
+    }
+    outcome.result.complete(stored);
+    return response;
+  }
+
+  /**
+   * Inserts a pending claim on the key.
+   * @return null if this request now owns the key, otherwise the document of the request that
+   *         ran or is running it, after waiting up to IDEMPOTENCY_WAIT_SECONDS for it to finish
+   */
+  private Document claim(MongoCollection<Document> keys, String key, String fingerprint) throws InterruptedException {
+    ensureIndexes(keys);
+    long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    while (true) {
+      long now = System.currentTimeMillis();
+      Document claim = new Document("_id", key).append("fingerprint", fingerprint).append("state", "pending")
+          .append("createdAt", new Date(now)).append("expiresAt", new Date(now + PENDING_MILLIS));
+      try {
+        keys.insertOne(claim);
+        return null;
+      } catch (MongoWriteException e) {
+        if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+          throw e;
+        }
+      }
+      Document existing = keys.find(Filters.eq("_id", key)).first();
+      if (existing == null) {
+        // expired in between
+        continue;
+      }
+      if (!"pending".equals(existing.getString("state")) || !fingerprint.equals(existing.getString("fingerprint"))) {
+        return existing;
+      }
+      Date expiresAt = existing.getDate("expiresAt");
+      if (expiresAt != null && expiresAt.getTime() < now) {
+        // abandoned, take it over unless another request just did
+        if (keys.replaceOne(Filters.and(Filters.eq("_id", key), Filters.eq("state", "pending"),
+            Filters.eq("expiresAt", expiresAt)), claim).getModifiedCount() == 1) {
+          return null;
+        }
+        continue;
+      }
+      if (now >= deadline) {
+        return existing;
+      }
+      Thread.sleep(POLL_MILLIS);
+    }
+  }
+
+  /**
+   * Removes a pending claim so that a retry runs the request again.
+   */
+  private static void release(MongoCollection<Document> keys, String key) {
+    try {
+      keys.deleteOne(Filters.and(Filters.eq("_id", key), Filters.eq("state", "pending")));
+    } catch (MongoException e) {
+      LOGGER.log(Level.WARNING, "Could not release an idempotency key, it expires after IDEMPOTENCY_PENDING_SECONDS", e);
+    }
+  }
+
+  private void forget(String key, Outcome outcome) {
+    synchronized (outcomes) {
+      outcomes.remove(key, outcome);
+    }
+  }
+
+  private static Response await(Outcome outcome) throws Exception {
+    try {
+      return outcome.result.get(WAIT_MILLIS, TimeUnit.MILLISECONDS).replay();
+    } catch (TimeoutException e) {
+      return plain(409, "A request with this " + HEADER + " is still in progress");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void ensureIndexes(MongoCollection<Document> keys) {
+    if (!indexed) {
+      keys.createIndex(Indexes.ascending("expiresAt"), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+      indexed = true;
+    }
+  }
+
+  private static MongoCollection<Document> getKeyCollection() {
+    return new DatabaseController().getMovieDatabase().getCollection("idempotencyKeys");
+  }
+
+  static String fingerprint(String route, Object... request) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(route.getBytes(StandardCharsets.UTF_8));
+      for (Object part : request) {
+        digest.update((byte) 0);
+        digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Response mismatch() {
+    return plain(422, HEADER + " was already used for a different request");
+  }
+
+  private static Response plain(int status, String message) {
+    return Response.status(status).entity(message).type(MediaType.TEXT_PLAIN).build();
+  }
+
+  /**
+   * The parts of a create endpoint's response that are replayed: its status, a text body if it has
+   * one and Retry-After.
+   */
+  static final class StoredResponse {
+    final int status;
+    final String entity;
+    final String mediaType;
+    final String retryAfter;
+
+    StoredResponse(int status, String entity, String mediaType, String retryAfter) {
+      this.status = status;
+      this.entity = entity;
+      this.mediaType = mediaType;
+      this.retryAfter = retryAfter;
+    }
+
+    static StoredResponse of(Response response) {
+      Object entity = response.getEntity();
+      return new StoredResponse(response.getStatus(),
+          entity instanceof String ? (String) entity : null,
+          response.getMediaType() == null ? null : response.getMediaType().toString(),
+          response.getHeaderString("Retry-After"));
+    }
+
+    static StoredResponse fromDocument(Document document) {
+      return new StoredResponse(document.getInteger("status"), document.getString("entity"),
+          document.getString("mediaType"), document.getString("retryAfter"));
+    }
+
+    Document toDocument() {
+      return new Document("status", status).append("entity", entity).append("mediaType", mediaType)
+          .append("retryAfter", retryAfter);
+    }
+
+    Response replay() {
+      Response.ResponseBuilder response = Response.status(status).header(REPLAYED_HEADER, "true");
+      if (entity != null) {
+        response.entity(entity).type(mediaType);
+      }
+      if (retryAfter != null) {
+        response.header("Retry-After", retryAfter);
+      }
+      return response.build();
+    }
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
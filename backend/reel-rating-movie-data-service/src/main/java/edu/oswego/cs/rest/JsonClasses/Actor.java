@@ -1,13 +1,20 @@
 package edu.oswego.cs.rest.JsonClasses;
 
 public class Actor {
+  private String id;
   private String name;
   private String dateOfBirth;
+  // incremented by every write, see DocumentVersions
+  private Long version;
 
   private String movies;
 
   public Actor() {}
 
+  public String getId() { return id; }
+
+  public void setId(String id) { this.id = id; }
+
   public String getName() {
     return name;
   }
@@ -23,4 +30,12 @@ public class Actor {
   public void setDateOfBirth(String dateOfBirth) {
     this.dateOfBirth = dateOfBirth;
   }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
 }
@@ -0,0 +1,17 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+import java.util.List;
+
+public class BatchRequest {
+  private List<String> ids;
+
+  public BatchRequest() {}
+
+  public List<String> getIds() {
+    return ids;
+  }
+
+  public void setIds(List<String> ids) {
+    this.ids = ids;
+  }
+}
@@ -0,0 +1,35 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+import java.util.List;
+
+/**
+ * Result of a batch lookup: <code>items</code> holds one entry per requested id in request order,
+ * null where nothing was found, and <code>missing</code> lists the ids that were not found.
+ */
+public class BatchResult<T> {
+  private List<T> items;
+  private List<String> missing;
+
+  public BatchResult() {}
+
+  public BatchResult(List<T> items, List<String> missing) {
+    this.items = items;
+    this.missing = missing;
+  }
+
+  public List<T> getItems() {
+    return items;
+  }
+
+  public void setItems(List<T> items) {
+    this.items = items;
+  }
+
+  public List<String> getMissing() {
+    return missing;
+  }
+
+  public void setMissing(List<String> missing) {
+    this.missing = missing;
+  }
+}
@@ -0,0 +1,46 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+import java.util.List;
+
+/**
+ * A chain of co-stars between two actors: <code>movies[i]</code> is a movie with both
+ * <code>actors[i]</code> and <code>actors[i + 1]</code> in it. <code>degrees</code> is the number of
+ * movies, or -1 when the actors are not connected.
+ */
+public class CoStarPath {
+  private int degrees;
+  private List<String> actors;
+  private List<String> movies;
+
+  public CoStarPath() {}
+
+  public CoStarPath(int degrees, List<String> actors, List<String> movies) {
+    this.degrees = degrees;
+    this.actors = actors;
+    this.movies = movies;
+  }
+
+  public int getDegrees() {
+    return degrees;
+  }
+
+  public void setDegrees(int degrees) {
+    this.degrees = degrees;
+  }
+
+  public List<String> getActors() {
+    return actors;
+  }
+
+  public void setActors(List<String> actors) {
+    this.actors = actors;
+  }
+
+  public List<String> getMovies() {
+    return movies;
+  }
+
+  public void setMovies(List<String> movies) {
+    this.movies = movies;
+  }
+}
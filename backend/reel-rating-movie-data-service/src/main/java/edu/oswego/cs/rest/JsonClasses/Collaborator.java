@@ -0,0 +1,44 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+import java.util.List;
+
+/**
+ * An actor who appeared with another one, and the movies they share.
+ */
+public class Collaborator {
+  private String name;
+  private int sharedMovies;
+  private List<String> movies;
+
+  public Collaborator() {}
+
+  public Collaborator(String name, int sharedMovies, List<String> movies) {
+    this.name = name;
+    this.sharedMovies = sharedMovies;
+    this.movies = movies;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public int getSharedMovies() {
+    return sharedMovies;
+  }
+
+  public void setSharedMovies(int sharedMovies) {
+    this.sharedMovies = sharedMovies;
+  }
+
+  public List<String> getMovies() {
+    return movies;
+  }
+
+  public void setMovies(List<String> movies) {
+    this.movies = movies;
+  }
+}
@@ -0,0 +1,34 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+import java.util.List;
+
+/**
+ * A movie of an actor's filmography with the other actors in it.
+ */
+public class FilmographyEntry {
+  private String title;
+  private List<String> coStars;
+
+  public FilmographyEntry() {}
+
+  public FilmographyEntry(String title, List<String> coStars) {
+    this.title = title;
+    this.coStars = coStars;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public void setTitle(String title) {
+    this.title = title;
+  }
+
+  public List<String> getCoStars() {
+    return coStars;
+  }
+
+  public void setCoStars(List<String> coStars) {
+    this.coStars = coStars;
+  }
+}
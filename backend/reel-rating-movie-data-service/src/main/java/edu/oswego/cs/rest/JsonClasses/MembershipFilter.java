@@ -0,0 +1,39 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+import java.util.List;
+
+/**
+ * Which flags or rating categories a movie must have: all of <code>all</code>, at least one of
+ * <code>any</code> and none of <code>none</code>. Empty or missing lists do not constrain.
+ */
+public class MembershipFilter {
+  private List<String> all;
+  private List<String> any;
+  private List<String> none;
+
+  public MembershipFilter() {}
+
+  public List<String> getAll() {
+    return all;
+  }
+
+  public void setAll(List<String> all) {
+    this.all = all;
+  }
+
+  public List<String> getAny() {
+    return any;
+  }
+
+  public void setAny(List<String> any) {
+    this.any = any;
+  }
+
+  public List<String> getNone() {
+    return none;
+  }
+
+  public void setNone(List<String> none) {
+    this.none = none;
+  }
+}
@@ -1,13 +1,18 @@
 package edu.oswego.cs.rest.JsonClasses;
 
+import java.time.LocalDate;
+
 public class Movie {
   private String id;
   private String title;
   private String director;
-  private String releaseDate;
-  private String runtime;
+  private LocalDate releaseDate;
+  // minutes
+  private Integer runtime;
   private String writers;
   private String summary;
+  // incremented by every write, see DocumentVersions
+  private Long version;
 
   public Movie() {}
 
@@ -31,19 +36,19 @@ public class Movie {
     this.director = director;
   }
 
-  public String getReleaseDate() {
+  public LocalDate getReleaseDate() {
     return releaseDate;
   }
 
-  public void setReleaseDate(String releaseDate) {
+  public void setReleaseDate(LocalDate releaseDate) {
     this.releaseDate = releaseDate;
   }
 
-  public String getRuntime() {
+  public Integer getRuntime() {
     return runtime;
   }
 
-  public void setRuntime(String runtime) {
+  public void setRuntime(Integer runtime) {
     this.runtime = runtime;
   }
 
@@ -62,4 +67,12 @@ public class Movie {
   public void setSummary(String summary) {
     this.summary = summary;
   }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
 }
@@ -0,0 +1,105 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+import java.util.List;
+
+/**
+ * A structured movie query, for example
+ * <code>{"flags": {"all": ["A"], "none": ["B"]}, "actors": ["X"], "releasedFrom": "1990",
+ * "releasedTo": "2000", "sort": "rating", "order": "desc"}</code>.
+ * Release bounds may be years, months (yyyy-MM) or full dates; both are inclusive.
+ * Sort is one of title, releaseDate or rating.
+ */
+public class MovieQuery {
+  private MembershipFilter flags;
+  private MembershipFilter ratingCategories;
+  private List<String> actors;
+  private String releasedFrom;
+  private String releasedTo;
+  private String sort;
+  private String order;
+  private Integer skip;
+  private Integer limit;
+  private Boolean facets;
+
+  public MovieQuery() {}
+
+  public MembershipFilter getFlags() {
+    return flags;
+  }
+
+  public void setFlags(MembershipFilter flags) {
+    this.flags = flags;
+  }
+
+  public MembershipFilter getRatingCategories() {
+    return ratingCategories;
+  }
+
+  public void setRatingCategories(MembershipFilter ratingCategories) {
+    this.ratingCategories = ratingCategories;
+  }
+
+  public List<String> getActors() {
+    return actors;
+  }
+
+  public void setActors(List<String> actors) {
+    this.actors = actors;
+  }
+
+  public String getReleasedFrom() {
+    return releasedFrom;
+  }
+
+  public void setReleasedFrom(String releasedFrom) {
+    this.releasedFrom = releasedFrom;
+  }
+
+  public String getReleasedTo() {
+    return releasedTo;
+  }
+
+  public void setReleasedTo(String releasedTo) {
+    this.releasedTo = releasedTo;
+  }
+
+  public String getSort() {
+    return sort;
+  }
+
+  public void setSort(String sort) {
+    this.sort = sort;
+  }
+
+  public String getOrder() {
+    return order;
+  }
+
+  public void setOrder(String order) {
+    this.order = order;
+  }
+
+  public Integer getSkip() {
+    return skip;
+  }
+
+  public void setSkip(Integer skip) {
+    this.skip = skip;
+  }
+
+  public Integer getLimit() {
+    return limit;
+  }
+
+  public void setLimit(Integer limit) {
+    this.limit = limit;
+  }
+
+  public Boolean getFacets() {
+    return facets;
+  }
+
+  public void setFacets(Boolean facets) {
+    this.facets = facets;
+  }
+}
@@ -0,0 +1,49 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of a movie query: the total number of matches, the movies on the page, the number of
+ * matches having each flag and rating category, and a description of how the query was run.
+ */
+public class MovieQueryResult {
+  private long total;
+  private List<Movie> movies;
+  private Map<String, Map<String, Integer>> facets;
+  private String plan;
+
+  public MovieQueryResult() {}
+
+  public long getTotal() {
+    return total;
+  }
+
+  public void setTotal(long total) {
+    this.total = total;
+  }
+
+  public List<Movie> getMovies() {
+    return movies;
+  }
+
+  public void setMovies(List<Movie> movies) {
+    this.movies = movies;
+  }
+
+  public Map<String, Map<String, Integer>> getFacets() {
+    return facets;
+  }
+
+  public void setFacets(Map<String, Map<String, Integer>> facets) {
+    this.facets = facets;
+  }
+
+  public String getPlan() {
+    return plan;
+  }
+
+  public void setPlan(String plan) {
+    this.plan = plan;
+  }
+}
@@ -0,0 +1,42 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+/**
+ * A movie of the most viewed list with its number of views.
+ */
+public class MovieViews {
+  private String id;
+  private String title;
+  private long views;
+
+  public MovieViews() {}
+
+  public MovieViews(String id, String title, long views) {
+    this.id = id;
+    this.title = title;
+    this.views = views;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public void setTitle(String title) {
+    this.title = title;
+  }
+
+  public long getViews() {
+    return views;
+  }
+
+  public void setViews(long views) {
+    this.views = views;
+  }
+}
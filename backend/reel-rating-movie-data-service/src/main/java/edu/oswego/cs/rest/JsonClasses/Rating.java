@@ -1,9 +1,13 @@
 package edu.oswego.cs.rest.JsonClasses;
 
+import java.math.BigDecimal;
+
 public class Rating {
   private String movieTitle;
   private String ratingName;
-  private String userRating;
+  private BigDecimal userRating;
+  // incremented by every write, see DocumentVersions
+  private Long version;
 
   public Rating() {}
 
@@ -23,11 +27,19 @@ public class Rating {
     this.ratingName = ratingName;
   }
 
-  public String getUserRating() {
+  public BigDecimal getUserRating() {
     return userRating;
   }
 
-  public void setUserRating(String userRating) {
+  public void setUserRating(BigDecimal userRating) {
     this.userRating = userRating;
   }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
 }
@@ -1,13 +1,20 @@
 package edu.oswego.cs.rest.JsonClasses;
 
 public class Review {
+  private String id;
   private String movieTitle;
   private String movieId;
   private String reviewTitle;
   private String reviewDescription;
+  // incremented by every write, see DocumentVersions
+  private Long version;
 
   public Review() {}
 
+  public String getId() { return id; }
+
+  public void setId(String id) { this.id = id; }
+
   public String getMovieTitle() {
     return movieTitle;
   }
@@ -39,4 +46,12 @@ public class Review {
   public String getMovieId() {
     return this.movieId;
   }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
 }
@@ -0,0 +1,43 @@
+package edu.oswego.cs.rest.JsonClasses;
+
+/**
+ * A movie recommended from another one, with the similarity of their ratings (adjusted cosine,
+ * at most 1).
+ */
+public class SimilarMovie {
+  private String id;
+  private String title;
+  private float score;
+
+  public SimilarMovie() {}
+
+  public SimilarMovie(String id, String title, float score) {
+    this.id = id;
+    this.title = title;
+    this.score = score;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public void setTitle(String title) {
+    this.title = title;
+  }
+
+  public float getScore() {
+    return score;
+  }
+
+  public void setScore(float score) {
+    this.score = score;
+  }
+}
@@ -0,0 +1,248 @@
+package edu.oswego.cs.rest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.UriInfo;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+
+import edu.oswego.cs.rest.JsonClasses.Actor;
+import edu.oswego.cs.rest.JsonClasses.BatchResult;
+import edu.oswego.cs.rest.JsonClasses.Movie;
+import edu.oswego.cs.rest.JsonClasses.MovieQueryResult;
+import edu.oswego.cs.rest.JsonClasses.MovieViews;
+import edu.oswego.cs.rest.JsonClasses.Rating;
+import edu.oswego.cs.rest.JsonClasses.Review;
+
+/**
+ * Writes {@link Movie}, {@link Review}, {@link Actor}, {@link Rating} and {@link MovieViews} responses without JSON-B's
+ * reflection, on their own, in lists and in {@link BatchResult} and {@link MovieQueryResult}. Every
+ * class has a hand-written property list in JSON-B's default lexicographic order, and null
+ * properties are left out as JSON-B does, so the JSON is the same as before.
+ *
+ * <p>The properties written can be narrowed with the <code>fields</code> query parameter, for
+ * example <code>?fields=id,title</code>. Names that are not properties are ignored. Lists whose
+ * elements turn out to be of other types are still written by JSON-B.</p>
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class JsonClassesWriter implements MessageBodyWriter<Object> {
+
+  private static final Map<Class<?>, List<Property<?>>> PROPERTIES = Map.of(
+      Movie.class, List.of(
+          property("director", Movie::getDirector),
+          property("id", Movie::getId),
+          property("releaseDate", Movie::getReleaseDate),
+          property("runtime", Movie::getRuntime),
+          property("summary", Movie::getSummary),
+          property("title", Movie::getTitle),
+          property("version", Movie::getVersion),
+          property("writers", Movie::getWriters)),
+      Review.class, List.of(
+          property("id", Review::getId),
+          property("movieId", Review::getMovieId),
+          property("movieTitle", Review::getMovieTitle),
+          property("reviewDescription", Review::getReviewDescription),
+          property("reviewTitle", Review::getReviewTitle),
+          property("version", Review::getVersion)),
+      Actor.class, List.of(
+          property("dateOfBirth", Actor::getDateOfBirth),
+          property("id", Actor::getId),
+          property("name", Actor::getName),
+          property("version", Actor::getVersion)),
+      Rating.class, List.of(
+          property("movieTitle", Rating::getMovieTitle),
+          property("ratingName", Rating::getRatingName),
+          property("userRating", Rating::getUserRating),
+          property("version", Rating::getVersion)),
+      MovieViews.class, List.of(
+          property("id", MovieViews::getId),
+          property("title", MovieViews::getTitle),
+          property("views", MovieViews::getViews)));
+
+  @Context
+  UriInfo uriInfo;
+
+  // only created once something has to be written by JSON-B
+  private static final class Fallback {
+    static final Jsonb JSONB = JsonbBuilder.create();
+  }
+
+  private static final class Property<T> {
+    final String name;
+    final Function<T, ?> value;
+
+    Property(String name, Function<T, ?> value) {
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  private static <T> Property<?> property(String name, Function<T, ?> value) {
+    return new Property<>(name, value);
+  }
+
+  @Override
+  public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+    if (PROPERTIES.containsKey(type) || type == BatchResult.class || type == MovieQueryResult.class) {
+      return true;
+    }
+    if (!Collection.class.isAssignableFrom(type)) {
+      return false;
+    }
+    // the element type of a list passed to Response.ok() is not known, so it is checked in writeTo
+    if (genericType instanceof ParameterizedType) {
+      Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+      return arguments.length == 1 && PROPERTIES.containsKey(arguments[0]);
+    }
+    return true;
+  }
+
+  @Override
+  public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                      MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+    write(entity, genericType, fields(), entityStream);
+  }
+
+  /**
+   * @param fields the properties to write, all of them if null
+   */
+  void write(Object entity, Type genericType, Set<String> fields, OutputStream out) throws IOException {
+    if (!supported(entity)) {
+      // JSON-B closes the stream it writes to, which is up to the container
+      Fallback.JSONB.toJson(entity, genericType, new FilterOutputStream(out) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      });
+      return;
+    }
+    JsonOutput json = new JsonOutput(out);
+    writeValue(json, entity, fields);
+    json.flush();
+  }
+
+  private static boolean supported(Object entity) {
+    Collection<?> elements;
+    if (entity instanceof Collection) {
+      elements = (Collection<?>) entity;
+    } else if (entity instanceof BatchResult) {
+      elements = ((BatchResult<?>) entity).getItems();
+    } else if (entity instanceof MovieQueryResult) {
+      elements = ((MovieQueryResult) entity).getMovies();
+    } else {
+      return true;
+    }
+    if (elements != null) {
+      for (Object element : elements) {
+        if (element != null && !PROPERTIES.containsKey(element.getClass())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private Set<String> fields() {
+    List<String> values = uriInfo == null ? null : uriInfo.getQueryParameters().get("fields");
+    if (values == null) {
+      return null;
+    }
+    Set<String> fields = new HashSet<>();
+    for (String value : values) {
+      for (String field : value.split(",")) {
+        if (!field.isBlank()) {
+          fields.add(field.trim());
+        }
+      }
+    }
+    return fields.isEmpty() ? null : fields;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeValue(JsonOutput json, Object value, Set<String> fields) throws IOException {
+    if (value == null) {
+      json.nullValue();
+    } else if (value instanceof String) {
+      json.value((String) value);
+    } else if (value instanceof Integer || value instanceof Long) {
+      json.value(((Number) value).longValue());
+    } else if (value instanceof BigDecimal) {
+      json.raw(value.toString());
+    } else if (value instanceof LocalDate) {
+      // ISO format, as JSON-B writes it
+      json.value(value.toString());
+    } else if (value instanceof Collection) {
+      json.beginArray();
+      for (Object element : (Collection<?>) value) {
+        writeValue(json, element, fields);
+      }
+      json.endArray();
+    } else if (value instanceof Map) {
+      json.beginObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        json.name(String.valueOf(entry.getKey()));
+        writeValue(json, entry.getValue(), fields);
+      }
+      json.endObject();
+    } else if (value instanceof BatchResult) {
+      BatchResult<?> result = (BatchResult<?>) value;
+      json.beginObject();
+      writeProperty(json, "items", result.getItems(), fields);
+      writeProperty(json, "missing", result.getMissing(), null);
+      json.endObject();
+    } else if (value instanceof MovieQueryResult) {
+      MovieQueryResult result = (MovieQueryResult) value;
+      json.beginObject();
+      writeProperty(json, "facets", result.getFacets(), null);
+      writeProperty(json, "movies", result.getMovies(), fields);
+      writeProperty(json, "plan", result.getPlan(), null);
+      writeProperty(json, "total", result.getTotal(), null);
+      json.endObject();
+    } else {
+      List<Property<Object>> properties = (List<Property<Object>>) (List<?>) PROPERTIES.get(value.getClass());
+      if (properties == null) {
+        throw new IllegalArgumentException("No properties for " + value.getClass().getName());
+      }
+      json.beginObject();
+      for (Property<Object> property : properties) {
+        if (fields == null || fields.contains(property.name)) {
+          writeProperty(json, property.name, property.value.apply(value), null);
+        }
+      }
+      json.endObject();
+    }
+  }
+
+  private static void writeProperty(JsonOutput json, String name, Object value, Set<String> fields) throws IOException {
+    if (value != null) {
+      json.name(name);
+      writeValue(json, value, fields);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package edu.oswego.cs.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming JSON writer used by {@link JsonClassesWriter}. It encodes UTF-8 into a buffer that is
+ * written to the entity stream whenever it fills up, and inserts commas on its own. Strings are
+ * escaped the way the JSON-P generator behind JSON-B escapes them: quote, backslash and control
+ * characters only.
+ */
+final class JsonOutput {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+  // deepest nesting of objects and arrays, one bit each in hasValue
+  private static final int MAX_DEPTH = 64;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count;
+  private int depth;
+  // bit d is set once the object or array at depth d has a value, so the next one needs a comma
+  private long hasValue;
+  private boolean afterName;
+
+  JsonOutput(OutputStream out) {
+    this.out = out;
+  }
+
+  JsonOutput beginObject() throws IOException {
+    return open('{');
+  }
+
+  JsonOutput endObject() throws IOException {
+    return close('}');
+  }
+
+  JsonOutput beginArray() throws IOException {
+    return open('[');
+  }
+
+  JsonOutput endArray() throws IOException {
+    return close(']');
+  }
+
+  JsonOutput name(String name) throws IOException {
+    separate();
+    quoted(name);
+    put(':');
+    afterName = true;
+    return this;
+  }
+
+  JsonOutput value(String value) throws IOException {
+    separate();
+    quoted(value);
+    return this;
+  }
+
+  JsonOutput value(long value) throws IOException {
+    return raw(Long.toString(value));
+  }
+
+  /**
+   * Writes an already formatted number, for example <code>BigDecimal.toString()</code>.
+   */
+  JsonOutput raw(String number) throws IOException {
+    separate();
+    for (int i = 0; i < number.length(); i++) {
+      put(number.charAt(i));
+    }
+    return this;
+  }
+
+  JsonOutput nullValue() throws IOException {
+    return raw("null");
+  }
+
+  /**
+   * Writes out what is buffered, without flushing the entity stream.
+   */
+  void flush() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  private JsonOutput open(char bracket) throws IOException {
+    if (depth == MAX_DEPTH - 1) {
+      throw new IllegalStateException("JSON nested deeper than " + (MAX_DEPTH - 1));
+    }
+    separate();
+    put(bracket);
+    depth++;
+    hasValue &= ~(1L << depth);
+    return this;
+  }
+
+  private JsonOutput close(char bracket) throws IOException {
+    put(bracket);
+    depth--;
+    return this;
+  }
+
+  private void separate() throws IOException {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+    long bit = 1L << depth;
+    if ((hasValue & bit) != 0) {
+      put(',');
+    }
+    hasValue |= bit;
+  }
+
+  private void quoted(String value) throws IOException {
+    put('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        switch (c) {
+          case '"':
+          case '\\':
+            put('\\');
+            put(c);
+            break;
+          case '\b':
+            escaped('b');
+            break;
+          case '\f':
+            escaped('f');
+            break;
+          case '\n':
+            escaped('n');
+            break;
+          case '\r':
+            escaped('r');
+            break;
+          case '\t':
+            escaped('t');
+            break;
+          default:
+            if (c < 0x20) {
+              put('\\');
+              put('u');
+              put('0');
+              put('0');
+              put((char) HEX[c >> 4]);
+              put((char) HEX[c & 0xf]);
+            } else {
+              put(c);
+            }
+        }
+      } else if (c < 0x800) {
+        put((char) (0xc0 | c >> 6));
+        put((char) (0x80 | c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        put((char) (0xf0 | codePoint >> 18));
+        put((char) (0x80 | codePoint >> 12 & 0x3f));
+        put((char) (0x80 | codePoint >> 6 & 0x3f));
+        put((char) (0x80 | codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // unpaired, replaced like the UTF-8 encoder does
+        put('?');
+      } else {
+        put((char) (0xe0 | c >> 12));
+        put((char) (0x80 | c >> 6 & 0x3f));
+        put((char) (0x80 | c & 0x3f));
+      }
+    }
+    put('"');
+  }
+
+  private void escaped(char c) throws IOException {
+    put('\\');
+    put(c);
+  }
+
+  // c is a single byte
+  private void put(char c) throws IOException {
+    if (count == BUFFER_SIZE) {
+      flush();
+    }
+    buffer[count++] = (byte) c;
+  }
+}
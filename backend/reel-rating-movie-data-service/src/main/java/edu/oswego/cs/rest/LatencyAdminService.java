@@ -0,0 +1,78 @@
+package edu.oswego.cs.rest;
+
+import java.util.Map;
+
+import jakarta.enterprise.context.RequestScoped;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+@RequestScoped
+@Path("/admin")
+public class LatencyAdminService {
+
+  /**
+   * Reports latency for every route seen since startup: request count, throughput, p50/p99/p999
+   * and max of the total time and of each phase (database, auth, serialization), followed by the
+   * recent slow requests with their timing breakdown. All times are in milliseconds.
+   * @return A Json containing <code>routes</code> and <code>slowRequests</code>.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/latency")
+  public JsonObject getLatency() {
+    double uptimeSeconds = LatencyRecorder.getUptimeSeconds();
+    JsonObjectBuilder routes = Json.createObjectBuilder();
+    for (Map.Entry<String, LatencyRecorder.RouteLatency> entry : LatencyRecorder.getRoutes().entrySet()) {
+      LatencyRecorder.RouteLatency latency = entry.getValue();
+      long count = latency.total.getCount();
+      routes.add(entry.getKey(), Json.createObjectBuilder()
+          .add("count", count)
+          .add("requestsPerSecond", uptimeSeconds == 0 ? 0 : count / uptimeSeconds)
+          .add("serverErrors", latency.serverErrors.get())
+          .add("total", summary(latency.total))
+          .add("database", summary(latency.database))
+          .add("auth", summary(latency.auth))
+          .add("serialization", summary(latency.serialization)));
+    }
+
+    JsonArrayBuilder slowRequests = Json.createArrayBuilder();
+    for (LatencyRecorder.SlowRequest request : LatencyRecorder.getSlowRequests()) {
+      long otherNanos = request.totalNanos - request.databaseNanos - request.authNanos - request.serializationNanos;
+      slowRequests.add(Json.createObjectBuilder()
+          .add("route", request.route)
+          .add("status", request.status)
+          .add("finishedAt", request.finishedAt.toString())
+          .add("totalMs", millis(request.totalNanos))
+          .add("databaseMs", millis(request.databaseNanos))
+          .add("databaseCalls", request.databaseCalls)
+          .add("authMs", millis(request.authNanos))
+          .add("serializationMs", millis(request.serializationNanos))
+          .add("otherMs", millis(Math.max(0, otherNanos))));
+    }
+
+    return Json.createObjectBuilder()
+        .add("uptimeSeconds", uptimeSeconds)
+        .add("routes", routes)
+        .add("slowRequests", slowRequests)
+        .build();
+  }
+
+  private static JsonObjectBuilder summary(LatencyHistogram histogram) {
+    return Json.createObjectBuilder()
+        .add("mean", histogram.getMeanMillis())
+        .add("p50", histogram.getPercentileMillis(0.50))
+        .add("p99", histogram.getPercentileMillis(0.99))
+        .add("p999", histogram.getPercentileMillis(0.999))
+        .add("max", histogram.getMaxMillis());
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+}
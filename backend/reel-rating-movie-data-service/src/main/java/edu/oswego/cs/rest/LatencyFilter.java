@@ -0,0 +1,134 @@
+package edu.oswego.cs.rest;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HEAD;
+import jakarta.ws.rs.OPTIONS;
+import jakarta.ws.rs.PATCH;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Times every resource method call and hands the result to {@link LatencyRecorder}, keyed by the
+ * HTTP method and route template rather than the concrete URI so that, for example, all
+ * <code>/movie/getByTitle/{title}</code> calls share one histogram.
+ *
+ * <p>The response filter runs before the entity is written, so for responses with a body the
+ * timing is finished by the writer interceptor once serialization is done; that interval is also
+ * recorded as the serialization phase.</p>
+ */
+@Provider
+@Priority(Priorities.USER - 1000)
+public class LatencyFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+  private static final String ROUTE_PROPERTY = LatencyFilter.class.getName() + ".route";
+  private static final String PENDING_PROPERTY = LatencyFilter.class.getName() + ".pending";
+  private static final Map<Method, String> ROUTE_TEMPLATES = new ConcurrentHashMap<>();
+
+  @Context
+  ResourceInfo resourceInfo;
+
+  @Override
+  public void filter(ContainerRequestContext requestContext) {
+    RequestTimings.start();
+    requestContext.setProperty(ROUTE_PROPERTY, routeOf(requestContext));
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+    RequestTimings timings = RequestTimings.current();
+    Object route = requestContext.getProperty(ROUTE_PROPERTY);
+    if (timings == null || route == null) {
+      return;
+    }
+    if (responseContext.hasEntity()) {
+      // finished in aroundWriteTo once the body has been serialized
+      requestContext.setProperty(PENDING_PROPERTY, responseContext.getStatus());
+      return;
+    }
+    finish((String) route, responseContext.getStatus(), timings);
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+    RequestTimings timings = RequestTimings.current();
+    Object route = context.getProperty(ROUTE_PROPERTY);
+    Object pendingStatus = context.getProperty(PENDING_PROPERTY);
+    if (timings == null || route == null || pendingStatus == null) {
+      context.proceed();
+      return;
+    }
+    long serializationStarted = System.nanoTime();
+    int status = (Integer) pendingStatus;
+    try {
+      context.proceed();
+    } catch (IOException | RuntimeException e) {
+      status = 500;
+      throw e;
+    } finally {
+      RequestTimings.addSerialization(System.nanoTime() - serializationStarted);
+      finish((String) route, status, timings);
+    }
+  }
+
+  private static void finish(String route, int status, RequestTimings timings) {
+    try {
+      LatencyRecorder.record(route, status, timings, System.nanoTime());
+    } finally {
+      RequestTimings.clear();
+    }
+  }
+
+  private String routeOf(ContainerRequestContext requestContext) {
+    Method method = resourceInfo == null ? null : resourceInfo.getResourceMethod();
+    if (method == null) {
+      return requestContext.getMethod() + " (unmatched)";
+    }
+    return ROUTE_TEMPLATES.computeIfAbsent(method, LatencyFilter::templateOf);
+  }
+
+  private static String templateOf(Method method) {
+    StringBuilder template = new StringBuilder(httpMethodOf(method)).append(' ');
+    Path classPath = method.getDeclaringClass().getAnnotation(Path.class);
+    Path methodPath = method.getAnnotation(Path.class);
+    String path = (classPath == null ? "" : "/" + classPath.value()) + (methodPath == null ? "" : "/" + methodPath.value());
+    template.append(path.replaceAll("/{2,}", "/"));
+    return template.toString();
+  }
+
+  private static String httpMethodOf(Method method) {
+    if (method.isAnnotationPresent(GET.class)) {
+      return "GET";
+    } else if (method.isAnnotationPresent(POST.class)) {
+      return "POST";
+    } else if (method.isAnnotationPresent(PUT.class)) {
+      return "PUT";
+    } else if (method.isAnnotationPresent(DELETE.class)) {
+      return "DELETE";
+    } else if (method.isAnnotationPresent(PATCH.class)) {
+      return "PATCH";
+    } else if (method.isAnnotationPresent(HEAD.class)) {
+      return "HEAD";
+    } else if (method.isAnnotationPresent(OPTIONS.class)) {
+      return "OPTIONS";
+    }
+    return "ANY";
+  }
+}
@@ -0,0 +1,39 @@
+package edu.oswego.cs.rest;
+
+import java.util.Map;
+
+import jakarta.enterprise.context.RequestScoped;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+@RequestScoped
+@Path("/admin/migrations")
+public class MigrationAdminService {
+
+  /**
+   * Starts converting string release dates, runtimes and ratings to typed values in the background.
+   * @return 202 if the migration was started, 409 if it is already running
+   */
+  @POST
+  @Path("/typedFields")
+  public Response migrateTypedFields() {
+    if (!TypedFieldMigration.runInBackground()) {
+      return Response.status(Response.Status.CONFLICT).build();
+    }
+    return Response.accepted().build();
+  }
+
+  /**
+   * @return The state of the typed field migration and how many values it converted and skipped.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/typedFields")
+  public Map<String, Object> typedFieldsStatus() {
+    return TypedFieldMigration.status();
+  }
+}
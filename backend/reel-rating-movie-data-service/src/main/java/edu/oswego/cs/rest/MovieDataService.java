@@ -1,28 +1,46 @@
 package edu.oswego.cs.rest;
 
 import edu.oswego.cs.rest.JsonClasses.Actor;
+import edu.oswego.cs.rest.JsonClasses.BatchRequest;
+import edu.oswego.cs.rest.JsonClasses.BatchResult;
 import edu.oswego.cs.rest.JsonClasses.Flag;
 import edu.oswego.cs.rest.JsonClasses.Movie;
+import edu.oswego.cs.rest.JsonClasses.MovieQuery;
+import edu.oswego.cs.rest.JsonClasses.Rating;
 import edu.oswego.cs.rest.JsonClasses.Review;
 
 import jakarta.enterprise.context.RequestScoped;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
+import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import org.bson.Document;
 
@@ -36,81 +54,246 @@ public class MovieDataService {
   
   String AuthServiceUrl = System.getenv("AUTH_SERVICE_URL");
 
+  // reviews per movie page, unless the request asks for a different page size up to the maximum
+  static final int MOVIE_PAGE_REVIEWS = intFromEnv("MOVIE_PAGE_REVIEWS", 10);
+  static final int MOVIE_PAGE_MAX_REVIEWS = intFromEnv("MOVIE_PAGE_MAX_REVIEWS", 100);
+  // most ids accepted by one batch request
+  static final int MAX_BATCH_IDS = intFromEnv("MAX_BATCH_IDS", 100);
+  // how long a buffered write waits for its flush before it is answered with 202
+  static final int WRITE_BUFFER_ACK_SECONDS = intFromEnv("WRITE_BUFFER_ACK_SECONDS", 5);
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+
   public String getUsername(HttpServletRequest request) throws Exception {
+    long authStarted = System.nanoTime();
     Client authClient = ClientBuilder.newClient();
-    WebTarget target = authClient.target(AuthServiceUrl + "/reel-rating-auth-service/jwt/generate/" + request.getSession().getId());
-    Response response = target.request().get();
-    String value = response.readEntity(String.class);
-    // if (value == null) {
-    //   throw new Exception();
-    // }
-    JwtConsumer jwtConsumer = JwtConsumer.create("reel_rating_token");
-    String username = jwtConsumer.createJwt(value)
-               .getClaims()
-               .getAllClaims().get("upn").toString();
-    authClient.close();
-    return username;
+    try {
+      WebTarget target = authClient.target(AuthServiceUrl + "/reel-rating-auth-service/jwt/generate/" + request.getSession().getId());
+      Response response = target.request().get();
+      String value = response.readEntity(String.class);
+      // if (value == null) {
+      //   throw new Exception();
+      // }
+      JwtConsumer jwtConsumer = JwtConsumer.create("reel_rating_token");
+      String username = jwtConsumer.createJwt(value)
+                 .getClaims()
+                 .getAllClaims().get("upn").toString();
+      return username;
+    } finally {
+      authClient.close();
+      RequestTimings.addAuth(System.nanoTime() - authStarted);
+    }
   }
 
   /**
-   * Create Endpoints
+   * Create Endpoints. Each accepts an Idempotency-Key header so a retried request is answered
+   * with the original response instead of creating a duplicate (see IdempotencyKeys).
    */
 
   @POST
   @Consumes(MediaType.APPLICATION_JSON)
   @Path("/movie/create")
-  public Response createMovieEndPoint(@Context HttpServletRequest request, Movie movie) throws Exception {
+  public Response createMovieEndPoint(@Context HttpServletRequest request, Movie movie,
+                                      @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) throws Exception {
     // try {
     //   String username = getUsername(request);
     // } catch (Exception e) {
     //   return Response.status(Response.Status.UNAUTHORIZED).build();
     // }
-    DatabaseController db = new DatabaseController();
-    db.createMovie(movie.getTitle(), movie.getDirector(), movie.getReleaseDate(), movie.getRuntime(), movie.getWriters(), movie.getSummary());
-    return Response.ok().build();
+    return IdempotencyKeys.getInstance().execute(idempotencyKey, "movie/create", () -> {
+      DatabaseController db = new DatabaseController();
+      db.createMovie(movie.getTitle(), movie.getDirector(), movie.getReleaseDate(), movie.getRuntime(), movie.getWriters(), movie.getSummary());
+      return Response.ok().build();
+    }, movie.getTitle(), movie.getDirector(), movie.getReleaseDate(), movie.getRuntime(), movie.getWriters(), movie.getSummary());
   }
 
   @POST
   @Consumes(MediaType.APPLICATION_JSON)
   @Path("/actor/create/{movieTitle}")
-  public Response createActorEndPoint(@Context HttpServletRequest request, Actor actor, @PathParam("movieTitle") String movieTitle) throws Exception {
+  public Response createActorEndPoint(@Context HttpServletRequest request, Actor actor, @PathParam("movieTitle") String movieTitle,
+                                      @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) throws Exception {
     // try {
     //   String username = getUsername(request);
     // } catch (Exception e) {
     //   return Response.status(Response.Status.UNAUTHORIZED).build();
     // }
-    DatabaseController db = new DatabaseController();
-    db.createActor(actor.getName(), actor.getDateOfBirth(), movieTitle);
-    return Response.ok().build();
+    return IdempotencyKeys.getInstance().execute(idempotencyKey, "actor/create", () -> {
+      DatabaseController db = new DatabaseController();
+      db.createActor(actor.getName(), actor.getDateOfBirth(), movieTitle);
+      return Response.ok().build();
+    }, movieTitle, actor.getName(), actor.getDateOfBirth());
   }
 
   @POST
   @Consumes(MediaType.APPLICATION_JSON)
   @Path("/flag/create/{movieId}")
-  public Response createFlagEndPoint(@Context HttpServletRequest request, Flag flag, @PathParam("movieId") String movieId) throws Exception {
+  public Response createFlagEndPoint(@Context HttpServletRequest request, Flag flag, @PathParam("movieId") String movieId,
+                                     @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) throws Exception {
     // try {
     //   String username = getUsername(request);
     // } catch (Exception e) {
     //   return Response.status(Response.Status.UNAUTHORIZED).build();
     // }
-    DatabaseController db = new DatabaseController();
-    db.createFlag(flag.getFlagName(), movieId);
-    return Response.ok().build();
+    return IdempotencyKeys.getInstance().execute(idempotencyKey, "flag/create", () -> {
+      DatabaseController db = new DatabaseController();
+      db.createFlag(flag.getFlagName(), movieId);
+      return Response.ok().build();
+    }, movieId, flag.getFlagName());
   }
 
   @POST
   @Consumes(MediaType.APPLICATION_JSON)
   @Path("/review/create/{movieId}")
-  public Response createReviewEndPoint(@Context HttpServletRequest request, Review review, @PathParam("movieId") String movieId) throws Exception {
+  public Response createReviewEndPoint(@Context HttpServletRequest request, Review review, @PathParam("movieId") String movieId,
+                                       @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) throws Exception {
     // try {
     //   String username = getUsername(request);
     // } catch (Exception e) {
     //   return Response.status(Response.Status.UNAUTHORIZED).build();
     // }
-    DatabaseController db = new DatabaseController();
     String tempUsername = "TempUsername";
-    db.createReview(movieId, review.getReviewTitle(), review.getReviewDescription(), tempUsername);
-    return Response.ok().build();
+    return IdempotencyKeys.getInstance().execute(idempotencyKey, "review/create", () -> {
+      DatabaseController db = new DatabaseController();
+      if (WriteBuffer.getInstance().isEnabled()) {
+        Document newReview = db.newReview(movieId, review.getReviewTitle(), review.getReviewDescription(), tempUsername);
+        return newReview == null ? Response.ok().build() : buffered(Map.of("reviews", newReview));
+      }
+      db.createReview(movieId, review.getReviewTitle(), review.getReviewDescription(), tempUsername);
+      return Response.ok().build();
+    }, movieId, tempUsername, review.getReviewTitle(), review.getReviewDescription());
+  }
+
+  @POST
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Path("/rating/create/{movieTitle}")
+  public Response createUserRatingEndPoint(@Context HttpServletRequest request, Rating rating, @PathParam("movieTitle") String movieTitle,
+                                           @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey) throws Exception {
+    if (rating == null || rating.getRatingName() == null || rating.getUserRating() == null) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("ratingName and userRating are required").type(MediaType.TEXT_PLAIN).build();
+    }
+    String tempUsername = "TempUsername";
+    return IdempotencyKeys.getInstance().execute(idempotencyKey, "rating/create", () -> {
+      DatabaseController db = new DatabaseController();
+      if (WriteBuffer.getInstance().isEnabled()) {
+        return buffered(db.newUserRating(tempUsername, rating.getRatingName(), movieTitle, rating.getUserRating()));
+      }
+      db.createUserRating(tempUsername, rating.getRatingName(), movieTitle, rating.getUserRating());
+      return Response.ok().build();
+    }, movieTitle, tempUsername, rating.getRatingName(), rating.getUserRating().stripTrailingZeros().toPlainString());
+  }
+
+  /**
+   * Queues documents on the write buffer and answers according to its mode: 200 once they are in
+   * Mongo (flush), 202 once they are journaled (journal), 503 if the buffer is full, and 202 if a
+   * flush takes longer than WRITE_BUFFER_ACK_SECONDS since the write may still succeed.
+   */
+  private static Response buffered(Map<String, Document> documents) {
+    WriteBuffer buffer = WriteBuffer.getInstance();
+    CompletableFuture<Void> stored;
+    try {
+      stored = buffer.submit(documents);
+    } catch (IllegalStateException e) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", "1").build();
+    }
+    if (buffer.mode() == WriteBuffer.Mode.JOURNAL) {
+      return Response.accepted().build();
+    }
+    try {
+      stored.get(WRITE_BUFFER_ACK_SECONDS, TimeUnit.SECONDS);
+      return Response.ok().build();
+    } catch (TimeoutException e) {
+      return Response.accepted().build();
+    } catch (ExecutionException e) {
+      return Response.serverError().build();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+    }
+  }
+
+  /**
+   * Update endpoints. They are compare-and-set on the document's version: a client that sends
+   * the ETag it read in If-Match gets 409 with the current ETag if someone else changed the
+   * document first, and without If-Match the change is retried on top of concurrent ones. The
+   * new ETag is returned on success. See DocumentVersions.
+   */
+  @PUT
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Path("/movie/updateTitle/{id}")
+  public Response updateMovieTitleEndPoint(Movie movie, @PathParam("id") String id,
+                                           @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch) {
+    if (movie == null || movie.getTitle() == null) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("title is required").type(MediaType.TEXT_PLAIN).build();
+    }
+    Set<Long> expected = DocumentVersions.fromIfMatch(ifMatch);
+    return versioned(() -> new DatabaseController().updateMovieTitle(id, movie.getTitle(), expected));
+  }
+
+  @PUT
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Path("/rating/updateCategoryName/{ratingCategoryId}")
+  public Response updateRatingCategoryNameEndPoint(Rating rating, @PathParam("ratingCategoryId") String ratingCategoryId,
+                                                   @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch) {
+    if (rating == null || rating.getRatingName() == null) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("ratingName is required").type(MediaType.TEXT_PLAIN).build();
+    }
+    Set<Long> expected = DocumentVersions.fromIfMatch(ifMatch);
+    return versioned(() -> new DatabaseController().updateRatingCategoryName(ratingCategoryId, rating.getRatingName(), expected));
+  }
+
+  @PUT
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Path("/rating/update/{movieTitle}")
+  public Response updateUserRatingEndPoint(Rating rating, @PathParam("movieTitle") String movieTitle,
+                                           @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch) {
+    if (rating == null || rating.getRatingName() == null || rating.getUserRating() == null) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("ratingName and userRating are required").type(MediaType.TEXT_PLAIN).build();
+    }
+    String tempUsername = "TempUsername";
+    Set<Long> expected = DocumentVersions.fromIfMatch(ifMatch);
+    return versioned(() -> new DatabaseController().updateUserRating(tempUsername, rating.getRatingName(), movieTitle,
+        rating.getUserRating(), expected));
+  }
+
+  /**
+   * @param update returns the new version, or null if there is no such document
+   */
+  private static Response versioned(Supplier<Long> update) {
+    try {
+      Long version = update.get();
+      if (version == null) {
+        return Response.status(Response.Status.NOT_FOUND).build();
+      }
+      return Response.noContent().tag(DocumentVersions.tagOf(version)).build();
+    } catch (VersionConflictException e) {
+      Response.ResponseBuilder conflict = Response.status(Response.Status.CONFLICT).entity(e.getMessage()).type(MediaType.TEXT_PLAIN);
+      if (e.getCurrentVersion() != null) {
+        conflict.tag(DocumentVersions.tagOf(e.getCurrentVersion()));
+      }
+      return conflict.build();
+    }
+  }
+
+  /**
+   * A single movie with its version as a strong ETag, which is what an editor sends back in
+   * If-Match. If-None-Match with the current version is answered with 304.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/getById/{id}")
+  public Response getMovieById(@Context Request httpRequest, @PathParam("id") String id) {
+    Movie movie = new DatabaseController().getMovie(id);
+    if (movie == null) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+    EntityTag tag = DocumentVersions.tagOf(movie.getVersion());
+    Response.ResponseBuilder response = httpRequest.evaluatePreconditions(tag);
+    return (response == null ? Response.ok(movie) : response).tag(tag)
+        .header(HttpHeaders.CACHE_CONTROL, HttpCaching.cacheControlFor("movie/getById"))
+        .build();
   }
 
   /**
@@ -184,4 +367,294 @@ public class MovieDataService {
     List<Review> reviews = dbc.getReviewsByMovieId(movieId);
     return reviews;
   }
+
+  /**
+   * GET variants of the read endpoints. They return the same JSON as the POST endpoints but can be
+   * cached by browsers and proxies, and answer If-None-Match with a 304 without querying Mongo
+   * (see HttpCaching).
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/getByTitle/{title}")
+  public Response getMoviesWithTitleCached(@Context Request httpRequest, @PathParam("title") String title) {
+    return HttpCaching.conditional(httpRequest, "movie/getByTitle",
+        () -> new DatabaseController().getMoviesWithTitle(title), "movies");
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/getByFlagName/{flagName}")
+  public Response getMoviesWithFlagNameCached(@Context Request httpRequest, @PathParam("flagName") String flagName) {
+    return HttpCaching.conditional(httpRequest, "movie/getByFlagName",
+        () -> new DatabaseController().getMoviesWithFlag(flagName), "movies");
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/getByRatingCategoryName/{ratingCategoryName}")
+  public Response getMoviesWithRatingCategoryNameCached(@Context Request httpRequest, @PathParam("ratingCategoryName") String ratingCategoryName) {
+    return HttpCaching.conditional(httpRequest, "movie/getByRatingCategoryName",
+        () -> new DatabaseController().getMoviesWithRatingCategory(ratingCategoryName), "movies");
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/getByActor/{actor}")
+  public Response getMoviesWithActorCached(@Context Request httpRequest, @PathParam("actor") String actor) {
+    return HttpCaching.conditional(httpRequest, "movie/getByActor",
+        () -> new DatabaseController().getMoviesWithActor(actor), "movies");
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/actor/getByName/{name}")
+  public Response getActorByNameCached(@Context Request httpRequest, @PathParam("name") String name) {
+    return HttpCaching.conditional(httpRequest, "actor/getByName",
+        () -> new DatabaseController().getActorByName(name), "actors");
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/reviews/getByUser/{username}")
+  public Response getReviewsByUserCached(@Context Request httpRequest, @PathParam("username") String username) {
+    return HttpCaching.conditional(httpRequest, "reviews/getByUser",
+        () -> new DatabaseController().getReviewsByUser(username), "reviews");
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/reviews/getByMovieId/{movieId}")
+  public Response getReviewsByMovieIdCached(@Context Request httpRequest, @PathParam("movieId") String movieId) {
+    return HttpCaching.conditional(httpRequest, "reviews/getByMovieId",
+        () -> new DatabaseController().getReviewsByMovieId(movieId), "reviews");
+  }
+
+  /**
+   * Movies released between two years, months (yyyy-MM) or dates and with a runtime between two
+   * numbers of minutes. Every bound is optional and inclusive.
+   * @param sort title (default), releaseDate or runtime
+   * @param order asc (default) or desc
+   * @return 400 if a bound or the sort is not valid
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/range")
+  public Response getMoviesInRange(@Context Request httpRequest,
+                                   @QueryParam("releasedFrom") String releasedFrom, @QueryParam("releasedTo") String releasedTo,
+                                   @QueryParam("runtimeMin") Integer runtimeMin, @QueryParam("runtimeMax") Integer runtimeMax,
+                                   @QueryParam("sort") String sort, @QueryParam("order") String order,
+                                   @QueryParam("skip") Integer skip, @QueryParam("limit") Integer limit) {
+    String sortField = sort == null || sort.isBlank() ? "title" : sort;
+    boolean descending = "desc".equalsIgnoreCase(order);
+    int from = skip == null ? 0 : Math.max(0, skip);
+    int pageSize = limit == null ? MovieQueryEngine.DEFAULT_LIMIT : Math.max(1, Math.min(limit, MovieQueryEngine.MAX_LIMIT));
+    try {
+      // validate before the conditional so a bad request is never cached
+      MovieQueryEngine.releaseDateRange(releasedFrom, releasedTo);
+      return HttpCaching.conditional(httpRequest, "movie/range",
+          () -> new DatabaseController().getMoviesInRange(releasedFrom, releasedTo, runtimeMin, runtimeMax,
+              sortField, descending, from, pageSize), "movies");
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+    }
+  }
+
+  /**
+   * Ratings in a category with a score between min and max (both optional and inclusive), highest first.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/ratings/range")
+  public Response getRatingsInRange(@Context Request httpRequest, @QueryParam("ratingName") String ratingName,
+                                    @QueryParam("min") BigDecimal min, @QueryParam("max") BigDecimal max,
+                                    @QueryParam("limit") Integer limit) {
+    if (ratingName == null || ratingName.isBlank()) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("ratingName is required").type(MediaType.TEXT_PLAIN).build();
+    }
+    int pageSize = limit == null ? MovieQueryEngine.DEFAULT_LIMIT : Math.max(1, Math.min(limit, MovieQueryEngine.MAX_LIMIT));
+    return HttpCaching.conditional(httpRequest, "ratings/range",
+        () -> new DatabaseController().getRatingsInRange(ratingName, min, max, pageSize), "ratings");
+  }
+
+  /**
+   * Everything the movie page shows (movie, cast, flags, ratings per category and a page of
+   * reviews) in one response, built by a single aggregation. Counts as a view of the movie, see
+   * ViewCounters.
+   * @param reviews reviews per page, MOVIE_PAGE_REVIEWS by default
+   * @param reviewPage zero based page of reviews
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/{id}/page")
+  public Response getMoviePage(@Context Request httpRequest, @PathParam("id") String id,
+                               @QueryParam("reviews") Integer reviews, @QueryParam("reviewPage") Integer reviewPage) {
+    int pageSize = reviews == null ? MOVIE_PAGE_REVIEWS : Math.max(1, Math.min(reviews, MOVIE_PAGE_MAX_REVIEWS));
+    int skip = reviewPage == null ? 0 : Math.max(0, reviewPage) * pageSize;
+    return countView(id, HttpCaching.conditional(httpRequest, "movie/page",
+        () -> new DatabaseController().getMoviePage(id, skip, pageSize),
+        "movies", "actors", "flags", "ratings", "reviews"));
+  }
+
+  /**
+   * The most viewed movies, most views first, from the view counts flushed by every instance.
+   * @param limit at most VIEW_TOP_SIZE (default 100), 10 by default
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/mostViewed")
+  public Response getMostViewedMovies(@Context Request httpRequest, @QueryParam("limit") Integer limit) {
+    int count = limit == null ? 10 : Math.max(1, Math.min(limit, ViewCounters.TOP_SIZE));
+    return HttpCaching.conditional(httpRequest, "movie/mostViewed",
+        () -> ViewCounters.getInstance().mostViewed(count), ViewCounters.VERSION);
+  }
+
+  // a revalidated page is a view too, a missing movie is not
+  private static Response countView(String id, Response response) {
+    int status = response.getStatus();
+    if (status == Response.Status.OK.getStatusCode() || status == Response.Status.NOT_MODIFIED.getStatusCode()) {
+      ViewCounters.getInstance().record(id);
+    }
+    return response;
+  }
+
+  /**
+   * Movies whose ratings are most similar to this one ("people who rated this highly also
+   * liked"), best first, from the in-memory SimilarMovies table.
+   * @param limit at most SIMILAR_MOVIES_K (default 20), 10 by default
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/{id}/similar")
+  public Response getSimilarMovies(@Context Request httpRequest, @PathParam("id") String id, @QueryParam("limit") Integer limit) {
+    int count = limit == null ? 10 : Math.max(1, Math.min(limit, SimilarMovies.K));
+    return HttpCaching.conditional(httpRequest, "movie/similar",
+        () -> SimilarMovies.getInstance().similarTo(id, count), SimilarMovies.VERSION);
+  }
+
+  /**
+   * The shortest chain of co-stars linking two actors ("degrees of separation").
+   * @param maxDegrees longest chain to look for, at most COSTAR_MAX_DEGREES (default 6)
+   * @return 404 if either actor is unknown; degrees is -1 if they are not connected
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/actor/path")
+  public Response getCoStarPath(@Context Request httpRequest, @QueryParam("from") String from, @QueryParam("to") String to,
+                                @QueryParam("maxDegrees") Integer maxDegrees) {
+    int degrees = maxDegrees == null ? CoStarGraph.MAX_DEGREES : Math.max(1, Math.min(maxDegrees, CoStarGraph.MAX_DEGREES));
+    return HttpCaching.conditional(httpRequest, "actor/path",
+        () -> CoStarGraph.getInstance().shortestPath(from, to, degrees), CoStarGraph.VERSION);
+  }
+
+  /**
+   * The actors who appeared with this one most often, with the movies they share.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/actor/{name}/collaborators")
+  public Response getCollaborators(@Context Request httpRequest, @PathParam("name") String name, @QueryParam("limit") Integer limit) {
+    int count = limit == null ? 10 : Math.max(1, Math.min(limit, 100));
+    return HttpCaching.conditional(httpRequest, "actor/collaborators",
+        () -> CoStarGraph.getInstance().collaborators(name, count), CoStarGraph.VERSION);
+  }
+
+  /**
+   * Every movie of the actor with the other actors in it.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/actor/{name}/filmography")
+  public Response getFilmography(@Context Request httpRequest, @PathParam("name") String name) {
+    return HttpCaching.conditional(httpRequest, "actor/filmography",
+        () -> CoStarGraph.getInstance().filmography(name), CoStarGraph.VERSION);
+  }
+
+  /**
+   * The precomputed summary of a movie (metadata, cast, flags, ratings per category, review count
+   * and latest reviews) from the movieSummaries collection, a single point lookup.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/{id}/summary")
+  public Response getMovieSummary(@Context Request httpRequest, @PathParam("id") String id) {
+    return HttpCaching.conditional(httpRequest, "movie/summary",
+        () -> new MovieSummaries(new DatabaseController()).getSummaryJson(id), "movieSummaries",
+        "movies", "actors", "flags", "ratings", "reviews");
+  }
+
+  /**
+   * Batch endpoints for clients that already hold a list of ids. The body is
+   * <code>{"ids": [...]}</code> with at most MAX_BATCH_IDS ids, and the result has one item per id
+   * in the same order (null if not found) plus the list of missing ids.
+   */
+  @POST
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/batch")
+  public Response getMoviesBatch(BatchRequest batch) {
+    Response invalid = validateBatch(batch);
+    return invalid != null ? invalid : batchResult(batch.getIds(), new DatabaseController().getMoviesByIds(batch.getIds()));
+  }
+
+  @POST
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/actor/batch")
+  public Response getActorsBatch(BatchRequest batch) {
+    Response invalid = validateBatch(batch);
+    return invalid != null ? invalid : batchResult(batch.getIds(), new DatabaseController().getActorsByIds(batch.getIds()));
+  }
+
+  @POST
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/review/batch")
+  public Response getReviewsBatch(BatchRequest batch) {
+    Response invalid = validateBatch(batch);
+    return invalid != null ? invalid : batchResult(batch.getIds(), new DatabaseController().getReviewsByIds(batch.getIds()));
+  }
+
+  private static Response validateBatch(BatchRequest batch) {
+    if (batch == null || batch.getIds() == null || batch.getIds().isEmpty()) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("ids must not be empty").type(MediaType.TEXT_PLAIN).build();
+    }
+    if (batch.getIds().size() > MAX_BATCH_IDS) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("At most " + MAX_BATCH_IDS + " ids per request").type(MediaType.TEXT_PLAIN).build();
+    }
+    if (batch.getIds().contains(null)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("ids must not contain null").type(MediaType.TEXT_PLAIN).build();
+    }
+    return null;
+  }
+
+  private static <T> Response batchResult(List<String> ids, List<T> items) {
+    List<String> missing = new ArrayList<>();
+    for (int i = 0; i < ids.size(); i++) {
+      if (items.get(i) == null) {
+        missing.add(ids.get(i));
+      }
+    }
+    return Response.ok(new BatchResult<>(items, missing)).build();
+  }
+
+  /**
+   * Runs a structured movie query combining flag and rating category membership (all/any/none),
+   * actors, a release date range and a sort order, and returns one page of movies with facet
+   * counts per flag and rating category. See MovieQuery for the body and MovieQueryEngine for
+   * how it is executed.
+   */
+  @POST
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("/movie/query")
+  public Response queryMovies(MovieQuery query) {
+    if (query == null) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("A query is required").type(MediaType.TEXT_PLAIN).build();
+    }
+    try {
+      return Response.ok(new MovieQueryEngine(new DatabaseController()).run(query)).build();
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+    }
+  }
 }
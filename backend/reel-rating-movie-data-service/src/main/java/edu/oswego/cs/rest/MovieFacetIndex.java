@@ -0,0 +1,506 @@
+package edu.oswego.cs.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.model.Projections;
+
+/**
+ * In-memory bitmap index of flag and rating category membership, used by {@link MovieQueryEngine}
+ * to evaluate flag and category predicates and to count facets without querying Mongo.
+ *
+ * <p>Every movie gets a dense ordinal, and each flag and rating category is a {@link RoaringBitmap}
+ * over those ordinals, so "flag A and not flag B" is a bitmap AND NOT and a facet count is the
+ * cardinality of an intersection. Ordinals are never reused; deleted movies are only removed from
+ * the bitmaps and from the set of live movies.</p>
+ *
+ * <p>DatabaseController reports flag writes and created or deleted movies, which are applied
+ * copy-on-write: only the bitmap that changed is copied, and queries keep reading the snapshot they
+ * started with. A full rebuild from the <code>flagNames</code> and <code>ratingCategoryNames</code>
+ * arrays of the movies collection runs every <code>FACET_INDEX_REBUILD_MINUTES</code> (default 60)
+ * to pick up anything changed outside the service; writes made while it scans are replayed on top
+ * of its result.</p>
+ *
+ * <p>Writes through other instances are not reported here. Each rebuild records how far the
+ * shared {@link CollectionVersions} of <code>movies</code> and <code>flags</code> had moved through
+ * them when it started. Once they move further the index is not {@link #isCurrent() current}, its
+ * callers check membership in Mongo instead, and a rebuild is started, at most every
+ * <code>FACET_INDEX_CATCH_UP_SECONDS</code> (default 10).</p>
+ *
+ * <p>The index is saved to <code>FACET_INDEX_SNAPSHOT_FILE</code> (default
+ * <code>movie-facet-index.snapshot</code> in the server directory) every
+ * <code>FACET_INDEX_SNAPSHOT_SECONDS</code> (default 300) when it changed, and at shutdown. On a
+ * warm restart the saved snapshot is loaded right away and used once a rebuild in the background
+ * has caught up.</p>
+ */
+public class MovieFacetIndex {
+
+  private static final Logger LOGGER = Logger.getLogger(MovieFacetIndex.class.getName());
+  private static final MovieFacetIndex INSTANCE = new MovieFacetIndex();
+  private static final int SNAPSHOT_MAGIC = 0x52524649;
+  private static final int SNAPSHOT_FORMAT = 1;
+  private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+  /**
+   * Dense ordinals for movie ids. Ordinals are only ever appended, so all snapshots share one.
+   */
+  static class Ordinals {
+    private final Map<ObjectId, Integer> ordinals = new ConcurrentHashMap<>();
+    private volatile ObjectId[] movies = new ObjectId[1024];
+    private volatile int size;
+
+    int ordinalOf(ObjectId movieId) {
+      Integer ordinal = ordinals.get(movieId);
+      return ordinal == null ? -1 : ordinal;
+    }
+
+    synchronized int assign(ObjectId movieId) {
+      Integer existing = ordinals.get(movieId);
+      if (existing != null) {
+        return existing;
+      }
+      if (size == movies.length) {
+        movies = Arrays.copyOf(movies, size * 2);
+      }
+      movies[size] = movieId;
+      ordinals.put(movieId, size);
+      return size++;
+    }
+
+    ObjectId movieAt(int ordinal) {
+      return movies[ordinal];
+    }
+
+    int size() {
+      return size;
+    }
+  }
+
+  /**
+   * An immutable snapshot of the index. Its bitmaps must not be modified, the static
+   * RoaringBitmap operations return new bitmaps instead.
+   */
+  public static class Snapshot {
+    final Ordinals ordinals;
+    final Map<String, RoaringBitmap> flags;
+    final Map<String, RoaringBitmap> ratingCategories;
+    final RoaringBitmap live;
+
+    Snapshot(Ordinals ordinals, Map<String, RoaringBitmap> flags, Map<String, RoaringBitmap> ratingCategories,
+             RoaringBitmap live) {
+      this.ordinals = ordinals;
+      this.flags = Collections.unmodifiableMap(flags);
+      this.ratingCategories = Collections.unmodifiableMap(ratingCategories);
+      this.live = live;
+    }
+
+    public ObjectId movieAt(int ordinal) {
+      return ordinals.movieAt(ordinal);
+    }
+
+    /**
+     * @return the ordinal of the movie, or -1 if the index has not seen it
+     */
+    public int ordinalOf(ObjectId movieId) {
+      return ordinals.ordinalOf(movieId);
+    }
+
+    /**
+     * @return every movie that has not been deleted
+     */
+    public RoaringBitmap all() {
+      return live;
+    }
+
+    public RoaringBitmap flag(String flagName) {
+      return flags.getOrDefault(flagName, EMPTY);
+    }
+
+    public RoaringBitmap ratingCategory(String ratingCategoryName) {
+      return ratingCategories.getOrDefault(ratingCategoryName, EMPTY);
+    }
+
+    public Map<String, RoaringBitmap> getFlags() {
+      return flags;
+    }
+
+    public Map<String, RoaringBitmap> getRatingCategories() {
+      return ratingCategories;
+    }
+  }
+
+  private final Ordinals ordinals = new Ordinals();
+  private final AtomicBoolean rebuilding = new AtomicBoolean();
+  private final long catchUpNanos = TimeUnit.SECONDS.toNanos(longFromEnv("FACET_INDEX_CATCH_UP_SECONDS", 10));
+  private final AtomicLong lastCatchUp = new AtomicLong(System.nanoTime() - catchUpNanos);
+  // writes of other instances the snapshot has, -1 until the first rebuild
+  private volatile long seenOtherWrites = -1;
+  private final Path snapshotFile;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "movie-facet-index");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile Snapshot snapshot;
+  // changes made while a rebuild is scanning, replayed onto its result
+  private List<UnaryOperator<Snapshot>> replay;
+  private boolean dirty;
+
+  private MovieFacetIndex() {
+    String configured = System.getenv("FACET_INDEX_SNAPSHOT_FILE");
+    snapshotFile = Path.of(configured == null || configured.isBlank() ? "movie-facet-index.snapshot" : configured.trim());
+  }
+
+  public static MovieFacetIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Loads the saved snapshot if there is one, otherwise builds the index, and schedules the
+   * periodic rebuild and snapshot saves.
+   */
+  public void start() {
+    if (loadSnapshot()) {
+      scheduler.execute(this::rebuildQuietly);
+    } else {
+      rebuild(new DatabaseController());
+    }
+    long rebuildMinutes = longFromEnv("FACET_INDEX_REBUILD_MINUTES", 60);
+    if (rebuildMinutes > 0) {
+      scheduler.scheduleWithFixedDelay(this::rebuildQuietly, rebuildMinutes, rebuildMinutes, TimeUnit.MINUTES);
+    }
+    long snapshotSeconds = longFromEnv("FACET_INDEX_SNAPSHOT_SECONDS", 300);
+    if (snapshotSeconds > 0) {
+      scheduler.scheduleWithFixedDelay(this::saveSnapshot, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Rebuilds in the background, for example after a restore.
+   */
+  public void rebuildInBackground() {
+    if (!scheduler.isShutdown()) {
+      scheduler.execute(this::rebuildQuietly);
+    }
+  }
+
+  public void stop() {
+    scheduler.shutdownNow();
+    saveSnapshot();
+  }
+
+  /**
+   * @return whether the snapshot has every change made through other instances that the shared
+   *         versions know of; if not, a rebuild is started in the background
+   */
+  public boolean isCurrent() {
+    boolean current = snapshot != null && CollectionVersions.isCurrent() && otherWrites() <= seenOtherWrites;
+    if (!current) {
+      catchUpInBackground();
+    }
+    return current;
+  }
+
+  /**
+   * @return the current snapshot, building it first if there is none yet
+   */
+  public Snapshot snapshot() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      synchronized (this) {
+        if (snapshot == null) {
+          rebuild(new DatabaseController());
+        }
+        current = snapshot;
+      }
+    }
+    return current;
+  }
+
+  public void flagAdded(ObjectId movieId, String flagName) {
+    apply(current -> withMember(current, true, flagName, current.ordinals.assign(movieId), true));
+  }
+
+  public void flagRemoved(ObjectId movieId, String flagName) {
+    int ordinal = ordinals.ordinalOf(movieId);
+    if (ordinal >= 0) {
+      apply(current -> withMember(current, true, flagName, ordinal, false));
+    }
+  }
+
+  public void flagDeleted(String flagName) {
+    apply(current -> {
+      Map<String, RoaringBitmap> flags = new HashMap<>(current.flags);
+      flags.remove(flagName);
+      return new Snapshot(current.ordinals, flags, current.ratingCategories, current.live);
+    });
+  }
+
+  public void movieAdded(ObjectId movieId) {
+    int ordinal = ordinals.assign(movieId);
+    apply(current -> {
+      RoaringBitmap live = current.live.copy();
+      live.add(ordinal);
+      return new Snapshot(current.ordinals, current.flags, current.ratingCategories, live);
+    });
+  }
+
+  public void movieRemoved(ObjectId movieId) {
+    int ordinal = ordinals.ordinalOf(movieId);
+    if (ordinal < 0) {
+      return;
+    }
+    apply(current -> new Snapshot(current.ordinals, without(current.flags, ordinal),
+        without(current.ratingCategories, ordinal), without(current.live, ordinal)));
+  }
+
+  /**
+   * Rebuilds the index from the movies collection, keeping the ordinals already assigned.
+   */
+  public void rebuild(DatabaseController db) {
+    synchronized (this) {
+      replay = new ArrayList<>();
+    }
+    // read first, whatever is written from here on moves it again
+    long otherWrites = otherWrites();
+    try {
+      Map<String, RoaringBitmap> flags = new HashMap<>();
+      Map<String, RoaringBitmap> ratingCategories = new HashMap<>();
+      RoaringBitmap live = new RoaringBitmap();
+      for (Document movie : db.getMovieCollection().find()
+          .projection(Projections.include("flagNames", "ratingCategoryNames"))) {
+        int ordinal = ordinals.assign(movie.getObjectId("_id"));
+        live.add(ordinal);
+        addMembership(flags, movie.get("flagNames"), ordinal);
+        addMembership(ratingCategories, movie.get("ratingCategoryNames"), ordinal);
+      }
+      synchronized (this) {
+        Snapshot built = new Snapshot(ordinals, flags, ratingCategories, live);
+        for (UnaryOperator<Snapshot> change : replay) {
+          built = change.apply(built);
+        }
+        snapshot = built;
+        seenOtherWrites = otherWrites;
+        dirty = true;
+      }
+    } finally {
+      synchronized (this) {
+        replay = null;
+      }
+    }
+  }
+
+  private void catchUpInBackground() {
+    long now = System.nanoTime();
+    long last = lastCatchUp.get();
+    if (now - last >= catchUpNanos && !scheduler.isShutdown() && lastCatchUp.compareAndSet(last, now)) {
+      scheduler.execute(this::rebuildQuietly);
+    }
+  }
+
+  private static long otherWrites() {
+    return CollectionVersions.others("movies") + CollectionVersions.others("flags");
+  }
+
+  private void rebuildQuietly() {
+    if (!rebuilding.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      rebuild(new DatabaseController());
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not rebuild the movie facet index", e);
+    } finally {
+      rebuilding.set(false);
+    }
+  }
+
+  private synchronized void apply(UnaryOperator<Snapshot> change) {
+    if (snapshot != null) {
+      snapshot = change.apply(snapshot);
+      dirty = true;
+    }
+    if (replay != null) {
+      replay.add(change);
+    }
+  }
+
+  private static Snapshot withMember(Snapshot current, boolean flag, String name, int ordinal, boolean member) {
+    Map<String, RoaringBitmap> index = new HashMap<>(flag ? current.flags : current.ratingCategories);
+    RoaringBitmap members = index.containsKey(name) ? index.get(name).copy() : new RoaringBitmap();
+    if (member) {
+      members.add(ordinal);
+    } else {
+      members.remove(ordinal);
+    }
+    index.put(name, members);
+    return flag
+        ? new Snapshot(current.ordinals, index, current.ratingCategories, current.live)
+        : new Snapshot(current.ordinals, current.flags, index, current.live);
+  }
+
+  private static Map<String, RoaringBitmap> without(Map<String, RoaringBitmap> index, int ordinal) {
+    Map<String, RoaringBitmap> result = new HashMap<>(index);
+    for (Map.Entry<String, RoaringBitmap> entry : index.entrySet()) {
+      if (entry.getValue().contains(ordinal)) {
+        result.put(entry.getKey(), without(entry.getValue(), ordinal));
+      }
+    }
+    return result;
+  }
+
+  private static RoaringBitmap without(RoaringBitmap members, int ordinal) {
+    RoaringBitmap result = members.copy();
+    result.remove(ordinal);
+    return result;
+  }
+
+  // the arrays are usually lists of names but a single string is also accepted
+  private static void addMembership(Map<String, RoaringBitmap> index, Object names, int ordinal) {
+    if (names instanceof Collection) {
+      for (Object name : (Collection<?>) names) {
+        if (name != null) {
+          index.computeIfAbsent(name.toString(), key -> new RoaringBitmap()).add(ordinal);
+        }
+      }
+    } else if (names instanceof String && !((String) names).isEmpty()) {
+      index.computeIfAbsent((String) names, key -> new RoaringBitmap()).add(ordinal);
+    }
+  }
+
+  /**
+   * Writes the ordinals and every bitmap to the snapshot file, through a temporary file so a crash
+   * never leaves a partial snapshot behind.
+   */
+  void saveSnapshot() {
+    Snapshot current;
+    int movies;
+    synchronized (this) {
+      if (!dirty || snapshot == null) {
+        return;
+      }
+      current = snapshot;
+      movies = ordinals.size();
+      dirty = false;
+    }
+    Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+      writeSnapshot(out, current, movies);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Could not save the movie facet index to " + snapshotFile, e);
+      return;
+    }
+    try {
+      Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Could not save the movie facet index to " + snapshotFile, e);
+    }
+  }
+
+  private boolean loadSnapshot() {
+    if (!Files.isRegularFile(snapshotFile)) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+      Snapshot loaded = readSnapshot(in, ordinals);
+      if (loaded == null) {
+        LOGGER.warning(() -> "Ignoring " + snapshotFile + ", it is not a movie facet index snapshot");
+        return false;
+      }
+      synchronized (this) {
+        snapshot = loaded;
+      }
+      LOGGER.info(() -> "Loaded the movie facet index for " + loaded.ordinals.size() + " movies from " + snapshotFile);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not load the movie facet index from " + snapshotFile, e);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the first <code>movies</code> ordinals of the snapshot and all its bitmaps.
+   */
+  static void writeSnapshot(DataOutputStream out, Snapshot snapshot, int movies) throws IOException {
+    out.writeInt(SNAPSHOT_MAGIC);
+    out.writeInt(SNAPSHOT_FORMAT);
+    out.writeInt(movies);
+    for (int ordinal = 0; ordinal < movies; ordinal++) {
+      out.write(snapshot.ordinals.movieAt(ordinal).toByteArray());
+    }
+    snapshot.live.write(out);
+    writeBitmaps(out, snapshot.flags);
+    writeBitmaps(out, snapshot.ratingCategories);
+  }
+
+  /**
+   * Reads what {@link #writeSnapshot} wrote, assigning the movies their saved ordinals.
+   * @param ordinals must be empty, or hold the same movies in the same order
+   * @return the snapshot, or null if the stream does not start like one
+   */
+  static Snapshot readSnapshot(DataInputStream in, Ordinals ordinals) throws IOException {
+    if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_FORMAT) {
+      return null;
+    }
+    int movies = in.readInt();
+    byte[] id = new byte[12];
+    for (int ordinal = 0; ordinal < movies; ordinal++) {
+      in.readFully(id);
+      if (ordinals.assign(new ObjectId(id)) != ordinal) {
+        throw new IOException("Movie " + new ObjectId(id) + " is not at ordinal " + ordinal);
+      }
+    }
+    RoaringBitmap live = RoaringBitmap.read(in);
+    Map<String, RoaringBitmap> flags = readBitmaps(in);
+    Map<String, RoaringBitmap> ratingCategories = readBitmaps(in);
+    return new Snapshot(ordinals, flags, ratingCategories, live);
+  }
+
+  private static void writeBitmaps(DataOutputStream out, Map<String, RoaringBitmap> index) throws IOException {
+    out.writeInt(index.size());
+    for (Map.Entry<String, RoaringBitmap> entry : index.entrySet()) {
+      out.writeUTF(entry.getKey());
+      entry.getValue().write(out);
+    }
+  }
+
+  private static Map<String, RoaringBitmap> readBitmaps(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    Map<String, RoaringBitmap> index = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      index.put(name, RoaringBitmap.read(in));
+    }
+    return index;
+  }
+
+  private static long longFromEnv(String name, long defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Long.parseLong(configured.trim());
+  }
+}
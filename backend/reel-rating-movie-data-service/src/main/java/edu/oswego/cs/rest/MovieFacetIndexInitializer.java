@@ -0,0 +1,32 @@
+package edu.oswego.cs.rest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.BeforeDestroyed;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Starts the {@link MovieFacetIndex} when the application starts, from its saved snapshot if there
+ * is one, and saves the snapshot again when the application stops. If Mongo cannot be reached the
+ * index is built by the first query instead.
+ */
+@ApplicationScoped
+public class MovieFacetIndexInitializer {
+
+  private static final Logger LOGGER = Logger.getLogger(MovieFacetIndexInitializer.class.getName());
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    try {
+      MovieFacetIndex.getInstance().start();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not build the movie facet index, the first query will build it", e);
+    }
+  }
+
+  public void onShutdown(@Observes @BeforeDestroyed(ApplicationScoped.class) Object event) {
+    MovieFacetIndex.getInstance().stop();
+  }
+}
@@ -0,0 +1,431 @@
+package edu.oswego.cs.rest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import edu.oswego.cs.rest.JsonClasses.MembershipFilter;
+import edu.oswego.cs.rest.JsonClasses.Movie;
+import edu.oswego.cs.rest.JsonClasses.MovieQuery;
+import edu.oswego.cs.rest.JsonClasses.MovieQueryResult;
+import edu.oswego.cs.rest.ReadRouting.QueryClass;
+
+/**
+ * Runs {@link MovieQuery} filter expressions.
+ *
+ * <p>Flag and rating category predicates are evaluated first on the {@link MovieFacetIndex}
+ * bitmaps. When that leaves at most <code>MOVIE_QUERY_MAX_IN</code> (default 10000) candidates
+ * they are sent to Mongo as an <code>_id $in</code> list, so the _id index drives the query and
+ * only the remaining predicates (actors, release range) are checked per document; otherwise the
+ * flag predicates are sent as array filters and Mongo picks the index. Facet counts are
+ * intersections of the matching movies with each flag and category bitmap, so they cost no
+ * queries at all when the query only has flag and category predicates.</p>
+ *
+ * <p>Other predicates need the matching _ids streamed from Mongo for the facets. That scan stops
+ * after <code>MOVIE_QUERY_MAX_SCAN</code> (default 50000) movies; past it the total is counted by
+ * Mongo and the facets are left out, which the plan says.</p>
+ *
+ * <p>Sorting by rating reads <code>movieSummaries</code>, which has an index on averageRating. Up
+ * to <code>MOVIE_QUERY_MAX_IN</code> matching movies are ranked there by _id; larger matches walk
+ * the summaries in rating order and join each to its movie only until the page is full. Either way
+ * only the movies on the page are read.</p>
+ *
+ * <p>While the index is behind writes made through other instances (see
+ * {@link MovieFacetIndex#isCurrent()}), every predicate is checked by Mongo and the facets are
+ * counted with an aggregation.</p>
+ */
+public class MovieQueryEngine {
+
+  static final int MAX_IN = intFromEnv("MOVIE_QUERY_MAX_IN", 10000);
+  static final int MAX_SCAN = intFromEnv("MOVIE_QUERY_MAX_SCAN", 50000);
+  static final int DEFAULT_LIMIT = 20;
+  static final int MAX_LIMIT = 100;
+  private static final Set<String> SORTS = Set.of("title", "releaseDate", "rating");
+
+  private static volatile Set<String> indexedFields;
+
+  private final DatabaseController db;
+
+  public MovieQueryEngine(DatabaseController db) {
+    this.db = db;
+  }
+
+  /**
+   * Filter for releaseDate between two years, months or dates (both inclusive, either may be
+   * blank), or null if neither is given. Matches typed dates through the releaseDate index and,
+   * until {@link TypedFieldMigration} has run, the remaining string dates that are ISO years,
+   * months or dates, which compare as strings. Strings in the other formats people entered, such as
+   * "7/6/1994", are not matched until the migration has turned them into dates.
+   *
+   * @throws IllegalArgumentException if a bound is not a date
+   */
+  static Bson releaseDateRange(String from, String to) {
+    boolean hasFrom = from != null && !from.isBlank();
+    boolean hasTo = to != null && !to.isBlank();
+    if (!hasFrom && !hasTo) {
+      return null;
+    }
+    List<Bson> typed = new ArrayList<>();
+    List<Bson> legacy = new ArrayList<>();
+    typed.add(Filters.type("releaseDate", BsonType.DATE_TIME));
+    legacy.add(Filters.regex("releaseDate", TypedFields.ISO_DATE_PATTERN));
+    if (hasFrom) {
+      LocalDate lower = TypedFields.lowerBound(from);
+      if (lower == null) {
+        throw new IllegalArgumentException("releasedFrom is not a date: " + from);
+      }
+      typed.add(Filters.gte("releaseDate", TypedFields.toDate(lower)));
+      legacy.add(Filters.gte("releaseDate", TypedFields.isoPrefix(lower)));
+    }
+    if (hasTo) {
+      LocalDate upper = TypedFields.upperBound(to);
+      if (upper == null) {
+        throw new IllegalArgumentException("releasedTo is not a date: " + to);
+      }
+      typed.add(Filters.lte("releaseDate", TypedFields.toDate(upper)));
+      legacy.add(Filters.lte("releaseDate", TypedFields.isoPrefix(upper)));
+    }
+    return Filters.or(Filters.and(typed), Filters.and(legacy));
+  }
+
+  /**
+   * @throws IllegalArgumentException if the query is not valid
+   */
+  public MovieQueryResult run(MovieQuery query) {
+    String sort = query.getSort() == null ? "title" : query.getSort();
+    if (!SORTS.contains(sort)) {
+      throw new IllegalArgumentException("sort must be one of " + SORTS);
+    }
+    boolean descending = "desc".equalsIgnoreCase(query.getOrder());
+    int skip = query.getSkip() == null ? 0 : Math.max(0, query.getSkip());
+    int limit = query.getLimit() == null ? DEFAULT_LIMIT : Math.max(1, Math.min(query.getLimit(), MAX_LIMIT));
+    boolean wantFacets = query.getFacets() == null || query.getFacets();
+
+    MovieFacetIndex facetIndex = MovieFacetIndex.getInstance();
+    if (!facetIndex.isCurrent()) {
+      return runInMongo(query, sort, descending, skip, limit, wantFacets);
+    }
+    MovieFacetIndex.Snapshot index = facetIndex.snapshot();
+    RoaringBitmap candidates = applyMembership(null, query.getFlags(), index::flag, index);
+    candidates = applyMembership(candidates, query.getRatingCategories(), index::ratingCategory, index);
+
+    List<Bson> residual = new ArrayList<>();
+    if (query.getActors() != null && !query.getActors().isEmpty()) {
+      residual.add(Filters.all("actorNames", query.getActors()));
+    }
+    Bson released = releaseDateRange(query.getReleasedFrom(), query.getReleasedTo());
+    if (released != null) {
+      residual.add(released);
+    }
+
+    List<String> plan = new ArrayList<>();
+    List<Bson> filters = new ArrayList<>(residual);
+    if (candidates != null) {
+      int count = candidates.cardinality();
+      plan.add("bitmaps: " + count + " candidates");
+      if (count == 0) {
+        return result(0, new ArrayList<>(), wantFacets ? facets(index, candidates) : null, plan);
+      }
+      if (count <= MAX_IN) {
+        filters.add(Filters.in("_id", ids(index, candidates)));
+      } else {
+        plan.add("too many candidates for $in, membership checked by Mongo");
+        addMembershipFilters(filters, "flagNames", query.getFlags());
+        addMembershipFilters(filters, "ratingCategoryNames", query.getRatingCategories());
+      }
+    }
+    Bson filter = filters.isEmpty() ? new Document() : Filters.and(filters);
+    plan.add("mongo: " + describeIndexUse(filters, candidates != null && candidates.cardinality() <= MAX_IN));
+
+    MongoCollection<Document> movieCollection = ReadRouting.route(db.getMovieCollection(), QueryClass.CATALOG);
+    try (ClientSession session = ReadRouting.causalSession()) {
+      // matches as a bitmap, for the total and the facet counts
+      long total;
+      RoaringBitmap matches = null;
+      if (residual.isEmpty() && candidates != null) {
+        matches = candidates;
+        total = candidates.cardinality();
+      } else if (filters.isEmpty()) {
+        matches = index.all();
+        total = movieCollection.countDocuments(session);
+      } else if (wantFacets || "rating".equals(sort)) {
+        matches = new RoaringBitmap();
+        total = 0;
+        for (Document document : movieCollection.find(session, filter).projection(Projections.include("_id")).limit(MAX_SCAN + 1)) {
+          if (++total > MAX_SCAN) {
+            break;
+          }
+          int ordinal = index.ordinalOf(document.getObjectId("_id"));
+          if (ordinal >= 0) {
+            matches.add(ordinal);
+          }
+        }
+        if (total > MAX_SCAN) {
+          matches = null;
+          total = movieCollection.countDocuments(session, filter);
+          plan.add("more than " + MAX_SCAN + " matches, no facets");
+        }
+      } else {
+        total = movieCollection.countDocuments(session, filter);
+      }
+
+      List<ObjectId> matching = matches != null && matches.cardinality() <= MAX_IN ? ids(index, matches) : null;
+      List<Movie> movies = page(session, filter, matching, sort, descending, skip, limit, plan);
+      return result(total, movies, wantFacets && matches != null ? facets(index, matches) : null, plan);
+    }
+  }
+
+  /**
+   * Runs the query without the facet index, with the membership predicates as array filters and
+   * the facets counted by Mongo.
+   */
+  private MovieQueryResult runInMongo(MovieQuery query, String sort, boolean descending, int skip, int limit, boolean wantFacets) {
+    List<String> plan = new ArrayList<>();
+    plan.add("facet index catching up with other instances, membership checked by Mongo");
+    List<Bson> filters = new ArrayList<>();
+    if (query.getActors() != null && !query.getActors().isEmpty()) {
+      filters.add(Filters.all("actorNames", query.getActors()));
+    }
+    Bson released = releaseDateRange(query.getReleasedFrom(), query.getReleasedTo());
+    if (released != null) {
+      filters.add(released);
+    }
+    addMembershipFilters(filters, "flagNames", query.getFlags());
+    addMembershipFilters(filters, "ratingCategoryNames", query.getRatingCategories());
+    Bson filter = filters.isEmpty() ? new Document() : Filters.and(filters);
+    plan.add("mongo: " + describeIndexUse(filters, false));
+
+    MongoCollection<Document> movieCollection = ReadRouting.route(db.getMovieCollection(), QueryClass.CATALOG);
+    try (ClientSession session = ReadRouting.causalSession()) {
+      long total = movieCollection.countDocuments(session, filter);
+      Map<String, Map<String, Integer>> facets = null;
+      if (wantFacets && total > MAX_SCAN) {
+        plan.add("more than " + MAX_SCAN + " matches, no facets");
+      } else if (wantFacets) {
+        Document counted = movieCollection.aggregate(session, List.of(
+            new Document("$match", filter),
+            new Document("$facet", new Document("flags", countEach("$flagNames"))
+                .append("ratingCategories", countEach("$ratingCategoryNames"))))).first();
+        facets = new TreeMap<>();
+        facets.put("flags", counts(counted, "flags"));
+        facets.put("ratingCategories", counts(counted, "ratingCategories"));
+      }
+      return result(total, page(session, filter, null, sort, descending, skip, limit, plan), facets, plan);
+    }
+  }
+
+  private static List<Document> countEach(String field) {
+    // $unwind also takes a single name that is not in an array
+    return List.of(new Document("$unwind", field), new Document("$group", new Document("_id", field).append("n", new Document("$sum", 1))));
+  }
+
+  private static Map<String, Integer> counts(Document counted, String facet) {
+    Map<String, Integer> counts = new TreeMap<>();
+    if (counted != null) {
+      for (Document count : counted.getList(facet, Document.class, List.of())) {
+        if (count.get("_id") != null) {
+          counts.put(count.get("_id").toString(), ((Number) count.get("n")).intValue());
+        }
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Reads one page of the matching movies in the requested order.
+   *
+   * @param matching the _ids of all matching movies if known and at most {@link #MAX_IN}, or null
+   */
+  private List<Movie> page(ClientSession session, Bson filter, List<ObjectId> matching, String sort, boolean descending,
+                           int skip, int limit, List<String> plan) {
+    MongoCollection<Document> movieCollection = ReadRouting.route(db.getMovieCollection(), QueryClass.CATALOG);
+    List<Movie> movies = new ArrayList<>();
+    if (!"rating".equals(sort)) {
+      Bson order = descending ? Sorts.descending(sort, "_id") : Sorts.ascending(sort, "_id");
+      movieCollection.find(session, filter).sort(order).skip(skip).limit(limit)
+          .map(DatabaseController::toMovie).into(movies);
+      return movies;
+    }
+    MongoCollection<Document> summaries = ReadRouting.route(new MovieSummaries(db).getSummaryCollection(), QueryClass.CATALOG);
+    Bson order = descending ? Sorts.descending("averageRating", "_id") : Sorts.ascending("averageRating", "_id");
+    List<Object> pageIds = new ArrayList<>();
+    if (matching != null) {
+      summaries.find(session, Filters.in("_id", matching)).projection(Projections.include("_id"))
+          .sort(order).skip(skip).limit(limit).map(summary -> summary.get("_id")).into(pageIds);
+      plan.add("ranked " + matching.size() + " movieSummaries by rating");
+    } else {
+      summaries.aggregate(session, List.of(
+          new Document("$sort", order),
+          DatabaseController.lookup("movies", "_id", "_id", "movie", List.of(
+              new Document("$match", filter),
+              new Document("$project", new Document("_id", 1)))),
+          new Document("$match", new Document("movie", new Document("$ne", List.of()))),
+          new Document("$skip", skip),
+          new Document("$limit", limit),
+          new Document("$project", new Document("_id", 1)))).map(summary -> summary.get("_id")).into(pageIds);
+      plan.add("walked movieSummaries in rating order until the page was full");
+    }
+    Map<Object, Movie> pageMovies = new HashMap<>();
+    for (Document movie : movieCollection.find(session, Filters.in("_id", pageIds))) {
+      pageMovies.put(movie.get("_id"), DatabaseController.toMovie(movie));
+    }
+    for (Object id : pageIds) {
+      Movie movie = pageMovies.get(id);
+      if (movie != null) {
+        movies.add(movie);
+      }
+    }
+    return movies;
+  }
+
+  private static List<ObjectId> ids(MovieFacetIndex.Snapshot index, RoaringBitmap movies) {
+    List<ObjectId> ids = new ArrayList<>(movies.cardinality());
+    movies.forEach(ordinal -> ids.add(index.movieAt(ordinal)));
+    return ids;
+  }
+
+  private static RoaringBitmap applyMembership(RoaringBitmap candidates, MembershipFilter membership,
+                                               Function<String, RoaringBitmap> members, MovieFacetIndex.Snapshot index) {
+    if (membership == null) {
+      return candidates;
+    }
+    RoaringBitmap result = candidates;
+    if (membership.getAll() != null) {
+      for (String name : membership.getAll()) {
+        result = result == null ? members.apply(name) : RoaringBitmap.and(result, members.apply(name));
+      }
+    }
+    if (membership.getAny() != null && !membership.getAny().isEmpty()) {
+      RoaringBitmap any = new RoaringBitmap();
+      for (String name : membership.getAny()) {
+        any = RoaringBitmap.or(any, members.apply(name));
+      }
+      result = result == null ? any : RoaringBitmap.and(result, any);
+    }
+    if (membership.getNone() != null && !membership.getNone().isEmpty()) {
+      if (result == null) {
+        result = index.all();
+      }
+      for (String name : membership.getNone()) {
+        result = RoaringBitmap.andNot(result, members.apply(name));
+      }
+    }
+    return result;
+  }
+
+  private static void addMembershipFilters(List<Bson> filters, String field, MembershipFilter membership) {
+    if (membership == null) {
+      return;
+    }
+    if (membership.getAll() != null && !membership.getAll().isEmpty()) {
+      filters.add(Filters.all(field, membership.getAll()));
+    }
+    if (membership.getAny() != null && !membership.getAny().isEmpty()) {
+      filters.add(Filters.in(field, membership.getAny()));
+    }
+    if (membership.getNone() != null && !membership.getNone().isEmpty()) {
+      filters.add(Filters.nin(field, membership.getNone()));
+    }
+  }
+
+  private static Map<String, Map<String, Integer>> facets(MovieFacetIndex.Snapshot index, RoaringBitmap matches) {
+    Map<String, Map<String, Integer>> facets = new TreeMap<>();
+    facets.put("flags", counts(index.getFlags(), matches));
+    facets.put("ratingCategories", counts(index.getRatingCategories(), matches));
+    return facets;
+  }
+
+  private static Map<String, Integer> counts(Map<String, RoaringBitmap> members, RoaringBitmap matches) {
+    Map<String, Integer> counts = new TreeMap<>();
+    for (Map.Entry<String, RoaringBitmap> entry : members.entrySet()) {
+      int count = RoaringBitmap.andCardinality(entry.getValue(), matches);
+      if (count > 0) {
+        counts.put(entry.getKey(), count);
+      }
+    }
+    return counts;
+  }
+
+  // which of the filtered fields Mongo has an index for, most selective first
+  private String describeIndexUse(List<Bson> filters, boolean byId) {
+    if (filters.isEmpty()) {
+      return "no filter";
+    }
+    if (byId) {
+      return "_id $in drives the query";
+    }
+    Set<String> indexed = indexedFields();
+    for (String field : List.of("actorNames", "releaseDate", "flagNames", "ratingCategoryNames")) {
+      for (Bson filter : filters) {
+        if (indexed.contains(field) && mentions(filter.toBsonDocument(), field)) {
+          return "index on " + field + " can drive the query";
+        }
+      }
+    }
+    return "no index on the filtered fields, collection scan";
+  }
+
+  // true if the filter tests the field at the top level or in every branch of an $or
+  private static boolean mentions(BsonDocument filter, String field) {
+    if (filter.containsKey(field)) {
+      return true;
+    }
+    BsonValue or = filter.get("$or");
+    BsonValue and = filter.get("$and");
+    if (or != null && or.isArray() && !or.asArray().isEmpty()) {
+      return or.asArray().stream().allMatch(branch -> branch.isDocument() && mentions(branch.asDocument(), field));
+    }
+    if (and != null && and.isArray()) {
+      return and.asArray().stream().anyMatch(part -> part.isDocument() && mentions(part.asDocument(), field));
+    }
+    return false;
+  }
+
+  private Set<String> indexedFields() {
+    Set<String> fields = indexedFields;
+    if (fields == null) {
+      fields = new HashSet<>();
+      for (Document index : db.getMovieCollection().listIndexes()) {
+        Document key = index.get("key", Document.class);
+        if (key != null && !key.isEmpty()) {
+          fields.add(key.keySet().iterator().next());
+        }
+      }
+      indexedFields = fields;
+    }
+    return fields;
+  }
+
+  private static MovieQueryResult result(long total, List<Movie> movies, Map<String, Map<String, Integer>> facets, List<String> plan) {
+    MovieQueryResult result = new MovieQueryResult();
+    result.setTotal(total);
+    result.setMovies(movies);
+    result.setFacets(facets);
+    result.setPlan(String.join("; ", plan));
+    return result;
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
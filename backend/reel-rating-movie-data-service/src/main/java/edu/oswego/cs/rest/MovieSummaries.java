@@ -0,0 +1,217 @@
+package edu.oswego.cs.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.PushOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+
+/**
+ * The <code>movieSummaries</code> collection: one denormalized document per movie, keyed by the
+ * movie's _id, holding its metadata, cast names, flag names, average rating per category and
+ * overall, review count and latest reviews, so the hot movie reads are a single point lookup.
+ *
+ * <p>DatabaseController keeps it current on every write. Adding a review or a flag is applied
+ * directly with $inc/$push/$addToSet; every other change re-aggregates just the movies it touched
+ * and $merges the result. {@link #rebuildAll()} recomputes every summary and is run in the
+ * background by {@link MovieSummaryRebuilder}, which also repairs anything missed, for example
+ * writes made directly to the database. Every write stamps the summary with <code>builtAt</code> and
+ * hands the new summary to the {@link CatalogSnapshot}, which answers reads first.</p>
+ */
+public class MovieSummaries {
+
+  // reviews kept in latestReviews, newest first
+  static final int LATEST_REVIEWS = intFromEnv("MOVIE_SUMMARY_REVIEWS", 5);
+
+  // summaries of deleted movies removed per deleteMany
+  private static final int ORPHAN_BATCH = 1000;
+
+  private static final JsonWriterSettings RELAXED_JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+  private final DatabaseController db;
+
+  public MovieSummaries(DatabaseController db) {
+    this.db = db;
+  }
+
+  public MongoCollection<Document> getSummaryCollection() {
+    return db.getMovieDatabase().getCollection("movieSummaries");
+  }
+
+  /**
+   * @return the summary as JSON, or null if the movie has none
+   */
+  public String getSummaryJson(String movieIdHexString) {
+    if (!ObjectId.isValid(movieIdHexString)) {
+      return null;
+    }
+    String snapshot = CatalogSnapshot.getInstance().summaryJson(new ObjectId(movieIdHexString));
+    if (snapshot != null) {
+      return snapshot;
+    }
+    try (ClientSession session = ReadRouting.causalSession()) {
+      Document summary = ReadRouting.route(getSummaryCollection(), ReadRouting.QueryClass.CATALOG)
+          .find(session, Filters.eq("_id", new ObjectId(movieIdHexString)))
+          .projection(Projections.exclude("_id", "builtAt"))
+          .first();
+      return summary == null ? null : summary.toJson(RELAXED_JSON);
+    }
+  }
+
+  /**
+   * Recomputes the summaries of the movies matching the filter.
+   */
+  public void refresh(Bson movieFilter) {
+    Date builtAt = new Date();
+    db.getMovieCollection().aggregate(summaryPipeline(movieFilter, builtAt)).toCollection();
+    CollectionVersions.bump("movieSummaries");
+    CatalogSnapshot.getInstance().refreshed(builtAt);
+  }
+
+  public void refreshTitles(Collection<String> movieTitles) {
+    if (!movieTitles.isEmpty()) {
+      refresh(Filters.in("title", movieTitles));
+    }
+  }
+
+  /**
+   * Recomputes every summary and removes the summaries of movies that no longer exist.
+   */
+  public void rebuildAll() {
+    Date started = new Date();
+    db.getMovieCollection().aggregate(summaryPipeline(null, started)).allowDiskUse(true).toCollection();
+    removeOrphans();
+    // remove() deletes by title
+    getSummaryCollection().createIndex(Indexes.ascending("title"));
+    // MovieQueryEngine sorts query results by rating in this order
+    getSummaryCollection().createIndex(Indexes.ascending("averageRating", "_id"));
+    CollectionVersions.bump("movieSummaries");
+    CatalogSnapshot.getInstance().writeInBackground();
+  }
+
+  /**
+   * Deletes the summaries whose movie no longer exists. They are found by joining on the movie
+   * rather than by <code>builtAt</code>, whose clock differs between writers, so a summary updated
+   * by another instance during a rebuild is never taken for an orphan.
+   */
+  private void removeOrphans() {
+    List<Object> orphans = new ArrayList<>();
+    for (Document orphan : getSummaryCollection().aggregate(Arrays.asList(
+        Aggregates.lookup("movies", "_id", "_id", "movie"),
+        Aggregates.match(Filters.size("movie", 0)),
+        Aggregates.project(Projections.include("_id")))).allowDiskUse(true)) {
+      orphans.add(orphan.get("_id"));
+      if (orphans.size() == ORPHAN_BATCH) {
+        getSummaryCollection().deleteMany(Filters.in("_id", orphans));
+        orphans.clear();
+      }
+    }
+    if (!orphans.isEmpty()) {
+      getSummaryCollection().deleteMany(Filters.in("_id", orphans));
+    }
+  }
+
+  public void remove(String movieTitle) {
+    getSummaryCollection().deleteMany(Filters.eq("title", movieTitle));
+    CatalogSnapshot.getInstance().removed(movieTitle);
+  }
+
+  public void reviewAdded(ObjectId movieId, Document review) {
+    Document latest = new Document("reviewTitle", review.getString("reviewTitle"))
+        .append("reviewDescription", review.getString("reviewDescription"))
+        .append("userName", review.getString("userName"));
+    update(movieId, Updates.combine(
+        Updates.inc("reviewCount", 1),
+        Updates.pushEach("latestReviews", List.of(latest), new PushOptions().position(0).slice(LATEST_REVIEWS))));
+  }
+
+  /**
+   * Same as {@link #reviewAdded} for several reviews of one movie, newest last, in one update.
+   */
+  public void reviewsAdded(ObjectId movieId, List<Document> reviews) {
+    List<Document> latest = new ArrayList<>(reviews.size());
+    for (int i = reviews.size() - 1; i >= 0; i--) {
+      Document review = reviews.get(i);
+      latest.add(new Document("reviewTitle", review.getString("reviewTitle"))
+          .append("reviewDescription", review.getString("reviewDescription"))
+          .append("userName", review.getString("userName")));
+    }
+    update(movieId, Updates.combine(
+        Updates.inc("reviewCount", reviews.size()),
+        Updates.pushEach("latestReviews", latest, new PushOptions().position(0).slice(LATEST_REVIEWS))));
+  }
+
+  public void flagAdded(ObjectId movieId, String flagName) {
+    update(movieId, Updates.addToSet("flagNames", flagName));
+  }
+
+  private void update(ObjectId movieId, Bson update) {
+    Document summary = getSummaryCollection().findOneAndUpdate(Filters.eq("_id", movieId),
+        Updates.combine(update, Updates.currentDate("builtAt")),
+        new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER).projection(Projections.exclude("builtAt")));
+    CatalogSnapshot.getInstance().changed(summary);
+  }
+
+  private static List<Bson> summaryPipeline(Bson movieFilter, Date builtAt) {
+    List<Bson> pipeline = new ArrayList<>();
+    if (movieFilter != null) {
+      pipeline.add(Aggregates.match(movieFilter));
+    }
+    pipeline.add(Aggregates.addFields(new Field<>("idString", new Document("$toString", "$_id"))));
+    pipeline.add(DatabaseController.castLookup("cast"));
+    pipeline.add(DatabaseController.flagLookup("flags"));
+    pipeline.add(DatabaseController.ratingCategoriesLookup("ratingSummary"));
+    pipeline.add(DatabaseController.lookup("reviews", "idString", "movieId", "reviews", Arrays.asList(
+        new Document("$sort", new Document("_id", -1)),
+        new Document("$facet", new Document("latest", Arrays.asList(
+                new Document("$limit", LATEST_REVIEWS),
+                new Document("$project", new Document("_id", 0).append("reviewTitle", 1)
+                    .append("reviewDescription", 1).append("userName", 1))))
+            .append("count", Arrays.asList(new Document("$count", "count")))))));
+    pipeline.add(new Document("$project", new Document("_id", 1)
+        .append("id", "$idString")
+        .append("title", 1)
+        .append("director", 1)
+        .append("releaseDate", TypedFields.releaseDateAsString())
+        .append("runtime", 1)
+        .append("writers", 1)
+        .append("summary", new Document("$ifNull", Arrays.asList("$summary", "$plotSummary")))
+        .append("cast", "$cast.name")
+        .append("flagNames", "$flags.flagName")
+        .append("ratingSummary", 1)
+        // mean of the category averages, used to sort query results by rating
+        .append("averageRating", new Document("$avg", "$ratingSummary.average"))
+        .append("reviewCount", new Document("$ifNull", Arrays.asList(
+            new Document("$first", new Document("$first", "$reviews.count.count")), 0)))
+        .append("latestReviews", new Document("$first", "$reviews.latest"))
+        .append("builtAt", new Document("$literal", builtAt))));
+    pipeline.add(new Document("$merge", new Document("into", "movieSummaries")
+        .append("on", "_id")
+        .append("whenMatched", "replace")
+        .append("whenNotMatched", "insert")));
+    return pipeline;
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
@@ -0,0 +1,24 @@
+package edu.oswego.cs.rest;
+
+import jakarta.enterprise.context.RequestScoped;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.core.Response;
+
+@RequestScoped
+@Path("/admin/movieSummaries")
+public class MovieSummaryAdminService {
+
+  /**
+   * Starts rebuilding every movie summary in the background.
+   * @return 202 if the rebuild was started, 409 if one is already running
+   */
+  @POST
+  @Path("/rebuild")
+  public Response rebuild() {
+    if (!MovieSummaryRebuilder.rebuildInBackground()) {
+      return Response.status(Response.Status.CONFLICT).build();
+    }
+    return Response.accepted().build();
+  }
+}
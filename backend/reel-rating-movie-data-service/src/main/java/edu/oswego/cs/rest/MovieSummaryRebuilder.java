@@ -0,0 +1,72 @@
+package edu.oswego.cs.rest;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Rebuilds the <code>movieSummaries</code> collection in the background: at startup when it is
+ * empty, every <code>MOVIE_SUMMARY_REBUILD_MINUTES</code> (default 360, 0 turns it off) and on
+ * request through {@link MovieSummaryAdminService}. Only one rebuild runs at a time.
+ */
+@ApplicationScoped
+public class MovieSummaryRebuilder {
+
+  private static final Logger LOGGER = Logger.getLogger(MovieSummaryRebuilder.class.getName());
+  private static final AtomicBoolean RUNNING = new AtomicBoolean();
+  private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "movie-summary-rebuilder");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    String configured = System.getenv("MOVIE_SUMMARY_REBUILD_MINUTES");
+    long intervalMinutes = configured == null || configured.isBlank() ? 360 : Long.parseLong(configured.trim());
+    SCHEDULER.execute(() -> {
+      try {
+        if (new MovieSummaries(new DatabaseController()).getSummaryCollection().estimatedDocumentCount() == 0) {
+          rebuild();
+        }
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Could not check the movie summaries", e);
+      }
+    });
+    if (intervalMinutes > 0) {
+      SCHEDULER.scheduleWithFixedDelay(MovieSummaryRebuilder::rebuild, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+  }
+
+  /**
+   * @return false if a rebuild is already running
+   */
+  public static boolean rebuildInBackground() {
+    if (RUNNING.get()) {
+      return false;
+    }
+    SCHEDULER.execute(MovieSummaryRebuilder::rebuild);
+    return true;
+  }
+
+  private static void rebuild() {
+    if (!RUNNING.compareAndSet(false, true)) {
+      return;
+    }
+    long started = System.nanoTime();
+    try {
+      new MovieSummaries(new DatabaseController()).rebuildAll();
+      LOGGER.info(() -> "Rebuilt movie summaries in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not rebuild the movie summaries", e);
+    } finally {
+      RUNNING.set(false);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package edu.oswego.cs.rest;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The top-K most similar movies of every movie, as one flat int array of neighbour ordinals and
+ * one flat float array of scores with K slots per movie (about 8 bytes per neighbour, no objects),
+ * best first and padded with -1.
+ *
+ * <p>Reads are optimistic: a reader copies the row and only takes the read lock if a writer
+ * replaced a row or grew the table in the meantime, so serving never blocks on the builder except
+ * while a single row is being written.</p>
+ */
+final class NeighbourTable {
+
+  final int k;
+  private final StampedLock lock = new StampedLock();
+  private int[] neighbours;
+  private float[] scores;
+  private int capacity;
+
+  NeighbourTable(int k, int capacity) {
+    this.k = k;
+    this.capacity = Math.max(capacity, 16);
+    this.neighbours = new int[this.capacity * k];
+    this.scores = new float[this.capacity * k];
+    Arrays.fill(neighbours, -1);
+  }
+
+  /**
+   * Copies up to <code>limit</code> neighbours of the movie into the arrays.
+   * @return how many were copied
+   */
+  int read(int movie, int limit, int[] toNeighbours, float[] toScores) {
+    long stamp = lock.tryOptimisticRead();
+    int n = copyRow(movie, limit, toNeighbours, toScores);
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        n = copyRow(movie, limit, toNeighbours, toScores);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return n;
+  }
+
+  private int copyRow(int movie, int limit, int[] toNeighbours, float[] toScores) {
+    int[] currentNeighbours = neighbours;
+    float[] currentScores = scores;
+    int base = movie * k;
+    if (movie < 0 || base + k > currentNeighbours.length || base + k > currentScores.length) {
+      return 0;
+    }
+    int n = 0;
+    while (n < Math.min(limit, k) && currentNeighbours[base + n] >= 0) {
+      toNeighbours[n] = currentNeighbours[base + n];
+      toScores[n] = currentScores[base + n];
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Replaces the movie's row with the first <code>count</code> entries, which must be sorted best
+   * first.
+   */
+  void write(int movie, int[] rowNeighbours, float[] rowScores, int count) {
+    long stamp = lock.writeLock();
+    try {
+      if (movie >= capacity) {
+        grow(movie + 1);
+      }
+      int base = movie * k;
+      int n = Math.min(count, k);
+      System.arraycopy(rowNeighbours, 0, neighbours, base, n);
+      System.arraycopy(rowScores, 0, scores, base, n);
+      Arrays.fill(neighbours, base + n, base + k, -1);
+      Arrays.fill(scores, base + n, base + k, 0);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Writes a row during a build, before the table is published; no locking.
+   */
+  void writeUnpublished(int movie, TopK row) {
+    int base = movie * k;
+    System.arraycopy(row.neighbours, 0, neighbours, base, row.size);
+    System.arraycopy(row.scores, 0, scores, base, row.size);
+  }
+
+  private void grow(int needed) {
+    int newCapacity = Math.max(needed, capacity + (capacity >> 1));
+    int[] newNeighbours = Arrays.copyOf(neighbours, newCapacity * k);
+    Arrays.fill(newNeighbours, capacity * k, newNeighbours.length, -1);
+    neighbours = newNeighbours;
+    scores = Arrays.copyOf(scores, newCapacity * k);
+    capacity = newCapacity;
+  }
+
+  /**
+   * A bounded list of the best neighbours seen so far, kept sorted best first.
+   */
+  static final class TopK {
+    final int[] neighbours;
+    final float[] scores;
+    int size;
+
+    TopK(int k) {
+      neighbours = new int[k];
+      scores = new float[k];
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    void offer(int neighbour, float score) {
+      int k = neighbours.length;
+      if (size == k && score <= scores[k - 1]) {
+        return;
+      }
+      int at = size == k ? k - 1 : size++;
+      while (at > 0 && scores[at - 1] < score) {
+        neighbours[at] = neighbours[at - 1];
+        scores[at] = scores[at - 1];
+        at--;
+      }
+      neighbours[at] = neighbour;
+      scores[at] = score;
+    }
+  }
+}
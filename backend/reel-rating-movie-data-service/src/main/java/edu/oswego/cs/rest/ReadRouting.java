@@ -0,0 +1,155 @@
+package edu.oswego.cs.rest;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Routes the reads made while serving requests to replica set members by query class.
+ *
+ * <ul>
+ *   <li>{@link QueryClass#CATALOG}: browsing movies, actors and ratings, the movie page and
+ *   summary and the structured query. <code>READ_PREFERENCE_CATALOG</code>, secondaryPreferred
+ *   by default.</li>
+ *   <li>{@link QueryClass#USER}: reads a user expects to reflect what they just wrote, such as
+ *   reviews by user or movie right after createReview, their ratings, and a movie read before an
+ *   edit. <code>READ_PREFERENCE_USER</code>, primary by default.</li>
+ * </ul>
+ *
+ * <p>Secondary reads only use members no more than <code>READ_MAX_STALENESS_SECONDS</code> behind
+ * the primary (90 by default, the least the driver accepts). Every routed read also runs in a
+ * causally consistent session advanced to the later of the last write this instance made,
+ * recorded by {@link MongoCommandMetricsListener}, and the last read of the shared
+ * {@link CollectionVersions}, so a secondary waits until it has both before answering. A read
+ * therefore never misses a write counted in the versions behind the ETags of
+ * {@link HttpCaching} and {@link EntityCache}, whichever instance made it, and a tag is never
+ * handed out with data older than it.</p>
+ *
+ * <p>Background jobs (index and graph rebuilds, summary refreshes, migrations) are not routed and
+ * stay on the primary, since they rely on seeing every write made before they start. Against a
+ * standalone server every preference reads from it.</p>
+ */
+public final class ReadRouting {
+
+  public enum QueryClass {
+    CATALOG("secondaryPreferred"),
+    USER("primary");
+
+    final String defaultPreference;
+
+    QueryClass(String defaultPreference) {
+      this.defaultPreference = defaultPreference;
+    }
+  }
+
+  private static final Logger LOGGER = Logger.getLogger(ReadRouting.class.getName());
+  // the driver rejects anything below 90 seconds
+  private static final int MIN_STALENESS_SECONDS = 90;
+  static final int MAX_STALENESS_SECONDS = Math.max(MIN_STALENESS_SECONDS, intFromEnv("READ_MAX_STALENESS_SECONDS", MIN_STALENESS_SECONDS));
+  private static final Map<QueryClass, ReadPreference> PREFERENCES = preferences();
+  private static final ClientSessionOptions CAUSAL = ClientSessionOptions.builder().causallyConsistent(true).build();
+
+  private static final AtomicReference<Seen> LAST_SEEN = new AtomicReference<>();
+
+  private ReadRouting() {}
+
+  /**
+   * The latest operation the routed reads have to wait for.
+   */
+  private static final class Seen {
+    final BsonTimestamp operationTime;
+    final BsonDocument clusterTime;
+
+    Seen(BsonTimestamp operationTime, BsonDocument clusterTime) {
+      this.operationTime = operationTime;
+      this.clusterTime = clusterTime;
+    }
+  }
+
+  public static ReadPreference preferenceFor(QueryClass queryClass) {
+    return PREFERENCES.get(queryClass);
+  }
+
+  /**
+   * @return the collection reading with the query class's preference
+   */
+  public static <T> MongoCollection<T> route(MongoCollection<T> collection, QueryClass queryClass) {
+    return collection.withReadPreference(preferenceFor(queryClass));
+  }
+
+  /**
+   * A causally consistent session that has seen the last write made by this instance and the last
+   * read of the shared collection versions; close it once the read is done.
+   */
+  public static ClientSession causalSession() {
+    ClientSession session = DatabaseController.getMongoClient().startSession(CAUSAL);
+    Seen last = LAST_SEEN.get();
+    if (last != null) {
+      session.advanceClusterTime(last.clusterTime);
+      session.advanceOperationTime(last.operationTime);
+    }
+    return session;
+  }
+
+  /**
+   * Records the operation and cluster time of an acknowledged write from the server's reply.
+   * Replies from a standalone server have neither and are ignored.
+   */
+  static void writeAcknowledged(BsonDocument reply) {
+    if (!reply.isTimestamp("operationTime") || !reply.isDocument("$clusterTime")) {
+      return;
+    }
+    advance(new Seen(reply.getTimestamp("operationTime"), reply.getDocument("$clusterTime").clone()));
+  }
+
+  /**
+   * Records the operation and cluster time a session has reached, so routed reads wait for
+   * everything it read. Sessions against a standalone server have neither and are ignored.
+   */
+  static void sessionSeen(ClientSession session) {
+    if (session.getOperationTime() != null && session.getClusterTime() != null) {
+      advance(new Seen(session.getOperationTime(), session.getClusterTime().clone()));
+    }
+  }
+
+  private static void advance(Seen seen) {
+    LAST_SEEN.accumulateAndGet(seen, (current, next) ->
+        current == null || next.operationTime.compareTo(current.operationTime) > 0 ? next : current);
+  }
+
+  private static Map<QueryClass, ReadPreference> preferences() {
+    Map<QueryClass, ReadPreference> preferences = new EnumMap<>(QueryClass.class);
+    for (QueryClass queryClass : QueryClass.values()) {
+      String variable = "READ_PREFERENCE_" + queryClass.name();
+      String configured = System.getenv(variable);
+      String name = configured == null || configured.isBlank() ? queryClass.defaultPreference : configured.trim();
+      ReadPreference preference;
+      try {
+        preference = name.toLowerCase(Locale.ROOT).equals("primary") ? ReadPreference.primary()
+            : ReadPreference.valueOf(name, List.of(), MAX_STALENESS_SECONDS, TimeUnit.SECONDS);
+      } catch (IllegalArgumentException e) {
+        LOGGER.warning(() -> variable + "=" + name + " is not a read preference, using primary");
+        preference = ReadPreference.primary();
+      }
+      preferences.put(queryClass, preference);
+    }
+    return preferences;
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
@@ -0,0 +1,217 @@
+package edu.oswego.cs.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Gzips JSON and text responses for clients that accept it, once the body reaches
+ * <code>COMPRESSION_MIN_BYTES</code> (1024 by default, 0 turns compression off). The first bytes
+ * are held back until that size is reached, so smaller bodies go out as they are, with no extra
+ * latency or header changes.
+ *
+ * <p>A compressed response is a different representation, so its strong ETag gets a
+ * <code>-gzip</code> suffix. The suffix is taken off the If-None-Match and If-Match headers
+ * before the resource methods compare them, and put back on the ETag of a 304 answering a
+ * suffixed tag.</p>
+ *
+ * <p>Every JSON or text response and every 304 carries <code>Vary: Accept-Encoding</code> while
+ * compression is on, whether or not this client accepts gzip, so caches keep the two
+ * representations apart.</p>
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class ResponseCompression implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+  static final int MIN_BYTES = intFromEnv("COMPRESSION_MIN_BYTES", 1024);
+  private static final String ETAG_SUFFIX = "-gzip\"";
+  private static final String ACCEPTS_GZIP_PROPERTY = ResponseCompression.class.getName() + ".acceptsGzip";
+  private static final String SUFFIXED_PROPERTY = ResponseCompression.class.getName() + ".suffixed";
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext) {
+    if (MIN_BYTES <= 0) {
+      return;
+    }
+    if (acceptsGzip(requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING))) {
+      requestContext.setProperty(ACCEPTS_GZIP_PROPERTY, Boolean.TRUE);
+    }
+    MultivaluedMap<String, String> headers = requestContext.getHeaders();
+    for (String name : new String[] {HttpHeaders.IF_NONE_MATCH, HttpHeaders.IF_MATCH}) {
+      String value = headers.getFirst(name);
+      if (value != null && value.contains(ETAG_SUFFIX)) {
+        headers.putSingle(name, value.replace(ETAG_SUFFIX, "\""));
+        requestContext.setProperty(SUFFIXED_PROPERTY, Boolean.TRUE);
+      }
+    }
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+    if (MIN_BYTES <= 0) {
+      return;
+    }
+    boolean notModified = responseContext.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode();
+    if (notModified && requestContext.getProperty(ACCEPTS_GZIP_PROPERTY) != null
+        && requestContext.getProperty(SUFFIXED_PROPERTY) != null) {
+      suffixETag(responseContext.getHeaders());
+    }
+    // every response that could have been compressed varies, including the ones sent to clients
+    // that do not accept gzip, or a shared cache would hand them on to clients that do
+    if (notModified || responseContext.hasEntity() && compressible(responseContext.getMediaType())) {
+      addVary(responseContext.getHeaders());
+    }
+  }
+
+  private static void addVary(MultivaluedMap<String, Object> headers) {
+    for (Object vary : headers.getOrDefault(HttpHeaders.VARY, List.of())) {
+      String value = vary.toString();
+      if (value.trim().equals("*") || value.toLowerCase(Locale.ROOT).contains("accept-encoding")) {
+        return;
+      }
+    }
+    headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+    if (context.getProperty(ACCEPTS_GZIP_PROPERTY) == null || !compressible(context.getMediaType())
+        || context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+      context.proceed();
+      return;
+    }
+    ThresholdGzipStream stream = new ThresholdGzipStream(context.getOutputStream(), context.getHeaders());
+    context.setOutputStream(stream);
+    context.proceed();
+    stream.finish();
+  }
+
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    Double gzip = null;
+    Double any = null;
+    for (String part : acceptEncoding.split(",")) {
+      String[] parameters = part.split(";");
+      String coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+      double quality = 1;
+      for (int i = 1; i < parameters.length; i++) {
+        String parameter = parameters[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(parameter.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      if (coding.equals("gzip") || coding.equals("x-gzip")) {
+        gzip = quality;
+      } else if (coding.equals("*")) {
+        any = quality;
+      }
+    }
+    return gzip != null ? gzip > 0 : any != null && any > 0;
+  }
+
+  private static boolean compressible(MediaType type) {
+    return type != null && (type.getType().equals("text") || type.getSubtype().equals("json") || type.getSubtype().endsWith("+json"));
+  }
+
+  private static void suffixETag(MultivaluedMap<String, Object> headers) {
+    Object tag = headers.getFirst(HttpHeaders.ETAG);
+    if (tag != null) {
+      String value = tag.toString();
+      if (value.endsWith("\"") && !value.endsWith(ETAG_SUFFIX)) {
+        headers.putSingle(HttpHeaders.ETAG, value.substring(0, value.length() - 1) + ETAG_SUFFIX);
+      }
+    }
+  }
+
+  /**
+   * Holds back the first MIN_BYTES, then switches the response to gzip. Nothing reaches the
+   * entity stream before that decision, so the headers can still be changed.
+   */
+  private static final class ThresholdGzipStream extends OutputStream {
+    private final OutputStream target;
+    private final MultivaluedMap<String, Object> headers;
+    private final byte[] held = new byte[MIN_BYTES];
+    private int count;
+    private GZIPOutputStream out;
+    private boolean finished;
+
+    ThresholdGzipStream(OutputStream target, MultivaluedMap<String, Object> headers) {
+      this.target = target;
+      this.headers = headers;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (out == null) {
+        if (count + len < held.length) {
+          System.arraycopy(b, off, held, count, len);
+          count += len;
+          return;
+        }
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        suffixETag(headers);
+        out = new GZIPOutputStream(target, 8192);
+        out.write(held, 0, count);
+      }
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // flushing what is held back would commit the headers before the decision
+      if (out != null) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      finish();
+    }
+
+    void finish() throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      if (out == null) {
+        target.write(held, 0, count);
+      } else {
+        out.finish();
+      }
+    }
+  }
+}
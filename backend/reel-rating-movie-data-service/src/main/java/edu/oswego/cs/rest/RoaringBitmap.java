@@ -0,0 +1,635 @@
+package edu.oswego.cs.rest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed bitmap of non-negative ints in the style of Roaring bitmaps.
+ *
+ * <p>Values are split by their high 16 bits into chunks of 65536. Each chunk is stored in the
+ * cheaper of two containers: a sorted array of the low 16 bits while it holds at most 4096 values
+ * (2 bytes per value), or a plain 8 KB bitmap once it holds more. Sparse sets therefore cost about
+ * 2 bytes per member and dense sets about 1 bit per possible member, and AND, OR, AND NOT and
+ * cardinality work container by container, skipping chunks that only one side has.
+ * Run-length containers from the full Roaring format are not implemented; movie ordinals are
+ * assigned densely so long runs are already cheap in bitmap containers.</p>
+ *
+ * <p>Instances are not thread safe. The static operations never modify their arguments.</p>
+ */
+public class RoaringBitmap {
+
+  private static final int ARRAY_MAX = 4096;
+  private static final int BITMAP_WORDS = 1024;
+
+  private char[] keys = new char[4];
+  private Container[] containers = new Container[4];
+  private int size;
+
+  public void add(int value) {
+    checkValue(value);
+    char key = (char) (value >>> 16);
+    int index = indexOf(key);
+    if (index >= 0) {
+      containers[index] = containers[index].add((char) value);
+    } else {
+      insert(-index - 1, key, new ArrayContainer().add((char) value));
+    }
+  }
+
+  public void remove(int value) {
+    checkValue(value);
+    int index = indexOf((char) (value >>> 16));
+    if (index >= 0) {
+      Container container = containers[index].remove((char) value);
+      if (container.cardinality() == 0) {
+        delete(index);
+      } else {
+        containers[index] = container;
+      }
+    }
+  }
+
+  public boolean contains(int value) {
+    if (value < 0) {
+      return false;
+    }
+    int index = indexOf((char) (value >>> 16));
+    return index >= 0 && containers[index].contains((char) value);
+  }
+
+  public int cardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < size; i++) {
+      cardinality += containers[i].cardinality();
+    }
+    return cardinality;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Calls the consumer with every value in ascending order.
+   */
+  public void forEach(IntConsumer consumer) {
+    for (int i = 0; i < size; i++) {
+      containers[i].forEach(keys[i] << 16, consumer);
+    }
+  }
+
+  public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+    RoaringBitmap result = new RoaringBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < a.size && j < b.size) {
+      if (a.keys[i] < b.keys[j]) {
+        i++;
+      } else if (a.keys[i] > b.keys[j]) {
+        j++;
+      } else {
+        Container container = a.containers[i].and(b.containers[j]);
+        if (container.cardinality() > 0) {
+          result.append(a.keys[i], container);
+        }
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The cardinality of the intersection, without building it.
+   */
+  public static int andCardinality(RoaringBitmap a, RoaringBitmap b) {
+    int cardinality = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.size && j < b.size) {
+      if (a.keys[i] < b.keys[j]) {
+        i++;
+      } else if (a.keys[i] > b.keys[j]) {
+        j++;
+      } else {
+        cardinality += a.containers[i].andCardinality(b.containers[j]);
+        i++;
+        j++;
+      }
+    }
+    return cardinality;
+  }
+
+  public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+    RoaringBitmap result = new RoaringBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < a.size || j < b.size) {
+      if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+        result.append(a.keys[i], a.containers[i].copy());
+        i++;
+      } else if (i == a.size || a.keys[i] > b.keys[j]) {
+        result.append(b.keys[j], b.containers[j].copy());
+        j++;
+      } else {
+        result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+    RoaringBitmap result = new RoaringBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < a.size) {
+      if (j == b.size || a.keys[i] < b.keys[j]) {
+        result.append(a.keys[i], a.containers[i].copy());
+        i++;
+      } else if (a.keys[i] > b.keys[j]) {
+        j++;
+      } else {
+        Container container = a.containers[i].andNot(b.containers[j]);
+        if (container.cardinality() > 0) {
+          result.append(a.keys[i], container);
+        }
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return a bitmap holding every value from 0 (inclusive) to end (exclusive)
+   */
+  public static RoaringBitmap range(int end) {
+    RoaringBitmap result = new RoaringBitmap();
+    for (int start = 0; start < end; start += 1 << 16) {
+      int count = Math.min(1 << 16, end - start);
+      Container container;
+      if (count <= ARRAY_MAX) {
+        ArrayContainer array = new ArrayContainer(count);
+        for (int low = 0; low < count; low++) {
+          array.values[low] = (char) low;
+        }
+        array.cardinality = count;
+        container = array;
+      } else {
+        BitmapContainer bitmap = new BitmapContainer();
+        for (int low = 0; low < count; low++) {
+          bitmap.words[low >>> 6] |= 1L << low;
+        }
+        bitmap.cardinality = count;
+        container = bitmap;
+      }
+      result.append((char) (start >>> 16), container);
+    }
+    return result;
+  }
+
+  public RoaringBitmap copy() {
+    RoaringBitmap copy = new RoaringBitmap();
+    copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+    copy.containers = new Container[copy.keys.length];
+    for (int i = 0; i < size; i++) {
+      copy.containers[i] = containers[i].copy();
+    }
+    copy.size = size;
+    return copy;
+  }
+
+  /**
+   * Writes the bitmap in a compact form readable by {@link #read(DataInput)}.
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeChar(keys[i]);
+      containers[i].write(out);
+    }
+  }
+
+  public static RoaringBitmap read(DataInput in) throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      char key = in.readChar();
+      bitmap.append(key, Container.read(in));
+    }
+    return bitmap;
+  }
+
+  private static void checkValue(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative value " + value);
+    }
+  }
+
+  private int indexOf(char key) {
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  private void insert(int index, char key, Container container) {
+    ensureCapacity();
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(containers, index, containers, index + 1, size - index);
+    keys[index] = key;
+    containers[index] = container;
+    size++;
+  }
+
+  private void delete(int index) {
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+    containers[--size] = null;
+  }
+
+  // keys must be appended in ascending order
+  private void append(char key, Container container) {
+    ensureCapacity();
+    keys[size] = key;
+    containers[size] = container;
+    size++;
+  }
+
+  private void ensureCapacity() {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      containers = Arrays.copyOf(containers, size * 2);
+    }
+  }
+
+  private abstract static class Container {
+    abstract Container add(char value);
+
+    abstract Container remove(char value);
+
+    abstract boolean contains(char value);
+
+    abstract int cardinality();
+
+    abstract Container and(Container other);
+
+    abstract int andCardinality(Container other);
+
+    abstract Container or(Container other);
+
+    abstract Container andNot(Container other);
+
+    abstract Container copy();
+
+    abstract void forEach(int high, IntConsumer consumer);
+
+    abstract void write(DataOutput out) throws IOException;
+
+    static Container read(DataInput in) throws IOException {
+      int cardinality = in.readChar() + 1;
+      if (cardinality <= ARRAY_MAX) {
+        ArrayContainer array = new ArrayContainer(cardinality);
+        for (int i = 0; i < cardinality; i++) {
+          array.values[i] = in.readChar();
+        }
+        array.cardinality = cardinality;
+        return array;
+      }
+      BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        bitmap.words[i] = in.readLong();
+      }
+      bitmap.cardinality = cardinality;
+      return bitmap;
+    }
+  }
+
+  private static final class ArrayContainer extends Container {
+    char[] values;
+    int cardinality;
+
+    ArrayContainer() {
+      this(4);
+    }
+
+    ArrayContainer(int capacity) {
+      values = new char[Math.max(1, capacity)];
+    }
+
+    @Override
+    Container add(char value) {
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        return this;
+      }
+      if (cardinality >= ARRAY_MAX) {
+        return toBitmap().add(value);
+      }
+      index = -index - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+      }
+      System.arraycopy(values, index, values, index + 1, cardinality - index);
+      values[index] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    Container and(Container other) {
+      ArrayContainer result = new ArrayContainer(cardinality);
+      if (other instanceof ArrayContainer) {
+        ArrayContainer array = (ArrayContainer) other;
+        int i = 0;
+        int j = 0;
+        while (i < cardinality && j < array.cardinality) {
+          if (values[i] < array.values[j]) {
+            i++;
+          } else if (values[i] > array.values[j]) {
+            j++;
+          } else {
+            result.values[result.cardinality++] = values[i];
+            i++;
+            j++;
+          }
+        }
+      } else {
+        for (int i = 0; i < cardinality; i++) {
+          if (other.contains(values[i])) {
+            result.values[result.cardinality++] = values[i];
+          }
+        }
+      }
+      return result;
+    }
+
+    @Override
+    int andCardinality(Container other) {
+      int count = 0;
+      if (other instanceof ArrayContainer) {
+        ArrayContainer array = (ArrayContainer) other;
+        int i = 0;
+        int j = 0;
+        while (i < cardinality && j < array.cardinality) {
+          if (values[i] < array.values[j]) {
+            i++;
+          } else if (values[i] > array.values[j]) {
+            j++;
+          } else {
+            count++;
+            i++;
+            j++;
+          }
+        }
+      } else {
+        for (int i = 0; i < cardinality; i++) {
+          if (other.contains(values[i])) {
+            count++;
+          }
+        }
+      }
+      return count;
+    }
+
+    @Override
+    Container or(Container other) {
+      if (other instanceof BitmapContainer) {
+        return other.or(this);
+      }
+      ArrayContainer array = (ArrayContainer) other;
+      if (cardinality + array.cardinality > ARRAY_MAX) {
+        BitmapContainer bitmap = toBitmap();
+        for (int j = 0; j < array.cardinality; j++) {
+          bitmap.set(array.values[j]);
+        }
+        return bitmap.cardinality <= ARRAY_MAX ? bitmap.toArray() : bitmap;
+      }
+      ArrayContainer result = new ArrayContainer(cardinality + array.cardinality);
+      int i = 0;
+      int j = 0;
+      while (i < cardinality || j < array.cardinality) {
+        if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+          result.values[result.cardinality++] = values[i++];
+        } else if (i == cardinality || values[i] > array.values[j]) {
+          result.values[result.cardinality++] = array.values[j++];
+        } else {
+          result.values[result.cardinality++] = values[i];
+          i++;
+          j++;
+        }
+      }
+      return result;
+    }
+
+    @Override
+    Container andNot(Container other) {
+      ArrayContainer result = new ArrayContainer(cardinality);
+      for (int i = 0; i < cardinality; i++) {
+        if (!other.contains(values[i])) {
+          result.values[result.cardinality++] = values[i];
+        }
+      }
+      return result;
+    }
+
+    @Override
+    Container copy() {
+      ArrayContainer copy = new ArrayContainer(cardinality);
+      System.arraycopy(values, 0, copy.values, 0, cardinality);
+      copy.cardinality = cardinality;
+      return copy;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer consumer) {
+      for (int i = 0; i < cardinality; i++) {
+        consumer.accept(high | values[i]);
+      }
+    }
+
+    @Override
+    void write(DataOutput out) throws IOException {
+      // cardinality - 1 fits in a char because a container is never empty
+      out.writeChar(cardinality - 1);
+      for (int i = 0; i < cardinality; i++) {
+        out.writeChar(values[i]);
+      }
+    }
+
+    BitmapContainer toBitmap() {
+      BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < cardinality; i++) {
+        bitmap.set(values[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  private static final class BitmapContainer extends Container {
+    final long[] words = new long[BITMAP_WORDS];
+    int cardinality;
+
+    void set(char value) {
+      long before = words[value >>> 6];
+      long after = before | (1L << value);
+      if (before != after) {
+        words[value >>> 6] = after;
+        cardinality++;
+      }
+    }
+
+    @Override
+    Container add(char value) {
+      set(value);
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      long before = words[value >>> 6];
+      long after = before & ~(1L << value);
+      if (before != after) {
+        words[value >>> 6] = after;
+        cardinality--;
+      }
+      return cardinality <= ARRAY_MAX ? toArray() : this;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    Container and(Container other) {
+      if (other instanceof ArrayContainer) {
+        return other.and(this);
+      }
+      BitmapContainer bitmap = (BitmapContainer) other;
+      BitmapContainer result = new BitmapContainer();
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        result.words[i] = words[i] & bitmap.words[i];
+        result.cardinality += Long.bitCount(result.words[i]);
+      }
+      return result.cardinality <= ARRAY_MAX ? result.toArray() : result;
+    }
+
+    @Override
+    int andCardinality(Container other) {
+      if (other instanceof ArrayContainer) {
+        return other.andCardinality(this);
+      }
+      BitmapContainer bitmap = (BitmapContainer) other;
+      int count = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        count += Long.bitCount(words[i] & bitmap.words[i]);
+      }
+      return count;
+    }
+
+    @Override
+    Container or(Container other) {
+      BitmapContainer result = (BitmapContainer) copy();
+      if (other instanceof ArrayContainer) {
+        ArrayContainer array = (ArrayContainer) other;
+        for (int i = 0; i < array.cardinality; i++) {
+          result.set(array.values[i]);
+        }
+        return result;
+      }
+      BitmapContainer bitmap = (BitmapContainer) other;
+      result.cardinality = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        result.words[i] |= bitmap.words[i];
+        result.cardinality += Long.bitCount(result.words[i]);
+      }
+      return result;
+    }
+
+    @Override
+    Container andNot(Container other) {
+      BitmapContainer result = (BitmapContainer) copy();
+      if (other instanceof ArrayContainer) {
+        ArrayContainer array = (ArrayContainer) other;
+        for (int i = 0; i < array.cardinality; i++) {
+          char value = array.values[i];
+          long before = result.words[value >>> 6];
+          long after = before & ~(1L << value);
+          if (before != after) {
+            result.words[value >>> 6] = after;
+            result.cardinality--;
+          }
+        }
+      } else {
+        BitmapContainer bitmap = (BitmapContainer) other;
+        result.cardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+          result.words[i] &= ~bitmap.words[i];
+          result.cardinality += Long.bitCount(result.words[i]);
+        }
+      }
+      return result.cardinality <= ARRAY_MAX ? result.toArray() : result;
+    }
+
+    @Override
+    Container copy() {
+      BitmapContainer copy = new BitmapContainer();
+      System.arraycopy(words, 0, copy.words, 0, BITMAP_WORDS);
+      copy.cardinality = cardinality;
+      return copy;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer consumer) {
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        long word = words[i];
+        while (word != 0) {
+          consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+    }
+
+    @Override
+    void write(DataOutput out) throws IOException {
+      out.writeChar(cardinality - 1);
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        out.writeLong(words[i]);
+      }
+    }
+
+    ArrayContainer toArray() {
+      ArrayContainer array = new ArrayContainer(cardinality);
+      forEach(0, value -> array.values[array.cardinality++] = (char) value);
+      return array;
+    }
+  }
+}
@@ -0,0 +1,581 @@
+package edu.oswego.cs.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import edu.oswego.cs.rest.JsonClasses.SimilarMovie;
+
+/**
+ * Item-to-item "people who rated this highly also liked" recommendations from the
+ * <code>userAssociatedRatings</code> collection.
+ *
+ * <p>Each user's ratings of a movie (one per rating category) are averaged into one user x movie
+ * rating. Every movie is a {@link SparseVector} over users and every user a sparse vector over
+ * movies. The similarity of two movies is the adjusted cosine of their rating vectors (ratings
+ * centered on each user's mean), counted only when at least <code>SIMILAR_MOVIES_MIN_CO_RATERS</code>
+ * (default 3) users rated both. A movie's candidates are found through the rows of its raters, so
+ * the work is proportional to the co-ratings and not to the number of movie pairs. The full build
+ * splits the movies over a fork-join pool of <code>SIMILAR_MOVIES_THREADS</code> (default one per
+ * core) threads and keeps the best <code>SIMILAR_MOVIES_K</code> (default 20) neighbours per movie
+ * in a {@link NeighbourTable}.</p>
+ *
+ * <p>Between full builds, {@link #update()} only processes movies with new ratings: those reported
+ * by DatabaseController and those with userAssociatedRatings inserted since the last pass (found by
+ * _id, as ObjectIds grow with their creation time). Their vectors are reloaded, their rows
+ * recomputed and their new scores merged into the rows of the movies they are similar to. User
+ * means and the norms of the other movies are only refreshed by the next full build, see
+ * {@link SimilarMoviesUpdater}.</p>
+ */
+public class SimilarMovies {
+
+  private static final Logger LOGGER = Logger.getLogger(SimilarMovies.class.getName());
+  private static final SimilarMovies INSTANCE = new SimilarMovies();
+
+  static final int K = intFromEnv("SIMILAR_MOVIES_K", 20);
+  static final int MIN_CO_RATERS = intFromEnv("SIMILAR_MOVIES_MIN_CO_RATERS", 3);
+  static final int THREADS = intFromEnv("SIMILAR_MOVIES_THREADS", Runtime.getRuntime().availableProcessors());
+  /** Version key bumped whenever the table changes, for the ETag of the similar movies route. */
+  static final String VERSION = CollectionVersions.localKey("similarMovies");
+
+  /**
+   * The rating matrix in both orientations. Only touched by the thread holding the
+   * SimilarMovies monitor.
+   */
+  private static final class Model {
+    final Map<String, Integer> movieByTitle = new HashMap<>();
+    final Map<String, Integer> userByName = new HashMap<>();
+    SparseVector[] movies = new SparseVector[0];
+    SparseVector[] users = new SparseVector[0];
+    float[] userMeans = new float[0];
+    float[] movieNorms = new float[0];
+    int movieCount;
+    int userCount;
+
+    int userOrdinal(String name) {
+      Integer existing = userByName.get(name);
+      if (existing != null) {
+        return existing;
+      }
+      if (userCount == users.length) {
+        int capacity = Math.max(16, userCount * 2);
+        users = Arrays.copyOf(users, capacity);
+        userMeans = Arrays.copyOf(userMeans, capacity);
+      }
+      users[userCount] = SparseVector.EMPTY;
+      userByName.put(name, userCount);
+      return userCount++;
+    }
+
+    float centered(int user, float rating) {
+      return rating - userMeans[user];
+    }
+
+    float norm(SparseVector movie) {
+      double sum = 0;
+      for (int i = 0; i < movie.size(); i++) {
+        float value = centered(movie.indices[i], movie.values[i]);
+        sum += value * value;
+      }
+      return (float) Math.sqrt(sum);
+    }
+  }
+
+  /**
+   * Movie ids and titles by ordinal, read by request threads.
+   */
+  private static final class Catalog {
+    final Map<ObjectId, Integer> ordinalById = new ConcurrentHashMap<>();
+    volatile ObjectId[] ids = new ObjectId[0];
+    volatile String[] titles = new String[0];
+  }
+
+  /**
+   * Reusable per-thread buffers for computing one movie's similarities.
+   */
+  private static final class Scratch {
+    final float[] dots;
+    final int[] counts;
+    final int[] touched;
+    int touchedCount;
+
+    Scratch(int movieCount) {
+      dots = new float[movieCount];
+      counts = new int[movieCount];
+      touched = new int[movieCount];
+    }
+  }
+
+  private Model model = new Model();
+  private volatile Catalog catalog = new Catalog();
+  private volatile NeighbourTable table = new NeighbourTable(K, 0);
+  private final Set<String> dirtyTitles = ConcurrentHashMap.newKeySet();
+  private ObjectId lastSeenRating;
+  private volatile boolean built;
+
+  public static SimilarMovies getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Called by DatabaseController when ratings of a movie were written, so the next update picks the
+   * movie up.
+   */
+  public void ratingsChanged(String movieTitle) {
+    if (movieTitle != null) {
+      dirtyTitles.add(movieTitle);
+    }
+  }
+
+  /**
+   * @return up to <code>limit</code> movies most similar to the movie, best first; empty if the
+   *         movie has no neighbours yet, null if the id is not an ObjectId
+   */
+  public List<SimilarMovie> similarTo(String movieIdHexString, int limit) {
+    if (!ObjectId.isValid(movieIdHexString)) {
+      return null;
+    }
+    Catalog current = catalog;
+    Integer ordinal = current.ordinalById.get(new ObjectId(movieIdHexString));
+    List<SimilarMovie> similar = new ArrayList<>();
+    if (ordinal == null) {
+      return similar;
+    }
+    int[] neighbours = new int[K];
+    float[] scores = new float[K];
+    int n = table.read(ordinal, limit, neighbours, scores);
+    ObjectId[] ids = current.ids;
+    String[] titles = current.titles;
+    for (int i = 0; i < n; i++) {
+      int neighbour = neighbours[i];
+      if (neighbour < ids.length && ids[neighbour] != null) {
+        similar.add(new SimilarMovie(ids[neighbour].toHexString(), titles[neighbour], scores[i]));
+      }
+    }
+    return similar;
+  }
+
+  public boolean isBuilt() {
+    return built;
+  }
+
+  /**
+   * Rebuilds the matrix and every movie's neighbours from Mongo and swaps them in.
+   */
+  public synchronized void build() {
+    long started = System.nanoTime();
+    DatabaseController db = new DatabaseController();
+    // anything written from here on is applied by the next update
+    dirtyTitles.clear();
+    Document newest = db.getUserAssociatedRatingCollection().find()
+        .projection(Projections.include("_id")).sort(Sorts.descending("_id")).first();
+    ObjectId seenUpTo = newest == null ? null : newest.getObjectId("_id");
+
+    Model newModel = new Model();
+    Catalog newCatalog = new Catalog();
+    List<ObjectId> ids = new ArrayList<>();
+    List<String> titles = new ArrayList<>();
+    for (Document movie : db.getMovieCollection().find().projection(Projections.include("title"))) {
+      String title = movie.getString("title");
+      if (title != null && !newModel.movieByTitle.containsKey(title)) {
+        newModel.movieByTitle.put(title, ids.size());
+        newCatalog.ordinalById.put(movie.getObjectId("_id"), ids.size());
+        ids.add(movie.getObjectId("_id"));
+        titles.add(title);
+      }
+    }
+    newCatalog.ids = ids.toArray(new ObjectId[0]);
+    newCatalog.titles = titles.toArray(new String[0]);
+    newModel.movieCount = ids.size();
+
+    Triples ratings = new Triples();
+    for (Document rating : db.getUserAssociatedRatingCollection().aggregate(userMovieRatings(null)).allowDiskUse(true)) {
+      Document key = rating.get("_id", Document.class);
+      Integer movie = newModel.movieByTitle.get(key.getString("m"));
+      Number value = (Number) rating.get("r");
+      if (movie != null && value != null && key.getString("u") != null) {
+        ratings.add(newModel.userOrdinal(key.getString("u")), movie, value.floatValue());
+      }
+    }
+    fillVectors(newModel, ratings);
+
+    NeighbourTable newTable = new NeighbourTable(K, newModel.movieCount);
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, THREADS));
+    try {
+      int leafSize = Math.max(64, newModel.movieCount / (Math.max(1, THREADS) * 8));
+      pool.invoke(new RowTask(newModel, newTable, 0, newModel.movieCount, leafSize));
+    } finally {
+      pool.shutdown();
+    }
+
+    model = newModel;
+    catalog = newCatalog;
+    table = newTable;
+    lastSeenRating = seenUpTo;
+    built = true;
+    CollectionVersions.bump(VERSION);
+    LOGGER.info(() -> "Built similar movies for " + newModel.movieCount + " movies and " + newModel.userCount
+        + " users from " + ratings.size + " ratings in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+  }
+
+  /**
+   * Recomputes the neighbours of the movies with new ratings since the last build or update.
+   * @return how many movies were updated
+   */
+  public synchronized int update() {
+    if (!built) {
+      return 0;
+    }
+    DatabaseController db = new DatabaseController();
+    Set<String> titles = new HashSet<>();
+    Bson newer = lastSeenRating == null ? new Document() : Filters.gt("_id", lastSeenRating);
+    for (Document rating : db.getUserAssociatedRatingCollection().find(newer)
+        .projection(Projections.include("movieTitle")).sort(Sorts.ascending("_id"))) {
+      lastSeenRating = rating.getObjectId("_id");
+      if (rating.getString("movieTitle") != null) {
+        titles.add(rating.getString("movieTitle"));
+      }
+    }
+    for (String title : dirtyTitles) {
+      dirtyTitles.remove(title);
+      titles.add(title);
+    }
+    if (titles.isEmpty()) {
+      return 0;
+    }
+    addMovies(db, titles);
+
+    // reload the ratings of the changed movies and patch the user rows
+    Map<Integer, Triples> reloaded = new HashMap<>();
+    for (String title : titles) {
+      Integer movie = model.movieByTitle.get(title);
+      if (movie != null) {
+        reloaded.put(movie, new Triples());
+      }
+    }
+    for (Document rating : db.getUserAssociatedRatingCollection()
+        .aggregate(userMovieRatings(Filters.in("movieTitle", titles)))) {
+      Document key = rating.get("_id", Document.class);
+      Integer movie = model.movieByTitle.get(key.getString("m"));
+      Number value = (Number) rating.get("r");
+      if (movie != null && value != null && key.getString("u") != null) {
+        reloaded.get(movie).add(model.userOrdinal(key.getString("u")), movie, value.floatValue());
+      }
+    }
+    Set<Integer> touchedUsers = new HashSet<>();
+    for (Map.Entry<Integer, Triples> entry : reloaded.entrySet()) {
+      int movie = entry.getKey();
+      Triples movieRatings = entry.getValue();
+      SparseVector before = model.movies[movie];
+      SparseVector after = SparseVector.of(movieRatings.users, movieRatings.ratings, movieRatings.size);
+      for (int user : before.indices) {
+        if (after.find(user) < 0) {
+          model.users[user] = model.users[user].without(movie);
+          touchedUsers.add(user);
+        }
+      }
+      for (int i = 0; i < after.size(); i++) {
+        model.users[after.indices[i]] = model.users[after.indices[i]].with(movie, after.values[i]);
+        touchedUsers.add(after.indices[i]);
+      }
+      model.movies[movie] = after;
+    }
+    for (int user : touchedUsers) {
+      model.userMeans[user] = model.users[user].mean();
+    }
+    for (int movie : reloaded.keySet()) {
+      model.movieNorms[movie] = model.norm(model.movies[movie]);
+    }
+
+    NeighbourTable current = table;
+    Scratch scratch = new Scratch(model.movieCount);
+    NeighbourTable.TopK top = new NeighbourTable.TopK(K);
+    int[] rowNeighbours = new int[K + 1];
+    float[] rowScores = new float[K + 1];
+    for (int movie : reloaded.keySet()) {
+      top.clear();
+      accumulate(model, movie, scratch);
+      for (int t = 0; t < scratch.touchedCount; t++) {
+        int other = scratch.touched[t];
+        float score = score(model, movie, other, scratch);
+        if (score > 0) {
+          top.offer(other, score);
+        }
+        if (!reloaded.containsKey(other)) {
+          // similarity is symmetric, so the other movie's row may change too
+          mergeInto(current, other, movie, score, rowNeighbours, rowScores);
+        }
+        scratch.dots[other] = 0;
+        scratch.counts[other] = 0;
+      }
+      current.write(movie, top.neighbours, top.scores, top.size);
+    }
+    CollectionVersions.bump(VERSION);
+    return reloaded.size();
+  }
+
+  // gives new titles an ordinal and a catalog entry, if they are movies
+  private void addMovies(DatabaseController db, Set<String> titles) {
+    List<String> unknown = new ArrayList<>();
+    for (String title : titles) {
+      if (!model.movieByTitle.containsKey(title)) {
+        unknown.add(title);
+      }
+    }
+    if (unknown.isEmpty()) {
+      return;
+    }
+    Catalog current = catalog;
+    ObjectId[] ids = current.ids;
+    String[] names = current.titles;
+    for (Document movie : db.getMovieCollection().find(Filters.in("title", unknown)).projection(Projections.include("title"))) {
+      String title = movie.getString("title");
+      if (model.movieByTitle.containsKey(title)) {
+        continue;
+      }
+      int ordinal = model.movieCount++;
+      if (ordinal >= model.movies.length) {
+        int capacity = Math.max(16, ordinal * 2);
+        model.movies = Arrays.copyOf(model.movies, capacity);
+        model.movieNorms = Arrays.copyOf(model.movieNorms, capacity);
+      }
+      model.movies[ordinal] = SparseVector.EMPTY;
+      model.movieByTitle.put(title, ordinal);
+      if (ordinal >= ids.length) {
+        ids = Arrays.copyOf(ids, Math.max(16, ordinal * 2));
+        names = Arrays.copyOf(names, ids.length);
+      }
+      ids[ordinal] = movie.getObjectId("_id");
+      names[ordinal] = title;
+      current.ids = ids;
+      current.titles = names;
+      current.ordinalById.put(movie.getObjectId("_id"), ordinal);
+    }
+  }
+
+  // replaces the movie's entry in the other movie's row with the new score
+  private static void mergeInto(NeighbourTable table, int row, int movie, float score, int[] neighbours, float[] scores) {
+    int n = table.read(row, table.k, neighbours, scores);
+    int kept = 0;
+    for (int i = 0; i < n; i++) {
+      if (neighbours[i] != movie) {
+        neighbours[kept] = neighbours[i];
+        scores[kept] = scores[i];
+        kept++;
+      }
+    }
+    boolean qualifies = score > 0 && (kept < table.k || score > scores[kept - 1]);
+    if (!qualifies && kept == n) {
+      return;
+    }
+    if (qualifies) {
+      int at = Math.min(kept, table.k - 1);
+      while (at > 0 && scores[at - 1] < score) {
+        neighbours[at] = neighbours[at - 1];
+        scores[at] = scores[at - 1];
+        at--;
+      }
+      neighbours[at] = movie;
+      scores[at] = score;
+      kept = Math.min(kept + 1, table.k);
+    }
+    table.write(row, neighbours, scores, kept);
+  }
+
+  /**
+   * Adds up, for every movie sharing a rater with the given one, the products of their centered
+   * ratings and the number of shared raters, and records which movies were touched.
+   */
+  private static void accumulate(Model model, int movie, Scratch scratch) {
+    scratch.touchedCount = 0;
+    SparseVector raters = model.movies[movie];
+    for (int i = 0; i < raters.size(); i++) {
+      int user = raters.indices[i];
+      float mine = model.centered(user, raters.values[i]);
+      SparseVector rated = model.users[user];
+      float mean = model.userMeans[user];
+      for (int j = 0; j < rated.size(); j++) {
+        int other = rated.indices[j];
+        if (other == movie) {
+          continue;
+        }
+        if (scratch.counts[other] == 0) {
+          scratch.touched[scratch.touchedCount++] = other;
+        }
+        scratch.counts[other]++;
+        scratch.dots[other] += mine * (rated.values[j] - mean);
+      }
+    }
+  }
+
+  private static float score(Model model, int movie, int other, Scratch scratch) {
+    if (scratch.counts[other] < MIN_CO_RATERS) {
+      return 0;
+    }
+    float norms = model.movieNorms[movie] * model.movieNorms[other];
+    return norms == 0 ? 0 : scratch.dots[other] / norms;
+  }
+
+  /**
+   * Computes the neighbour rows of a range of movies, splitting it in halves down to leafSize.
+   */
+  private static final class RowTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Model model;
+    private final NeighbourTable table;
+    private final int from;
+    private final int to;
+    private final int leafSize;
+
+    RowTask(Model model, NeighbourTable table, int from, int to, int leafSize) {
+      this.model = model;
+      this.table = table;
+      this.from = from;
+      this.to = to;
+      this.leafSize = leafSize;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > leafSize) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new RowTask(model, table, from, middle, leafSize), new RowTask(model, table, middle, to, leafSize));
+        return;
+      }
+      Scratch scratch = new Scratch(model.movieCount);
+      NeighbourTable.TopK top = new NeighbourTable.TopK(table.k);
+      for (int movie = from; movie < to; movie++) {
+        top.clear();
+        accumulate(model, movie, scratch);
+        for (int t = 0; t < scratch.touchedCount; t++) {
+          int other = scratch.touched[t];
+          float score = score(model, movie, other, scratch);
+          if (score > 0) {
+            top.offer(other, score);
+          }
+          scratch.dots[other] = 0;
+          scratch.counts[other] = 0;
+        }
+        // rows do not overlap and the table is published after the pool finishes
+        table.writeUnpublished(movie, top);
+      }
+    }
+  }
+
+  /**
+   * Builds both orientations of the matrix from (user, movie, rating) triples with two counting
+   * sorts, so every row comes out sorted by index.
+   */
+  private static void fillVectors(Model model, Triples ratings) {
+    int size = ratings.size;
+    int[] userStart = new int[model.userCount + 1];
+    int[] movieStart = new int[model.movieCount + 1];
+    for (int i = 0; i < size; i++) {
+      userStart[ratings.users[i] + 1]++;
+      movieStart[ratings.movies[i] + 1]++;
+    }
+    for (int i = 0; i < model.userCount; i++) {
+      userStart[i + 1] += userStart[i];
+    }
+    for (int i = 0; i < model.movieCount; i++) {
+      movieStart[i + 1] += movieStart[i];
+    }
+    int[] byUser = new int[size];
+    int[] userFill = Arrays.copyOf(userStart, model.userCount);
+    for (int i = 0; i < size; i++) {
+      byUser[userFill[ratings.users[i]]++] = i;
+    }
+    // walking the triples in user order leaves every movie row sorted by user
+    int[] movieUsers = new int[size];
+    float[] movieRatings = new float[size];
+    int[] movieFill = Arrays.copyOf(movieStart, model.movieCount);
+    for (int i : byUser) {
+      int at = movieFill[ratings.movies[i]]++;
+      movieUsers[at] = ratings.users[i];
+      movieRatings[at] = ratings.ratings[i];
+    }
+    // and walking the movie rows in order leaves every user row sorted by movie
+    int[] userMovies = new int[size];
+    float[] userRatings = new float[size];
+    userFill = Arrays.copyOf(userStart, model.userCount);
+    for (int movie = 0; movie < model.movieCount; movie++) {
+      for (int at = movieStart[movie]; at < movieStart[movie + 1]; at++) {
+        int to = userFill[movieUsers[at]]++;
+        userMovies[to] = movie;
+        userRatings[to] = movieRatings[at];
+      }
+    }
+
+    model.users = new SparseVector[Math.max(16, model.userCount)];
+    model.userMeans = new float[model.users.length];
+    for (int user = 0; user < model.userCount; user++) {
+      model.users[user] = new SparseVector(Arrays.copyOfRange(userMovies, userStart[user], userStart[user + 1]),
+          Arrays.copyOfRange(userRatings, userStart[user], userStart[user + 1]));
+      model.userMeans[user] = model.users[user].mean();
+    }
+    model.movies = new SparseVector[Math.max(16, model.movieCount)];
+    model.movieNorms = new float[model.movies.length];
+    for (int movie = 0; movie < model.movieCount; movie++) {
+      model.movies[movie] = new SparseVector(Arrays.copyOfRange(movieUsers, movieStart[movie], movieStart[movie + 1]),
+          Arrays.copyOfRange(movieRatings, movieStart[movie], movieStart[movie + 1]));
+      model.movieNorms[movie] = model.norm(model.movies[movie]);
+    }
+  }
+
+  // one averaged rating per user and movie, over all of the user's rating categories
+  private static List<Bson> userMovieRatings(Bson match) {
+    List<Bson> pipeline = new ArrayList<>();
+    if (match != null) {
+      pipeline.add(Aggregates.match(match));
+    }
+    pipeline.add(new Document("$group", new Document("_id", new Document("u", "$userName").append("m", "$movieTitle"))
+        .append("r", new Document("$avg", new Document("$convert", new Document("input", "$userRating")
+            .append("to", "double").append("onError", null).append("onNull", null))))));
+    return pipeline;
+  }
+
+  /**
+   * Growable parallel arrays of (user, movie, rating).
+   */
+  private static final class Triples {
+    int[] users = new int[1024];
+    int[] movies = new int[1024];
+    float[] ratings = new float[1024];
+    int size;
+
+    void add(int user, int movie, float rating) {
+      if (size == users.length) {
+        users = Arrays.copyOf(users, size * 2);
+        movies = Arrays.copyOf(movies, size * 2);
+        ratings = Arrays.copyOf(ratings, size * 2);
+      }
+      users[size] = user;
+      movies[size] = movie;
+      ratings[size] = rating;
+      size++;
+    }
+  }
+
+  private static int intFromEnv(String name, int fallback) {
+    String value = System.getenv(name);
+    return value == null || value.isBlank() ? fallback : Integer.parseInt(value.trim());
+  }
+}
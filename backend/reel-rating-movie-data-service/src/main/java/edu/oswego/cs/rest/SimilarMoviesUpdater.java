@@ -0,0 +1,70 @@
+package edu.oswego.cs.rest;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Keeps {@link SimilarMovies} current: a full build at startup and every
+ * <code>SIMILAR_MOVIES_REBUILD_MINUTES</code> (default 360, 0 turns it off), and an incremental
+ * update of the movies with new ratings every <code>SIMILAR_MOVIES_UPDATE_SECONDS</code> (default
+ * 60, 0 turns it off). Both run on the same thread, so they never overlap.
+ */
+@ApplicationScoped
+public class SimilarMoviesUpdater {
+
+  private static final Logger LOGGER = Logger.getLogger(SimilarMoviesUpdater.class.getName());
+  private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "similar-movies");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    long rebuildMinutes = longFromEnv("SIMILAR_MOVIES_REBUILD_MINUTES", 360);
+    long updateSeconds = longFromEnv("SIMILAR_MOVIES_UPDATE_SECONDS", 60);
+    SCHEDULER.execute(SimilarMoviesUpdater::build);
+    if (rebuildMinutes > 0) {
+      SCHEDULER.scheduleWithFixedDelay(SimilarMoviesUpdater::build, rebuildMinutes, rebuildMinutes, TimeUnit.MINUTES);
+    }
+    if (updateSeconds > 0) {
+      SCHEDULER.scheduleWithFixedDelay(SimilarMoviesUpdater::update, updateSeconds, updateSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  private static void build() {
+    try {
+      SimilarMovies.getInstance().build();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not build the similar movies", e);
+    }
+  }
+
+  private static void update() {
+    try {
+      SimilarMovies instance = SimilarMovies.getInstance();
+      if (!instance.isBuilt()) {
+        // the startup build failed, Mongo may be back now
+        instance.build();
+        return;
+      }
+      int updated = instance.update();
+      if (updated > 0) {
+        LOGGER.fine(() -> "Updated the similar movies of " + updated + " movies");
+      }
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not update the similar movies", e);
+    }
+  }
+
+  private static long longFromEnv(String name, long fallback) {
+    String value = System.getenv(name);
+    return value == null || value.isBlank() ? fallback : Long.parseLong(value.trim());
+  }
+}
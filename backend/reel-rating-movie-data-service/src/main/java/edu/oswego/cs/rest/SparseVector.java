@@ -0,0 +1,112 @@
+package edu.oswego.cs.rest;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse vector of floats over int indices, kept as two parallel primitive arrays
+ * sorted by index, so a movie's ratings cost 8 bytes per rating instead of a boxed map entry.
+ */
+final class SparseVector {
+
+  static final SparseVector EMPTY = new SparseVector(new int[0], new float[0]);
+
+  final int[] indices;
+  final float[] values;
+
+  /**
+   * @param indices strictly increasing; the arrays are kept, not copied
+   */
+  SparseVector(int[] indices, float[] values) {
+    this.indices = indices;
+    this.values = values;
+  }
+
+  /**
+   * Builds a vector from unsorted entries; a later duplicate index replaces an earlier one.
+   */
+  static SparseVector of(int[] indices, float[] values, int size) {
+    long[] packed = new long[size];
+    for (int i = 0; i < size; i++) {
+      // index in the high bits, entry position in the low bits, so the sort keeps entry order
+      packed[i] = ((long) indices[i] << 32) | i;
+    }
+    Arrays.sort(packed);
+    int[] sortedIndices = new int[size];
+    float[] sortedValues = new float[size];
+    int n = 0;
+    for (long entry : packed) {
+      int index = (int) (entry >>> 32);
+      float value = values[(int) entry];
+      if (n > 0 && sortedIndices[n - 1] == index) {
+        sortedValues[n - 1] = value;
+      } else {
+        sortedIndices[n] = index;
+        sortedValues[n] = value;
+        n++;
+      }
+    }
+    return n == size ? new SparseVector(sortedIndices, sortedValues)
+        : new SparseVector(Arrays.copyOf(sortedIndices, n), Arrays.copyOf(sortedValues, n));
+  }
+
+  int size() {
+    return indices.length;
+  }
+
+  /**
+   * @return the position of the index, or a negative value as {@link Arrays#binarySearch}
+   */
+  int find(int index) {
+    return Arrays.binarySearch(indices, index);
+  }
+
+  /**
+   * @return a copy with the index set to the value, added if it was not there
+   */
+  SparseVector with(int index, float value) {
+    int at = find(index);
+    if (at >= 0) {
+      float[] newValues = values.clone();
+      newValues[at] = value;
+      return new SparseVector(indices, newValues);
+    }
+    int insert = -at - 1;
+    int[] newIndices = new int[indices.length + 1];
+    float[] newValues = new float[values.length + 1];
+    System.arraycopy(indices, 0, newIndices, 0, insert);
+    System.arraycopy(values, 0, newValues, 0, insert);
+    newIndices[insert] = index;
+    newValues[insert] = value;
+    System.arraycopy(indices, insert, newIndices, insert + 1, indices.length - insert);
+    System.arraycopy(values, insert, newValues, insert + 1, values.length - insert);
+    return new SparseVector(newIndices, newValues);
+  }
+
+  /**
+   * @return a copy without the index, or this vector if it does not have it
+   */
+  SparseVector without(int index) {
+    int at = find(index);
+    if (at < 0) {
+      return this;
+    }
+    int[] newIndices = new int[indices.length - 1];
+    float[] newValues = new float[values.length - 1];
+    System.arraycopy(indices, 0, newIndices, 0, at);
+    System.arraycopy(values, 0, newValues, 0, at);
+    System.arraycopy(indices, at + 1, newIndices, at, indices.length - at - 1);
+    System.arraycopy(values, at + 1, newValues, at, values.length - at - 1);
+    return new SparseVector(newIndices, newValues);
+  }
+
+  float mean() {
+    if (values.length == 0) {
+      return 0;
+    }
+    double sum = 0;
+    for (float value : values) {
+      sum += value;
+    }
+    return (float) (sum / values.length);
+  }
+}
@@ -0,0 +1,194 @@
+package edu.oswego.cs.rest;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Rewrites movie release dates and runtimes and user ratings that are still stored as strings
+ * into dates, integers and decimals, while the service keeps running. Every field is walked in
+ * _id order in batches of <code>MIGRATION_BATCH_SIZE</code> (default 500) with a
+ * <code>MIGRATION_PAUSE_MILLIS</code> (default 50) pause in between, so the job can be stopped
+ * and run again at any time and only picks up what is left. Values that cannot be parsed are
+ * left alone and counted. Readers accept both forms, see {@link TypedFields}.
+ *
+ * <p>Runs on request through {@link MigrationAdminService}, or at startup when
+ * <code>MIGRATE_TYPED_FIELDS</code> is true. Only one run at a time.</p>
+ */
+@ApplicationScoped
+public class TypedFieldMigration {
+
+  private static final Logger LOGGER = Logger.getLogger(TypedFieldMigration.class.getName());
+  private static final int BATCH_SIZE = intFromEnv("MIGRATION_BATCH_SIZE", 500);
+  private static final int PAUSE_MILLIS = intFromEnv("MIGRATION_PAUSE_MILLIS", 50);
+  private static final AtomicBoolean RUNNING = new AtomicBoolean();
+  private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "typed-field-migration");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final Map<String, FieldProgress> PROGRESS = new LinkedHashMap<>();
+  private static volatile String state = "idle";
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    if ("true".equalsIgnoreCase(System.getenv("MIGRATE_TYPED_FIELDS"))) {
+      runInBackground();
+    }
+  }
+
+  /**
+   * @return false if the migration is already running
+   */
+  public static boolean runInBackground() {
+    if (RUNNING.get()) {
+      return false;
+    }
+    EXECUTOR.execute(TypedFieldMigration::run);
+    return true;
+  }
+
+  /**
+   * The state (idle, running, done or failed) and, per collection and field, how many documents
+   * were converted and how many were skipped because their value could not be parsed.
+   */
+  public static Map<String, Object> status() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", state);
+    synchronized (PROGRESS) {
+      for (Map.Entry<String, FieldProgress> entry : PROGRESS.entrySet()) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("converted", entry.getValue().converted.get());
+        counts.put("skipped", entry.getValue().skipped.get());
+        status.put(entry.getKey(), counts);
+      }
+    }
+    return status;
+  }
+
+  private static void run() {
+    if (!RUNNING.compareAndSet(false, true)) {
+      return;
+    }
+    state = "running";
+    synchronized (PROGRESS) {
+      PROGRESS.clear();
+    }
+    long started = System.nanoTime();
+    try {
+      DatabaseController db = new DatabaseController();
+      createRangeIndexes(db);
+      migrate(db.getMovieCollection(), "releaseDate", TypedFieldMigration::toDate);
+      migrate(db.getMovieCollection(), "runtime", TypedFields::parseRuntime);
+      migrate(db.getRatingCollection(), "userRating", TypedFieldMigration::toDecimal128);
+      migrate(db.getUserAssociatedRatingCollection(), "userRating", TypedFieldMigration::toDecimal128);
+      // summaries copy releaseDate and the rating averages
+      MovieSummaryRebuilder.rebuildInBackground();
+      state = "done";
+      LOGGER.info(() -> "Migrated typed fields in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms: " + status());
+    } catch (RuntimeException e) {
+      state = "failed";
+      LOGGER.log(Level.WARNING, "Typed field migration failed", e);
+    } catch (InterruptedException e) {
+      state = "failed";
+      Thread.currentThread().interrupt();
+    } finally {
+      RUNNING.set(false);
+    }
+  }
+
+  private static void createRangeIndexes(DatabaseController db) {
+    db.getMovieCollection().createIndex(Indexes.ascending("releaseDate"));
+    db.getMovieCollection().createIndex(Indexes.ascending("runtime"));
+    db.getRatingCollection().createIndex(Indexes.ascending("ratingName", "userRating"));
+  }
+
+  private static void migrate(MongoCollection<Document> collection, String field, Function<String, Object> convert)
+      throws InterruptedException {
+    FieldProgress progress = new FieldProgress();
+    synchronized (PROGRESS) {
+      PROGRESS.put(collection.getNamespace().getCollectionName() + "." + field, progress);
+    }
+    Bson isString = Filters.type(field, BsonType.STRING);
+    Object lastId = null;
+    while (true) {
+      Bson filter = lastId == null ? isString : Filters.and(isString, Filters.gt("_id", lastId));
+      List<Document> batch = collection.find(filter)
+          .projection(Projections.include(field))
+          .sort(Sorts.ascending("_id"))
+          .limit(BATCH_SIZE)
+          .into(new ArrayList<>());
+      if (batch.isEmpty()) {
+        return;
+      }
+      List<WriteModel<Document>> writes = new ArrayList<>(batch.size());
+      for (Document document : batch) {
+        String raw = document.getString(field);
+        Object converted = convert.apply(raw);
+        if (converted == null) {
+          progress.skipped.incrementAndGet();
+          continue;
+        }
+        // only if nobody rewrote the field since we read it
+        writes.add(new UpdateOneModel<>(
+            Filters.and(Filters.eq("_id", document.get("_id")), Filters.eq(field, raw)),
+            Updates.set(field, converted)));
+      }
+      if (!writes.isEmpty()) {
+        progress.converted.addAndGet(collection.bulkWrite(writes).getModifiedCount());
+      }
+      lastId = batch.get(batch.size() - 1).get("_id");
+      if (PAUSE_MILLIS > 0) {
+        Thread.sleep(PAUSE_MILLIS);
+      }
+    }
+  }
+
+  private static Object toDate(String value) {
+    LocalDate date = TypedFields.parseDate(value);
+    return date == null ? null : TypedFields.toDate(date);
+  }
+
+  private static Object toDecimal128(String value) {
+    BigDecimal rating = TypedFields.parseRating(value);
+    return rating == null ? null : TypedFields.toDecimal128(rating);
+  }
+
+  private static int intFromEnv(String name, int fallback) {
+    String value = System.getenv(name);
+    return value == null || value.isBlank() ? fallback : Integer.parseInt(value.trim());
+  }
+
+  private static class FieldProgress {
+    final AtomicLong converted = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+  }
+}
@@ -0,0 +1,177 @@
+package edu.oswego.cs.rest;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.types.Decimal128;
+
+/**
+ * Conversions between the typed fields of the movie schema and their stored and JSON forms.
+ *
+ * <p><code>releaseDate</code> is stored as a BSON date at midnight UTC, <code>runtime</code> as an
+ * int of minutes and <code>userRating</code> as a Decimal128. Documents written before
+ * {@link TypedFieldMigration} converted them still hold strings, so every reader accepts both forms
+ * and the parsers here are lenient about the formats that were entered by hand.</p>
+ */
+public final class TypedFields {
+
+  private static final List<DateTimeFormatter> DATE_FORMATS = List.of(
+      DateTimeFormatter.ISO_LOCAL_DATE,
+      DateTimeFormatter.ofPattern("M/d/uuuu", Locale.ROOT),
+      DateTimeFormatter.ofPattern("d MMMM uuuu", Locale.ENGLISH),
+      DateTimeFormatter.ofPattern("MMMM d, uuuu", Locale.ENGLISH),
+      DateTimeFormatter.ofPattern("d MMM uuuu", Locale.ENGLISH),
+      DateTimeFormatter.ofPattern("MMM d, uuuu", Locale.ENGLISH));
+  private static final Pattern YEAR = Pattern.compile("(\\d{4})");
+  private static final Pattern YEAR_MONTH = Pattern.compile("(\\d{4})-(\\d{1,2})");
+  private static final Pattern HOURS_MINUTES = Pattern.compile("(?:(\\d+)\\s*h[a-z]*)?\\s*(?:(\\d+)\\s*m[a-z]*)?");
+  private static final Pattern LEADING_NUMBER = Pattern.compile("\\s*(\\d+).*");
+  // date strings that sort like the dates they denote, a year or month taken as its first day
+  static final String ISO_DATE_PATTERN = "^\\d{4}(-\\d{2}(-\\d{2})?)?$";
+
+  private TypedFields() {}
+
+  public static Date toDate(LocalDate date) {
+    return date == null ? null : Date.from(date.atStartOfDay(ZoneOffset.UTC).toInstant());
+  }
+
+  public static Decimal128 toDecimal128(BigDecimal value) {
+    return value == null ? null : new Decimal128(value);
+  }
+
+  /**
+   * @param stored a BSON date or a date string
+   * @return the date, or null if it is missing or cannot be parsed
+   */
+  public static LocalDate dateOf(Object stored) {
+    if (stored instanceof Date) {
+      return ((Date) stored).toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+    }
+    return stored instanceof String ? parseDate((String) stored) : null;
+  }
+
+  /**
+   * @param stored a number of minutes or a string such as "120", "120 min" or "2h 10m"
+   * @return the runtime in minutes, or null if it is missing or cannot be parsed
+   */
+  public static Integer runtimeOf(Object stored) {
+    if (stored instanceof Number) {
+      return ((Number) stored).intValue();
+    }
+    return stored instanceof String ? parseRuntime((String) stored) : null;
+  }
+
+  /**
+   * @param stored a Decimal128, another number or a numeric string
+   * @return the rating, or null if it is missing or not a number
+   */
+  public static BigDecimal ratingOf(Object stored) {
+    if (stored instanceof Decimal128) {
+      return ((Decimal128) stored).bigDecimalValue();
+    }
+    if (stored instanceof Number) {
+      return new BigDecimal(stored.toString());
+    }
+    return stored instanceof String ? parseRating((String) stored) : null;
+  }
+
+  public static LocalDate parseDate(String value) {
+    String trimmed = value.trim();
+    for (DateTimeFormatter format : DATE_FORMATS) {
+      try {
+        return LocalDate.parse(trimmed, format);
+      } catch (DateTimeParseException e) {
+        // try the next format
+      }
+    }
+    Matcher yearMonth = YEAR_MONTH.matcher(trimmed);
+    if (yearMonth.matches()) {
+      int month = Integer.parseInt(yearMonth.group(2));
+      return month >= 1 && month <= 12 ? LocalDate.of(Integer.parseInt(yearMonth.group(1)), month, 1) : null;
+    }
+    Matcher year = YEAR.matcher(trimmed);
+    return year.matches() ? LocalDate.of(Integer.parseInt(year.group(1)), 1, 1) : null;
+  }
+
+  public static Integer parseRuntime(String value) {
+    String trimmed = value.trim().toLowerCase(Locale.ROOT);
+    try {
+      Matcher hoursMinutes = HOURS_MINUTES.matcher(trimmed);
+      if (trimmed.contains("h") && hoursMinutes.matches()) {
+        int hours = hoursMinutes.group(1) == null ? 0 : Integer.parseInt(hoursMinutes.group(1));
+        int minutes = hoursMinutes.group(2) == null ? 0 : Integer.parseInt(hoursMinutes.group(2));
+        return Math.addExact(Math.multiplyExact(hours, 60), minutes);
+      }
+      Matcher number = LEADING_NUMBER.matcher(trimmed);
+      return number.matches() ? Integer.valueOf(number.group(1)) : null;
+    } catch (ArithmeticException | NumberFormatException e) {
+      // more digits than an int holds
+      return null;
+    }
+  }
+
+  public static BigDecimal parseRating(String value) {
+    try {
+      return new BigDecimal(value.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The shortest of "1990", "1990-06" and "1990-06-15" that denotes the date, for comparing with
+   * strings matching {@link #ISO_DATE_PATTERN}.
+   */
+  static String isoPrefix(LocalDate date) {
+    String iso = date.toString();
+    if (date.getDayOfMonth() > 1) {
+      return iso;
+    }
+    return date.getMonthValue() > 1 ? iso.substring(0, 7) : iso.substring(0, 4);
+  }
+
+  /**
+   * The first day covered by a year ("1990"), month ("1990-06") or full date.
+   */
+  public static LocalDate lowerBound(String value) {
+    return parseDate(value);
+  }
+
+  /**
+   * The last day covered by a year ("2000"), month ("2000-06") or full date.
+   */
+  public static LocalDate upperBound(String value) {
+    String trimmed = value.trim();
+    LocalDate start = parseDate(trimmed);
+    if (start == null) {
+      return null;
+    }
+    if (YEAR.matcher(trimmed).matches()) {
+      return start.withDayOfYear(start.lengthOfYear());
+    }
+    if (YEAR_MONTH.matcher(trimmed).matches()) {
+      return start.withDayOfMonth(start.lengthOfMonth());
+    }
+    return start;
+  }
+
+  /**
+   * Aggregation expression rendering releaseDate as yyyy-MM-dd whether it is stored as a date or
+   * still as a string.
+   */
+  static Document releaseDateAsString() {
+    return new Document("$cond", List.of(
+        new Document("$eq", List.of(new Document("$type", "$releaseDate"), "date")),
+        new Document("$dateToString", new Document("date", "$releaseDate").append("format", "%Y-%m-%d")),
+        "$releaseDate"));
+  }
+}
@@ -0,0 +1,24 @@
+package edu.oswego.cs.rest;
+
+/**
+ * Thrown when a conditional update finds that the document's version is no longer the one it was
+ * based on, because another request changed it in the meantime.
+ */
+public class VersionConflictException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Long currentVersion;
+
+  /**
+   * @param currentVersion the version the document has now, or null if it is not known
+   */
+  public VersionConflictException(String message, Long currentVersion) {
+    super(message);
+    this.currentVersion = currentVersion;
+  }
+
+  public Long getCurrentVersion() {
+    return currentVersion;
+  }
+}
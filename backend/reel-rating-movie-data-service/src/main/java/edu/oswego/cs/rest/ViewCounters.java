@@ -0,0 +1,379 @@
+package edu.oswego.cs.rest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+import edu.oswego.cs.rest.JsonClasses.Movie;
+import edu.oswego.cs.rest.JsonClasses.MovieViews;
+
+/**
+ * Movie view counts without a Mongo write per view.
+ *
+ * <p>Views are counted in memory, in a {@link LongAdder} per movie so that the views of a popular
+ * movie do not contend. Every <code>VIEW_FLUSH_SECONDS</code> (default 5, 0 turns counting off)
+ * the counts are added to the <code>movieViews</code> collection
+ * (<code>{_id: movie id, views}</code>) with one unordered bulkWrite of <code>$inc</code> upserts.
+ * At most <code>VIEW_COUNTER_MAX_MOVIES</code> (default 100000) movies are counted between two
+ * flushes; views of further movies are dropped.</p>
+ *
+ * <p>A flush is recorded in <code>movieViewFlushes</code> and claimed by the instance applying it
+ * for <code>VIEW_FLUSH_RECOVER_SECONDS</code> (default 60, by the database clock) before any
+ * movie is updated. Only the holder of an unexpired claim applies a flush, and a flush marked
+ * <code>done</code> is never claimed again, so two instances retrying or recovering the same flush
+ * do not both apply it. Flushes whose claim expired, because their instance crashed or lost the
+ * database, are claimed and finished by any instance.</p>
+ *
+ * <p>Every update also adds the flush id to the movie's <code>pending</code> and only matches
+ * while the id is not there, so a flush that failed, or whose outcome is unknown, is retried
+ * without counting a view twice, even by an instance that took over an expired claim while the
+ * first one was still writing. The ids are pulled from the movies
+ * <code>VIEW_FLUSH_FORGET_SECONDS</code> (default 600) after the flush is done, which assumes no
+ * bulk write stalls that long. Done flushes are kept for a day, so a retry of one is refused. A
+ * crash loses only the views counted since the last flush.</p>
+ *
+ * <p>The <code>VIEW_TOP_SIZE</code> (default 100) most viewed movies are read back from
+ * movieViews after every flush and served from memory.</p>
+ */
+public class ViewCounters {
+
+  private static final Logger LOGGER = Logger.getLogger(ViewCounters.class.getName());
+  private static final ViewCounters INSTANCE = new ViewCounters();
+  private static final int DUPLICATE_KEY = 11000;
+
+  static final int FLUSH_SECONDS = intFromEnv("VIEW_FLUSH_SECONDS", 5);
+  static final int MAX_MOVIES = intFromEnv("VIEW_COUNTER_MAX_MOVIES", 100000);
+  static final int RECOVER_SECONDS = intFromEnv("VIEW_FLUSH_RECOVER_SECONDS", 60);
+  static final int FORGET_SECONDS = intFromEnv("VIEW_FLUSH_FORGET_SECONDS", 600);
+  private static final long KEEP_SECONDS = TimeUnit.DAYS.toSeconds(1);
+  static final int TOP_SIZE = intFromEnv("VIEW_TOP_SIZE", 100);
+  /** Version key bumped whenever the most viewed list changes, for the ETag of its route. */
+  static final String VERSION = CollectionVersions.localKey("mostViewed");
+
+  // claims flushes in movieViewFlushes
+  private final ObjectId owner = new ObjectId();
+  private final Map<ObjectId, Counter> counts = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "view-counters");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final AtomicBoolean started = new AtomicBoolean();
+  // flushes of this instance that failed, retried first; scheduler thread only
+  private final Deque<Document> failed = new ArrayDeque<>();
+  private volatile List<MovieViews> mostViewed = List.of();
+
+  /**
+   * Views of one movie since the last flush. Retired once it is taken out of the map; a view
+   * counted on it after that is moved to its replacement by whoever counted it.
+   */
+  private static final class Counter extends LongAdder {
+    private static final long serialVersionUID = 1L;
+
+    volatile boolean retired;
+  }
+
+  // package-private for tests, which need more than one instance
+  ViewCounters() {}
+
+  public static ViewCounters getInstance() {
+    return INSTANCE;
+  }
+
+  public void start() {
+    if (FLUSH_SECONDS <= 0 || !started.compareAndSet(false, true)) {
+      return;
+    }
+    scheduler.execute(() -> {
+      try {
+        getViewCollection().createIndex(Indexes.descending("views"));
+        getViewCollection().createIndex(Indexes.ascending("pending"));
+        getFlushCollection().createIndex(Indexes.ascending("at"));
+        getFlushCollection().createIndex(Indexes.ascending("doneAt"), new IndexOptions().expireAfter(KEEP_SECONDS, TimeUnit.SECONDS));
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Could not create the movieViews indexes", e);
+      }
+      flushSafely();
+    });
+    scheduler.scheduleWithFixedDelay(this::flushSafely, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stops the periodic flushes and flushes what was counted since the last one.
+   */
+  public void stop() {
+    if (!started.get()) {
+      return;
+    }
+    scheduler.shutdown();
+    try {
+      if (scheduler.awaitTermination(FLUSH_SECONDS, TimeUnit.SECONDS)) {
+        flushSafely();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Counts a view of a movie. Ids that are not ObjectIds are ignored.
+   */
+  public void record(String movieId) {
+    if (!started.get() || movieId == null || !ObjectId.isValid(movieId)) {
+      return;
+    }
+    ObjectId id = new ObjectId(movieId);
+    Counter count = counts.get(id);
+    if (count == null) {
+      if (counts.size() >= MAX_MOVIES) {
+        return;
+      }
+      count = counts.computeIfAbsent(id, key -> new Counter());
+    }
+    count.increment();
+    if (count.retired) {
+      // drain() may have summed it before this view, every view is moved exactly once
+      long late = count.sumThenReset();
+      if (late > 0) {
+        counts.computeIfAbsent(id, key -> new Counter()).add(late);
+      }
+    }
+  }
+
+  /**
+   * @return the most viewed movies, most views first, as of the last flush
+   */
+  public List<MovieViews> mostViewed(int limit) {
+    List<MovieViews> current = mostViewed;
+    return current.subList(0, Math.min(limit, current.size()));
+  }
+
+  private void flushSafely() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not flush the view counts, retrying with the next flush", e);
+    }
+  }
+
+  void flush() {
+    boolean changed = false;
+    while (!failed.isEmpty()) {
+      apply(failed.peek());
+      failed.remove();
+      changed = true;
+    }
+
+    Map<ObjectId, Long> deltas = drain();
+    if (!deltas.isEmpty()) {
+      List<Document> entries = new ArrayList<>(deltas.size());
+      deltas.forEach((id, views) -> entries.add(new Document("m", id).append("n", views)));
+      Document flush = new Document("_id", new ObjectId()).append("deltas", entries);
+      try {
+        apply(flush);
+      } catch (RuntimeException e) {
+        // the claim records the flush, so a retry works whether or not it went through
+        failed.add(flush);
+        throw e;
+      }
+      changed = true;
+    }
+
+    for (Document flush : getFlushCollection().find(Filters.and(Filters.ne("done", true), claimExpired()))
+        .sort(Sorts.ascending("at")).limit(100)) {
+      if (apply(flush)) {
+        changed = true;
+        LOGGER.info(() -> "Applied the abandoned view count flush " + flush.getObjectId("_id"));
+      }
+    }
+    forget();
+
+    if (changed || mostViewed.isEmpty()) {
+      refreshMostViewed();
+    }
+  }
+
+  /**
+   * Takes the counts since the last flush. Movies without views since then are dropped from the
+   * map, so it only holds the movies being viewed.
+   */
+  private Map<ObjectId, Long> drain() {
+    Map<ObjectId, Long> deltas = new HashMap<>();
+    for (Map.Entry<ObjectId, Counter> entry : counts.entrySet()) {
+      Counter count = entry.getValue();
+      long views = count.sumThenReset();
+      if (views > 0) {
+        deltas.put(entry.getKey(), views);
+      } else if (counts.remove(entry.getKey(), count)) {
+        // retired before the last sum, so record() moves whatever this sum misses
+        count.retired = true;
+        long late = count.sumThenReset();
+        if (late > 0) {
+          deltas.put(entry.getKey(), late);
+        }
+      }
+    }
+    return deltas;
+  }
+
+  /**
+   * Claims the flush, applies it at most once per movie and marks it done.
+   * @return false if another instance holds the flush or it is already done
+   */
+  boolean apply(Document flush) {
+    ObjectId flushId = flush.getObjectId("_id");
+    Document claimed = claim(flushId, flush.getList("deltas", Document.class));
+    if (claimed == null) {
+      return false;
+    }
+    increment(flushId, claimed.getList("deltas", Document.class));
+    // matches nothing if the claim expired and was taken over, the new holder finishes it
+    getFlushCollection().updateOne(Filters.and(Filters.eq("_id", flushId), Filters.eq("claimedBy", owner)), List.of(
+        new Document("$set", new Document("done", true).append("doneAt", "$$NOW")),
+        new Document("$unset", List.of("claimedBy", "claimedUntil"))));
+    return true;
+  }
+
+  /**
+   * Records the flush if it is not recorded yet and claims it, unless it is done or another
+   * instance holds an unexpired claim.
+   * @return the recorded flush if this instance holds it now, otherwise null
+   */
+  private Document claim(ObjectId flushId, List<Document> deltas) {
+    Document claimable = new Document("$and", List.of(
+        new Document("$ne", Arrays.asList("$done", true)),
+        new Document("$or", List.of(
+            new Document("$eq", Arrays.asList("$claimedBy", owner)),
+            new Document("$lt", Arrays.asList("$claimedUntil", "$$NOW"))))));
+    Document claim = new Document("claimedBy", new Document("$cond", Arrays.asList(claimable, owner, "$claimedBy")))
+        .append("claimedUntil", new Document("$cond", Arrays.asList(claimable,
+            new Document("$add", Arrays.asList("$$NOW", TimeUnit.SECONDS.toMillis(RECOVER_SECONDS))), "$claimedUntil")))
+        .append("at", new Document("$ifNull", Arrays.asList("$at", "$$NOW")))
+        // only a new record takes the deltas, a forgotten flush has none and keeps it that way
+        .append("deltas", new Document("$cond", Arrays.asList(
+            new Document("$ifNull", Arrays.asList("$at", false)), "$deltas", new Document("$literal", deltas))));
+    Document flush;
+    try {
+      flush = getFlushCollection().findOneAndUpdate(Filters.eq("_id", flushId), List.of(new Document("$set", claim)),
+          new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+    } catch (MongoCommandException e) {
+      // another instance recorded it at the same time
+      if (e.getErrorCode() == DUPLICATE_KEY) {
+        return null;
+      }
+      throw e;
+    }
+    return flush != null && owner.equals(flush.get("claimedBy")) && !flush.getBoolean("done", false) ? flush : null;
+  }
+
+  /**
+   * Pulls the ids of flushes done more than FORGET_SECONDS ago from the movies. The flushes stay,
+   * without their deltas, until the TTL index on doneAt removes them.
+   */
+  private void forget() {
+    Bson forgettable = Filters.and(Filters.eq("done", true), Filters.ne("forgotten", true),
+        Filters.expr(new Document("$lt", Arrays.asList("$doneAt",
+            new Document("$subtract", Arrays.asList("$$NOW", TimeUnit.SECONDS.toMillis(FORGET_SECONDS)))))));
+    for (Document flush : getFlushCollection().find(forgettable).projection(Projections.include("_id")).limit(100)) {
+      ObjectId flushId = flush.getObjectId("_id");
+      getViewCollection().updateMany(Filters.eq("pending", flushId), Updates.pull("pending", flushId));
+      getFlushCollection().updateOne(Filters.eq("_id", flushId),
+          Updates.combine(Updates.set("forgotten", true), Updates.unset("deltas")));
+    }
+  }
+
+  private static Bson claimExpired() {
+    // also matches flushes without a claim, which sort before any date
+    return Filters.expr(new Document("$lt", Arrays.asList("$claimedUntil", "$$NOW")));
+  }
+
+  private void increment(ObjectId flushId, List<Document> deltas) {
+    List<UpdateOneModel<Document>> updates = new ArrayList<>(deltas.size());
+    for (Document delta : deltas) {
+      updates.add(new UpdateOneModel<>(
+          Filters.and(Filters.eq("_id", delta.get("m")), Filters.ne("pending", flushId)),
+          Updates.combine(
+              Updates.inc("views", ((Number) delta.get("n")).longValue()),
+              Updates.addToSet("pending", flushId)),
+          new UpdateOptions().upsert(true)));
+    }
+    try {
+      getViewCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      // a duplicate key means the movie exists but did not match: it already has this flush, or
+      // another instance inserted it at the same time, and then the update has to be retried
+      for (BulkWriteError error : e.getWriteErrors()) {
+        Object movieId = deltas.get(error.getIndex()).get("m");
+        if (error.getCode() != DUPLICATE_KEY
+            || getViewCollection().countDocuments(Filters.and(Filters.eq("_id", movieId), Filters.eq("pending", flushId))) == 0) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private void refreshMostViewed() {
+    List<String> ids = new ArrayList<>();
+    List<Long> views = new ArrayList<>();
+    for (Document document : getViewCollection().find().sort(Sorts.descending("views"))
+        .projection(Projections.include("views")).limit(TOP_SIZE)) {
+      ids.add(document.getObjectId("_id").toHexString());
+      views.add(((Number) document.get("views")).longValue());
+    }
+    List<Movie> movies = ids.isEmpty() ? List.of() : new DatabaseController().getMoviesByIds(ids);
+    List<MovieViews> top = new ArrayList<>(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      // deleted movies keep their counts but are not listed
+      if (movies.get(i) != null) {
+        top.add(new MovieViews(ids.get(i), movies.get(i).getTitle(), views.get(i)));
+      }
+    }
+    mostViewed = List.copyOf(top);
+    CollectionVersions.bump(VERSION);
+  }
+
+  private static MongoCollection<Document> getViewCollection() {
+    return new DatabaseController().getMovieDatabase().getCollection("movieViews");
+  }
+
+  private static MongoCollection<Document> getFlushCollection() {
+    return new DatabaseController().getMovieDatabase().getCollection("movieViewFlushes");
+  }
+
+  private static int intFromEnv(String name, int defaultValue) {
+    String configured = System.getenv(name);
+    return configured == null || configured.isBlank() ? defaultValue : Integer.parseInt(configured.trim());
+  }
+}
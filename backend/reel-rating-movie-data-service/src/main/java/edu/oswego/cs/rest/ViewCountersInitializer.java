@@ -0,0 +1,22 @@
+package edu.oswego.cs.rest;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.BeforeDestroyed;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Starts the periodic {@link ViewCounters} flushes when the application starts, and flushes the
+ * views counted since the last one when it stops.
+ */
+@ApplicationScoped
+public class ViewCountersInitializer {
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    ViewCounters.getInstance().start();
+  }
+
+  public void onShutdown(@Observes @BeforeDestroyed(ApplicationScoped.class) Object event) {
+    ViewCounters.getInstance().stop();
+  }
+}
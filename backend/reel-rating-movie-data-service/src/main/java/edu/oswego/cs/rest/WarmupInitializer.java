@@ -0,0 +1,73 @@
+package edu.oswego.cs.rest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+import org.bson.Document;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+import com.ibm.websphere.security.jwt.JwtConsumer;
+
+/**
+ * Warms up the service when the application starts so the first requests do not pay for it: opens
+ * the Mongo connection pool with a ping and loads the <code>reel_rating_token</code> JWT consumer
+ * configuration.
+ *
+ * <p>Under Liberty InstantOn the checkpoint is taken after the application has started, so the
+ * warm-up ends up in the checkpoint. Open connections cannot be checkpointed, so the Mongo client is
+ * closed just before it and the background jobs wait for the restore at their next query. After a
+ * restore it is created again from the restored environment and pinged in the background while the
+ * first requests come in. A restore also starts a new {@link CollectionVersions} epoch, since every
+ * instance restored from the checkpoint has the same one, and rebuilds the {@link MovieFacetIndex}
+ * and {@link CoStarGraph}, which are as old as the checkpoint.</p>
+ */
+@ApplicationScoped
+public class WarmupInitializer {
+
+  private static final Logger LOGGER = Logger.getLogger(WarmupInitializer.class.getName());
+
+  // the global context only keeps a weak reference to its resources
+  private static final Resource CHECKPOINT_HOOK = new Resource() {
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+      DatabaseController.closeForCheckpoint();
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+      DatabaseController.restored();
+      CollectionVersions.renewEpoch();
+      MovieFacetIndex.getInstance().rebuildInBackground();
+      CoStarGraph.getInstance().rebuildInBackground();
+      Thread warmup = new Thread(WarmupInitializer::pingMongo, "mongo-warmup");
+      warmup.setDaemon(true);
+      warmup.start();
+    }
+  };
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    long started = System.nanoTime();
+    pingMongo();
+    try {
+      JwtConsumer.create("reel_rating_token");
+    } catch (Exception e) {
+      LOGGER.log(Level.WARNING, "Could not load the JWT consumer configuration", e);
+    }
+    Core.getGlobalContext().register(CHECKPOINT_HOOK);
+    LOGGER.info(() -> "Warmed up in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+  }
+
+  private static void pingMongo() {
+    try {
+      new DatabaseController().getMovieDatabase().runCommand(new Document("ping", 1));
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not reach Mongo while warming up, connections are opened by the first requests", e);
+    }
+  }
+}
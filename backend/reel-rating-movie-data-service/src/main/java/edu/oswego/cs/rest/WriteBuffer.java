@@ -0,0 +1,519 @@
+package edu.oswego.cs.rest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+
+/**
+ * Optional write-behind buffer for review and rating submissions.
+ *
+ * <p>With <code>WRITE_BUFFER_MODE</code> unset or <code>off</code> every submission is inserted by
+ * its own request as before. Otherwise submissions go to a bounded queue of
+ * <code>WRITE_BUFFER_CAPACITY</code> (default 10000) documents, and one flusher thread inserts them
+ * with unordered <code>insertMany</code> batches of up to <code>WRITE_BUFFER_BATCH_SIZE</code>
+ * (default 500) per collection, waiting at most <code>WRITE_BUFFER_FLUSH_MILLIS</code> (default
+ * 10) for a batch to fill. The capacity counts every document not in Mongo yet, including those
+ * being inserted or waiting for a retry, and a full buffer rejects the submission, so the caller
+ * can answer 503.</p>
+ *
+ * <ul>
+ * <li><code>flush</code>: the request is acknowledged once its batch is in Mongo. Nothing
+ * acknowledged can be lost, and concurrent requests share one round trip (group commit).</li>
+ * <li><code>journal</code>: the request is acknowledged once the document is appended to a local
+ * journal in <code>WRITE_BUFFER_JOURNAL_DIR</code> (default <code>write-buffer</code> in the server
+ * directory) and, unless <code>WRITE_BUFFER_JOURNAL_FSYNC</code> is false, forced to disk.
+ * Concurrent appends share one fsync. A batch that could not be inserted is retried before any
+ * newer one, backing off from 100 ms to <code>WRITE_BUFFER_RETRY_MAX_MILLIS</code> (default
+ * 30000). At startup the journal is replayed into Mongo; documents get their _id before they are
+ * journaled, so a replay of documents that were already inserted only produces duplicate key
+ * errors, which are ignored.</li>
+ * </ul>
+ *
+ * <p>The journal is split into segments of <code>WRITE_BUFFER_JOURNAL_SEGMENT_BYTES</code>
+ * (default 64 MB); a segment is deleted once it is full and everything in it has been flushed.</p>
+ */
+public class WriteBuffer {
+
+  public enum Mode { OFF, FLUSH, JOURNAL }
+
+  private static final Logger LOGGER = Logger.getLogger(WriteBuffer.class.getName());
+  private static final WriteBuffer INSTANCE = new WriteBuffer();
+  private static final JsonWriterSettings EXTENDED_JSON = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final int DUPLICATE_KEY = 11000;
+
+  private static final class PendingWrite {
+    final String collection;
+    final Document document;
+    final CompletableFuture<Void> flushed = new CompletableFuture<>();
+    long segment = -1;
+
+    PendingWrite(String collection, Document document) {
+      this.collection = collection;
+      this.document = document;
+    }
+  }
+
+  private final Mode mode;
+  private final int batchSize = intFromEnv("WRITE_BUFFER_BATCH_SIZE", 500);
+  private final long flushMillis = intFromEnv("WRITE_BUFFER_FLUSH_MILLIS", 10);
+  private final long segmentBytes = intFromEnv("WRITE_BUFFER_JOURNAL_SEGMENT_BYTES", 64 * 1024 * 1024);
+  private final boolean fsync = !"false".equalsIgnoreCase(System.getenv("WRITE_BUFFER_JOURNAL_FSYNC"));
+  private final Path journalDirectory;
+  private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+  // buffer capacity, taken before a submission is journaled so a rejected one never is, and given
+  // back once the documents are in Mongo
+  private final Semaphore slots = new Semaphore(intFromEnv("WRITE_BUFFER_CAPACITY", 10000));
+  private final long retryMaxMillis = intFromEnv("WRITE_BUFFER_RETRY_MAX_MILLIS", 30000);
+  // held by submissions while they queue, so stop() waits for them before the flusher drains
+  private final ReadWriteLock lifecycle = new ReentrantReadWriteLock();
+  private Thread flusher;
+  private volatile boolean running;
+  // journaled writes whose insert failed, oldest first; flusher thread only
+  private final List<PendingWrite> retry = new ArrayList<>();
+  private long retryDelayMillis;
+  private long nextRetry;
+
+  // journal state, guarded by journalLock
+  private final Object journalLock = new Object();
+  private final Map<Long, Integer> unflushedPerSegment = new TreeMap<>();
+  private FileChannel journal;
+  private long segment;
+  // how far the current segment is known to be on disk, guarded by syncLock
+  private final Object syncLock = new Object();
+  private long syncedSegment = -1;
+  private long syncedPosition;
+
+  private WriteBuffer() {
+    String configured = System.getenv("WRITE_BUFFER_MODE");
+    Mode configuredMode = Mode.OFF;
+    if (configured != null && !configured.isBlank()) {
+      try {
+        configuredMode = Mode.valueOf(configured.trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        LOGGER.warning(() -> "Unknown WRITE_BUFFER_MODE " + configured + ", expected off, flush or journal");
+      }
+    }
+    mode = configuredMode;
+    String directory = System.getenv("WRITE_BUFFER_JOURNAL_DIR");
+    journalDirectory = Path.of(directory == null || directory.isBlank() ? "write-buffer" : directory.trim());
+  }
+
+  public static WriteBuffer getInstance() {
+    return INSTANCE;
+  }
+
+  public Mode mode() {
+    return mode;
+  }
+
+  public boolean isEnabled() {
+    return mode != Mode.OFF;
+  }
+
+  /**
+   * Replays the journal, if any, and starts the flusher.
+   */
+  public synchronized void start() {
+    if (!isEnabled() || running) {
+      return;
+    }
+    if (mode == Mode.JOURNAL) {
+      try {
+        Files.createDirectories(journalDirectory);
+        segment = recover() + 1;
+        openSegment();
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not open the write buffer journal in " + journalDirectory, e);
+      }
+    }
+    running = true;
+    flusher = new Thread(this::flushLoop, "write-buffer-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+    LOGGER.info(() -> "Write buffer started in " + mode + " mode");
+  }
+
+  /**
+   * Stops taking submissions and flushes what is queued.
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    lifecycle.writeLock().lock();
+    try {
+      running = false;
+    } finally {
+      lifecycle.writeLock().unlock();
+    }
+    try {
+      flusher.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (journalLock) {
+      closeQuietly();
+    }
+  }
+
+  /**
+   * Queues documents for insertion. Every document gets an _id first.
+   * @return completes when all the documents are in Mongo in FLUSH mode, or once they are in the
+   *         journal in JOURNAL mode
+   * @throws IllegalStateException if the queue is full or the buffer is not running
+   */
+  public CompletableFuture<Void> submit(Map<String, Document> documentsByCollection) {
+    lifecycle.readLock().lock();
+    try {
+      if (!running) {
+        throw new IllegalStateException("The write buffer is not running");
+      }
+      return queue(documentsByCollection);
+    } finally {
+      lifecycle.readLock().unlock();
+    }
+  }
+
+  private CompletableFuture<Void> queue(Map<String, Document> documentsByCollection) {
+    List<PendingWrite> writes = new ArrayList<>(documentsByCollection.size());
+    for (Map.Entry<String, Document> entry : documentsByCollection.entrySet()) {
+      if (!entry.getValue().containsKey("_id")) {
+        entry.getValue().put("_id", new ObjectId());
+      }
+      writes.add(new PendingWrite(entry.getKey(), entry.getValue()));
+    }
+    if (!slots.tryAcquire(writes.size())) {
+      throw new IllegalStateException("The write buffer is full");
+    }
+    if (mode == Mode.JOURNAL) {
+      try {
+        journal(writes);
+      } catch (RuntimeException e) {
+        slots.release(writes.size());
+        throw e;
+      }
+    }
+    queue.addAll(writes);
+    if (mode == Mode.JOURNAL) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return CompletableFuture.allOf(writes.stream().map(write -> write.flushed).toArray(CompletableFuture[]::new));
+  }
+
+  private void flushLoop() {
+    List<PendingWrite> batch = new ArrayList<>(batchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        if (!retry.isEmpty()) {
+          long wait = nextRetry - System.nanoTime();
+          if (wait > 0) {
+            if (!running) {
+              // they stay in the journal and are inserted at the next start
+              return;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(100)));
+            continue;
+          }
+          List<PendingWrite> oldest = retry.subList(0, Math.min(batchSize, retry.size()));
+          batch.addAll(oldest);
+          oldest.clear();
+        } else {
+          PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+          while (batch.size() < batchSize) {
+            long left = deadline - System.nanoTime();
+            PendingWrite next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null) {
+              break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, batchSize - batch.size());
+          }
+        }
+        flush(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Write buffer flush failed", e);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void flush(List<PendingWrite> batch) {
+    Map<String, List<PendingWrite>> byCollection = new LinkedHashMap<>();
+    for (PendingWrite write : batch) {
+      byCollection.computeIfAbsent(write.collection, name -> new ArrayList<>()).add(write);
+    }
+    DatabaseController db = new DatabaseController();
+    for (Map.Entry<String, List<PendingWrite>> entry : byCollection.entrySet()) {
+      List<Document> documents = new ArrayList<>(entry.getValue().size());
+      for (PendingWrite write : entry.getValue()) {
+        documents.add(write.document);
+      }
+      try {
+        insertIgnoringDuplicates(db, entry.getKey(), documents);
+      } catch (RuntimeException e) {
+        failed(entry.getKey(), entry.getValue(), e);
+        continue;
+      }
+      for (PendingWrite write : entry.getValue()) {
+        write.flushed.complete(null);
+      }
+      slots.release(entry.getValue().size());
+      flushed(entry.getValue());
+      afterInsert(db, entry.getKey(), documents);
+    }
+    if (retry.isEmpty()) {
+      retryDelayMillis = 0;
+    }
+  }
+
+  /**
+   * Keeps journaled writes for a retry with backoff, they were already acknowledged. In FLUSH mode
+   * the requests are still waiting and get the error instead.
+   */
+  private void failed(String collection, List<PendingWrite> writes, RuntimeException e) {
+    if (mode == Mode.JOURNAL) {
+      retry.addAll(writes);
+      retryDelayMillis = Math.min(retryMaxMillis, Math.max(100, retryDelayMillis * 2));
+      nextRetry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMillis);
+      LOGGER.log(Level.WARNING, "Could not insert " + writes.size() + " buffered documents into " + collection
+          + ", retrying in " + retryDelayMillis + " ms", e);
+      return;
+    }
+    LOGGER.log(Level.WARNING, "Could not insert " + writes.size() + " buffered documents into " + collection, e);
+    for (PendingWrite write : writes) {
+      write.flushed.completeExceptionally(e);
+    }
+    slots.release(writes.size());
+  }
+
+  // summaries and the like; the documents are in Mongo whether or not this works
+  private static void afterInsert(DatabaseController db, String collection, List<Document> documents) {
+    try {
+      db.afterBufferedInsert(collection, documents);
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Could not update after inserting buffered documents into " + collection, e);
+    }
+  }
+
+  private static void insertIgnoringDuplicates(DatabaseController db, String collection, List<Document> documents) {
+    try {
+      db.getMovieDatabase().getCollection(collection).insertMany(documents, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      for (BulkWriteError error : e.getWriteErrors()) {
+        if (error.getCode() != DUPLICATE_KEY) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  // appends the writes to the current segment and waits until they are on disk
+  private void journal(List<PendingWrite> writes) {
+    StringBuilder lines = new StringBuilder();
+    for (PendingWrite write : writes) {
+      lines.append(write.collection).append('\t').append(write.document.toJson(EXTENDED_JSON)).append('\n');
+    }
+    ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+    long writtenSegment;
+    long end;
+    try {
+      synchronized (journalLock) {
+        while (bytes.hasRemaining()) {
+          journal.write(bytes);
+        }
+        writtenSegment = segment;
+        end = journal.position();
+        unflushedPerSegment.merge(segment, writes.size(), Integer::sum);
+        for (PendingWrite write : writes) {
+          write.segment = segment;
+        }
+        if (end >= segmentBytes) {
+          rotate();
+        }
+      }
+      if (fsync) {
+        sync(writtenSegment, end);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not write the write buffer journal", e);
+    }
+  }
+
+  /**
+   * Forces the journal to disk unless another thread already did since these bytes were written,
+   * so concurrent appends share one fsync.
+   */
+  private void sync(long writtenSegment, long end) throws IOException {
+    synchronized (syncLock) {
+      if (syncedSegment > writtenSegment || (syncedSegment == writtenSegment && syncedPosition >= end)) {
+        return;
+      }
+      FileChannel channel;
+      long currentSegment;
+      long position;
+      synchronized (journalLock) {
+        channel = journal;
+        currentSegment = segment;
+        position = journal.position();
+      }
+      try {
+        channel.force(false);
+      } catch (ClosedChannelException e) {
+        // rotated meanwhile, and a rotation forces the segment before closing it
+      }
+      syncedSegment = currentSegment;
+      syncedPosition = position;
+    }
+  }
+
+  private void flushed(List<PendingWrite> writes) {
+    if (mode != Mode.JOURNAL) {
+      return;
+    }
+    synchronized (journalLock) {
+      for (PendingWrite write : writes) {
+        unflushedPerSegment.merge(write.segment, -1, Integer::sum);
+      }
+      unflushedPerSegment.entrySet().removeIf(entry -> {
+        if (entry.getValue() > 0 || entry.getKey() == segment) {
+          return false;
+        }
+        try {
+          Files.deleteIfExists(segmentPath(entry.getKey()));
+        } catch (IOException e) {
+          LOGGER.log(Level.WARNING, "Could not delete write buffer journal segment " + entry.getKey(), e);
+        }
+        return true;
+      });
+    }
+  }
+
+  private void rotate() throws IOException {
+    journal.force(false);
+    journal.close();
+    if (unflushedPerSegment.getOrDefault(segment, 0) == 0) {
+      Files.deleteIfExists(segmentPath(segment));
+      unflushedPerSegment.remove(segment);
+    }
+    segment++;
+    openSegment();
+  }
+
+  private void openSegment() throws IOException {
+    journal = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private Path segmentPath(long number) {
+    return journalDirectory.resolve(SEGMENT_PREFIX + String.format("%012d", number));
+  }
+
+  /**
+   * Inserts everything left in the journal by the previous run and deletes it.
+   * @return the highest segment number found, or -1
+   */
+  private long recover() throws IOException {
+    TreeMap<Long, Path> segments = new TreeMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(journalDirectory, SEGMENT_PREFIX + "*")) {
+      for (Path file : files) {
+        segments.put(Long.parseLong(file.getFileName().toString().substring(SEGMENT_PREFIX.length())), file);
+      }
+    }
+    if (segments.isEmpty()) {
+      return -1;
+    }
+    DatabaseController db = new DatabaseController();
+    long recovered = 0;
+    for (Path file : segments.values()) {
+      Map<String, List<Document>> byCollection = new LinkedHashMap<>();
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          int tab = line.indexOf('\t');
+          if (tab < 0) {
+            // the tail of a write that was cut off, it was never acknowledged
+            continue;
+          }
+          try {
+            byCollection.computeIfAbsent(line.substring(0, tab), name -> new ArrayList<>())
+                .add(Document.parse(line.substring(tab + 1)));
+          } catch (RuntimeException e) {
+            LOGGER.warning(() -> "Skipping a damaged write buffer journal entry in " + file);
+          }
+        }
+      }
+      for (Map.Entry<String, List<Document>> entry : byCollection.entrySet()) {
+        for (int from = 0; from < entry.getValue().size(); from += batchSize) {
+          List<Document> documents = entry.getValue().subList(from, Math.min(from + batchSize, entry.getValue().size()));
+          insertIgnoringDuplicates(db, entry.getKey(), documents);
+          afterInsert(db, entry.getKey(), documents);
+          recovered += documents.size();
+        }
+      }
+      Files.delete(file);
+    }
+    long total = recovered;
+    LOGGER.info(() -> "Replayed " + total + " journaled writes from " + journalDirectory);
+    return segments.lastKey();
+  }
+
+  private void closeQuietly() {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.force(false);
+      journal.close();
+      if (unflushedPerSegment.getOrDefault(segment, 0) == 0) {
+        Files.deleteIfExists(segmentPath(segment));
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Could not close the write buffer journal", e);
+    }
+  }
+
+  private static int intFromEnv(String name, int fallback) {
+    String value = System.getenv(name);
+    return value == null || value.isBlank() ? fallback : Integer.parseInt(value.trim());
+  }
+}
@@ -0,0 +1,31 @@
+package edu.oswego.cs.rest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.BeforeDestroyed;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Starts the {@link WriteBuffer} when it is enabled, replaying its journal first, and flushes it
+ * when the application stops.
+ */
+@ApplicationScoped
+public class WriteBufferInitializer {
+
+  private static final Logger LOGGER = Logger.getLogger(WriteBufferInitializer.class.getName());
+
+  public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    try {
+      WriteBuffer.getInstance().start();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.SEVERE, "Could not start the write buffer, buffered submissions will be rejected", e);
+    }
+  }
+
+  public void onShutdown(@Observes @BeforeDestroyed(ApplicationScoped.class) Object event) {
+    WriteBuffer.getInstance().stop();
+  }
+}
@@ -0,0 +1,76 @@
+package edu.oswego.cs.rest;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class DocumentVersionsTest {
+
+  @Test
+  void noExpectedVersion() {
+    assertNull(DocumentVersions.fromIfMatch(null));
+    assertNull(DocumentVersions.fromIfMatch(""));
+    assertNull(DocumentVersions.fromIfMatch("   "));
+    assertNull(DocumentVersions.fromIfMatch("*"));
+    assertNull(DocumentVersions.fromIfMatch(" * "));
+  }
+
+  @Test
+  void versionTags() {
+    assertEquals(Set.of(5L), DocumentVersions.fromIfMatch("\"v5\""));
+    assertEquals(Set.of(5L), DocumentVersions.fromIfMatch(" \"v5\" "));
+    assertEquals(Set.of(5L), DocumentVersions.fromIfMatch("v5"));
+    assertEquals(Set.of(0L), DocumentVersions.fromIfMatch("\"v0\""));
+    assertEquals(Set.of(Long.MAX_VALUE), DocumentVersions.fromIfMatch("\"v" + Long.MAX_VALUE + "\""));
+  }
+
+  @Test
+  void everyTagOfAListCounts() {
+    assertEquals(Set.of(4L, 5L), DocumentVersions.fromIfMatch("\"v4\", \"v5\""));
+    assertEquals(Set.of(4L, 5L), DocumentVersions.fromIfMatch("\"v4\",\"v5\""));
+    assertEquals(Set.of(5L), DocumentVersions.fromIfMatch("\"abc\", W/\"v4\", \"v5\""));
+    assertDoesNotThrow(() -> DocumentVersions.check(DocumentVersions.fromIfMatch("\"v4\", \"v5\""), 5, "movie"));
+  }
+
+  @Test
+  void weakTagsNeverMatch() {
+    // If-Match uses the strong comparison
+    assertEquals(Set.of(), DocumentVersions.fromIfMatch("W/\"v5\""));
+    assertThrows(VersionConflictException.class,
+        () -> DocumentVersions.check(DocumentVersions.fromIfMatch("W/\"v5\""), 5, "movie"));
+  }
+
+  @Test
+  void otherTagsNeverMatch() {
+    assertEquals(Set.of(), DocumentVersions.fromIfMatch("\"abc\""));
+    assertEquals(Set.of(), DocumentVersions.fromIfMatch("\"v\""));
+    assertEquals(Set.of(), DocumentVersions.fromIfMatch("\"vx\""));
+    assertEquals(Set.of(), DocumentVersions.fromIfMatch("\"\""));
+    assertEquals(Set.of(), DocumentVersions.fromIfMatch("\""));
+    assertEquals(Set.of(), DocumentVersions.fromIfMatch("\"v99999999999999999999\""));
+    // a collection tag from HttpCaching
+    assertEquals(Set.of(), DocumentVersions.fromIfMatch("\"3f2a-17\""));
+  }
+
+  @Test
+  void missingVersionIsZero() {
+    assertEquals(0, DocumentVersions.of(new Document()));
+    assertEquals(3, DocumentVersions.of(new Document(DocumentVersions.FIELD, 3)));
+    assertEquals(4, DocumentVersions.of(new Document(DocumentVersions.FIELD, 4L)));
+  }
+
+  @Test
+  void checkThrowsOnlyOnAMismatch() {
+    assertDoesNotThrow(() -> DocumentVersions.check(null, 7, "movie"));
+    assertDoesNotThrow(() -> DocumentVersions.check(Set.of(7L), 7, "movie"));
+    VersionConflictException conflict = assertThrows(VersionConflictException.class,
+        () -> DocumentVersions.check(Set.of(6L), 7, "movie"));
+    assertEquals(7L, conflict.getCurrentVersion());
+  }
+}
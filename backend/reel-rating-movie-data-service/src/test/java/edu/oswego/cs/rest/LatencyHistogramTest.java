@@ -0,0 +1,81 @@
+package edu.oswego.cs.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+  @Test
+  void smallValuesHaveTheirOwnBucket() {
+    for (long micros = 0; micros < 128; micros++) {
+      assertEquals(micros, LatencyHistogram.highestValueIn(LatencyHistogram.indexOf(micros)));
+    }
+  }
+
+  @Test
+  void bucketsAreOrderedAndWithinOneSixtyFourth() {
+    int previous = -1;
+    for (long micros = 0; micros < 1L << 34; micros = micros < 1000 ? micros + 1 : micros + micros / 997) {
+      int index = LatencyHistogram.indexOf(micros);
+      assertTrue(index >= previous, "buckets must not go down at " + micros);
+      previous = index;
+      if (micros < 1L << 33) {
+        long highest = LatencyHistogram.highestValueIn(index);
+        assertTrue(highest >= micros, micros + " is above its bucket's highest value " + highest);
+        assertTrue(highest - micros <= micros / 64, micros + " is reported as " + highest);
+      }
+    }
+  }
+
+  @Test
+  void bucketBoundaries() {
+    for (int shift = 1; shift <= 26; shift++) {
+      long first = 64L << shift;
+      assertEquals(LatencyHistogram.indexOf(first - 1) + 1, LatencyHistogram.indexOf(first));
+      assertEquals(first - 1, LatencyHistogram.highestValueIn(LatencyHistogram.indexOf(first - 1)));
+    }
+  }
+
+  @Test
+  void slowerThanTheRangeGoesToTheLastBucket() {
+    int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+    assertEquals(last, LatencyHistogram.indexOf(1L << 40));
+    assertEquals(last, LatencyHistogram.indexOf(1L << 33));
+    assertEquals(last, LatencyHistogram.indexOf((1L << 33) - 1));
+    assertTrue(LatencyHistogram.indexOf((1L << 32) - 1) < last);
+
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recordNanos(TimeUnit.HOURS.toNanos(5));
+    assertEquals(TimeUnit.HOURS.toMillis(5), histogram.getPercentileMillis(1), 0.001);
+  }
+
+  @Test
+  void percentilesMeanAndMax() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int millis = 1; millis <= 1000; millis++) {
+      histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500.5, histogram.getMeanMillis(), 0.001);
+    assertEquals(1000, histogram.getMaxMillis(), 0.001);
+    assertEquals(1000, histogram.getPercentileMillis(1), 0.001);
+    assertEquals(500, histogram.getPercentileMillis(0.5), 500 / 64.0);
+    assertEquals(990, histogram.getPercentileMillis(0.99), 990 / 64.0);
+    assertEquals(1, histogram.getPercentileMillis(0), 1 / 64.0);
+  }
+
+  @Test
+  void emptyAndNegative() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getPercentileMillis(0.99));
+    assertEquals(0, histogram.getMeanMillis());
+
+    histogram.recordNanos(-5);
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getPercentileMillis(1));
+  }
+}
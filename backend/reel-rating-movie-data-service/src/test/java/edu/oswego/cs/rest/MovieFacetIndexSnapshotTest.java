@@ -0,0 +1,123 @@
+package edu.oswego.cs.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+class MovieFacetIndexSnapshotTest {
+
+  @Test
+  void writeAndReadRoundTrip() throws IOException {
+    MovieFacetIndex.Ordinals ordinals = new MovieFacetIndex.Ordinals();
+    ObjectId[] movies = new ObjectId[5000];
+    RoaringBitmap live = new RoaringBitmap();
+    RoaringBitmap comedy = new RoaringBitmap();
+    for (int i = 0; i < movies.length; i++) {
+      movies[i] = new ObjectId();
+      int ordinal = ordinals.assign(movies[i]);
+      if (i % 10 != 0) {
+        live.add(ordinal);
+      }
+      if (i % 3 == 0) {
+        comedy.add(ordinal);
+      }
+    }
+    Map<String, RoaringBitmap> flags = new HashMap<>();
+    flags.put("comedy", comedy);
+    flags.put("\u00fcn\u00efcode flag", RoaringBitmap.range(5));
+    Map<String, RoaringBitmap> ratingCategories = new HashMap<>();
+    ratingCategories.put("acting", RoaringBitmap.range(4500));
+    MovieFacetIndex.Snapshot snapshot = new MovieFacetIndex.Snapshot(ordinals, flags, ratingCategories, live);
+
+    MovieFacetIndex.Ordinals readOrdinals = new MovieFacetIndex.Ordinals();
+    MovieFacetIndex.Snapshot read = MovieFacetIndex.readSnapshot(input(write(snapshot, movies.length)), readOrdinals);
+
+    assertEquals(movies.length, readOrdinals.size());
+    for (int i = 0; i < movies.length; i++) {
+      assertEquals(movies[i], read.movieAt(i));
+      assertEquals(i, read.ordinalOf(movies[i]));
+    }
+    assertArrayEquals(values(live), values(read.all()));
+    assertEquals(flags.keySet(), read.getFlags().keySet());
+    assertArrayEquals(values(comedy), values(read.flag("comedy")));
+    assertArrayEquals(IntStream.range(0, 5).toArray(), values(read.flag("\u00fcn\u00efcode flag")));
+    assertEquals(ratingCategories.keySet(), read.getRatingCategories().keySet());
+    assertArrayEquals(IntStream.range(0, 4500).toArray(), values(read.ratingCategory("acting")));
+  }
+
+  @Test
+  void writesOnlyTheGivenNumberOfMovies() throws IOException {
+    MovieFacetIndex.Ordinals ordinals = new MovieFacetIndex.Ordinals();
+    ObjectId first = new ObjectId();
+    ordinals.assign(first);
+    ordinals.assign(new ObjectId());
+    MovieFacetIndex.Snapshot snapshot = new MovieFacetIndex.Snapshot(ordinals, Map.of(), Map.of(), RoaringBitmap.range(1));
+
+    MovieFacetIndex.Ordinals readOrdinals = new MovieFacetIndex.Ordinals();
+    MovieFacetIndex.Snapshot read = MovieFacetIndex.readSnapshot(input(write(snapshot, 1)), readOrdinals);
+
+    assertEquals(1, readOrdinals.size());
+    assertEquals(first, read.movieAt(0));
+    assertEquals(0, read.getFlags().size());
+  }
+
+  @Test
+  void rejectsOtherFiles() throws IOException {
+    assertNull(MovieFacetIndex.readSnapshot(input(new byte[] {0, 0, 0, 1, 0, 0, 0, 1}), new MovieFacetIndex.Ordinals()));
+  }
+
+  @Test
+  void rejectsOrdinalsThatDoNotMatch() throws IOException {
+    MovieFacetIndex.Ordinals ordinals = new MovieFacetIndex.Ordinals();
+    ordinals.assign(new ObjectId());
+    MovieFacetIndex.Snapshot snapshot = new MovieFacetIndex.Snapshot(ordinals, Map.of(), Map.of(), RoaringBitmap.range(1));
+    byte[] saved = write(snapshot, 1);
+
+    MovieFacetIndex.Ordinals used = new MovieFacetIndex.Ordinals();
+    used.assign(new ObjectId());
+    assertThrows(IOException.class, () -> MovieFacetIndex.readSnapshot(input(saved), used));
+  }
+
+  @Test
+  void truncatedSnapshotFails() throws IOException {
+    MovieFacetIndex.Ordinals ordinals = new MovieFacetIndex.Ordinals();
+    ordinals.assign(new ObjectId());
+    MovieFacetIndex.Snapshot snapshot = new MovieFacetIndex.Snapshot(ordinals, Map.of("drama", RoaringBitmap.range(1)),
+        Map.of(), RoaringBitmap.range(1));
+    byte[] saved = write(snapshot, 1);
+    byte[] truncated = Arrays.copyOf(saved, saved.length - 3);
+    assertThrows(IOException.class, () -> MovieFacetIndex.readSnapshot(input(truncated), new MovieFacetIndex.Ordinals()));
+  }
+
+  private static byte[] write(MovieFacetIndex.Snapshot snapshot, int movies) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      MovieFacetIndex.writeSnapshot(out, snapshot, movies);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static DataInputStream input(byte[] bytes) {
+    return new DataInputStream(new ByteArrayInputStream(bytes));
+  }
+
+  private static int[] values(RoaringBitmap bitmap) {
+    IntStream.Builder values = IntStream.builder();
+    bitmap.forEach(values::add);
+    return values.build().toArray();
+  }
+}
@@ -0,0 +1,225 @@
+package edu.oswego.cs.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class RoaringBitmapTest {
+
+  // serialized size of a bitmap with one container: count, key, cardinality - 1
+  private static final int ONE_CONTAINER_HEADER = 4 + 2 + 2;
+  private static final int BITMAP_CONTAINER_BYTES = 8192;
+
+  @Test
+  void addRemoveAndContains() {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    assertTrue(bitmap.isEmpty());
+    bitmap.add(7);
+    bitmap.add(7);
+    bitmap.add(70_000);
+    assertEquals(2, bitmap.cardinality());
+    assertTrue(bitmap.contains(7));
+    assertTrue(bitmap.contains(70_000));
+    assertFalse(bitmap.contains(8));
+    assertFalse(bitmap.contains(-1));
+
+    bitmap.remove(7);
+    bitmap.remove(12345);
+    assertArrayEquals(new int[] {70_000}, values(bitmap));
+    bitmap.remove(70_000);
+    assertTrue(bitmap.isEmpty());
+  }
+
+  @Test
+  void rejectsNegativeValues() {
+    assertThrows(IllegalArgumentException.class, () -> new RoaringBitmap().add(-1));
+  }
+
+  @Test
+  void forEachIsAscendingAcrossContainers() {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    int[] expected = {3, 65_535, 65_536, 131_073, 1 << 20};
+    for (int i = expected.length - 1; i >= 0; i--) {
+      bitmap.add(expected[i]);
+    }
+    assertArrayEquals(expected, values(bitmap));
+  }
+
+  @Test
+  void arrayContainerBecomesBitmapAfter4096Values() throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    for (int i = 0; i < 4096; i++) {
+      bitmap.add(i * 2);
+    }
+    assertEquals(ONE_CONTAINER_HEADER + 2 * 4096, serialized(bitmap).length);
+
+    bitmap.add(1);
+    assertEquals(4097, bitmap.cardinality());
+    assertEquals(ONE_CONTAINER_HEADER + BITMAP_CONTAINER_BYTES, serialized(bitmap).length);
+    assertTrue(bitmap.contains(1));
+    assertTrue(bitmap.contains(8190));
+
+    bitmap.remove(1);
+    assertEquals(4096, bitmap.cardinality());
+    assertEquals(ONE_CONTAINER_HEADER + 2 * 4096, serialized(bitmap).length);
+    assertFalse(bitmap.contains(1));
+    assertTrue(bitmap.contains(8190));
+  }
+
+  @Test
+  void operationsSwitchContainersAt4096() throws IOException {
+    RoaringBitmap evens = new RoaringBitmap();
+    RoaringBitmap odds = new RoaringBitmap();
+    for (int i = 0; i < 4096; i++) {
+      evens.add(i * 2);
+      odds.add(i * 2 + 1);
+    }
+    RoaringBitmap union = RoaringBitmap.or(evens, odds);
+    assertEquals(8192, union.cardinality());
+    assertEquals(ONE_CONTAINER_HEADER + BITMAP_CONTAINER_BYTES, serialized(union).length);
+
+    RoaringBitmap difference = RoaringBitmap.andNot(union, odds);
+    assertArrayEquals(values(evens), values(difference));
+    assertEquals(ONE_CONTAINER_HEADER + 2 * 4096, serialized(difference).length);
+
+    RoaringBitmap intersection = RoaringBitmap.and(union, RoaringBitmap.range(4097));
+    assertEquals(4097, intersection.cardinality());
+    assertEquals(ONE_CONTAINER_HEADER + BITMAP_CONTAINER_BYTES, serialized(intersection).length);
+    RoaringBitmap smaller = RoaringBitmap.and(union, RoaringBitmap.range(4096));
+    assertEquals(ONE_CONTAINER_HEADER + 2 * 4096, serialized(smaller).length);
+  }
+
+  @Test
+  void operationsMatchBitSet() {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      // a mix of sparse and dense chunks so every pair of container types meets
+      BitSet expectedA = new BitSet();
+      BitSet expectedB = new BitSet();
+      RoaringBitmap a = randomBitmap(random, expectedA);
+      RoaringBitmap b = randomBitmap(random, expectedB);
+      int[] beforeA = values(a);
+      int[] beforeB = values(b);
+
+      BitSet and = (BitSet) expectedA.clone();
+      and.and(expectedB);
+      BitSet or = (BitSet) expectedA.clone();
+      or.or(expectedB);
+      BitSet andNot = (BitSet) expectedA.clone();
+      andNot.andNot(expectedB);
+
+      assertArrayEquals(and.stream().toArray(), values(RoaringBitmap.and(a, b)));
+      assertEquals(and.cardinality(), RoaringBitmap.andCardinality(a, b));
+      assertArrayEquals(or.stream().toArray(), values(RoaringBitmap.or(a, b)));
+      assertArrayEquals(andNot.stream().toArray(), values(RoaringBitmap.andNot(a, b)));
+      assertEquals(and.cardinality(), RoaringBitmap.and(a, b).cardinality());
+      assertEquals(or.cardinality(), RoaringBitmap.or(a, b).cardinality());
+      assertEquals(andNot.cardinality(), RoaringBitmap.andNot(a, b).cardinality());
+
+      assertArrayEquals(beforeA, values(a), "operations must not modify their arguments");
+      assertArrayEquals(beforeB, values(b), "operations must not modify their arguments");
+    }
+  }
+
+  @Test
+  void rangeHoldsEveryValueBelowTheEnd() {
+    for (int end : new int[] {0, 1, 4096, 4097, 65_536, 70_000}) {
+      assertArrayEquals(IntStream.range(0, end).toArray(), values(RoaringBitmap.range(end)));
+    }
+  }
+
+  @Test
+  void copyIsIndependent() {
+    RoaringBitmap original = RoaringBitmap.range(10);
+    RoaringBitmap copy = original.copy();
+    copy.add(100);
+    copy.remove(0);
+    assertArrayEquals(IntStream.range(0, 10).toArray(), values(original));
+    assertFalse(copy.contains(0));
+    assertTrue(copy.contains(100));
+  }
+
+  @Test
+  void writeAndReadRoundTrip() throws IOException {
+    Random random = new Random(7);
+    for (int round = 0; round < 10; round++) {
+      RoaringBitmap bitmap = randomBitmap(random, new BitSet());
+      RoaringBitmap read = read(serialized(bitmap));
+      assertArrayEquals(values(bitmap), values(read));
+      assertEquals(bitmap.cardinality(), read.cardinality());
+    }
+    assertTrue(read(serialized(new RoaringBitmap())).isEmpty());
+  }
+
+  @Test
+  void readBitmapCanBeModified() throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    for (int i = 0; i < 5000; i++) {
+      bitmap.add(i);
+    }
+    RoaringBitmap read = read(serialized(bitmap));
+    read.remove(0);
+    read.add(200_000);
+    assertEquals(5000, read.cardinality());
+    assertFalse(read.contains(0));
+    assertTrue(read.contains(200_000));
+  }
+
+  private static RoaringBitmap randomBitmap(Random random, BitSet expected) {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    for (int chunk = 0; chunk < 4; chunk++) {
+      int count;
+      switch (random.nextInt(4)) {
+        case 0:
+          continue;
+        case 1:
+          count = random.nextInt(100);
+          break;
+        case 2:
+          count = 3000 + random.nextInt(2000);
+          break;
+        default:
+          count = 20_000 + random.nextInt(20_000);
+      }
+      for (int i = 0; i < count; i++) {
+        int value = (chunk << 16) | random.nextInt(1 << 16);
+        bitmap.add(value);
+        expected.set(value);
+      }
+    }
+    return bitmap;
+  }
+
+  private static int[] values(RoaringBitmap bitmap) {
+    IntStream.Builder values = IntStream.builder();
+    bitmap.forEach(values::add);
+    return values.build().toArray();
+  }
+
+  private static byte[] serialized(RoaringBitmap bitmap) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      bitmap.write(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static RoaringBitmap read(byte[] serialized) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized))) {
+      return RoaringBitmap.read(in);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package edu.oswego.cs.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SparseVectorTest {
+
+  @Test
+  void ofSortsByIndex() {
+    SparseVector vector = SparseVector.of(new int[] {9, 2, 5, 0}, new float[] {4, 1, 3, 2}, 4);
+    assertArrayEquals(new int[] {0, 2, 5, 9}, vector.indices);
+    assertArrayEquals(new float[] {2, 1, 3, 4}, vector.values);
+  }
+
+  @Test
+  void ofKeepsTheLastValueOfADuplicateIndex() {
+    SparseVector vector = SparseVector.of(new int[] {3, 1, 3, 3, 1}, new float[] {1, 2, 3, 4, 5}, 5);
+    assertArrayEquals(new int[] {1, 3}, vector.indices);
+    assertArrayEquals(new float[] {5, 4}, vector.values);
+  }
+
+  @Test
+  void ofOnlyReadsTheGivenSize() {
+    SparseVector vector = SparseVector.of(new int[] {4, 2, 7, 7}, new float[] {1, 2, 3, 3}, 2);
+    assertArrayEquals(new int[] {2, 4}, vector.indices);
+    assertArrayEquals(new float[] {2, 1}, vector.values);
+    assertEquals(0, SparseVector.of(new int[0], new float[0], 0).size());
+  }
+
+  @Test
+  void ofHandlesLargeIndices() {
+    SparseVector vector = SparseVector.of(new int[] {Integer.MAX_VALUE, 0, 1 << 30}, new float[] {1, 2, 3}, 3);
+    assertArrayEquals(new int[] {0, 1 << 30, Integer.MAX_VALUE}, vector.indices);
+    assertArrayEquals(new float[] {2, 3, 1}, vector.values);
+  }
+
+  @Test
+  void findIsABinarySearch() {
+    SparseVector vector = new SparseVector(new int[] {1, 4, 8}, new float[] {1, 1, 1});
+    assertEquals(1, vector.find(4));
+    assertEquals(-1, vector.find(0));
+    assertEquals(-3, vector.find(5));
+    assertEquals(-4, vector.find(9));
+  }
+
+  @Test
+  void withAddsOrReplacesWithoutChangingTheOriginal() {
+    SparseVector original = new SparseVector(new int[] {2, 6}, new float[] {1, 3});
+
+    SparseVector inserted = original.with(4, 2);
+    assertArrayEquals(new int[] {2, 4, 6}, inserted.indices);
+    assertArrayEquals(new float[] {1, 2, 3}, inserted.values);
+    assertArrayEquals(new int[] {2, 6, 8}, original.with(8, 5).indices);
+    assertArrayEquals(new int[] {0, 2, 6}, original.with(0, 5).indices);
+
+    SparseVector replaced = original.with(6, 9);
+    assertArrayEquals(new int[] {2, 6}, replaced.indices);
+    assertArrayEquals(new float[] {1, 9}, replaced.values);
+
+    assertArrayEquals(new int[] {2, 6}, original.indices);
+    assertArrayEquals(new float[] {1, 3}, original.values);
+  }
+
+  @Test
+  void withoutRemovesWithoutChangingTheOriginal() {
+    SparseVector original = new SparseVector(new int[] {2, 4, 6}, new float[] {1, 2, 3});
+    SparseVector removed = original.without(4);
+    assertArrayEquals(new int[] {2, 6}, removed.indices);
+    assertArrayEquals(new float[] {1, 3}, removed.values);
+    assertArrayEquals(new int[] {4, 6}, original.without(2).indices);
+    assertArrayEquals(new int[] {2, 4}, original.without(6).indices);
+    assertSame(original, original.without(5));
+    assertArrayEquals(new int[] {2, 4, 6}, original.indices);
+    assertTrue(SparseVector.EMPTY.with(1, 1).without(1).size() == 0);
+  }
+
+  @Test
+  void mean() {
+    assertEquals(0, SparseVector.EMPTY.mean());
+    assertEquals(2.5f, new SparseVector(new int[] {0, 1, 2, 3}, new float[] {1, 2, 3, 4}).mean());
+  }
+}
@@ -0,0 +1,108 @@
+package edu.oswego.cs.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Date;
+
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Test;
+
+class TypedFieldsTest {
+
+  @Test
+  void parsesTheDateFormatsEnteredByHand() {
+    LocalDate expected = LocalDate.of(1994, 7, 6);
+    assertEquals(expected, TypedFields.parseDate("1994-07-06"));
+    assertEquals(expected, TypedFields.parseDate(" 7/6/1994 "));
+    assertEquals(expected, TypedFields.parseDate("6 July 1994"));
+    assertEquals(expected, TypedFields.parseDate("July 6, 1994"));
+    assertEquals(expected, TypedFields.parseDate("6 Jul 1994"));
+    assertEquals(expected, TypedFields.parseDate("Jul 6, 1994"));
+    assertEquals(LocalDate.of(1994, 7, 1), TypedFields.parseDate("1994-7"));
+    assertEquals(LocalDate.of(1994, 1, 1), TypedFields.parseDate("1994"));
+  }
+
+  @Test
+  void unparsableDatesAreNull() {
+    assertNull(TypedFields.parseDate(""));
+    assertNull(TypedFields.parseDate("soon"));
+    assertNull(TypedFields.parseDate("1994-13"));
+    assertNull(TypedFields.parseDate("94"));
+    assertNull(TypedFields.dateOf(null));
+    assertNull(TypedFields.dateOf(1994));
+  }
+
+  @Test
+  void isoPrefixesSortLikeTheirDates() {
+    assertEquals("2000", TypedFields.isoPrefix(LocalDate.of(2000, 1, 1)));
+    assertEquals("2000-06", TypedFields.isoPrefix(LocalDate.of(2000, 6, 1)));
+    assertEquals("2000-06-15", TypedFields.isoPrefix(LocalDate.of(2000, 6, 15)));
+    assertEquals("2000-01-15", TypedFields.isoPrefix(LocalDate.of(2000, 1, 15)));
+    // "2000-06" is June 1st, before the 15th but not before the 1st
+    assertTrue("2000-06".compareTo(TypedFields.isoPrefix(LocalDate.of(2000, 6, 15))) < 0);
+    assertTrue("2000-06".compareTo(TypedFields.isoPrefix(LocalDate.of(2000, 6, 1))) >= 0);
+    assertTrue("2000-06-01".matches(TypedFields.ISO_DATE_PATTERN));
+    assertFalse("2000-6".matches(TypedFields.ISO_DATE_PATTERN));
+    assertFalse("6/1/2000".matches(TypedFields.ISO_DATE_PATTERN));
+  }
+
+  @Test
+  void boundsCoverTheWholeYearOrMonth() {
+    assertEquals(LocalDate.of(2000, 1, 1), TypedFields.lowerBound("2000"));
+    assertEquals(LocalDate.of(2000, 12, 31), TypedFields.upperBound("2000"));
+    assertEquals(LocalDate.of(2000, 2, 29), TypedFields.upperBound("2000-02"));
+    assertEquals(LocalDate.of(1999, 2, 28), TypedFields.upperBound("1999-2"));
+    assertEquals(LocalDate.of(2000, 6, 15), TypedFields.upperBound("2000-06-15"));
+    assertNull(TypedFields.upperBound("never"));
+  }
+
+  @Test
+  void storedDatesAreMidnightUtc() {
+    LocalDate date = LocalDate.of(1970, 1, 2);
+    Date stored = TypedFields.toDate(date);
+    assertEquals(86_400_000L, stored.getTime());
+    assertEquals(date, TypedFields.dateOf(stored));
+    assertEquals(date, TypedFields.dateOf("1970-01-02"));
+    assertNull(TypedFields.toDate(null));
+  }
+
+  @Test
+  void parsesRuntimes() {
+    assertEquals(120, TypedFields.parseRuntime("120"));
+    assertEquals(120, TypedFields.parseRuntime(" 120 min"));
+    assertEquals(130, TypedFields.parseRuntime("2h 10m"));
+    assertEquals(130, TypedFields.parseRuntime("2 hours 10 minutes"));
+    assertEquals(120, TypedFields.parseRuntime("2H"));
+    assertEquals(45, TypedFields.parseRuntime("45m"));
+    assertEquals(95, TypedFields.runtimeOf(95));
+    assertEquals(95, TypedFields.runtimeOf(95L));
+    assertEquals(95, TypedFields.runtimeOf("95"));
+  }
+
+  @Test
+  void unparsableRuntimesAreNull() {
+    assertNull(TypedFields.parseRuntime(""));
+    assertNull(TypedFields.parseRuntime("unknown"));
+    assertNull(TypedFields.parseRuntime("99999999999 min"));
+    assertNull(TypedFields.parseRuntime("99999999h"));
+    assertNull(TypedFields.runtimeOf(null));
+  }
+
+  @Test
+  void parsesRatings() {
+    assertEquals(new BigDecimal("4.5"), TypedFields.parseRating(" 4.5 "));
+    assertNull(TypedFields.parseRating("great"));
+    assertEquals(new BigDecimal("4.5"), TypedFields.ratingOf(new Decimal128(new BigDecimal("4.5"))));
+    assertEquals(new BigDecimal("3"), TypedFields.ratingOf(3));
+    assertEquals(new BigDecimal("3.25"), TypedFields.ratingOf(3.25));
+    assertEquals(new BigDecimal("2"), TypedFields.ratingOf("2"));
+    assertNull(TypedFields.ratingOf(null));
+    assertEquals(new Decimal128(new BigDecimal("4.5")), TypedFields.toDecimal128(new BigDecimal("4.5")));
+    assertNull(TypedFields.toDecimal128(null));
+  }
+}
@@ -0,0 +1,64 @@
+package edu.oswego.cs.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+
+/**
+ * Needs a database, MONGO_MOVIE_URL and MONGO_MOVIE_DATABASE_NAME, and is skipped without one.
+ */
+@EnabledIfEnvironmentVariable(named = "MONGO_MOVIE_URL", matches = ".+")
+class ViewCountersTest {
+
+  private static final int FLUSHES = 50;
+
+  @Test
+  void aFlushAppliedByTwoInstancesAtOnceCountsOnce() throws Exception {
+    MongoCollection<Document> views = new DatabaseController().getMovieDatabase().getCollection("movieViews");
+    MongoCollection<Document> flushes = new DatabaseController().getMovieDatabase().getCollection("movieViewFlushes");
+    ViewCounters first = new ViewCounters();
+    ViewCounters second = new ViewCounters();
+    ExecutorService threads = Executors.newFixedThreadPool(2);
+    ObjectId movie = new ObjectId();
+    List<ObjectId> flushIds = new ArrayList<>();
+    try {
+      for (int i = 0; i < FLUSHES; i++) {
+        ObjectId flushId = new ObjectId();
+        flushIds.add(flushId);
+        Document flush = new Document("_id", flushId).append("deltas", List.of(new Document("m", movie).append("n", 2L)));
+        CyclicBarrier together = new CyclicBarrier(2);
+        Future<Boolean> byFirst = threads.submit(() -> {
+          together.await();
+          return first.apply(new Document(flush));
+        });
+        Future<Boolean> bySecond = threads.submit(() -> {
+          together.await();
+          return second.apply(new Document(flush));
+        });
+        assertEquals(1, (byFirst.get() ? 1 : 0) + (bySecond.get() ? 1 : 0), "exactly one instance applies the flush");
+        // a retry of a done flush is refused
+        assertFalse(first.apply(new Document(flush)));
+        assertFalse(second.apply(new Document(flush)));
+        assertEquals(2L * (i + 1), ((Number) views.find(Filters.eq("_id", movie)).first().get("views")).longValue());
+      }
+    } finally {
+      threads.shutdownNow();
+      views.deleteOne(Filters.eq("_id", movie));
+      flushes.deleteMany(Filters.in("_id", flushIds));
+    }
+  }
+}
@@ -0,0 +1,29 @@
+#!/bin/bash
+# Builds Liberty InstantOn images of the services. For each service the image of its
+# Dockerfile.instanton is built and tagged <service>:liberty, then started once with
+# WLP_CHECKPOINT=afterAppStart on the compose network, so the checkpoint is taken after the
+# application and its warm-up (Mongo connection pool, JWT configuration) have run. The stopped
+# container holding the checkpoint is committed as <service>:instanton.
+#   ./build-instanton.sh [service...]     all three services by default
+# Taking a checkpoint needs a privileged container; restoring one only needs the capabilities
+# added by docker-compose.instanton.yaml.
+set -e
+cd "$(dirname "$0")/.."
+source buildAutomation/services.sh
+
+services=("$@")
+if [ ${#services[@]} -eq 0 ]; then
+    services=("${SERVICES[@]}")
+fi
+
+network=$(start_databases)
+
+for service in "${services[@]}"; do
+    docker build -t "$service:liberty" -f "$(service_dir "$service")/Dockerfile.instanton" "$(service_dir "$service")"
+    docker rm -f "$service-checkpoint" >/dev/null 2>&1 || true
+    # exits once the checkpoint is written
+    docker run --name "$service-checkpoint" --privileged --network "$network" \
+        --env WLP_CHECKPOINT=afterAppStart $(service_env "$service") "$service:liberty"
+    docker commit "$service-checkpoint" "$service:instanton"
+    docker rm "$service-checkpoint" >/dev/null
+done
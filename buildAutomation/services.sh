@@ -0,0 +1,53 @@
+#!/bin/bash
+# Per-service settings shared by build-instanton.sh and startup-benchmark.sh, mirroring
+# docker-compose.yaml. Meant to be sourced from the repository root.
+
+SERVICES=(reel-rating-auth-service reel-rating-movie-data-service reel-rating-display-service)
+
+service_dir() {
+    case $1 in
+        reel-rating-display-service) echo frontend/$1 ;;
+        *) echo backend/$1 ;;
+    esac
+}
+
+service_port() {
+    case $1 in
+        reel-rating-auth-service) echo 30500 ;;
+        reel-rating-movie-data-service) echo 30501 ;;
+        reel-rating-display-service) echo 30400 ;;
+    esac
+}
+
+# the first request that succeeds once the application is serving
+service_ready_path() {
+    case $1 in
+        reel-rating-display-service) echo / ;;
+        *) echo /$1/admin/latency ;;
+    esac
+}
+
+# docker run arguments setting the service's environment
+service_env() {
+    local auth=http://reel-rating-auth-service:30500
+    case $1 in
+        reel-rating-auth-service)
+            echo "--env MONGO_CRED_URL=mongodb://mongodbusercredentials:27017" \
+                "--env MONGO_CRED_DATABASE_NAME=${MONGO_CRED_DATABASE_NAME:-reel-rating-credentials}" \
+                "--env JWK_URI=$auth/jwt/ibm/api/reel_rating_token/jwk --env AUTH_SERVICE_URL=$auth" \
+                "--env OTEL_TRACES_EXPORTER=${OTEL_TRACES_EXPORTER:-none}" ;;
+        reel-rating-movie-data-service)
+            echo "--env MONGO_MOVIE_URL=mongodb://mongodb-movie:27017" \
+                "--env MONGO_MOVIE_DATABASE_NAME=${MONGO_MOVIE_DATABASE_NAME:-reel-rating}" \
+                "--env JWK_URI=$auth/jwt/ibm/api/reel_rating_token/jwk --env AUTH_SERVICE_URL=$auth" \
+                "--env OTEL_TRACES_EXPORTER=${OTEL_TRACES_EXPORTER:-none}" ;;
+        reel-rating-display-service)
+            echo "--env DISPLAY_SERVICE_PORT=30400" ;;
+    esac
+}
+
+# starts the databases and prints the compose network the services join
+start_databases() {
+    docker compose up -d mongodbusercredentials mongodb-movie >&2
+    docker inspect -f '{{range $name, $network := .NetworkSettings.Networks}}{{$name}}{{end}}' reel-rating-mongo-movie
+}
@@ -0,0 +1,64 @@
+#!/bin/bash
+# Measures how long each service takes from docker run to answering its first request, started
+# normally from <service>:liberty and restored from <service>:instanton (see build-instanton.sh,
+# which must have run first). Every run starts a fresh container on the compose network with the
+# databases already up, and polls the service every 10 ms.
+#   ./startup-benchmark.sh [runs] [service...]     5 runs of all three services by default
+# Results are written as CSV to results/startup-<commit>.csv, followed by the median of each.
+set -e
+cd "$(dirname "$0")/.."
+source buildAutomation/services.sh
+
+runs=${1:-5}
+shift || true
+services=("$@")
+if [ ${#services[@]} -eq 0 ]; then
+    services=("${SERVICES[@]}")
+fi
+
+network=$(start_databases)
+
+commit=$(git rev-parse --short HEAD)
+if [ -n "$(git status --porcelain)" ]; then
+    commit="$commit-dirty"
+fi
+mkdir -p buildAutomation/results
+output="buildAutomation/results/startup-$commit.csv"
+echo "service,mode,run,millis" > "$output"
+
+now_millis() {
+    echo $(( $(date +%s%N) / 1000000 ))
+}
+
+for service in "${services[@]}"; do
+    port=$(service_port "$service")
+    for mode in liberty instanton; do
+        cap_args=()
+        if [ $mode = instanton ]; then
+            cap_args=(--cap-add=CHECKPOINT_RESTORE --cap-add=SETPCAP --security-opt seccomp=unconfined)
+        fi
+        for run in $(seq 1 "$runs"); do
+            container="$service-startup"
+            docker rm -f "$container" >/dev/null 2>&1 || true
+            started=$(now_millis)
+            docker run -d --name "$container" --network "$network" -p "127.0.0.1::$port" "${cap_args[@]}" \
+                $(service_env "$service") "$service:$mode" >/dev/null
+            address=$(docker port "$container" "$port" | head -n 1)
+            until curl -sf -o /dev/null "http://$address$(service_ready_path "$service")"; do
+                if [ "$(docker inspect -f '{{.State.Running}}' "$container")" != true ]; then
+                    echo "$service:$mode exited before serving, see docker logs $container" >&2
+                    exit 1
+                fi
+                sleep 0.01
+            done
+            echo "$service,$mode,$run,$(( $(now_millis) - started ))" >> "$output"
+            docker rm -f "$container" >/dev/null
+        done
+    done
+done
+
+echo "Results written to $output"
+echo "median milliseconds to the first response:"
+tail -n +2 "$output" | sort -t, -k1,1 -k2,2 -k4,4n | awk -F, '
+    { key = $1 " " $2; values[key, ++count[key]] = $4 }
+    END { for (key in count) print "  " key ": " values[key, int((count[key] + 1) / 2)] }' | sort
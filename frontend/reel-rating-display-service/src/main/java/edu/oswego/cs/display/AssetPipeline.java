@@ -0,0 +1,301 @@
+package edu.oswego.cs.display;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Build step that prepares the static content for {@link PrecompressedAssetFilter}. The
+ * exec-maven-plugin runs it after compile, and the WAR is built from its output:
+ * <ul>
+ *   <li>every stylesheet, script and image gets a copy named after a hash of its content, for
+ *   example <code>css/global.3f9a0c12d4.css</code>. The references to it are rewritten to that
+ *   name in the HTML pages (src and href), the stylesheets (url()) and the script imports, so
+ *   these copies can be cached for good. The original files are kept for anything that still
+ *   references them.</li>
+ *   <li>gzip variants (<code>.gz</code>) are written next to every file they make at least 10%
+ *   smaller, and brotli variants (<code>.br</code>) too when the <code>brotli</code> command
+ *   (or <code>BROTLI</code>) is on the PATH.</li>
+ *   <li>every servable file is listed with its hash, size and variants in
+ *   <code>WEB-INF/assets.manifest</code>.</li>
+ * </ul>
+ * <pre>
+ *   java edu.oswego.cs.display.AssetPipeline &lt;source directory&gt; &lt;output directory&gt;
+ * </pre>
+ */
+public final class AssetPipeline {
+
+  static final String MANIFEST = "WEB-INF/assets.manifest";
+  static final int HASH_LENGTH = 10;
+
+  private static final Set<String> FINGERPRINTED = Set.of("css", "js", "png", "svg", "jpg", "jpeg", "gif", "webp", "ico", "woff", "woff2");
+  private static final Pattern HTML_REFERENCE = Pattern.compile("((?:src|href)\\s*=\\s*)([\"'])([^\"']+)\\2");
+  private static final Pattern CSS_REFERENCE = Pattern.compile("(url\\(\\s*)([\"']?)([^\"')\\s]+)\\2");
+  private static final Pattern JS_REFERENCE = Pattern.compile("((?:\\bfrom|\\bimport)\\s*\\(?\\s*)([\"'])(\\.{1,2}/[^\"']+)\\2");
+  // a variant is only kept if it is at most this fraction of the original
+  private static final double MAX_VARIANT_RATIO = 0.9;
+
+  private final Path source;
+  private final Path output;
+  private final String brotli;
+  // source path -> path of the fingerprinted copy, both relative with / separators
+  private final Map<String, String> fingerprinted = new HashMap<>();
+  private final Set<String> inProgress = new HashSet<>();
+
+  AssetPipeline(Path source, Path output) {
+    this.source = source.toAbsolutePath().normalize();
+    this.output = output.toAbsolutePath().normalize();
+    this.brotli = brotliCommand();
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("usage: AssetPipeline <source directory> <output directory>");
+    }
+    new AssetPipeline(Path.of(args[0]), Path.of(args[1])).run();
+  }
+
+  void run() throws IOException, InterruptedException {
+    deleteRecursively(output);
+    List<String> files = new ArrayList<>();
+    try (Stream<Path> walk = Files.walk(source)) {
+      walk.filter(Files::isRegularFile).map(this::relative).sorted().forEach(files::add);
+    }
+
+    for (String file : files) {
+      if (!isPrivate(file) && FINGERPRINTED.contains(extension(file))) {
+        fingerprint(file);
+      }
+    }
+    for (String file : files) {
+      // originals are copied as they are, only the pages are rewritten
+      byte[] content = Files.readAllBytes(source.resolve(file));
+      if (!isPrivate(file) && extension(file).equals("html")) {
+        content = rewrite(file, content);
+      }
+      write(file, content);
+    }
+
+    StringBuilder manifest = new StringBuilder("# path hash immutable|revalidate size [gzip:size] [br:size], written by AssetPipeline\n");
+    int gzip = 0;
+    int br = 0;
+    List<String> servable = new ArrayList<>();
+    for (String file : files) {
+      if (!isPrivate(file)) {
+        servable.add(file);
+      }
+    }
+    servable.addAll(fingerprinted.values());
+    servable.sort(Comparator.naturalOrder());
+    for (String file : servable) {
+      byte[] content = Files.readAllBytes(output.resolve(file));
+      manifest.append('/').append(file).append(' ').append(hash(content))
+          .append(fingerprinted.containsValue(file) ? " immutable " : " revalidate ").append(content.length);
+      byte[] gzipped = gzip(content);
+      if (gzipped.length <= content.length * MAX_VARIANT_RATIO) {
+        write(file + ".gz", gzipped);
+        manifest.append(" gzip:").append(gzipped.length);
+        gzip++;
+      }
+      long brotliSize = brotli(file, content.length);
+      if (brotliSize >= 0) {
+        manifest.append(" br:").append(brotliSize);
+        br++;
+      }
+      manifest.append('\n');
+    }
+    write(MANIFEST, manifest.toString().getBytes(StandardCharsets.UTF_8));
+    System.out.println("AssetPipeline: " + servable.size() + " files, " + fingerprinted.size() + " fingerprinted, "
+        + gzip + " gzip and " + br + " brotli variants" + (brotli == null ? " (brotli not found)" : ""));
+  }
+
+  /**
+   * Writes the fingerprinted copy of a file, after those of the files it references.
+   * @return the path of the copy, or the path itself for a reference back to a file whose copy is
+   *         still being written
+   */
+  private String fingerprint(String file) throws IOException {
+    String done = fingerprinted.get(file);
+    if (done != null) {
+      return done;
+    }
+    if (!inProgress.add(file)) {
+      return file;
+    }
+    byte[] content = Files.readAllBytes(source.resolve(file));
+    if (extension(file).equals("css") || extension(file).equals("js")) {
+      content = rewrite(file, content);
+    }
+    int dot = file.lastIndexOf('.');
+    String copy = file.substring(0, dot) + '.' + hash(content) + file.substring(dot);
+    write(copy, content);
+    inProgress.remove(file);
+    fingerprinted.put(file, copy);
+    return copy;
+  }
+
+  /**
+   * Points the relative references of an HTML page, stylesheet or script to fingerprinted copies.
+   */
+  private byte[] rewrite(String file, byte[] content) throws IOException {
+    Pattern pattern;
+    switch (extension(file)) {
+      case "html":
+        pattern = HTML_REFERENCE;
+        break;
+      case "css":
+        pattern = CSS_REFERENCE;
+        break;
+      default:
+        pattern = JS_REFERENCE;
+    }
+    String text = new String(content, StandardCharsets.UTF_8);
+    Matcher matcher = pattern.matcher(text);
+    StringBuilder rewritten = new StringBuilder();
+    while (matcher.find()) {
+      String reference = matcher.group(3);
+      String replacement = fingerprintedReference(file, reference);
+      matcher.appendReplacement(rewritten, Matcher.quoteReplacement(
+          matcher.group(1) + matcher.group(2) + (replacement == null ? reference : replacement) + matcher.group(2)));
+    }
+    matcher.appendTail(rewritten);
+    return rewritten.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the reference with the file name of the fingerprinted copy, or null if it is not a
+   *         relative reference to a file that has one
+   */
+  private String fingerprintedReference(String from, String reference) throws IOException {
+    if (reference.startsWith("/") || reference.startsWith("#") || reference.contains(":")) {
+      return null;
+    }
+    int end = reference.length();
+    for (char separator : new char[] {'?', '#'}) {
+      int at = reference.indexOf(separator);
+      if (at >= 0) {
+        end = Math.min(end, at);
+      }
+    }
+    String path = reference.substring(0, end);
+    Path target = source.resolve(from).getParent().resolve(path).normalize();
+    if (path.isEmpty() || !target.startsWith(source) || !Files.isRegularFile(target)) {
+      return null;
+    }
+    String file = relative(target);
+    if (isPrivate(file) || !FINGERPRINTED.contains(extension(file))) {
+      return null;
+    }
+    String copy = fingerprint(file);
+    return path.substring(0, path.lastIndexOf('/') + 1) + copy.substring(copy.lastIndexOf('/') + 1) + reference.substring(end);
+  }
+
+  /**
+   * Writes the brotli variant of an output file if it is small enough.
+   * @return its size, or -1 if there is none
+   */
+  private long brotli(String file, long size) throws IOException, InterruptedException {
+    if (brotli == null) {
+      return -1;
+    }
+    Path original = output.resolve(file);
+    Path variant = output.resolve(file + ".br");
+    Process process = new ProcessBuilder(brotli, "--quality=11", "--force", "--output=" + variant, original.toString())
+        .redirectErrorStream(true).start();
+    process.getInputStream().transferTo(System.out);
+    if (process.waitFor() != 0) {
+      throw new IOException(brotli + " failed on " + file);
+    }
+    long brotliSize = Files.size(variant);
+    if (brotliSize > size * MAX_VARIANT_RATIO) {
+      Files.delete(variant);
+      return -1;
+    }
+    return brotliSize;
+  }
+
+  private static String brotliCommand() {
+    String configured = System.getenv("BROTLI");
+    String command = configured == null || configured.isBlank() ? "brotli" : configured.trim();
+    try {
+      Process process = new ProcessBuilder(command, "--version").redirectErrorStream(true).start();
+      process.getInputStream().transferTo(ByteArrayOutputStream.nullOutputStream());
+      return process.waitFor() == 0 ? command : null;
+    } catch (IOException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    }) {
+      out.write(content);
+    }
+    return compressed.toByteArray();
+  }
+
+  static String hash(byte[] content) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)).substring(0, HASH_LENGTH);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void write(String file, byte[] content) throws IOException {
+    Path target = output.resolve(file);
+    Files.createDirectories(target.getParent());
+    Files.write(target, content);
+  }
+
+  private String relative(Path file) {
+    return source.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+  }
+
+  // not served to clients
+  private static boolean isPrivate(String file) {
+    return file.startsWith("WEB-INF/") || file.startsWith("META-INF/");
+  }
+
+  private static String extension(String file) {
+    String name = file.substring(file.lastIndexOf('/') + 1);
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  private static void deleteRecursively(Path directory) throws IOException {
+    if (!Files.exists(directory)) {
+      return;
+    }
+    try (Stream<Path> walk = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+}
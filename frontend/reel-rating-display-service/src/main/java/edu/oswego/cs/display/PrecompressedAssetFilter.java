@@ -0,0 +1,203 @@
+package edu.oswego.cs.display;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the static content listed in the manifest written by {@link AssetPipeline}. The brotli or
+ * gzip variant is sent when the request's Accept-Encoding allows it, and every variant has its own
+ * ETag, so If-None-Match is answered with 304. Fingerprinted copies never change and are cached for
+ * a year as immutable. Everything else, the pages in particular, is revalidated on every use.
+ * Requests for anything that is not in the manifest go on to the default servlet.
+ */
+@WebFilter("/*")
+public class PrecompressedAssetFilter implements Filter {
+
+  private static final Logger LOGGER = Logger.getLogger(PrecompressedAssetFilter.class.getName());
+  static final String IMMUTABLE = "public, max-age=31536000, immutable";
+  static final String REVALIDATE = "no-cache";
+  // preferred first
+  private static final String[] ENCODINGS = {"br", "gzip"};
+
+  private ServletContext context;
+  // request path within the application -> asset
+  private Map<String, Asset> assets = Map.of();
+
+  private static final class Asset {
+    final String hash;
+    final boolean immutable;
+    final long size;
+    // encoding -> size
+    final Map<String, Long> variants = new LinkedHashMap<>();
+
+    Asset(String hash, boolean immutable, long size) {
+      this.hash = hash;
+      this.immutable = immutable;
+      this.size = size;
+    }
+  }
+
+  @Override
+  public void init(FilterConfig config) throws ServletException {
+    context = config.getServletContext();
+    try (InputStream in = context.getResourceAsStream("/" + AssetPipeline.MANIFEST)) {
+      if (in == null) {
+        LOGGER.warning(AssetPipeline.MANIFEST + " not found, static content is served as it is");
+        return;
+      }
+      assets = parse(in);
+      LOGGER.info(() -> "Serving " + assets.size() + " precompressed assets");
+    } catch (IOException e) {
+      throw new ServletException("Could not read " + AssetPipeline.MANIFEST, e);
+    }
+  }
+
+  private static Map<String, Asset> parse(InputStream in) throws IOException {
+    Map<String, Asset> assets = new HashMap<>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      if (line.isBlank() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.trim().split(" ");
+      Asset asset = new Asset(fields[1], fields[2].equals("immutable"), Long.parseLong(fields[3]));
+      for (int i = 4; i < fields.length; i++) {
+        int colon = fields[i].indexOf(':');
+        asset.variants.put(fields[i].substring(0, colon), Long.parseLong(fields[i].substring(colon + 1)));
+      }
+      assets.put(fields[0], asset);
+    }
+    return assets;
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) req;
+    HttpServletResponse response = (HttpServletResponse) res;
+    String method = request.getMethod();
+    if (!method.equals("GET") && !method.equals("HEAD")) {
+      chain.doFilter(req, res);
+      return;
+    }
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    if (path.isEmpty() || path.endsWith("/")) {
+      path += path.isEmpty() ? "/index.html" : "index.html";
+    }
+    Asset asset = assets.get(path);
+    if (asset == null) {
+      chain.doFilter(req, res);
+      return;
+    }
+
+    String encoding = negotiate(request.getHeader("Accept-Encoding"), asset.variants);
+    String etag = "\"" + asset.hash + (encoding == null ? "" : "-" + encoding) + "\"";
+    response.setHeader("Cache-Control", asset.immutable ? IMMUTABLE : REVALIDATE);
+    response.setHeader("ETag", etag);
+    if (!asset.variants.isEmpty()) {
+      response.setHeader("Vary", "Accept-Encoding");
+    }
+    if (matches(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    String type = context.getMimeType(path);
+    if (type == null) {
+      type = "application/octet-stream";
+    } else if (type.startsWith("text/") || type.endsWith("javascript")) {
+      type += "; charset=UTF-8";
+    }
+    response.setContentType(type);
+    if (encoding != null) {
+      response.setHeader("Content-Encoding", encoding);
+    }
+    response.setContentLengthLong(encoding == null ? asset.size : asset.variants.get(encoding));
+    if (method.equals("HEAD")) {
+      return;
+    }
+    String file = encoding == null ? path : path + (encoding.equals("br") ? ".br" : ".gz");
+    try (InputStream in = context.getResourceAsStream(file)) {
+      if (in == null) {
+        response.reset();
+        chain.doFilter(req, res);
+        return;
+      }
+      in.transferTo(response.getOutputStream());
+    }
+  }
+
+  /**
+   * @return the acceptable variant with the highest quality, brotli on a tie, or null for the file
+   *         as it is
+   */
+  static String negotiate(String acceptEncoding, Map<String, Long> variants) {
+    if (acceptEncoding == null || variants.isEmpty()) {
+      return null;
+    }
+    Map<String, Double> qualities = new HashMap<>();
+    for (String part : acceptEncoding.split(",")) {
+      String[] parameters = part.split(";");
+      String coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+      if (coding.equals("x-gzip")) {
+        coding = "gzip";
+      }
+      double quality = 1;
+      for (int i = 1; i < parameters.length; i++) {
+        String parameter = parameters[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(parameter.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      qualities.put(coding, quality);
+    }
+    String chosen = null;
+    double best = 0;
+    for (String encoding : ENCODINGS) {
+      double quality = qualities.getOrDefault(encoding, qualities.getOrDefault("*", 0.0));
+      if (variants.containsKey(encoding) && quality > best) {
+        chosen = encoding;
+        best = quality;
+      }
+    }
+    return chosen;
+  }
+
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}